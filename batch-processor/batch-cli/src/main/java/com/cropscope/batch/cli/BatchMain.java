@@ -29,26 +29,30 @@ public class BatchMain {
     public static void main(String[] args) {
         File metaRoot = null, sink = null, source = null;
         int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors()-1, 8));
-        boolean dry=false, respect=false, force=false;
+        boolean dry=false, respect=false, force=false, verify=false, threadsSet=false;
 
         for (int i=0;i<args.length;i++){
             String a=args[i];
             if ("--meta-root".equals(a) && i+1<args.length) metaRoot = new File(args[++i]);
             else if ("--sink".equals(a) && i+1<args.length) sink = new File(args[++i]);
             else if ("--source".equals(a) && i+1<args.length) source = new File(args[++i]);
-            else if ("--threads".equals(a) && i+1<args.length) { try { threads=Integer.parseInt(args[++i]); } catch(Exception ignore){} }
+            else if ("--threads".equals(a) && i+1<args.length) { try { threads=Integer.parseInt(args[++i]); threadsSet=true; } catch(Exception ignore){} }
             else if ("--dry-run".equals(a)) dry=true;
             else if ("--respect-savedAs".equals(a)) respect=true;
             else if ("--force".equals(a)) force=true;
+            else if ("--verify".equals(a)) verify=true;
         }
         if (metaRoot==null) {
-            System.out.println("Usage: --meta-root <dir> [--source <dir>] [--sink <dir>] [--threads N] [--dry-run] [--respect-savedAs] [--force]");
+            System.out.println("Usage: --meta-root <dir> [--source <dir>] [--sink <dir>] [--threads N] [--dry-run] [--respect-savedAs] [--force] [--verify]");
             System.exit(2);
         }
 
+        // verify is read-only and CPU bound: use every core unless told otherwise
+        if (verify && !threadsSet) threads = Runtime.getRuntime().availableProcessors();
+
         BatchConfig cfg = new BatchConfig.Builder()
                 .metaRoot(metaRoot).sourceFallback(source).sinkFallback(sink)
-                .threads(threads).dryRun(dry).respectSavedAs(respect).force(force)
+                .threads(threads).dryRun(dry).respectSavedAs(respect).force(force).verify(verify)
                 .build();
 
         BatchProcessor proc = new BatchProcessor();
@@ -56,9 +60,12 @@ public class BatchMain {
             public void onStart(BatchProgress p){ System.out.println("Start. manifests="+p.manifestsQueued); }
             public void onManifestStart(java.io.File mf,int idx,int tot){ System.out.println("Manifest "+idx+"/"+tot+": "+mf); }
             public void onProgress(BatchProgress p){ System.out.println("Progress: cropsDone="+p.cropsDone+" failed="+p.failedCrops); }
+            public void onVerifyIssue(String kind, String img, String out, String detail){
+                System.out.println("VERIFY "+kind.toUpperCase()+": "+(out!=null?out:img)+" ("+detail+")");
+            }
             public void onComplete(BatchResult r){ System.out.println(r); }
         };
         BatchResult r = proc.run(cfg, log);
-        if (r.failedCrops>0 || r.failedManifests>0) System.exit(1);
+        if (r.failedCrops>0 || r.failedManifests>0 || r.verifyOrphans>0) System.exit(1);
     }
 }
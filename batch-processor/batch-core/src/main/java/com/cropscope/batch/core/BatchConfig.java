@@ -30,6 +30,7 @@ public class BatchConfig {
     private final boolean respectSavedAs;
     private final boolean force;
     private final boolean hierarchyEnabled;
+    private final boolean verify;
     private BatchConfig(Builder b) {
         this.metaRoot = b.metaRoot;
         this.sourceFallback = b.sourceFallback;
@@ -39,6 +40,7 @@ public class BatchConfig {
         this.respectSavedAs = b.respectSavedAs;
         this.force = b.force;
         this.hierarchyEnabled = b.hierarchyEnabled;
+        this.verify = b.verify;
     }
     public File getMetaRoot() { return metaRoot; }
     public File getSourceFallback() { return sourceFallback; }
@@ -48,10 +50,12 @@ public class BatchConfig {
     public boolean isRespectSavedAs() { return respectSavedAs; }
     public boolean isForce() { return force; }
     public boolean isHierarchyEnabled() { return hierarchyEnabled; }
+    /** Re-derive crops in memory and compare them with the existing outputs; nothing is written. */
+    public boolean isVerify() { return verify; }
     public static class Builder {
         private File metaRoot, sourceFallback, sinkFallback;
         private int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 8));
-        private boolean dryRun = false, respectSavedAs = false, force = false, hierarchyEnabled = false;
+        private boolean dryRun = false, respectSavedAs = false, force = false, hierarchyEnabled = false, verify = false;
         public Builder metaRoot(File f){ this.metaRoot=f; return this; }
         public Builder sourceFallback(File f){ this.sourceFallback=f; return this; }
         public Builder sinkFallback(File f){ this.sinkFallback=f; return this; }
@@ -60,6 +64,7 @@ public class BatchConfig {
         public Builder respectSavedAs(boolean b){ this.respectSavedAs=b; return this; }
         public Builder force(boolean b){ this.force=b; return this; }
         public Builder hierarchyEnabled(boolean b){ this.hierarchyEnabled=b; return this; }
+        public Builder verify(boolean b){ this.verify=b; return this; }
         public BatchConfig build() {
             if (metaRoot == null) throw new IllegalArgumentException("metaRoot required");
             return new BatchConfig(this);
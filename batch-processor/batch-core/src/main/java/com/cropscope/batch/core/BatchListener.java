@@ -31,6 +31,8 @@ public interface BatchListener {
     default void onImageStart(String imagePath) {}
     default void onImageDone(String imagePath, int cropsOk, int cropsFail) {}
     default void onCropDone(String imagePath, String outPath) {}
+    /** Verify mode only: kind is "mismatch", "missing" or "orphan". */
+    default void onVerifyIssue(String kind, String imagePath, String outPath, String detail) {}
     default void onProgress(BatchProgress p) {}
     default void onError(String where, String message, Throwable t) {}
     default void onComplete(BatchResult result) {}
@@ -23,6 +23,10 @@ package com.cropscope.batch.core;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
@@ -33,9 +37,18 @@ import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 /** JSON-first, cancelable, parallel batch cropper (no UI). */
 public class BatchProcessor {
+    /** Longest we keep waiting for in-flight work once cancel() has been called. */
+    private static final long CANCEL_GRACE_MS = 3000L;
     private final AtomicBoolean cancel = new AtomicBoolean(false);
+    // set before the flag, so a worker that sees the flag also sees when it was raised
+    private final AtomicLong cancelledAtMs = new AtomicLong();
+    // in-flight codecs and queued tasks, so cancel() can reach them directly
+    private final Set<ImageReader> activeReaders = ConcurrentHashMap.newKeySet();
+    private final Set<ImageWriter> activeWriters = ConcurrentHashMap.newKeySet();
+    private final Queue<Future<?>> pending = new ConcurrentLinkedQueue<Future<?>>();
     // ==== Public API ====
     public Future<BatchResult> runAsync(final BatchConfig cfg, final BatchListener listener) {
         ExecutorService single = Executors.newSingleThreadExecutor();
@@ -46,7 +59,17 @@ public class BatchProcessor {
             }
         });
     }
-    public void cancel() { cancel.set(true); }
+    /**
+     * Stops the batch promptly: queued images are dropped, active decodes/encodes are aborted
+     * and {@link #run} returns a partial result within {@link #CANCEL_GRACE_MS}.
+     */
+    public void cancel() {
+        cancelledAtMs.compareAndSet(0L, System.currentTimeMillis());
+        cancel.set(true);
+        for (Future<?> f; (f = pending.poll()) != null; ) f.cancel(false);
+        for (ImageReader r : activeReaders) r.abort();
+        for (ImageWriter w : activeWriters) w.abort();
+    }
     public BatchResult run(BatchConfig cfg, BatchListener listener) {
         long start = System.currentTimeMillis();
         ImageIO.setUseCache(false);
@@ -54,16 +77,26 @@ public class BatchProcessor {
         List<File> manifests = discoverManifests(cfg.getMetaRoot());
         final Counters c = new Counters();
         c.manifestsQueued.set(manifests.size());
+        final Set<String> expectedOutputs = ConcurrentHashMap.newKeySet();
+        final Set<File> verifiedSinks = ConcurrentHashMap.newKeySet();
         if (listener != null) {
             listener.onStart(c.snapshot());
             for (int i=0;i<manifests.size();i++) listener.onManifestQueued(manifests.get(i), i+1, manifests.size());
         }
-        ExecutorService pool = Executors.newFixedThreadPool(cfg.getThreads());
+        ExecutorService pool = Executors.newFixedThreadPool(cfg.getThreads(), new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                // daemon: a decoder that ignores abort() must not keep the JVM alive after cancel
+                Thread t = new Thread(r, "batch-worker-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
         try {
             for (int i=0;i<manifests.size();i++) {
                 if (cancel.get()) break;
                 File mf = manifests.get(i);
-                if (!cfg.isForce() && isDoneMarkerPresent(mf)) {
+                if (!cfg.isForce() && !cfg.isVerify() && isDoneMarkerPresent(mf)) {
                     c.manifestsSkipped.incrementAndGet();
                     continue;
                 }
@@ -71,7 +104,7 @@ public class BatchProcessor {
                 boolean ok = true;
                 try {
                     Manifest m = parseManifest(mf); // JSON-first
-                    m.resolveRoots(cfg.getSourceFallback(), cfg.getSinkFallback());
+                    m.resolveRoots(cfg.getSourceFallback(), cfg.getSinkFallback(), !cfg.isVerify());
                     c.cropsQueued.addAndGet(m.totalCrops());
                     // group by image
                     Map<String, List<Crop>> perImg = m.groupByImagePath();
@@ -79,12 +112,21 @@ public class BatchProcessor {
                     for (final Map.Entry<String, List<Crop>> e : perImg.entrySet()) {
                         final String imgPath = e.getKey();
                         final List<Crop> crops = e.getValue();
-                        futures.add(pool.submit(new Runnable() {
-                            public void run() { processOneImage(cfg, m, imgPath, crops, c, listener); }
-                        }));
+                        if (cancel.get()) break;
+                        Future<?> f = pool.submit(new Runnable() {
+                            public void run() {
+                                if (cfg.isVerify()) verifyOneImage(cfg, m, imgPath, crops, c, listener, expectedOutputs, verifiedSinks);
+                                else processOneImage(cfg, m, imgPath, crops, c, listener);
+                            }
+                        });
+                        futures.add(f);
+                        pending.add(f);
                     }
+                    if (cancel.get()) cancel(); // drop anything submitted after the request
                     waitAll(futures);
-                    if (!cfg.isDryRun()) writeDoneMarker(mf);
+                    pending.clear();
+                    if (cancel.get()) break;
+                    if (!cfg.isDryRun() && !cfg.isVerify()) writeDoneMarker(mf);
                     c.manifestsProcessed.incrementAndGet();
                 } catch (BadManifest ex) {
                     ok = false; c.failedManifests.incrementAndGet();
@@ -97,10 +139,15 @@ public class BatchProcessor {
                 if (listener != null) listener.onProgress(c.snapshot());
             }
         } finally {
-            pool.shutdown();
-            try { pool.awaitTermination(60, TimeUnit.SECONDS); } catch (InterruptedException ignore) {}
-            pool.shutdownNow();
+            if (cancel.get()) {
+                pool.shutdownNow();
+            } else {
+                pool.shutdown();
+                try { pool.awaitTermination(60, TimeUnit.SECONDS); } catch (InterruptedException ignore) {}
+                pool.shutdownNow();
+            }
         }
+        if (cfg.isVerify() && !cancel.get()) reportOrphans(verifiedSinks, expectedOutputs, c, listener);
         BatchResult result = new BatchResult(c.snapshot(), start, System.currentTimeMillis());
         if (listener != null) listener.onComplete(result);
         return result;
@@ -116,7 +163,8 @@ public class BatchProcessor {
             return;
         }
         BufferedImage src = null;
-        try { src = ImageIO.read(img); } catch (Exception ignore) {}
+        try { src = readImage(img); } catch (Exception ignore) {}
+        if (cancel.get()) return;
         if (src == null) {
             c.failedCrops.addAndGet(crops.size());
             if (listener != null) listener.onError("image", "Cannot decode image: " + imgPath, null);
@@ -126,7 +174,7 @@ public class BatchProcessor {
         for (Crop cr : crops) {
             if (cancel.get()) break;
             if (!boundsOk(src, cr)) { fail++; c.failedCrops.incrementAndGet(); continue; }
-            File sink = resolveSinkDir(cr, m, cfg);
+            File sink = resolveSinkDir(cr, m, cfg, true);
             if (sink == null) { fail++; c.failedCrops.incrementAndGet(); continue; }
             if (!cfg.isDryRun()) {
                 BufferedImage out = crop(src, cr);
@@ -135,6 +183,7 @@ public class BatchProcessor {
                     atomicWritePng(out, outFile);
                     if (listener != null) listener.onCropDone(imgPath, outFile.getAbsolutePath());
                 } catch (Exception ex) {
+                    if (cancel.get()) break; // aborted encode, temp file already removed
                     fail++; c.failedCrops.incrementAndGet();
                     if (listener != null) listener.onError("crop", "Write failed: " + ex.getMessage(), ex);
                     continue;
@@ -146,6 +195,104 @@ public class BatchProcessor {
         if (listener != null) listener.onImageDone(imgPath, ok, fail);
         if (listener != null) listener.onProgress(c.snapshot());
     }
+    // ==== Verify ====
+    /** Re-derives the crops of one image from a single decode and compares them with the files on disk. */
+    private void verifyOneImage(BatchConfig cfg, Manifest m, String imgPath, List<Crop> crops, Counters c,
+                                BatchListener listener, Set<String> expectedOutputs, Set<File> verifiedSinks) {
+        if (cancel.get()) return;
+        if (listener != null) listener.onImageStart(imgPath);
+        // Register expected outputs before decoding so an unreadable source does not turn them into orphans.
+        List<File> expected = new ArrayList<File>(crops.size());
+        for (Crop cr : crops) {
+            File sink = resolveSinkDir(cr, m, cfg, false);
+            File outFile = (sink != null) ? expectedOutputFile(sink, cr) : null;
+            if (sink != null) verifiedSinks.add(sink.getAbsoluteFile());
+            if (outFile != null) expectedOutputs.add(outFile.getAbsolutePath());
+            expected.add(outFile);
+        }
+        File img = preferredImagePath(imgPath, m.resolvedSource);
+        BufferedImage src = null;
+        if (img != null && img.isFile() && img.canRead()) {
+            try { src = readImage(img); } catch (Exception ignore) {}
+        }
+        if (cancel.get()) return;
+        if (src == null) {
+            c.failedCrops.addAndGet(crops.size());
+            if (listener != null) listener.onError("image", "Cannot read or decode image: " + imgPath, null);
+            return;
+        }
+        int ok=0, fail=0;
+        for (int i=0;i<crops.size();i++) {
+            if (cancel.get()) break;
+            Crop cr = crops.get(i);
+            File outFile = expected.get(i);
+            if (outFile == null) {
+                fail++; c.failedCrops.incrementAndGet(); c.verifyMissing.incrementAndGet();
+                if (listener != null) listener.onVerifyIssue("missing", imgPath, null, "no savedAs/sink recorded for " + cr);
+                continue;
+            }
+            if (!outFile.isFile()) {
+                fail++; c.failedCrops.incrementAndGet(); c.verifyMissing.incrementAndGet();
+                if (listener != null) listener.onVerifyIssue("missing", imgPath, outFile.getAbsolutePath(), "file not found");
+                continue;
+            }
+            if (!boundsOk(src, cr)) {
+                fail++; c.failedCrops.incrementAndGet(); c.verifyMismatches.incrementAndGet();
+                if (listener != null) listener.onVerifyIssue("mismatch", imgPath, outFile.getAbsolutePath(), "crop out of source bounds: " + cr);
+                continue;
+            }
+            String diff;
+            try { diff = comparePixels(crop(src, cr), outFile); }
+            catch (Exception ex) { diff = "cannot decode output: " + ex.getMessage(); }
+            if (cancel.get()) break;
+            if (diff != null) {
+                fail++; c.failedCrops.incrementAndGet(); c.verifyMismatches.incrementAndGet();
+                if (listener != null) listener.onVerifyIssue("mismatch", imgPath, outFile.getAbsolutePath(), diff);
+                continue;
+            }
+            ok++; c.cropsDone.incrementAndGet(); c.verifiedOk.incrementAndGet();
+        }
+        c.imagesProcessed.incrementAndGet();
+        if (listener != null) listener.onImageDone(imgPath, ok, fail);
+        if (listener != null) listener.onProgress(c.snapshot());
+    }
+    /** Output name a crop can be verified against: only savedAs is deterministic, sequence numbers are not. */
+    private static File expectedOutputFile(File sinkDir, Crop c) {
+        if (c.savedAs == null || c.savedAs.trim().isEmpty()) return null;
+        return new File(sinkDir, new File(c.savedAs).getName());
+    }
+    /** Row-by-row RGB comparison; returns null when identical, otherwise a short description. */
+    private String comparePixels(BufferedImage expected, File outFile) throws IOException {
+        BufferedImage actual = readImage(outFile);
+        if (actual == null) return "cannot decode output";
+        int w = expected.getWidth(), h = expected.getHeight();
+        if (actual.getWidth() != w || actual.getHeight() != h)
+            return "size " + actual.getWidth() + "x" + actual.getHeight() + " != expected " + w + "x" + h;
+        int[] a = new int[w], b = new int[w];
+        for (int y=0;y<h;y++) {
+            expected.getRGB(0, y, w, 1, a, 0, w);
+            actual.getRGB(0, y, w, 1, b, 0, w);
+            for (int x=0;x<w;x++) {
+                if (((a[x] ^ b[x]) & 0xFFFFFF) != 0) return "pixel differs at (" + x + "," + y + ")";
+            }
+        }
+        return null;
+    }
+    /** PNGs found in verified sinks that no manifest entry accounts for. */
+    private static void reportOrphans(Set<File> sinks, Set<String> expectedOutputs, Counters c, BatchListener listener) {
+        for (File sink : sinks) {
+            File[] list = safeListFiles(sink);
+            if (list == null) continue;
+            for (File f : list) {
+                String name = f.getName();
+                if (!f.isFile() || name.startsWith("._tmp_") || !name.toLowerCase(Locale.ROOT).endsWith(".png")) continue;
+                if (expectedOutputs.contains(f.getAbsolutePath())) continue;
+                c.verifyOrphans.incrementAndGet();
+                if (listener != null) listener.onVerifyIssue("orphan", null, f.getAbsolutePath(), "not referenced by any manifest");
+            }
+        }
+        if (listener != null) listener.onProgress(c.snapshot());
+    }
     // ==== Model ====
     private static class Manifest {
         final String sourceDir;   // may be null/invalid
@@ -162,9 +309,9 @@ public class BatchProcessor {
             this.defaultH = dcs!=null ? dcs.optInt("h",0) : 0;
             this.crops = root.getJSONArray("crops");
         }
-        void resolveRoots(File sourceFallback, File sinkFallback) {
+        void resolveRoots(File sourceFallback, File sinkFallback, boolean createSink) {
             this.resolvedSource = bestSource(sourceDir, sourceFallback);
-            this.resolvedSink = bestSink(sinkDir, sinkFallback);
+            this.resolvedSink = bestSink(sinkDir, sinkFallback, createSink);
         }
         int totalCrops(){ return crops.length(); }
         Map<String, List<Crop>> groupByImagePath(){
@@ -262,12 +409,12 @@ public class BatchProcessor {
         if (fallback!=null && fallback.exists() && fallback.isDirectory() && fallback.canRead()) return fallback;
         return null;
     }
-    private static File bestSink(String jsonSink, File fallback){
+    private static File bestSink(String jsonSink, File fallback, boolean create){
         if (jsonSink!=null && !jsonSink.trim().isEmpty()){
             File f = new File(jsonSink);
-            if (f.exists() || f.mkdirs()) return f;
+            if (f.exists() || (create && f.mkdirs())) return f;
         }
-        if (fallback!=null && (fallback.exists() || fallback.mkdirs())) return fallback;
+        if (fallback!=null && (fallback.exists() || (create && fallback.mkdirs()))) return fallback;
         return null;
     }
     private static File preferredImagePath(String imgPath, File resolvedSource){
@@ -276,10 +423,10 @@ public class BatchProcessor {
         if (resolvedSource!=null) return new File(resolvedSource, imgPath);
         return f;
     }
-    private static File resolveSinkDir(Crop c, Manifest m, BatchConfig cfg){
+    private static File resolveSinkDir(Crop c, Manifest m, BatchConfig cfg, boolean create){
         File first = (c.sinkOverride!=null && !c.sinkOverride.trim().isEmpty()) ? new File(c.sinkOverride) : null;
         File manifestSink = (m.sinkDir!=null && !m.sinkDir.trim().isEmpty()) ? new File(m.sinkDir) : null;
-        File chosen = bestSink(pathOf(first), bestSink(pathOf(manifestSink), cfg.getSinkFallback()));
+        File chosen = bestSink(pathOf(first), bestSink(pathOf(manifestSink), cfg.getSinkFallback(), create), create);
         return chosen;
     }
     private static String pathOf(File f){ return f==null? null : f.getAbsolutePath(); }
@@ -316,12 +463,13 @@ public class BatchProcessor {
             if (!f.exists()) return f;
         }
     }
-    private static void atomicWritePng(BufferedImage img, File out) throws IOException {
+    private void atomicWritePng(BufferedImage img, File out) throws IOException {
         File parent = out.getParentFile();
         if (!parent.exists() && !parent.mkdirs()) throw new IOException("Cannot create sink: " + parent);
         File tmp = File.createTempFile("._tmp_", ".png", parent);
         try {
-            ImageIO.write(img, "PNG", tmp);
+            writePng(img, tmp);
+            if (cancel.get()) throw new IOException("Cancelled"); // never publish a truncated PNG
             try {
                 Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
             } catch (IOException ex) {
@@ -331,6 +479,48 @@ public class BatchProcessor {
             if (tmp.exists()) try { tmp.delete(); } catch (Exception ignore) {}
         }
     }
+    /** Like ImageIO.read, but the reader is registered so cancel() can abort it mid-decode. */
+    private BufferedImage readImage(File f) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(f);
+        if (in == null) return null;
+        try {
+            Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+            if (!it.hasNext()) return null;
+            ImageReader r = it.next();
+            r.setInput(in, true, true);
+            activeReaders.add(r);
+            try {
+                if (cancel.get()) return null;
+                BufferedImage img = r.read(0, r.getDefaultReadParam());
+                return cancel.get() ? null : img;
+            } finally {
+                activeReaders.remove(r);
+                r.dispose();
+            }
+        } finally {
+            try { in.close(); } catch (IOException ignore) {}
+        }
+    }
+    /** Like ImageIO.write(img, "PNG", f), but the writer is registered so cancel() can abort it. */
+    private void writePng(BufferedImage img, File f) throws IOException {
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("png");
+        if (!it.hasNext()) throw new IOException("No PNG writer available");
+        ImageWriter w = it.next();
+        ImageOutputStream out = ImageIO.createImageOutputStream(f);
+        if (out == null) { w.dispose(); throw new IOException("Cannot open " + f); }
+        try {
+            w.setOutput(out);
+            activeWriters.add(w);
+            try {
+                if (!cancel.get()) w.write(img);
+            } finally {
+                activeWriters.remove(w);
+            }
+        } finally {
+            w.dispose();
+            try { out.close(); } catch (IOException ignore) {}
+        }
+    }
     // ==== progress counters ====
     private static class Counters {
         final AtomicInteger manifestsQueued = new AtomicInteger();
@@ -341,18 +531,34 @@ public class BatchProcessor {
         final AtomicInteger cropsQueued = new AtomicInteger();
         final AtomicInteger cropsDone = new AtomicInteger();
         final AtomicInteger failedCrops = new AtomicInteger();
+        final AtomicInteger verifiedOk = new AtomicInteger();
+        final AtomicInteger verifyMismatches = new AtomicInteger();
+        final AtomicInteger verifyMissing = new AtomicInteger();
+        final AtomicInteger verifyOrphans = new AtomicInteger();
         BatchProgress snapshot(){
             return new BatchProgress(
                     manifestsQueued.get(), manifestsProcessed.get(), manifestsSkipped.get(), failedManifests.get(),
-                    imagesProcessed.get(), cropsQueued.get(), cropsDone.get(), failedCrops.get()
+                    imagesProcessed.get(), cropsQueued.get(), cropsDone.get(), failedCrops.get(),
+                    verifiedOk.get(), verifyMismatches.get(), verifyMissing.get(), verifyOrphans.get()
             );
         }
     }
     // ==== helpers added to fix compile ====
-    /** Wait for all submitted tasks; individual task errors are handled inside the tasks. */
-    private static void waitAll(java.util.List<java.util.concurrent.Future<?>> futures) {
+    /**
+     * Wait for all submitted tasks; individual task errors are handled inside the tasks.
+     * After cancel() the wait is bounded by CANCEL_GRACE_MS so a decoder that ignores abort()
+     * cannot hold up the partial result.
+     */
+    private void waitAll(java.util.List<java.util.concurrent.Future<?>> futures) {
         for (java.util.concurrent.Future<?> f : futures) {
-            try { f.get(); } catch (Exception ignore) { /* already counted upstream */ }
+            while (true) {
+                try { f.get(100, TimeUnit.MILLISECONDS); break; }
+                catch (TimeoutException te) {
+                    if (cancel.get() && System.currentTimeMillis() - cancelledAtMs.get() > CANCEL_GRACE_MS) return;
+                }
+                catch (InterruptedException ie) { Thread.currentThread().interrupt(); return; }
+                catch (Exception ignore) { break; /* already counted upstream */ }
+            }
         }
     }
     /** Sanitize strings for filenames (letters/digits/dot/underscore/dash only). */
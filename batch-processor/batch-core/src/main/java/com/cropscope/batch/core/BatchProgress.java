@@ -24,9 +24,17 @@ package com.cropscope.batch.core;
 public class BatchProgress {
     public final int manifestsQueued, manifestsProcessed, manifestsSkipped, failedManifests;
     public final int imagesProcessed, cropsQueued, cropsDone, failedCrops;
+    /** Verify mode counters; always zero for a normal run. */
+    public final int verifiedOk, verifyMismatches, verifyMissing, verifyOrphans;
 
     public BatchProgress(int mq, int mp, int ms, int fm, int ip, int cq, int cd, int fc) {
+        this(mq, mp, ms, fm, ip, cq, cd, fc, 0, 0, 0, 0);
+    }
+
+    public BatchProgress(int mq, int mp, int ms, int fm, int ip, int cq, int cd, int fc,
+                         int vok, int vmm, int vmi, int vor) {
         this.manifestsQueued=mq; this.manifestsProcessed=mp; this.manifestsSkipped=ms; this.failedManifests=fm;
         this.imagesProcessed=ip; this.cropsQueued=cq; this.cropsDone=cd; this.failedCrops=fc;
+        this.verifiedOk=vok; this.verifyMismatches=vmm; this.verifyMissing=vmi; this.verifyOrphans=vor;
     }
 }
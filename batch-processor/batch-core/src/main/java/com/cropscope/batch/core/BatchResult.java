@@ -26,7 +26,8 @@ public class BatchResult extends BatchProgress {
 
     public BatchResult(BatchProgress p, long startedAtMs, long endedAtMs) {
         super(p.manifestsQueued, p.manifestsProcessed, p.manifestsSkipped, p.failedManifests,
-                p.imagesProcessed, p.cropsQueued, p.cropsDone, p.failedCrops);
+                p.imagesProcessed, p.cropsQueued, p.cropsDone, p.failedCrops,
+                p.verifiedOk, p.verifyMismatches, p.verifyMissing, p.verifyOrphans);
         this.startedAtMs = startedAtMs; this.endedAtMs = endedAtMs;
     }
 
@@ -40,6 +41,12 @@ public class BatchResult extends BatchProgress {
                 ", cropsQueued="+cropsQueued+
                 ", cropsDone="+cropsDone+
                 ", failedCrops="+failedCrops+
+                (verifiedOk+verifyMismatches+verifyMissing+verifyOrphans > 0
+                        ? ", verifiedOk="+verifiedOk+
+                          ", mismatches="+verifyMismatches+
+                          ", missing="+verifyMissing+
+                          ", orphans="+verifyOrphans
+                        : "")+
                 ", elapsedSec="+sec+"}";
     }
 }
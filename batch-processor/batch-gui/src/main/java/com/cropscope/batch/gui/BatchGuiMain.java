@@ -51,6 +51,7 @@ public class BatchGuiMain {
         private final JCheckBox cbRespect  = new JCheckBox("Respect savedAs (if free)");
         private final JCheckBox cbForce    = new JCheckBox("Force (reprocess .done)");
         private final JCheckBox cbHierarchy = new JCheckBox("Enable hierarchical crops");
+        private final JCheckBox cbVerify   = new JCheckBox("Verify only (compare, no writes)");
         private final JButton btnStart = new JButton("Start");
         private final JButton btnCancel = new JButton("Cancel");
         private final JButton btnClose = new JButton("Close");
@@ -131,7 +132,7 @@ public class BatchGuiMain {
             gc.gridx=2;
             JPanel flags = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
             flags.add(cbDryRun); flags.add(cbRespect); flags.add(cbForce);
-            flags.add(cbHierarchy);
+            flags.add(cbHierarchy); flags.add(cbVerify);
             gc.gridwidth=3; gc.gridx=0; gc.gridy++; form.add(flags, gc);
             gc.gridwidth=1;
             // Buttons
@@ -185,6 +186,7 @@ public class BatchGuiMain {
                     .respectSavedAs(cbRespect.isSelected())
                     .force(cbForce.isSelected())
                     .hierarchyEnabled(cbHierarchy.isSelected())
+                    .verify(cbVerify.isSelected())
                     .build();
             final BatchProcessor proc = new BatchProcessor();
             this.currentProcessor = proc;
@@ -214,6 +216,11 @@ public class BatchGuiMain {
                 public void onCropDone(final String imagePath, final String outPath) {
                     swing(new Runnable(){ public void run(){ append("    saved: " + outPath); }});
                 }
+                public void onVerifyIssue(final String kind, final String imagePath, final String outPath, final String detail) {
+                    swing(new Runnable(){ public void run(){
+                        append("[VERIFY][" + kind + "] " + (outPath != null ? outPath : imagePath) + " - " + detail);
+                    }});
+                }
                 public void onProgress(final BatchProgress p) {
                     swing(new Runnable(){ public void run(){
                         updateCounters(p, cfg.isHierarchyEnabled());
@@ -269,6 +276,7 @@ public class BatchGuiMain {
             cbRespect.setEnabled(enabled);
             cbForce.setEnabled(enabled);
             cbHierarchy.setEnabled(enabled);
+            cbVerify.setEnabled(enabled);
             btnStart.setEnabled(enabled);
             btnClose.setEnabled(enabled);
             btnCancel.setEnabled(!enabled); // opposite
@@ -292,7 +300,11 @@ public class BatchGuiMain {
                             " | Images: " + p.imagesProcessed +
                             " | Crops: done=" + p.cropsDone + " failed=" + p.failedCrops +
                             hierarchyStatus +
-                            (p.cropsQueued>0 ? " / total=" + p.cropsQueued : "")
+                            (p.cropsQueued>0 ? " / total=" + p.cropsQueued : "") +
+                            (p.verifiedOk + p.verifyMismatches + p.verifyMissing + p.verifyOrphans > 0
+                                    ? " | Verify: ok=" + p.verifiedOk + " mismatch=" + p.verifyMismatches +
+                                      " missing=" + p.verifyMissing + " orphans=" + p.verifyOrphans
+                                    : "")
             );
         }
         private void append(String s) {
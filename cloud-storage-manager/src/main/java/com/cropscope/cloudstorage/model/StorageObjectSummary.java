@@ -27,11 +27,17 @@ public class StorageObjectSummary {
     private final String key;
     private final long size;
     private final Date lastModified;
+    private final String eTag;
 
     public StorageObjectSummary(String key, long size, Date lastModified) {
+        this(key, size, lastModified, null);
+    }
+
+    public StorageObjectSummary(String key, long size, Date lastModified, String eTag) {
         this.key = key;
         this.size = size;
         this.lastModified = lastModified;
+        this.eTag = eTag;
     }
 
     public String getKey() {
@@ -45,4 +51,9 @@ public class StorageObjectSummary {
     public Date getLastModified() {
         return lastModified;
     }
+
+    /** Entity tag reported by the store, or null if it did not report one. */
+    public String getETag() {
+        return eTag;
+    }
 }
\ No newline at end of file
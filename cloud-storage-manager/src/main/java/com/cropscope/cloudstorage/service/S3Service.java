@@ -39,6 +39,14 @@ public class S3Service implements StorageService {
     private AmazonS3 s3Client;
     private final ConnectionProfile profile;
     private volatile boolean connected = false;
+    // buckets confirmed to exist on this connection, so transfers skip the existence round trip
+    private final Set<String> knownBuckets = ConcurrentHashMap.newKeySet();
+    // reads object bodies so downloads can time out; shared so parallel downloads don't each start a thread
+    private static final ExecutorService BODY_READERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "S3BodyReader");
+        t.setDaemon(true);
+        return t;
+    });
 
     public S3Service(ConnectionProfile profile) {
         if (profile == null) {
@@ -86,6 +94,7 @@ public class S3Service implements StorageService {
                 s3Client = null;
             }
         }
+        knownBuckets.clear();
         connected = false;
     }
 
@@ -112,14 +121,28 @@ public class S3Service implements StorageService {
         }
     }
 
+    private boolean bucketKnown(String bucketName) {
+        if (knownBuckets.contains(bucketName)) return true;
+        if (!bucketExists(bucketName)) return false;
+        knownBuckets.add(bucketName);
+        return true;
+    }
+
     @Override
     public List<StorageObjectSummary> listObjects(String bucketName) {
         if (!isConnected() || bucketName == null || bucketName.trim().isEmpty()) return Collections.emptyList();
         try {
+            // a listing returns at most 1000 keys; follow the continuation until the bucket is exhausted
+            List<StorageObjectSummary> all = new ArrayList<>();
             ObjectListing listing = s3Client.listObjects(bucketName.trim());
-            return listing.getObjectSummaries().stream()
-                    .map(obj -> new StorageObjectSummary(obj.getKey(), obj.getSize(), obj.getLastModified()))
-                    .collect(Collectors.toList());
+            while (true) {
+                for (S3ObjectSummary obj : listing.getObjectSummaries()) {
+                    all.add(new StorageObjectSummary(obj.getKey(), obj.getSize(), obj.getLastModified(), obj.getETag()));
+                }
+                if (!listing.isTruncated()) break;
+                listing = s3Client.listNextBatchOfObjects(listing);
+            }
+            return all;
         } catch (AmazonClientException e) {
             System.err.println("List objects failed: " + e.getMessage());
             return Collections.emptyList();
@@ -148,6 +171,7 @@ public class S3Service implements StorageService {
             ObjectListing listing = s3Client.listObjects(name);
             if (!listing.getObjectSummaries().isEmpty()) return false;
             s3Client.deleteBucket(name);
+            knownBuckets.remove(name);
             return true;
         } catch (AmazonClientException e) {
             System.err.println("Delete bucket failed: " + e.getMessage());
@@ -163,7 +187,7 @@ public class S3Service implements StorageService {
     @Override
     public boolean uploadFile(String bucketName, File file, String objectKey) {
         if (!isConnected() || bucketName == null || file == null || objectKey == null) return false;
-        if (!bucketExists(bucketName)) {
+        if (!bucketKnown(bucketName)) {
             System.err.println("Bucket does not exist: " + bucketName);
             return false;
         }
@@ -189,7 +213,7 @@ public class S3Service implements StorageService {
     @Override
     public boolean downloadFile(String bucketName, String objectKey, File targetFile) {
         if (!isConnected() || bucketName == null || objectKey == null || targetFile == null) return false;
-        if (!bucketExists(bucketName)) {
+        if (!bucketKnown(bucketName)) {
             System.err.println("Bucket does not exist: " + bucketName);
             return false;
         }
@@ -254,7 +278,7 @@ public class S3Service implements StorageService {
         if (!isConnected() || bucketName == null || objectKey == null || data == null) {
             return false;
         }
-        if (!bucketExists(bucketName)) {
+        if (!bucketKnown(bucketName)) {
             System.err.println("Bucket does not exist: " + bucketName);
             return false;
         }
@@ -284,7 +308,7 @@ public class S3Service implements StorageService {
         if (!isConnected() || bucketName == null || objectKey == null || timeoutSeconds <= 0) {
             return null;
         }
-        if (!bucketExists(bucketName)) {
+        if (!bucketKnown(bucketName)) {
             System.err.println("Bucket does not exist: " + bucketName);
             return null;
         }
@@ -292,8 +316,9 @@ public class S3Service implements StorageService {
         try {
             GetObjectRequest req = new GetObjectRequest(bucketName, objectKey);
             S3Object obj = s3Client.getObject(req);
+            Future<byte[]> future = null;
             try (InputStream in = obj.getObjectContent()) {
-                Future<byte[]> future = Executors.newSingleThreadExecutor().submit(() -> {
+                future = BODY_READERS.submit(() -> {
                     ByteArrayOutputStream baos = new ByteArrayOutputStream();
                     byte[] buffer = new byte[8192];
                     int n;
@@ -309,6 +334,7 @@ public class S3Service implements StorageService {
                 return future.get(timeoutSeconds, TimeUnit.SECONDS);
 
             } catch (TimeoutException e) {
+                if (future != null) future.cancel(true);
                 System.err.println("Download timed out after " + timeoutSeconds + " seconds: " + objectKey);
                 return null;
             } catch (InterruptedException | ExecutionException e) {
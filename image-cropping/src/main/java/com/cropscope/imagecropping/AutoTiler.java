@@ -0,0 +1,225 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Cuts every image of a folder into crop-sized tiles in the background. Each image is decoded
+ * once (the next one while the current one is being tiled) and its tiles are handed to the sink
+ * as views of that raster, copied to {@code TYPE_INT_RGB} like every other crop when it is of
+ * another type, so encoding and writing happen on the sink's pools and the tiler only blocks when
+ * they fall behind. Images too large to decode whole are read tile by tile through a
+ * {@link TiledImageSource}; images that cannot be read are counted as failed.
+ */
+final class AutoTiler {
+
+    interface TileSink {
+        void accept(ImageCroppingCore.CropResult tile) throws InterruptedException;
+    }
+
+    interface Listener {
+        void progress(int imagesDone, int imagesTotal, long tiles, long skipped, int failed);
+
+        void finished(int imagesDone, long tiles, long skipped, int failed, boolean cancelled);
+    }
+
+    // a tile's luminance is sampled on a grid of at most this many points per side
+    private static final int VARIANCE_SAMPLES = 64;
+
+    private final List<File> images;
+    private final CropEngine engine;
+    private final File sourceRootDir;
+    private final File sinkDirectory;
+    private final int cropWidth;
+    private final int cropHeight;
+    private final String projectName;
+    private final String userName;
+    private final String annotationPrefix;
+    private final int overlap;
+    private final double minStdDev;
+
+    private volatile boolean cancelled;
+    private volatile Thread thread;
+    private int imagesDone;
+    private long tiles;
+    private long skipped;
+    private int failed;
+
+    AutoTiler(List<File> images, CropEngine engine, File sourceRootDir, File sinkDirectory,
+              int cropWidth, int cropHeight, String projectName, String userName, String annotationPrefix,
+              int overlap, double minStdDev) {
+        this.images = new ArrayList<File>(images);
+        this.engine = engine;
+        this.sourceRootDir = sourceRootDir;
+        this.sinkDirectory = sinkDirectory;
+        this.cropWidth = cropWidth;
+        this.cropHeight = cropHeight;
+        this.projectName = projectName;
+        this.userName = userName;
+        this.annotationPrefix = annotationPrefix;
+        this.overlap = overlap;
+        this.minStdDev = minStdDev;
+    }
+
+    int getImageCount() {
+        return images.size();
+    }
+
+    void start(final TileSink sink, final Listener listener) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                runTiling(sink, listener);
+            }
+        }, "AutoTiler");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    void cancel() {
+        cancelled = true;
+        Thread t = thread;
+        if (t != null) t.interrupt();
+    }
+
+    boolean isRunning() {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
+
+    private void runTiling(TileSink sink, Listener listener) {
+        ExecutorService decoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AutoTiler-Decode");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            Future<BufferedImage> next = images.isEmpty() ? null : decoder.submit(decode(images.get(0)));
+            for (int i = 0; i < images.size() && !cancelled; i++) {
+                BufferedImage img;
+                try {
+                    img = next.get();
+                } catch (ExecutionException ex) {
+                    img = null;
+                }
+                next = (i + 1 < images.size()) ? decoder.submit(decode(images.get(i + 1))) : null;
+                if (img != null) {
+                    tileImage(images.get(i), img, sink);
+                } else if (!TiledImageSource.shouldTile(images.get(i)) || !tileLarge(images.get(i), sink)) {
+                    failed++;
+                }
+                imagesDone++;
+                listener.progress(imagesDone, images.size(), tiles, skipped, failed);
+            }
+        } catch (InterruptedException ie) {
+            cancelled = true;
+        } finally {
+            decoder.shutdownNow();
+            listener.finished(imagesDone, tiles, skipped, failed, cancelled);
+        }
+    }
+
+    private static Callable<BufferedImage> decode(final File f) {
+        return new Callable<BufferedImage>() {
+            public BufferedImage call() throws Exception {
+                return TiledImageSource.shouldTile(f) ? null : ImageIO.read(f);
+            }
+        };
+    }
+
+    private void tileImage(File file, BufferedImage img, TileSink sink) throws InterruptedException {
+        List<Rectangle> grid = CropEngine.tileGrid(img.getWidth(), img.getHeight(), cropWidth, cropHeight, overlap);
+        for (int i = 0; i < grid.size(); i++) {
+            if (cancelled) return;
+            Rectangle r = grid.get(i);
+            offer(file, r, img.getSubimage(r.x, r.y, r.width, r.height), img.getWidth(), img.getHeight(), sink);
+        }
+    }
+
+    /** Tiles an image too large to decode whole; false if its size cannot be read. */
+    private boolean tileLarge(File file, TileSink sink) throws InterruptedException {
+        Dimension size = TiledImageSource.imageSize(file);
+        if (size == null) return false;
+        int w = size.width, h = size.height;
+        TiledImageSource source = TiledImageSource.open(file, w, h, null);
+        try {
+            List<Rectangle> grid = CropEngine.tileGrid(w, h, cropWidth, cropHeight, overlap);
+            for (int i = 0; i < grid.size(); i++) {
+                if (cancelled) return true;
+                Rectangle r = grid.get(i);
+                BufferedImage tile = source.readRegion(r);
+                if (tile != null) offer(file, r, tile, w, h, sink);
+            }
+        } finally {
+            source.close();
+        }
+        return true;
+    }
+
+    private void offer(File file, Rectangle r, BufferedImage tile, int imageW, int imageH, TileSink sink)
+            throws InterruptedException {
+        if (minStdDev > 0.0 && lumaStdDev(tile) < minStdDev) {
+            skipped++;
+            return;
+        }
+        if (tile.getType() != BufferedImage.TYPE_INT_RGB) {
+            tile = CropEngine.blit(tile, new Rectangle(0, 0, tile.getWidth(), tile.getHeight()));
+        }
+        sink.accept(engine.performTileCrop(r, tile, imageW, imageH, file, sourceRootDir, sinkDirectory,
+                projectName, userName, annotationPrefix));
+        tiles++;
+    }
+
+    /** Standard deviation of 0..255 luminance over a sample grid of {@code img}; 0 for flat tiles. */
+    static double lumaStdDev(BufferedImage img) {
+        int stepX = Math.max(1, img.getWidth() / VARIANCE_SAMPLES);
+        int stepY = Math.max(1, img.getHeight() / VARIANCE_SAMPLES);
+        long n = 0L;
+        double mean = 0.0, m2 = 0.0;
+        for (int y = 0; y < img.getHeight(); y += stepY) {
+            for (int x = 0; x < img.getWidth(); x += stepX) {
+                int rgb = img.getRGB(x, y);
+                double luma = 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                n++;
+                double d = luma - mean;
+                mean += d / n;
+                m2 += d * (luma - mean);
+            }
+        }
+        return (n > 1L) ? Math.sqrt(m2 / (n - 1L)) : 0.0;
+    }
+}
@@ -28,25 +28,48 @@ import com.cropscope.cloudstorage.service.S3Service;
 import com.cropscope.cloudstorage.service.StorageService;
 
 import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Mirrors the images under a bucket scope into a local folder the cropping tool can read.
+ * Keys are fetched by a pool of {@code cropscope.mirror.concurrency} threads (default 8) from
+ * a priority queue: the image on screen and the next few in navigation order first, then the
+ * head requested at startup, then the rest of the bucket. Local copies whose size and ETag
+ * match the listing are not downloaded again.
+ * <p>
+ * The mirror is a {@link MirrorCache} bounded by {@code cropscope.mirror.quotaMB} (default 8192):
+ * the rest of the bucket is only prefetched while it fits, and images evicted or never prefetched
+ * are left as empty placeholders that {@link #fetchAsync(File)} downloads when they are shown.
+ */
 public final class CloudImageSource {
 
     public interface ProgressListener {
         default void onStart(int total) {
         }
 
+        /** Called once per key from the mirror threads, which may overlap. */
         default void onItem(int done, int total, String key, File localFile, boolean downloaded) {
         }
 
+        /** Called about once a second while keys of the batch are completing. */
+        default void onThroughput(MirrorProgress progress) {
+        }
+
         default void onFinish(MirrorSummary summary) {
         }
     }
@@ -56,13 +79,19 @@ public final class CloudImageSource {
         public final int downloaded;
         public final int skipped;
         public final int failed;
+        public final int deferred;
         public final File localRoot;
 
         public MirrorSummary(int total, int downloaded, int skipped, int failed, File localRoot) {
+            this(total, downloaded, skipped, failed, 0, localRoot);
+        }
+
+        public MirrorSummary(int total, int downloaded, int skipped, int failed, int deferred, File localRoot) {
             this.total = total;
             this.downloaded = downloaded;
             this.skipped = skipped;
             this.failed = failed;
+            this.deferred = deferred;
             this.localRoot = localRoot;
         }
 
@@ -72,10 +101,33 @@ public final class CloudImageSource {
                     ", downloaded=" + downloaded +
                     ", skipped=" + skipped +
                     ", failed=" + failed +
+                    ", deferred=" + deferred +
                     ", localRoot=" + (localRoot == null ? "null" : localRoot.getAbsolutePath()) + "}";
         }
     }
 
+    public static final class MirrorProgress {
+        public final int done;
+        public final int total;
+        public final long bytes;
+        public final double itemsPerSecond;
+        public final double bytesPerSecond;
+
+        public MirrorProgress(int done, int total, long bytes, double itemsPerSecond, double bytesPerSecond) {
+            this.done = done;
+            this.total = total;
+            this.bytes = bytes;
+            this.itemsPerSecond = itemsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d/%d, %.1f img/s, %.2f MB/s",
+                    done, total, itemsPerSecond, bytesPerSecond / (1024.0 * 1024.0));
+        }
+    }
+
     public CloudImageSource(String connectionName,
                             String bucket,
                             String scopeString,
@@ -86,13 +138,17 @@ public final class CloudImageSource {
         this.cacheRoot = Objects.requireNonNull(cacheRoot, "cacheRoot");
         this.timeoutSeconds = Math.max(5, timeoutSeconds);
         parseScope(scopeString);
-        this.tailExec = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        int threads = Math.max(1, Integer.getInteger("cropscope.mirror.concurrency", 8).intValue());
+        final AtomicInteger n = new AtomicInteger();
+        this.mirrorExec = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
             public Thread newThread(Runnable r) {
-                Thread t = new Thread(r, "CloudMirrorTail");
+                Thread t = new Thread(r, "CloudMirror-" + n.incrementAndGet());
                 t.setDaemon(true);
                 return t;
             }
         });
+        this.mirrorExec.allowCoreThreadTimeOut(true);
     }
 
     public synchronized void connect() throws Exception {
@@ -115,11 +171,18 @@ public final class CloudImageSource {
     }
 
     public void shutdown() {
-        stopTail.set(true);
+        stopped.set(true);
+        queue.clear();
         try {
-            tailExec.shutdownNow();
+            mirrorExec.shutdownNow();
         } catch (Throwable ignore) {
         }
+        // nothing queued will run now; let anyone waiting on those keys go
+        for (KeyState s : states.values()) {
+            if (s.claimed.compareAndSet(false, true)) s.outcome.complete(Outcome.FAILED);
+        }
+        MirrorCache c = mirrorCache;
+        if (c != null) c.close();
         disconnect();
     }
 
@@ -127,6 +190,7 @@ public final class CloudImageSource {
         ensureConnected();
         List<StorageObjectSummary> all = storage.listObjects(bucket);
         List<String> keys = new ArrayList<String>();
+        Map<String, StorageObjectSummary> info = new HashMap<String, StorageObjectSummary>();
         String p = this.prefix;
         for (int i = 0; i < all.size(); i++) {
             StorageObjectSummary s = all.get(i);
@@ -135,13 +199,26 @@ public final class CloudImageSource {
             if (!p.isEmpty() && !k.startsWith(p)) continue;
             if (!isImageKey(k)) continue;
             keys.add(k);
+            info.put(k, s);
         }
         Collections.sort(keys, String.CASE_INSENSITIVE_ORDER);
-        this.imageKeys = keys;
         this.localRoot = buildLocalRoot(cacheRoot, bucket, prefix);
         if (!localRoot.exists() && !localRoot.mkdirs()) {
             throw new IllegalStateException("Cannot create local cache root: " + localRoot.getAbsolutePath());
         }
+        if (mirrorCache != null) mirrorCache.close();
+        this.mirrorCache = MirrorCache.open(new File(localRoot, INDEX_NAME), quotaBytes, new MirrorCache.Store() {
+            public File fileFor(String key) {
+                return mapKeyToLocalFile(key);
+            }
+
+            public void evicted(String key) {
+                // a later request downloads it again
+                states.remove(key);
+            }
+        });
+        this.remoteInfo = info;
+        this.imageKeys = keys;
     }
 
     public synchronized List<String> listImageKeys() {
@@ -149,72 +226,99 @@ public final class CloudImageSource {
         return new ArrayList<String>(imageKeys);
     }
 
-    public MirrorSummary mirrorHeadBlocking(int headCount, ProgressListener listener) throws Exception {
-        ensureIndexed();
-        int total = imageKeys.size();
-        if (listener != null) listener.onStart(Math.min(headCount, total));
-
-        int downloaded = 0, skipped = 0, failed = 0;
-        int limit = Math.min(Math.max(0, headCount), total);
-
-        for (int i = 0; i < limit; i++) {
-            String key = imageKeys.get(i);
-            File dest = mapKeyToLocalFile(key);
-            boolean ok = mirrorOne(key, dest);
-            if (ok) {
-                if (dest.exists() && dest.length() > 0) {
-                    if (listener != null) listener.onItem(i + 1, limit, key, dest, true);
-                    downloaded++;
-                } else {
-                    if (listener != null) listener.onItem(i + 1, limit, key, dest, false);
-                    failed++;
-                }
-            } else {
-                if (dest.exists() && dest.length() > 0) {
-                    if (listener != null) listener.onItem(i + 1, limit, key, dest, false);
-                    skipped++;
-                } else {
-                    if (listener != null) listener.onItem(i + 1, limit, key, dest, false);
-                    failed++;
-                }
-            }
+    public void setConcurrency(int threads) {
+        int n = Math.max(1, threads);
+        if (n > mirrorExec.getMaximumPoolSize()) {
+            mirrorExec.setMaximumPoolSize(n);
+            mirrorExec.setCorePoolSize(n);
+        } else {
+            mirrorExec.setCorePoolSize(n);
+            mirrorExec.setMaximumPoolSize(n);
         }
+    }
 
-        MirrorSummary sum = new MirrorSummary(limit, downloaded, skipped, failed, localRoot);
-        if (listener != null) listener.onFinish(sum);
-        return sum;
+    public int getConcurrency() {
+        return mirrorExec.getMaximumPoolSize();
     }
 
+    /** Mirrors the first {@code headCount} keys ahead of everything else and waits for them. */
+    public MirrorSummary mirrorHeadBlocking(int headCount, ProgressListener listener) throws Exception {
+        ensureIndexed();
+        List<String> keys = imageKeys;
+        int limit = Math.min(Math.max(0, headCount), keys.size());
+        Batch batch = new Batch(limit, listener);
+        for (int i = 0; i < limit; i++) batch.attach(enqueue(keys.get(i), HEAD, i));
+        return batch.await();
+    }
+
+    /** Queues every key behind any on-demand fetches; returns at once. */
     public void mirrorTailAsync(final ProgressListener listener) {
         ensureIndexed();
         if (tailStarted.compareAndSet(false, true)) {
-            tailExec.submit(new Runnable() {
-                public void run() {
-                    final int total = imageKeys.size();
-                    if (listener != null) listener.onStart(total);
-
-                    int downloaded = 0, skipped = 0, failed = 0;
-                    for (int i = 0; i < total && !stopTail.get(); i++) {
-                        String key = imageKeys.get(i);
-                        File dest = mapKeyToLocalFile(key);
-                        boolean ok = mirrorOne(key, dest);
-                        if (ok) {
-                            if (dest.exists() && dest.length() > 0) downloaded++;
-                            else failed++;
-                        } else {
-                            if (dest.exists() && dest.length() > 0) skipped++;
-                            else failed++;
-                        }
-                        if (listener != null) listener.onItem(i + 1, total, key, dest, ok);
-                    }
-                    if (listener != null) {
-                        listener.onFinish(new MirrorSummary(total, downloaded, skipped, failed, localRoot));
-                    }
-                }
-            });
+            List<String> keys = imageKeys;
+            Batch batch = new Batch(keys.size(), listener);
+            for (int i = 0; i < keys.size(); i++) batch.attach(enqueue(keys.get(i), TAIL, i));
         }
     }
 
+    /**
+     * Moves the key mirrored at {@code localFile} and the {@code ahead} keys after it in
+     * navigation order to the front of the queue.
+     */
+    public void prioritizeFrom(File localFile, int ahead) {
+        List<String> keys = imageKeys;
+        String key = keyForLocalFile(localFile);
+        if (keys == null || key == null || stopped.get()) return;
+        int idx = Collections.binarySearch(keys, key, String.CASE_INSENSITIVE_ORDER);
+        if (idx < 0) idx = -idx - 1;
+        for (int d = 0; d <= ahead && idx + d < keys.size(); d++) {
+            enqueue(keys.get(idx + d), (d == 0) ? DEMAND : LOOKAHEAD, d);
+        }
+    }
+
+    /**
+     * Queues the image mirrored at {@code localFile} ahead of everything else if it is not on
+     * disk and returns at once. The future completes, on a mirror thread, with whether a
+     * complete copy is there.
+     */
+    public CompletableFuture<Boolean> fetchAsync(File localFile) {
+        String key = keyForLocalFile(localFile);
+        if (key == null || imageKeys == null || stopped.get()) return CompletableFuture.completedFuture(Boolean.FALSE);
+        KeyState s = enqueue(key, DEMAND, 0);
+        return s.outcome.thenApply(new Function<Outcome, Boolean>() {
+            public Boolean apply(Outcome o) {
+                return Boolean.valueOf(o == Outcome.DOWNLOADED || o == Outcome.CACHED);
+            }
+        });
+    }
+
+    /** Keeps the image at {@code localFile} out of eviction until {@link #unpin(File)}; counts as a use. */
+    public void pin(File localFile) {
+        String key = keyForLocalFile(localFile);
+        MirrorCache c = mirrorCache;
+        if (key == null || c == null) return;
+        c.pin(key);
+        c.touch(key);
+    }
+
+    public void unpin(File localFile) {
+        String key = keyForLocalFile(localFile);
+        MirrorCache c = mirrorCache;
+        if (key != null && c != null) c.unpin(key);
+    }
+
+    public void setCacheQuota(long bytes) {
+        quotaBytes = Math.max(0L, bytes);
+        MirrorCache c = mirrorCache;
+        if (c != null) c.setQuotaBytes(quotaBytes);
+    }
+
+    /** Hit ratio, bytes saved and disk use of the mirror, or {@code null} before {@link #index()}. */
+    public MirrorCache.Snapshot getCacheStats() {
+        MirrorCache c = mirrorCache;
+        return (c != null) ? c.snapshot() : null;
+    }
+
     public File getLocalRoot() {
         return localRoot;
     }
@@ -223,6 +327,11 @@ public final class CloudImageSource {
             ".jpg", ".jpeg", ".png", ".gif", ".bmp"
     ));
 
+    private static final String INDEX_NAME = ".cropscope_mirror.tsv";
+
+    // queue tiers, served in this order
+    private static final int DEMAND = 0, LOOKAHEAD = 1, HEAD = 2, TAIL = 3;
+
     private final String connectionName;
     private final String bucket;
     private final File cacheRoot;
@@ -232,11 +341,157 @@ public final class CloudImageSource {
 
     private volatile StorageService storage;
     private volatile List<String> imageKeys;
+    private volatile Map<String, StorageObjectSummary> remoteInfo = Collections.emptyMap();
     private volatile File localRoot;
+    private volatile MirrorCache mirrorCache;
+    private volatile long quotaBytes = Long.getLong("cropscope.mirror.quotaMB", 8192L).longValue() * 1024L * 1024L;
 
-    private final ExecutorService tailExec;
+    private final ThreadPoolExecutor mirrorExec;
+    private final PriorityBlockingQueue<QueuedKey> queue = new PriorityBlockingQueue<QueuedKey>();
+    private final ConcurrentHashMap<String, KeyState> states = new ConcurrentHashMap<String, KeyState>();
+    private final AtomicLong queueSeq = new AtomicLong();
     private final AtomicBoolean tailStarted = new AtomicBoolean(false);
-    private final AtomicBoolean stopTail = new AtomicBoolean(false);
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    private enum Outcome {
+        DOWNLOADED, CACHED, DEFERRED, FAILED
+    }
+
+    /** One key's progress; a key is fetched by whichever queue entry claims it first. */
+    private static final class KeyState {
+        final String key;
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final CompletableFuture<Outcome> outcome = new CompletableFuture<Outcome>();
+        volatile long bytes;
+
+        KeyState(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class QueuedKey implements Comparable<QueuedKey> {
+        final int tier;
+        final long order;
+        final long seq;
+        final KeyState state;
+
+        QueuedKey(int tier, long order, long seq, KeyState state) {
+            this.tier = tier;
+            this.order = order;
+            this.seq = seq;
+            this.state = state;
+        }
+
+        public int compareTo(QueuedKey o) {
+            if (tier != o.tier) return (tier < o.tier) ? -1 : 1;
+            if (order != o.order) return (order < o.order) ? -1 : 1;
+            // among equal requests the latest wins, so the current image beats the previous one
+            return Long.compare(o.seq, seq);
+        }
+    }
+
+    /**
+     * Queues {@code key} at {@code tier}. A key already queued lower down is simply queued again;
+     * the first entry to be served claims it and later ones are dropped.
+     */
+    private KeyState enqueue(String key, int tier, long order) {
+        KeyState s = states.computeIfAbsent(key, new Function<String, KeyState>() {
+            public KeyState apply(String k) {
+                return new KeyState(k);
+            }
+        });
+        if (s.claimed.get() || stopped.get()) return s;
+        queue.add(new QueuedKey(tier, order, queueSeq.incrementAndGet(), s));
+        try {
+            mirrorExec.execute(new Runnable() {
+                public void run() {
+                    serveNext();
+                }
+            });
+        } catch (RejectedExecutionException shuttingDown) {
+            // shutdown() completes the key
+        }
+        return s;
+    }
+
+    private void serveNext() {
+        QueuedKey q = queue.poll();
+        if (q == null || !q.state.claimed.compareAndSet(false, true)) return;
+        KeyState s = q.state;
+        Outcome o;
+        try {
+            o = mirrorKey(s, q.tier);
+        } catch (Throwable t) {
+            o = Outcome.FAILED;
+        }
+        // a failed or deferred key gets a fresh state, so a later request tries it again
+        if (o == Outcome.FAILED || o == Outcome.DEFERRED) states.remove(s.key, s);
+        s.outcome.complete(o);
+    }
+
+    private final class Batch {
+        final int total;
+        final ProgressListener listener;
+        final CountDownLatch remaining;
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger downloaded = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger deferred = new AtomicInteger();
+        final LongAdder bytes = new LongAdder();
+        final long startNanos = System.nanoTime();
+        final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+        Batch(int total, ProgressListener listener) {
+            this.total = total;
+            this.listener = listener;
+            this.remaining = new CountDownLatch(total);
+            if (listener != null) listener.onStart(total);
+            if (total == 0 && listener != null) listener.onFinish(summary());
+        }
+
+        void attach(final KeyState s) {
+            s.outcome.thenAccept(new Consumer<Outcome>() {
+                public void accept(Outcome o) {
+                    completed(s, o);
+                }
+            });
+        }
+
+        private void completed(KeyState s, Outcome o) {
+            if (o == Outcome.DOWNLOADED) {
+                downloaded.incrementAndGet();
+                bytes.add(s.bytes);
+            } else if (o == Outcome.CACHED) {
+                skipped.incrementAndGet();
+            } else if (o == Outcome.DEFERRED) {
+                deferred.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            int d = done.incrementAndGet();
+            if (listener != null) {
+                listener.onItem(d, total, s.key, mapKeyToLocalFile(s.key), o == Outcome.DOWNLOADED);
+                long now = System.nanoTime(), last = lastReport.get();
+                if ((now - last >= 1_000_000_000L && lastReport.compareAndSet(last, now)) || d == total) {
+                    double secs = Math.max(1e-3, (now - startNanos) / 1e9);
+                    long b = bytes.sum();
+                    listener.onThroughput(new MirrorProgress(d, total, b, d / secs, b / secs));
+                }
+            }
+            remaining.countDown();
+            if (d == total && listener != null) listener.onFinish(summary());
+        }
+
+        MirrorSummary await() throws InterruptedException {
+            remaining.await();
+            return summary();
+        }
+
+        MirrorSummary summary() {
+            return new MirrorSummary(total, downloaded.get(), skipped.get(), failed.get(), deferred.get(), localRoot);
+        }
+    }
 
     private void ensureConnected() {
         if (storage == null) throw new IllegalStateException("Not connected. Call connect() first.");
@@ -288,41 +543,87 @@ public final class CloudImageSource {
         return new File(localRoot, rel);
     }
 
-    private boolean mirrorOne(String key, File dest) {
-        try {
-            if (dest.exists() && dest.length() > 0) return false;
-            File parent = dest.getParentFile();
-            if (!parent.exists() && !parent.mkdirs()) return false;
-
-            byte[] data = storage.downloadBytes(bucket, key, timeoutSeconds);
-            if (data == null || data.length == 0) return false;
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(data)) {
-                BufferedImage check = ImageIO.read(bais);
-                if (check == null) return false;
-            } catch (Throwable t) {
-                return false;
+    private String keyForLocalFile(File f) {
+        File root = localRoot;
+        if (f == null || root == null) return null;
+        String base = root.getAbsolutePath() + File.separator;
+        String path = f.getAbsolutePath();
+        if (!path.startsWith(base)) return null;
+        return prefix + path.substring(base.length()).replace(File.separatorChar, '/');
+    }
+
+    private Outcome mirrorKey(KeyState s, int tier) throws IOException {
+        String key = s.key;
+        File dest = mapKeyToLocalFile(key);
+        StorageObjectSummary remote = remoteInfo.get(key);
+        MirrorCache cache = mirrorCache;
+        if (cache.lookup(key, dest, remote)) return Outcome.CACHED;
+
+        StorageService svc = storage;
+        if (svc == null || stopped.get()) return Outcome.FAILED;
+        File parent = dest.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) return Outcome.FAILED;
+        long reserved = 0L;
+        if (tier == TAIL && remote != null) {
+            if (!cache.tryReserve(remote.getSize())) {
+                // prefetching must not evict what was viewed; list it and fetch it when shown
+                if (!dest.exists()) dest.createNewFile();
+                cache.deferred();
+                return Outcome.DEFERRED;
             }
+            reserved = remote.getSize();
+        }
+
+        boolean recorded = false;
+        byte[] data;
+        try {
+            data = svc.downloadBytes(bucket, key, timeoutSeconds);
+            if (data == null || data.length == 0 || !hasImageHeader(data)) return Outcome.FAILED;
 
             File tmp = new File(parent, dest.getName() + ".part");
-            FileOutputStream fos = null;
             try {
-                fos = new FileOutputStream(tmp);
-                fos.write(data);
-            } finally {
-                if (fos != null) try {
+                FileOutputStream fos = new FileOutputStream(tmp);
+                try {
+                    fos.write(data);
+                } finally {
                     fos.close();
-                } catch (Throwable ignore) {
                 }
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                tmp.delete();
+                return Outcome.FAILED;
             }
-            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            return true;
-        } catch (Throwable ex) {
-            try {
-                File tmp = new File(dest.getParentFile(), dest.getName() + ".part");
-                if (tmp.exists()) tmp.delete();
-            } catch (Throwable ignore) {
-            }
+            cache.record(key, data.length, (remote != null) ? remote.getETag() : null, reserved);
+            recorded = true;
+        } finally {
+            if (!recorded && reserved > 0L) cache.release(reserved);
+        }
+        s.bytes = data.length;
+        return Outcome.DOWNLOADED;
+    }
+
+    // reads only the header, so a truncated or non-image body is rejected without a full decode
+    private static boolean hasImageHeader(byte[] data) {
+        ImageInputStream in = null;
+        ImageReader reader = null;
+        try {
+            in = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+            if (in == null) return false;
+            Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+            if (!it.hasNext()) return false;
+            reader = it.next();
+            reader.setInput(in, true, true);
+            return reader.getWidth(0) > 0 && reader.getHeight(0) > 0;
+        } catch (Throwable t) {
             return false;
+        } finally {
+            if (reader != null) reader.dispose();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
         }
     }
 }
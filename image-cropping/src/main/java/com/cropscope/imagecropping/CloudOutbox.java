@@ -0,0 +1,385 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-backed queue of encoded uploads. Each record (a JSON header plus the payload bytes)
+ * is appended to the active segment file; acknowledged record indices go to a sidecar
+ * {@code .ack} file, and a segment is deleted once every record in it is acknowledged.
+ * Segments left by an earlier run are returned by {@link #recover()}.
+ *
+ * <p>Record layout: magic, header length, payload length, CRC32 of header and payload
+ * (all big-endian ints), then the UTF-8 header and the payload. A record whose CRC does not
+ * match marks a torn write; the segment is truncated there during recovery.</p>
+ */
+final class CloudOutbox {
+
+    static final class Record {
+        final long segment;
+        final int index;
+        final long offset;
+        final int headerLength;
+        final int dataLength;
+        final JSONObject header;
+
+        Record(long segment, int index, long offset, int headerLength, int dataLength, JSONObject header) {
+            this.segment = segment;
+            this.index = index;
+            this.offset = offset;
+            this.headerLength = headerLength;
+            this.dataLength = dataLength;
+            this.header = header;
+        }
+
+        long sizeOnDisk() {
+            return RECORD_OVERHEAD + headerLength + dataLength;
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+        final File file, ackFile;
+        FileChannel channel;
+        int records;
+        int acked;
+        long bytes;
+
+        Segment(File dir, long id) {
+            this.id = id;
+            this.file = new File(dir, String.format("outbox-%012d.seg", id));
+            this.ackFile = new File(dir, String.format("outbox-%012d.ack", id));
+        }
+    }
+
+    private static final int MAGIC = 0x43534F42; // "CSOB"
+    private static final int RECORD_OVERHEAD = 16;
+    private static final long SEGMENT_BYTES = 16L * 1024 * 1024;
+    private static final int MAX_HEADER = 1 << 20;
+
+    private final File dir;
+    private final long maxBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private Segment active;
+    private long nextSegmentId = 1;
+    private long totalBytes;
+    private int pending;
+    private boolean closed;
+
+    /**
+     * Opens the outbox under {@code baseDir}. If another instance holds that directory, the
+     * next free sibling ({@code baseDir-2}, {@code baseDir-3}, ...) is used instead.
+     */
+    static CloudOutbox open(File baseDir, long maxBytes) throws IOException {
+        IOException last = null;
+        for (int i = 1; i <= 16; i++) {
+            File dir = (i == 1) ? baseDir : new File(baseDir.getPath() + "-" + i);
+            try {
+                return new CloudOutbox(dir, maxBytes);
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    private CloudOutbox(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create outbox: " + dir);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.lockChannel = new RandomAccessFile(new File(dir, "outbox.lock"), "rw").getChannel();
+        FileLock l = null;
+        try {
+            l = lockChannel.tryLock();
+        } catch (Throwable ignore) {
+        }
+        if (l == null) {
+            lockChannel.close();
+            throw new IOException("Outbox in use by another instance: " + dir);
+        }
+        this.lock = l;
+    }
+
+    File directory() {
+        return dir;
+    }
+
+    /**
+     * Scans segments left by a previous run and returns their unacknowledged records in
+     * append order. Fully acknowledged segments are deleted. Call once, before appending.
+     */
+    synchronized List<Record> recover() {
+        List<Record> out = new ArrayList<Record>();
+        File[] files = dir.listFiles();
+        if (files == null) return out;
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            if (!name.startsWith("outbox-") || !name.endsWith(".seg")) continue;
+            long id;
+            try {
+                id = Long.parseLong(name.substring(7, name.length() - 4));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            Segment seg = new Segment(dir, id);
+            BitSet acked = readAcks(seg.ackFile);
+            List<Record> live = new ArrayList<Record>();
+            seg.records = scan(seg, acked, live);
+            seg.acked = seg.records - live.size();
+            if (live.isEmpty()) {
+                delete(seg);
+                continue;
+            }
+            seg.bytes = seg.file.length();
+            segments.put(Long.valueOf(id), seg);
+            totalBytes += seg.bytes;
+            pending += live.size();
+            out.addAll(live);
+        }
+        return out;
+    }
+
+    /**
+     * Appends a record and returns its handle. While the outbox is over its byte quota, waits up
+     * to {@code waitMs} for uploads to free space and returns null if they do not; with 0 the
+     * quota is only advisory.
+     */
+    Record append(JSONObject header, byte[] data, long waitMs) throws IOException, InterruptedException {
+        byte[] h = header.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(h);
+        crc.update(data);
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_OVERHEAD + h.length + data.length);
+        buf.putInt(MAGIC).putInt(h.length).putInt(data.length).putInt((int) crc.getValue());
+        buf.put(h).put(data);
+        buf.flip();
+
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitMs;
+            while (waitMs > 0 && !closed && totalBytes > 0 && totalBytes + buf.remaining() > maxBytes) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return null;
+                wait(left);
+            }
+            if (closed) throw new IOException("Outbox closed");
+            if (active != null && active.bytes >= SEGMENT_BYTES) seal();
+            if (active == null) {
+                active = new Segment(dir, nextSegmentId++);
+                active.channel = new FileOutputStream(active.file, true).getChannel();
+                segments.put(Long.valueOf(active.id), active);
+            }
+            long offset = active.bytes;
+            while (buf.hasRemaining()) active.channel.write(buf);
+            Record r = new Record(active.id, active.records, offset, h.length, data.length, header);
+            active.records++;
+            active.bytes += r.sizeOnDisk();
+            totalBytes += r.sizeOnDisk();
+            pending++;
+            return r;
+        }
+    }
+
+    /** Reads the payload of {@code r}; safe to call from several threads. */
+    byte[] read(Record r) throws IOException {
+        Segment seg;
+        synchronized (this) {
+            seg = segments.get(Long.valueOf(r.segment));
+        }
+        if (seg == null) throw new IOException("Segment already removed: " + r.segment);
+        byte[] data = new byte[r.dataLength];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = new RandomAccessFile(seg.file, "r").getChannel();
+        try {
+            long pos = r.offset + RECORD_OVERHEAD + r.headerLength;
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, pos);
+                if (n < 0) throw new EOFException(seg.file.getName());
+                pos += n;
+            }
+        } finally {
+            ch.close();
+        }
+        return data;
+    }
+
+    /** Marks {@code r} uploaded; deletes its segment when nothing in it is outstanding. */
+    synchronized void ack(Record r) throws IOException {
+        Segment seg = segments.get(Long.valueOf(r.segment));
+        if (seg == null) return;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(seg.ackFile, true));
+        try {
+            out.writeInt(r.index);
+        } finally {
+            out.close();
+        }
+        seg.acked++;
+        pending--;
+        if (seg.acked >= seg.records) {
+            if (seg == active) {
+                active.channel.close();
+                active = null;
+            }
+            segments.remove(Long.valueOf(seg.id));
+            totalBytes -= seg.bytes;
+            delete(seg);
+            notifyAll();
+        }
+    }
+
+    synchronized int pendingCount() {
+        return pending;
+    }
+
+    synchronized long sizeInBytes() {
+        return totalBytes;
+    }
+
+    synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            if (active != null) seal();
+        } catch (IOException ignore) {
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException ignore) {
+        }
+        notifyAll();
+    }
+
+    // caller holds the lock
+    private void seal() throws IOException {
+        try {
+            active.channel.force(true);
+        } finally {
+            active.channel.close();
+            active = null;
+        }
+    }
+
+    private static int scan(Segment seg, BitSet acked, List<Record> live) {
+        long length = seg.file.length();
+        long pos = 0;
+        int index = 0;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(seg.file), 1 << 16));
+            try {
+                while (pos + RECORD_OVERHEAD <= length) {
+                    int magic = in.readInt(), hl = in.readInt(), dl = in.readInt(), sum = in.readInt();
+                    if (magic != MAGIC || hl < 0 || hl > MAX_HEADER || dl < 0
+                            || pos + RECORD_OVERHEAD + hl + dl > length) break;
+                    byte[] h = new byte[hl];
+                    in.readFully(h);
+                    CRC32 crc = new CRC32();
+                    crc.update(h);
+                    byte[] chunk = new byte[Math.min(dl, 1 << 16)];
+                    for (int left = dl; left > 0; ) {
+                        int n = Math.min(left, chunk.length);
+                        in.readFully(chunk, 0, n);
+                        crc.update(chunk, 0, n);
+                        left -= n;
+                    }
+                    if ((int) crc.getValue() != sum) break;
+                    if (!acked.get(index)) {
+                        live.add(new Record(seg.id, index, pos, hl, dl,
+                                new JSONObject(new String(h, StandardCharsets.UTF_8))));
+                    }
+                    pos += RECORD_OVERHEAD + hl + dl;
+                    index++;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (Throwable ignore) {
+        }
+        if (pos < length) {
+            // torn tail from an interrupted append
+            try {
+                RandomAccessFile raf = new RandomAccessFile(seg.file, "rw");
+                try {
+                    raf.setLength(pos);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException ignore) {
+            }
+        }
+        return index;
+    }
+
+    private static BitSet readAcks(File ackFile) {
+        BitSet acked = new BitSet();
+        if (!ackFile.isFile()) return acked;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ackFile)));
+            try {
+                while (true) {
+                    int idx = in.readInt();
+                    if (idx >= 0) acked.set(idx);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (EOFException eof) {
+            // end of acks
+        } catch (IOException ignore) {
+        }
+        return acked;
+    }
+
+    private static void delete(Segment seg) {
+        seg.file.delete();
+        seg.ackFile.delete();
+    }
+}
@@ -31,23 +31,76 @@ import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+/**
+ * Uploads crops and metadata to the configured bucket. Crops are PNG-encoded on a small
+ * encoder pool and uploaded by {@code uploadConcurrency} threads sharing one connected client;
+ * failed puts are retried with exponential backoff. {@code savedAs} and the metadata queue are
+ * updated in the order crops were queued, as for local saves.
+ *
+ * <p>Encoded payloads wait for the network in a {@link CloudOutbox} on disk rather than on
+ * the heap. Uploads that still fail after the retries stay there and are tried again later,
+ * outside the publishing order so later crops are not held back, and whatever is left when the
+ * app closes is resumed the next time the same connection is configured.</p>
+ */
 public class CloudStorageManager {
+    private static final int MAX_PENDING = 1024;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MS = 500L;
+    private static final long MAX_BACKOFF_MS = 8000L;
+    private static final long RETRY_LATER_MS = 30000L;
+    // longest an encoder waits for outbox space before holding the PNG in memory instead
+    private static final long OUTBOX_WAIT_MS = 10000L;
+    // how long shutdown waits for queued crops to be encoded into the outbox
+    private static final long SHUTDOWN_DRAIN_SECONDS = 30L;
+
     private boolean useCloudStorage = false;
     private String cloudBucketName = "";
     private String cloudConnectionName = "";
     private ConnectionProfile cloudProfile = null;
+    private final Object clientLock = new Object();
     private StorageService cloudStorageService = null;
 
-    private final BlockingQueue<CloudSaveJob> cloudSaveQueue = new ArrayBlockingQueue<CloudSaveJob>(1024);
-    private Thread cloudSaverThread = null;
-    private final BlockingQueue<CloudMetadataJob> cloudMetadataQueue = new ArrayBlockingQueue<CloudMetadataJob>(10);
-    private Thread cloudMetadataThread = null;
+    private int uploadConcurrency = Math.max(1, Integer.getInteger("cropscope.cloud.uploads", 4).intValue());
+    private ThreadPoolExecutor encodeExec = null;
+    private ThreadPoolExecutor uploadExec = null;
+    private final Semaphore cloudCapacity = new Semaphore(MAX_PENDING);
+    // queued crops not yet published, in submission order
+    private final ArrayDeque<CloudSaveJob> inOrder = new ArrayDeque<CloudSaveJob>();
+    // failed uploads taken out of that order while they wait to be retried
+    private final AtomicInteger parked = new AtomicInteger();
+    private final AtomicInteger uploading = new AtomicInteger();
+    private final AtomicBoolean statsScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CloudUploadRetry");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private CloudOutbox outbox = null;
+    private boolean outboxOpened = false;
+    // records from an earlier run waiting for their connection to be configured
+    private final List<CloudOutbox.Record> recovered = new ArrayList<CloudOutbox.Record>();
 
     private boolean debugEnabled = true;
     private final ImageCropping imageCropping;
@@ -79,28 +132,114 @@ public class CloudStorageManager {
             debugLog("  Secret key: " + (cloudProfile.getSecretKey().isEmpty() ? "NOT SET" : "SET"));
             debugLog("  Region: " + cloudProfile.getRegion());
         }
+        synchronized (clientLock) {
+            // a new profile or bucket needs a fresh client
+            if (cloudStorageService != null) cloudStorageService.disconnect();
+            cloudStorageService = null;
+        }
         if (useCloudStorage && cloudProfile != null) {
-            if (cloudSaverThread == null || !cloudSaverThread.isAlive()) {
-                debugLog("Starting cloud saver thread...");
-                cloudSaverThread = new Thread(new Runnable() {
-                    public void run() {
-                        cloudSaveWorker();
-                    }
-                }, "CloudCropSaver");
-                cloudSaverThread.setDaemon(true);
-                cloudSaverThread.start();
+            startUploadPools();
+            resumeOutbox();
+        }
+    }
+
+    private synchronized CloudOutbox outbox() {
+        if (!outboxOpened) {
+            outboxOpened = true;
+            File dir = new File(System.getProperty("cropscope.cloud.outbox",
+                    new File(System.getProperty("user.home"), ".cropscope/outbox").getPath()));
+            long maxBytes = Math.max(16L, Long.getLong("cropscope.cloud.outboxMB", 2048L).longValue()) * 1024L * 1024L;
+            try {
+                outbox = CloudOutbox.open(dir, maxBytes);
+                recovered.addAll(outbox.recover());
+                debugLog("Cloud outbox: " + outbox.directory().getAbsolutePath() + " (" + recovered.size() + " pending from last run)");
+            } catch (Throwable t) {
+                debugLog("Cloud outbox unavailable, uploads will be held in memory: " + t.getMessage());
+                outbox = null;
             }
-            if (cloudMetadataThread == null || !cloudMetadataThread.isAlive()) {
-                debugLog("Starting cloud metadata thread...");
-                cloudMetadataThread = new Thread(new Runnable() {
-                    public void run() {
-                        cloudMetadataWorker();
-                    }
-                }, "CloudMetadataSaver");
-                cloudMetadataThread.setDaemon(true);
-                cloudMetadataThread.start();
+        }
+        return outbox;
+    }
+
+    /** Re-queues records left by an earlier run for the connection now configured. */
+    private void resumeOutbox() {
+        if (outbox() == null) return;
+        List<CloudSaveJob> resumed = new ArrayList<CloudSaveJob>();
+        synchronized (this) {
+            for (Iterator<CloudOutbox.Record> it = recovered.iterator(); it.hasNext(); ) {
+                CloudOutbox.Record r = it.next();
+                if (!cloudConnectionName.equals(r.header.optString("connection"))) continue;
+                it.remove();
+                resumed.add(CloudSaveJob.fromRecord(r));
+            }
+        }
+        if (resumed.isEmpty()) return;
+        debugLog("Resuming " + resumed.size() + " uploads from the cloud outbox");
+        for (int i = 0; i < resumed.size(); i++) {
+            CloudSaveJob job = resumed.get(i);
+            if (job.meta != null) {
+                synchronized (inOrder) {
+                    inOrder.addLast(job);
+                }
             }
+            submitUpload(job);
+        }
+        postStatus("☁️ Resuming " + resumed.size() + " pending cloud uploads", 2500);
+        scheduleStats();
+    }
+
+    private synchronized void startUploadPools() {
+        if (encodeExec == null) {
+            debugLog("Starting cloud encoder pool...");
+            encodeExec = newPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), "CloudCropEncoder-");
         }
+        if (uploadExec == null) {
+            debugLog("Starting " + uploadConcurrency + " cloud upload threads...");
+            uploadExec = newPool(uploadConcurrency, "CloudCropUploader-");
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(int threads, final String namePrefix) {
+        final AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, namePrefix + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /** Number of simultaneous uploads; applies to uploads started after the call. */
+    public synchronized void setUploadConcurrency(int threads) {
+        uploadConcurrency = Math.max(1, threads);
+        if (uploadExec != null) {
+            if (uploadConcurrency > uploadExec.getMaximumPoolSize()) {
+                uploadExec.setMaximumPoolSize(uploadConcurrency);
+                uploadExec.setCorePoolSize(uploadConcurrency);
+            } else {
+                uploadExec.setCorePoolSize(uploadConcurrency);
+                uploadExec.setMaximumPoolSize(uploadConcurrency);
+            }
+        }
+    }
+
+    public int getUploadConcurrency() {
+        return uploadConcurrency;
+    }
+
+    /** Crops queued for the cloud whose result has not been published yet. */
+    public int getPendingCount() {
+        synchronized (inOrder) {
+            return inOrder.size() + parked.get();
+        }
+    }
+
+    public int getInFlightCount() {
+        return uploading.get();
     }
 
     public boolean isUseCloudStorage() {
@@ -124,31 +263,52 @@ public class CloudStorageManager {
     public void queueCloudSave(BufferedImage img, String filename, ImageCroppingCore.CropMetadata meta, String prefix, String resolution) {
         try {
             debugLog("Adding to cloud save queue: " + filename);
-            cloudSaveQueue.put(new CloudSaveJob(img, filename, meta, prefix, resolution));
+            cloudCapacity.acquire();
         } catch (InterruptedException e) {
             debugLog("Error adding to cloud save queue: " + e.getMessage());
             Thread.currentThread().interrupt();
+            return;
+        }
+        startUploadPools();
+        final CloudSaveJob job = new CloudSaveJob(img, filename, meta, prefix, resolution,
+                cloudConnectionName, cloudBucketName);
+        synchronized (inOrder) {
+            inOrder.addLast(job);
         }
+        encodeExec.execute(new Runnable() {
+            public void run() {
+                encode(job);
+            }
+        });
+        scheduleStats();
     }
 
+    /** Queues the contents of {@code metadataFile}, which is deleted once it is in the outbox. */
     public void queueCloudMetadataUpload(File metadataFile, String cloudFilename) {
+        debugLog("Adding metadata (file) to cloud upload queue: " + cloudFilename);
+        byte[] data;
         try {
-            debugLog("Adding metadata (file) to cloud upload queue: " + cloudFilename);
-            cloudMetadataQueue.put(new CloudMetadataJob(metadataFile, cloudFilename, null));
-        } catch (InterruptedException e) {
-            debugLog("Failed to add metadata to cloud queue: " + e.getMessage());
-            Thread.currentThread().interrupt();
+            data = Files.readAllBytes(metadataFile.toPath());
+        } catch (Throwable t) {
+            debugLog("Failed to read metadata file: " + t.getMessage());
+            postStatus("Cloud metadata upload failed: " + cloudFilename, 2500);
+            return;
+        }
+        queueCloudMetadataUpload(data, cloudFilename);
+        if (metadataFile.exists() && !metadataFile.delete()) {
+            debugLog("Warning: Failed to delete temporary metadata file: " + metadataFile.getAbsolutePath());
         }
     }
 
     public void queueCloudMetadataUpload(byte[] data, String cloudFilename) {
-        try {
-            debugLog("Adding metadata (bytes) to cloud upload queue: " + cloudFilename);
-            cloudMetadataQueue.put(new CloudMetadataJob(null, cloudFilename, data));
-        } catch (InterruptedException e) {
-            debugLog("Failed to add metadata(bytes) to cloud queue: " + e.getMessage());
-            Thread.currentThread().interrupt();
+        debugLog("Adding metadata (bytes) to cloud upload queue: " + cloudFilename);
+        startUploadPools();
+        CloudSaveJob job = CloudSaveJob.forMetadata(data, cloudFilename, cloudConnectionName, cloudBucketName);
+        if (!persist(job, false)) {
+            postStatus("Cloud metadata upload failed: " + cloudFilename, 2500);
+            return;
         }
+        submitUpload(job);
     }
 
     public List<String> listBuckets(String connectionName) {
@@ -178,227 +338,348 @@ public class CloudStorageManager {
         return null;
     }
 
-    private void cloudSaveWorker() {
-        debugLog("Cloud save worker started");
-        while (true) {
+    private void encode(final CloudSaveJob job) {
+        boolean persisted;
+        try {
+            long t0 = System.nanoTime();
             try {
-                final CloudSaveJob job = cloudSaveQueue.take();
-                debugLog("Processing cloud save job: " + job.filename);
-                if (cloudStorageService == null) {
-                    debugLog("Initializing cloud storage service...");
-                    if (cloudProfile == null) {
-                        debugLog("No cloud profile available");
-                        SwingUtilities.invokeLater(new Runnable() {
-                            public void run() {
-                                imageCropping.setStatus("No cloud profile available", 2500);
-                            }
-                        });
-                        continue;
-                    }
-                    cloudStorageService = new S3Service(cloudProfile);
-
-                    debugLog("Connecting to cloud storage...");
-                    boolean connected = cloudStorageService.connect();
-                    if (!connected) {
-                        debugLog("Failed to connect to cloud storage");
-                        SwingUtilities.invokeLater(new Runnable() {
-                            public void run() {
-                                imageCropping.setStatus("Failed to connect to cloud storage", 2500);
-                            }
-                        });
-                        continue;
-                    }
-                    debugLog("Successfully connected to cloud storage");
-                }
-                String resFolder = job.resolution;
-                if (job.meta != null && job.meta.cropWidth > 0 && job.meta.cropHeight > 0) {
-                    resFolder = job.meta.cropWidth + "x" + job.meta.cropHeight;
-                }
-                final String cloudKey = job.prefix + "/" + resFolder + "/" + job.filename;
-                debugLog("Cloud key: " + cloudKey);
-                boolean uploaded = false;
-                try {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream(64 * 1024);
-                    ImageIO.write(job.img, "PNG", baos);
-                    byte[] pngBytes = baos.toByteArray();
-                    uploaded = cloudStorageService.uploadBytes(cloudBucketName, cloudKey, pngBytes, "image/png");
-                    debugLog("uploadBytes result: " + uploaded);
-                } catch (Throwable ex) {
-                    debugLog("uploadBytes failed, will fallback. Cause: " + ex.getMessage());
-                    uploaded = false;
-                }
-                if (!uploaded) {
-                    File tempDir = new File(System.getProperty("java.io.tmpdir"));
-                    File tempFile = new File(tempDir, job.filename);
-                    debugLog("Fallback: writing temp file: " + tempFile.getAbsolutePath());
-                    try {
-                        boolean written = ImageIO.write(job.img, "PNG", tempFile);
-                        if (!written) {
-                            debugLog("Failed to write image to temporary file");
-                        } else {
-                            uploaded = cloudStorageService.uploadFile(cloudBucketName, tempFile, cloudKey);
-                            debugLog("uploadFile result: " + uploaded);
-                        }
-                    } finally {
-                        if (tempFile.exists() && !tempFile.delete()) {
-                            debugLog("Warning: Failed to delete temporary file: " + tempFile.getAbsolutePath());
-                        }
-                    }
-                }
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(64 * 1024);
+                ImageIO.write(job.img, "PNG", baos);
+                job.data = baos.toByteArray();
+            } finally {
+                // the raw crop is no longer needed once its PNG is encoded
+                job.img = null;
+                cloudCapacity.release();
+            }
+            long t1 = System.nanoTime();
+            recordLatency(Performance.Stage.ENCODE, t1 - t0);
+            persisted = persist(job, true);
+            recordLatency(Performance.Stage.WRITE, System.nanoTime() - t1);
+        } catch (Throwable ex) {
+            debugLog("PNG encode failed for " + job.filename + ": " + ex.getMessage());
+            persisted = false;
+        }
+        if (persisted) {
+            submitUpload(job);
+        } else {
+            finish(job, false);
+        }
+    }
+
+    /**
+     * Moves the payload of {@code job} into the outbox; without one, or when the outbox stays
+     * full for {@link #OUTBOX_WAIT_MS}, it stays on the heap for this session.
+     */
+    private boolean persist(CloudSaveJob job, boolean waitForSpace) {
+        CloudOutbox box = outbox();
+        if (box == null) return true;
+        try {
+            job.record = box.append(job.toHeader(), job.data, waitForSpace ? OUTBOX_WAIT_MS : 0L);
+            if (job.record == null) {
+                debugLog("Cloud outbox full, holding in memory: " + job.filename);
+                return true;
+            }
+            job.data = null;
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Throwable t) {
+            debugLog("Cloud outbox append failed: " + t.getMessage());
+            // keep the bytes in memory for this session
+            return job.data != null;
+        }
+    }
 
-                if (uploaded) {
-                    debugLog("Successfully uploaded to cloud: " + cloudKey);
-                    job.meta.savedAs = cloudConnectionName + "://" + cloudBucketName + "/" + cloudKey;
-                    imageCropping.addMetadataToQueue(job.meta);
-                    SwingUtilities.invokeLater(new Runnable() {
-                        public void run() {
-                            imageCropping.setStatus("☁️ Uploaded to cloud: " + job.filename, 1000);
-                            imageCropping.maybeAutoExport();
-                        }
-                    });
-                } else {
-                    debugLog("Failed to upload to cloud: " + cloudKey);
-                    SwingUtilities.invokeLater(new Runnable() {
-                        public void run() {
-                            imageCropping.setStatus("Cloud upload failed: " + job.filename, 2500);
-                        }
-                    });
+    private void submitUpload(final CloudSaveJob job) {
+        try {
+            uploadExec.execute(new Runnable() {
+                public void run() {
+                    upload(job);
                 }
+            });
+        } catch (Throwable rejected) {
+            // shutting down; an outbox record is picked up again next run
+        }
+    }
 
-            } catch (InterruptedException ie) {
-                debugLog("Cloud save worker interrupted");
-                return;
-            } catch (Exception ex) {
-                debugLog("Error in cloud save worker: " + ex.getMessage());
-                ex.printStackTrace();
-                SwingUtilities.invokeLater(new Runnable() {
+    private void upload(final CloudSaveJob job) {
+        uploading.incrementAndGet();
+        scheduleStats();
+        boolean uploaded = false;
+        try {
+            StorageService service = connectedService();
+            if (service != null) {
+                byte[] data = (job.record != null) ? outbox.read(job.record) : job.data;
+                debugLog("Cloud key: " + job.cloudKey);
+                long t0 = System.nanoTime();
+                uploaded = uploadWithRetry(service, job.bucket, job.cloudKey, data, job.contentType);
+                debugLog("uploadBytes result: " + uploaded);
+                if (uploaded && job.meta != null) {
+                    recordLatency(Performance.Stage.CLOUD_ACK, System.nanoTime() - t0);
+                    Performance perf = performance();
+                    if (perf != null) perf.recordSinceClick(Performance.Stage.CLICK_TO_SAVED, job.meta.clickNanos);
+                }
+            }
+            if (uploaded && job.record != null) outbox.ack(job.record);
+        } catch (Throwable t) {
+            debugLog("Cloud upload error for " + job.cloudKey + ": " + t.getMessage());
+        } finally {
+            uploading.decrementAndGet();
+        }
+        if (uploaded) {
+            job.data = null;
+            finish(job, true);
+        } else if (job.record != null) {
+            debugLog("Upload failed, keeping in outbox: " + job.cloudKey);
+            postStatus("Cloud upload failed, will retry: " + job.filename, 2500);
+            park(job);
+            try {
+                retryTimer.schedule(new Runnable() {
                     public void run() {
-                        imageCropping.setStatus("Cloud save error: " + ex.getMessage(), 2500);
+                        submitUpload(job);
                     }
-                });
+                }, RETRY_LATER_MS, TimeUnit.MILLISECONDS);
+            } catch (Throwable rejected) {
+                // shutting down
+            }
+            scheduleStats();
+        } else {
+            job.data = null;
+            finish(job, false);
+        }
+    }
+
+    private Performance performance() {
+        return (imageCropping != null) ? imageCropping.getPerformance() : null;
+    }
+
+    private void recordLatency(Performance.Stage stage, long nanos) {
+        Performance perf = performance();
+        if (perf != null) perf.recordLatency(stage, nanos);
+    }
+
+    /** Returns the shared client, connecting it first if needed; null if that is not possible. */
+    private StorageService connectedService() {
+        synchronized (clientLock) {
+            if (cloudStorageService != null && cloudStorageService.isConnected()) return cloudStorageService;
+            if (cloudProfile == null) {
+                debugLog("No cloud profile available");
+                postStatus("No cloud profile available", 2500);
+                return null;
+            }
+            debugLog("Connecting to cloud storage...");
+            StorageService service = new S3Service(cloudProfile);
+            if (!service.connect()) {
+                debugLog("Failed to connect to cloud storage");
+                postStatus("Failed to connect to cloud storage", 2500);
+                return null;
             }
+            debugLog("Successfully connected to cloud storage");
+            cloudStorageService = service;
+            return service;
         }
     }
 
-    private void cloudMetadataWorker() {
-        debugLog("Cloud metadata worker started");
-        while (true) {
+    private boolean uploadWithRetry(StorageService service, String bucket, String key, byte[] data, String contentType) {
+        for (int attempt = 1; ; attempt++) {
             try {
-                final CloudMetadataJob job = cloudMetadataQueue.take();
-                debugLog("Processing cloud metadata job: " + job.cloudFilename);
-                if (cloudStorageService == null) {
-                    debugLog("Initializing cloud storage service for metadata...");
-                    if (cloudProfile == null) {
-                        debugLog("No cloud profile available");
-                        continue;
-                    }
-                    cloudStorageService = new S3Service(cloudProfile);
+                if (service.uploadBytes(bucket, key, data, contentType)) return true;
+            } catch (Throwable ex) {
+                debugLog("uploadBytes failed (attempt " + attempt + "): " + ex.getMessage());
+            }
+            if (attempt >= MAX_ATTEMPTS) return false;
+            long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (attempt - 1));
+            backoff += ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
 
-                    debugLog("Connecting to cloud storage for metadata...");
-                    boolean connected = cloudStorageService.connect();
-                    if (!connected) {
-                        debugLog("Failed to connect to cloud storage for metadata");
-                        continue;
-                    }
-                    debugLog("Successfully connected to cloud storage for metadata");
-                }
+    private void finish(final CloudSaveJob job, boolean uploaded) {
+        job.uploaded = uploaded;
+        job.done = true;
+        if (job.meta == null) {
+            debugLog((uploaded ? "Successfully uploaded metadata to cloud: " : "Failed to upload metadata to cloud: ") + job.cloudKey);
+            postStatus(uploaded ? "☁️ Metadata uploaded to cloud: " + job.cloudKey
+                    : "Cloud metadata upload failed: " + job.cloudKey, uploaded ? 2000 : 2500);
+            return;
+        }
+        synchronized (inOrder) {
+            if (job.parked) {
+                // retried after later crops were published; it goes out as soon as it lands
+                job.parked = false;
+                parked.decrementAndGet();
+                publish(job);
+            }
+        }
+        publishCompleted();
+    }
 
-                boolean uploaded = false;
-                if (job.data != null) {
-                    try {
-                        uploaded = cloudStorageService.uploadBytes(cloudBucketName, job.cloudFilename, job.data, "application/json");
-                        debugLog("Metadata uploadBytes result: " + uploaded);
-                    } catch (Throwable bytesEx) {
-                        debugLog("Metadata uploadBytes failed: " + bytesEx.getMessage());
-                        uploaded = false;
-                    }
-                }
-                if (!uploaded && job.metadataFile != null) {
-                    try {
-                        uploaded = cloudStorageService.uploadFile(cloudBucketName, job.metadataFile, job.cloudFilename);
-                        debugLog("Metadata uploadFile result: " + uploaded);
-                    } finally {
-                        try {
-                            if (job.metadataFile != null && job.metadataFile.exists() && !job.metadataFile.delete()) {
-                                debugLog("Warning: Failed to delete temporary metadata file: " + job.metadataFile.getAbsolutePath());
-                            }
-                        } catch (Throwable ignore) {
-                        }
-                    }
-                }
+    /**
+     * Takes a crop whose upload keeps failing out of the publishing order, so the crops after it
+     * are not held back while it waits in the outbox to be retried.
+     */
+    private void park(CloudSaveJob job) {
+        if (job.meta == null) return;
+        synchronized (inOrder) {
+            if (job.parked || !inOrder.remove(job)) return;
+            job.parked = true;
+            parked.incrementAndGet();
+        }
+        publishCompleted();
+    }
 
-                if (uploaded) {
-                    debugLog("Successfully uploaded metadata to cloud: " + job.cloudFilename);
-                    SwingUtilities.invokeLater(new Runnable() {
-                        public void run() {
-                            imageCropping.setStatus("☁️ Metadata uploaded to cloud: " + job.cloudFilename, 2000);
-                        }
-                    });
-                } else {
-                    debugLog("Failed to upload metadata to cloud: " + job.cloudFilename);
-                    SwingUtilities.invokeLater(new Runnable() {
-                        public void run() {
-                            imageCropping.setStatus("Cloud metadata upload failed: " + job.cloudFilename, 2500);
-                        }
-                    });
+    private void publishCompleted() {
+        synchronized (inOrder) {
+            while (!inOrder.isEmpty() && inOrder.peekFirst().done) {
+                publish(inOrder.pollFirst());
+            }
+        }
+        scheduleStats();
+    }
+
+    // caller holds the inOrder lock, so metadata is queued one crop at a time
+    private void publish(final CloudSaveJob job) {
+        if (job.uploaded) {
+            debugLog("Successfully uploaded to cloud: " + job.cloudKey);
+            job.meta.savedAs = job.connection + "://" + job.bucket + "/" + job.cloudKey;
+            imageCropping.addMetadataToQueue(job.meta);
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    imageCropping.setStatus("☁️ Uploaded to cloud: " + job.filename, 1000);
+                    imageCropping.maybeAutoExport();
                 }
+            });
+        } else {
+            debugLog("Failed to upload to cloud: " + job.filename);
+            postStatus("Cloud upload failed: " + job.filename, 2500);
+        }
+    }
 
-            } catch (InterruptedException ie) {
-                debugLog("Cloud metadata worker interrupted");
-                return;
-            } catch (Exception ex) {
-                debugLog("Error in cloud metadata worker: " + ex.getMessage());
-                ex.printStackTrace();
-                SwingUtilities.invokeLater(new Runnable() {
-                    public void run() {
-                        imageCropping.setStatus("Cloud metadata error: " + ex.getMessage(), 2500);
-                    }
-                });
+    private void scheduleStats() {
+        if (!statsScheduled.compareAndSet(false, true)) return;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                statsScheduled.set(false);
+                imageCropping.setCloudUploadStats(getPendingCount(), getInFlightCount());
             }
-        }
+        });
+    }
+
+    private void postStatus(final String text, final int clearAfterMs) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                imageCropping.setStatus(text, clearAfterMs);
+            }
+        });
     }
 
+    /**
+     * Lets the crops already queued finish encoding into the outbox, where the next run picks up
+     * the ones not yet uploaded, then stops the uploads and closes the outbox.
+     */
     public void shutdown() {
         debugLog("Shutting down cloud storage manager...");
-        if (cloudSaverThread != null) {
-            debugLog("Interrupting cloud saver thread...");
-            cloudSaverThread.interrupt();
+        ThreadPoolExecutor encoders;
+        synchronized (this) {
+            encoders = encodeExec;
         }
-        if (cloudMetadataThread != null) {
-            debugLog("Interrupting cloud metadata thread...");
-            cloudMetadataThread.interrupt();
+        if (encoders != null) {
+            encoders.shutdown();
+            try {
+                if (!encoders.awaitTermination(SHUTDOWN_DRAIN_SECONDS, TimeUnit.SECONDS)) encoders.shutdownNow();
+            } catch (InterruptedException ie) {
+                encoders.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (uploadExec != null) uploadExec.shutdownNow();
         }
-        if (cloudStorageService != null) {
-            debugLog("Disconnecting from cloud storage...");
-            cloudStorageService.disconnect();
+        retryTimer.shutdownNow();
+        synchronized (this) {
+            if (outbox != null) outbox.close();
+        }
+        synchronized (clientLock) {
+            if (cloudStorageService != null) {
+                debugLog("Disconnecting from cloud storage...");
+                cloudStorageService.disconnect();
+                cloudStorageService = null;
+            }
         }
     }
 
     public static class CloudSaveJob {
-        final BufferedImage img;
+        BufferedImage img;
+        byte[] data;
+        CloudOutbox.Record record;
         final String filename;
         final ImageCroppingCore.CropMetadata meta;
-        final String prefix;
-        final String resolution;
-
-        CloudSaveJob(BufferedImage img, String filename, ImageCroppingCore.CropMetadata meta, String prefix, String resolution) {
+        final String connection;
+        final String bucket;
+        final String cloudKey;
+        final String contentType;
+        boolean uploaded;
+        volatile boolean done;
+        // guarded by the manager's inOrder lock
+        boolean parked;
+
+        CloudSaveJob(BufferedImage img, String filename, ImageCroppingCore.CropMetadata meta, String prefix, String resolution,
+                     String connection, String bucket) {
+            this(filename, meta, connection, bucket, cloudKey(prefix, resolution, filename, meta), "image/png");
             this.img = img;
+        }
+
+        private CloudSaveJob(String filename, ImageCroppingCore.CropMetadata meta, String connection, String bucket,
+                             String cloudKey, String contentType) {
             this.filename = filename;
             this.meta = meta;
-            this.prefix = prefix;
-            this.resolution = resolution;
+            this.connection = connection;
+            this.bucket = bucket;
+            this.cloudKey = cloudKey;
+            this.contentType = contentType;
+        }
+
+        static CloudSaveJob forMetadata(byte[] data, String cloudFilename, String connection, String bucket) {
+            CloudSaveJob job = new CloudSaveJob(cloudFilename, null, connection, bucket, cloudFilename, "application/json");
+            job.data = data;
+            return job;
         }
-    }
 
-    public static class CloudMetadataJob {
-        final File metadataFile;
-        final String cloudFilename;
-        final byte[] data;
+        static CloudSaveJob fromRecord(CloudOutbox.Record r) {
+            JSONObject h = r.header;
+            JSONObject m = h.optJSONObject("meta");
+            CloudSaveJob job = new CloudSaveJob(h.optString("filename"),
+                    (m != null) ? ImageCroppingCore.CropMetadata.fromJsonObject(m) : null,
+                    h.optString("connection"), h.optString("bucket"), h.optString("key"),
+                    h.optString("contentType", "application/octet-stream"));
+            job.record = r;
+            return job;
+        }
+
+        JSONObject toHeader() {
+            JSONObject h = new JSONObject();
+            h.put("kind", (meta != null) ? "crop" : "metadata");
+            h.put("connection", connection);
+            h.put("bucket", bucket);
+            h.put("key", cloudKey);
+            h.put("contentType", contentType);
+            h.put("filename", filename);
+            if (meta != null) h.put("meta", meta.toJsonObject().put("isPrimary", meta.isPrimary));
+            return h;
+        }
 
-        CloudMetadataJob(File metadataFile, String cloudFilename, byte[] data) {
-            this.metadataFile = metadataFile;
-            this.cloudFilename = cloudFilename;
-            this.data = data;
+        private static String cloudKey(String prefix, String resolution, String filename, ImageCroppingCore.CropMetadata meta) {
+            String resFolder = resolution;
+            if (meta != null && meta.cropWidth > 0 && meta.cropHeight > 0) {
+                resFolder = meta.cropWidth + "x" + meta.cropHeight;
+            }
+            return prefix + "/" + resFolder + "/" + filename;
         }
     }
 }
@@ -23,12 +23,69 @@ package com.cropscope.cloudbackuptool;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
+/**
+ * COCO "instances" and YOLO label export of crop metadata. {@link #buildCocoInstances} builds
+ * the document in memory; the {@code write*} methods stream it from a {@link CropSource}
+ * instead, reading the source twice for COCO (images, then annotations) and once for YOLO.
+ * Streaming keeps memory proportional to the number of distinct source images and
+ * categories, not to the number of crops.
+ */
 public final class CocoExporter {
 
+    public interface CropVisitor {
+        void visit(ImageCroppingCore.CropMetadata m) throws IOException;
+    }
+
+    /** A re-readable sequence of crops. */
+    public interface CropSource {
+        void forEach(CropVisitor visitor) throws IOException;
+    }
+
+    public static CropSource fromList(final List<ImageCroppingCore.CropMetadata> crops) {
+        return new CropSource() {
+            public void forEach(CropVisitor visitor) throws IOException {
+                for (int i = 0; i < crops.size(); i++) visitor.visit(crops.get(i));
+            }
+        };
+    }
+
+    /** Crops with {@code fromExclusive < seq <= toInclusive} from a session journal. */
+    static CropSource fromJournal(final MetadataJournal journal, final long fromExclusive, final long toInclusive) {
+        return new CropSource() {
+            public void forEach(final CropVisitor visitor) throws IOException {
+                journal.streamCrops(fromExclusive, toInclusive, new MetadataJournal.CropVisitor() {
+                    public void visit(long seq, JSONObject meta) throws IOException {
+                        visitor.visit(ImageCroppingCore.CropMetadata.fromJsonObject(meta));
+                    }
+                });
+            }
+        };
+    }
+
+    /** The {@code crops} arrays of exported {@code crop_metadata_*.json} files, one crop at a time. */
+    public static CropSource fromManifests(final List<File> manifests) {
+        return new CropSource() {
+            public void forEach(CropVisitor visitor) throws IOException {
+                for (int i = 0; i < manifests.size(); i++) streamManifest(manifests.get(i), visitor);
+            }
+        };
+    }
+
     public JSONObject buildCocoInstances(
             List<ImageCroppingCore.CropMetadata> crops,
             String datasetName,
@@ -129,6 +186,221 @@ public final class CocoExporter {
         return root;
     }
 
+    /** Streams a COCO instances document for {@code source} to {@code out}. */
+    public void writeCocoInstances(CropSource source, File out,
+                                   String datasetName, String createdBy, String dateCreatedIsoUtc) throws IOException {
+        final JsonStreamWriter w = new JsonStreamWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8), 1 << 16));
+        try {
+            String year = (dateCreatedIsoUtc != null && dateCreatedIsoUtc.length() >= 4)
+                    ? dateCreatedIsoUtc.substring(0, 4) : "";
+            w.beginObject();
+            w.name("info").beginObject()
+                    .name("description").value((datasetName == null ? "" : datasetName) + " (COCO instances)")
+                    .name("version").value("1.0")
+                    .name("year").value(year)
+                    .name("contributor").value(createdBy == null ? "" : createdBy)
+                    .name("date_created").value(dateCreatedIsoUtc == null ? "" : dateCreatedIsoUtc)
+                    .endObject();
+            w.name("licenses").beginArray().endArray();
+
+            final Ids ids = new Ids();
+            w.name("images").beginArray();
+            source.forEach(new CropVisitor() {
+                public void visit(ImageCroppingCore.CropMetadata m) throws IOException {
+                    if (m == null) return;
+                    String imageKey = ids.nextImageKey(m);
+                    ids.category(m);
+                    if (ids.imageIdByKey.containsKey(imageKey)) return;
+                    int imageId = ids.imageIdByKey.size() + 1;
+                    ids.imageIdByKey.put(imageKey, Integer.valueOf(imageId));
+                    String fileName = (m.imageName != null && m.imageName.trim().length() > 0)
+                            ? m.imageName
+                            : new File(imageKey).getName();
+                    w.beginObject()
+                            .name("id").value(imageId)
+                            .name("file_name").value(fileName)
+                            .name("width").value(Math.max(1, m.imageWidth))
+                            .name("height").value(Math.max(1, m.imageHeight))
+                            .endObject();
+                }
+            });
+            w.endArray();
+
+            ids.position = 0;
+            final int[] nextAnnId = {1};
+            w.name("annotations").beginArray();
+            source.forEach(new CropVisitor() {
+                public void visit(ImageCroppingCore.CropMetadata m) throws IOException {
+                    if (m == null) return;
+                    Integer imageId = ids.imageIdByKey.get(ids.nextImageKey(m));
+                    if (imageId == null) return; // source changed between passes
+                    int[] box = bbox(m);
+                    w.beginObject()
+                            .name("id").value(nextAnnId[0]++)
+                            .name("image_id").value(imageId.intValue())
+                            .name("category_id").value(ids.category(m))
+                            .name("bbox").raw("[" + box[0] + ", " + box[1] + ", " + box[2] + ", " + box[3] + "]")
+                            .name("area").value((double) (box[2] * box[3]))
+                            .name("iscrowd").value(0)
+                            .name("segmentation").beginArray().endArray()
+                            .endObject();
+                }
+            });
+            w.endArray();
+
+            w.name("categories").beginArray();
+            for (Map.Entry<String, Integer> e : ids.catIdByName.entrySet()) {
+                w.beginObject()
+                        .name("id").value(e.getValue().intValue())
+                        .name("name").value(e.getKey())
+                        .name("supercategory").value("default")
+                        .endObject();
+            }
+            w.endArray();
+            w.endObject();
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Writes YOLO labels for {@code source}: one {@code <image>.txt} per source image with
+     * {@code class cx cy w h} lines normalized to the image size, and {@code classes.txt}.
+     * Same-named images from different folders get {@code <image>_2.txt}, {@code <image>_3.txt}
+     * and so on, in the order they first appear. Returns the number of label lines written.
+     */
+    public int writeYoloLabels(CropSource source, File labelsDir) throws IOException {
+        if (!labelsDir.isDirectory() && !labelsDir.mkdirs()) throw new IOException("Cannot create " + labelsDir);
+        final Ids ids = new Ids();
+        final Set<String> started = new HashSet<String>();
+        final Map<String, String> labelByKey = new HashMap<String, String>();
+        final Set<String> labelNames = new HashSet<String>();
+        final Writer[] current = {null};
+        final String[] currentName = {null};
+        final int[] lines = {0};
+        try {
+            source.forEach(new CropVisitor() {
+                public void visit(ImageCroppingCore.CropMetadata m) throws IOException {
+                    if (m == null) return;
+                    String imageKey = ids.nextImageKey(m);
+                    String labelName = labelByKey.get(imageKey);
+                    if (labelName == null) {
+                        String base = (m.imageName != null && m.imageName.trim().length() > 0)
+                                ? m.imageName : new File(imageKey).getName();
+                        int dot = base.lastIndexOf('.');
+                        String stem = (dot > 0) ? base.substring(0, dot) : base;
+                        labelName = stem + ".txt";
+                        for (int n = 2; !labelNames.add(labelName); n++) labelName = stem + "_" + n + ".txt";
+                        labelByKey.put(imageKey, labelName);
+                    }
+                    // crops of one image usually arrive together, so one open file is enough
+                    if (!labelName.equals(currentName[0])) {
+                        if (current[0] != null) current[0].close();
+                        boolean append = !started.add(labelName);
+                        current[0] = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(new File(labelsDir, labelName), append), StandardCharsets.UTF_8));
+                        currentName[0] = labelName;
+                    }
+                    int[] box = bbox(m);
+                    double W = Math.max(1, m.imageWidth), H = Math.max(1, m.imageHeight);
+                    current[0].write(String.format(Locale.ROOT, "%d %.6f %.6f %.6f %.6f%n",
+                            ids.category(m) - 1,
+                            (box[0] + box[2] / 2.0) / W, (box[1] + box[3] / 2.0) / H,
+                            box[2] / W, box[3] / H));
+                    lines[0]++;
+                }
+            });
+        } finally {
+            if (current[0] != null) current[0].close();
+        }
+        Writer classes = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(labelsDir, "classes.txt")), StandardCharsets.UTF_8));
+        try {
+            for (String name : ids.catIdByName.keySet()) {
+                classes.write(name);
+                classes.write('\n');
+            }
+        } finally {
+            classes.close();
+        }
+        return lines[0];
+    }
+
+    /** Image and category numbering shared by the streaming passes. */
+    private static final class Ids {
+        final Map<String, Integer> imageIdByKey = new HashMap<String, Integer>();
+        final Map<String, Integer> catIdByName = new LinkedHashMap<String, Integer>();
+        int position;
+
+        String nextImageKey(ImageCroppingCore.CropMetadata m) {
+            position++;
+            String imageKey = (m.imagePath != null && m.imagePath.trim().length() > 0)
+                    ? m.imagePath
+                    : m.imageName;
+            if (imageKey == null || imageKey.trim().isEmpty()) imageKey = "img_" + position;
+            return imageKey;
+        }
+
+        int category(ImageCroppingCore.CropMetadata m) {
+            String catName = (m.annotation == null || m.annotation.trim().isEmpty())
+                    ? "unlabeled"
+                    : m.annotation.trim();
+            Integer catId = catIdByName.get(catName);
+            if (catId == null) {
+                catId = Integer.valueOf(catIdByName.size() + 1);
+                catIdByName.put(catName, catId);
+            }
+            return catId.intValue();
+        }
+    }
+
+    /** {x, y, w, h} of the crop, clamped to the source image as in {@link #buildCocoInstances}. */
+    private static int[] bbox(ImageCroppingCore.CropMetadata m) {
+        int W = Math.max(1, m.imageWidth);
+        int H = Math.max(1, m.imageHeight);
+        int x1 = clamp(Math.min(m.cropX1, m.cropX2), 0, W - 1);
+        int y1 = clamp(Math.min(m.cropY1, m.cropY2), 0, H - 1);
+        int x2 = clamp(Math.max(m.cropX1, m.cropX2), 0, W - 1);
+        int y2 = clamp(Math.max(m.cropY1, m.cropY2), 0, H - 1);
+        return new int[]{x1, y1, Math.max(0, x2 - x1), Math.max(0, y2 - y1)};
+    }
+
+    private static void streamManifest(File f, CropVisitor visitor) throws IOException {
+        Reader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            JSONTokener t = new JSONTokener(r);
+            if (t.nextClean() != '{') throw new IOException("Not a crop manifest: " + f);
+            while (true) {
+                char c = t.nextClean();
+                if (c == '}' || c == 0) return;
+                if (c == ',') continue;
+                if (c != '"') throw new IOException("Malformed crop manifest: " + f);
+                String key = t.nextString('"');
+                if (t.nextClean() != ':') throw new IOException("Malformed crop manifest: " + f);
+                if (!"crops".equals(key)) {
+                    t.nextValue(); // header fields are small
+                    continue;
+                }
+                if (t.nextClean() != '[') throw new IOException("Malformed crop manifest: " + f);
+                while (true) {
+                    c = t.nextClean();
+                    if (c == ']' || c == 0) break;
+                    if (c == ',') continue;
+                    t.back();
+                    Object v = t.nextValue();
+                    if (v instanceof JSONObject) {
+                        visitor.visit(ImageCroppingCore.CropMetadata.fromJsonObject((JSONObject) v));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed crop manifest: " + f + " (" + e.getMessage() + ")", e);
+        } finally {
+            r.close();
+        }
+    }
+
     private static int clamp(int v, int lo, int hi) {
         return Math.max(lo, Math.min(hi, v));
     }
@@ -0,0 +1,150 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional second tier for {@code ImageCache}: images evicted from the heap are PNG-compressed
+ * on a background thread into direct (off-heap) buffers, bounded by a byte capacity with LRU eviction.
+ * At most {@link #MAX_QUEUED} evicted images wait for the encoder; while it is behind, the oldest
+ * waiting image is dropped rather than kept alive on the heap.
+ */
+final class CompressedImageSpill {
+
+    private static final int MAX_QUEUED = 2;
+
+    private final long capacityBytes;
+    private final LinkedHashMap<String, ByteBuffer> store = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true);
+    private long usedBytes;
+    private final ThreadPoolExecutor encoder = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ImageCacheSpill");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    CompressedImageSpill(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    void offer(final String key, final BufferedImage img) {
+        synchronized (store) {
+            if (store.containsKey(key)) return;
+        }
+        encoder.execute(new Runnable() {
+            public void run() {
+                try {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(1 << 20);
+                    if (!ImageIO.write(img, "PNG", baos) || baos.size() > capacityBytes) return;
+                    ByteBuffer buf = ByteBuffer.allocateDirect(baos.size());
+                    buf.put(baos.toByteArray());
+                    buf.flip();
+                    synchronized (store) {
+                        ByteBuffer old = store.put(key, buf);
+                        if (old != null) usedBytes -= old.capacity();
+                        usedBytes += buf.capacity();
+                        Iterator<Map.Entry<String, ByteBuffer>> it = store.entrySet().iterator();
+                        while (usedBytes > capacityBytes && it.hasNext()) {
+                            Map.Entry<String, ByteBuffer> eldest = it.next();
+                            if (eldest.getKey().equals(key)) continue;
+                            usedBytes -= eldest.getValue().capacity();
+                            it.remove();
+                        }
+                    }
+                } catch (Throwable ignore) {
+                }
+            }
+        });
+    }
+
+    /** Removes and decodes the spilled copy, or returns null if there is none. */
+    BufferedImage take(String key) {
+        ByteBuffer buf;
+        synchronized (store) {
+            buf = store.remove(key);
+            if (buf == null) return null;
+            usedBytes -= buf.capacity();
+        }
+        try {
+            return ImageIO.read(new BufferInputStream(buf.duplicate()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    long usedBytes() {
+        synchronized (store) {
+            return usedBytes;
+        }
+    }
+
+    int size() {
+        synchronized (store) {
+            return store.size();
+        }
+    }
+
+    void shutdown() {
+        encoder.shutdownNow();
+        synchronized (store) {
+            store.clear();
+            usedBytes = 0L;
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? (buf.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+}
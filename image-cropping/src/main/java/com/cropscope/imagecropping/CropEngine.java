@@ -38,11 +38,43 @@ import org.json.JSONObject;
 
 public class CropEngine {
 
+    /** Pixels crops are cut from: a decoded raster, or a tiled source read on demand. */
+    public interface RegionSource {
+        int getWidth();
+
+        int getHeight();
+
+        /** A new {@code TYPE_INT_RGB} copy of {@code r}, or null if it cannot be read. */
+        BufferedImage readRegion(Rectangle r);
+    }
+
     private final File saveDirectory;
-    private final Map<String, Integer> sequenceCounters = new HashMap<String, Integer>();
+    private final SequenceAllocator sequences;
 
     public CropEngine(File saveDirectory) {
         this.saveDirectory = saveDirectory;
+        this.sequences = new SequenceAllocator(saveDirectory);
+    }
+
+    public void close() {
+        sequences.close();
+    }
+
+    /** Adapts a decoded image to {@link RegionSource}. */
+    public static RegionSource regionOf(final BufferedImage image) {
+        return new RegionSource() {
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            public BufferedImage readRegion(Rectangle r) {
+                return blit(image, r);
+            }
+        };
     }
 
     public ImageCroppingCore.CropResult performPrimaryCrop(
@@ -57,9 +89,27 @@ public class CropEngine {
             String projectName,
             String userName,
             String annotationPrefix
+    ) {
+        return performPrimaryCrop(mousePos, snap, originalImage != null ? regionOf(originalImage) : null,
+                currentImageFile, sourceRootDir, sinkDirectory, cropWidth, cropHeight,
+                projectName, userName, annotationPrefix);
+    }
+
+    public ImageCroppingCore.CropResult performPrimaryCrop(
+            Point mousePos,
+            ImageCroppingCore.ImagePanel.ScaledSnapshot snap,
+            RegionSource source,
+            File currentImageFile,
+            File sourceRootDir,
+            File sinkDirectory,
+            int cropWidth,
+            int cropHeight,
+            String projectName,
+            String userName,
+            String annotationPrefix
     ) {
         HierarchicalCropResult batch = performHierarchicalCrop(
-                mousePos, snap, originalImage, currentImageFile, sourceRootDir, sinkDirectory,
+                mousePos, snap, source, currentImageFile, sourceRootDir, sinkDirectory,
                 cropWidth, cropHeight, projectName, userName, annotationPrefix,
                 false, false, false
         );
@@ -82,17 +132,44 @@ public class CropEngine {
             boolean doTertiary,
             boolean renderSubImages
     ) {
-        if (snap == null || mousePos == null || originalImage == null || currentImageFile == null) return null;
-        PrimaryRect primary = computePrimaryRect(mousePos, snap,
-                originalImage.getWidth(), originalImage.getHeight(), cropWidth, cropHeight);
+        return performHierarchicalCrop(mousePos, snap, originalImage != null ? regionOf(originalImage) : null,
+                currentImageFile, sourceRootDir, sinkDirectory, cropWidth, cropHeight,
+                projectName, userName, annotationPrefix, doSecondary, doTertiary, renderSubImages);
+    }
+
+    /**
+     * Reads only the primary region from {@code source}; secondary and tertiary crops are cut
+     * from that region, so a tiled source is read once per click.
+     */
+    public HierarchicalCropResult performHierarchicalCrop(
+            Point mousePos,
+            ImageCroppingCore.ImagePanel.ScaledSnapshot snap,
+            RegionSource source,
+            File currentImageFile,
+            File sourceRootDir,
+            File sinkDirectory,
+            int cropWidth,
+            int cropHeight,
+            String projectName,
+            String userName,
+            String annotationPrefix,
+            boolean doSecondary,
+            boolean doTertiary,
+            boolean renderSubImages
+    ) {
+        if (snap == null || mousePos == null || source == null || currentImageFile == null) return null;
+        final int imageW = source.getWidth(), imageH = source.getHeight();
+        PrimaryRect primary = computePrimaryRect(mousePos, snap, imageW, imageH, cropWidth, cropHeight);
         if (primary == null) return null;
+        BufferedImage primaryImg = source.readRegion(primary.rect);
+        if (primaryImg == null) return null;
         String primaryRes = cropWidth + "x" + cropHeight;
         String primaryFilename = formatFilename(annotationPrefix, primaryRes,
                 nextSequentialNumber(annotationPrefix, cropWidth, cropHeight));
 
         ImageCroppingCore.CropMetadata meta = baseMetadata(
                 projectName, userName, sourceRootDir, sinkDirectory, currentImageFile,
-                originalImage.getWidth(), originalImage.getHeight(),
+                imageW, imageH,
                 primary.rect.x, primary.rect.y, cropWidth, cropHeight, annotationPrefix
         );
         JSONArray cropOps = new JSONArray();
@@ -118,10 +195,10 @@ public class CropEngine {
                     if (renderSubImages) {
                         String res = t.tileW + "x" + t.tileH;
                         String fn = formatFilename(annotationPrefix, res, nextSequentialNumber(annotationPrefix, t.tileW, t.tileH));
-                        BufferedImage img = blit(originalImage, sub);
+                        BufferedImage img = blit(primaryImg, relativeTo(sub, primary.rect));
                         ImageCroppingCore.CropMetadata sm = baseMetadata(
                                 projectName, userName, sourceRootDir, sinkDirectory, currentImageFile,
-                                originalImage.getWidth(), originalImage.getHeight(),
+                                imageW, imageH,
                                 sub.x, sub.y, sub.width, sub.height, annotationPrefix
                         );
                         secondary.add(new ImageCroppingCore.CropResult(img, fn, sm));
@@ -147,10 +224,10 @@ public class CropEngine {
                     if (renderSubImages) {
                         String res = t.tileW + "x" + t.tileH;
                         String fn = formatFilename(annotationPrefix, res, nextSequentialNumber(annotationPrefix, t.tileW, t.tileH));
-                        BufferedImage img = blit(originalImage, sub);
+                        BufferedImage img = blit(primaryImg, relativeTo(sub, primary.rect));
                         ImageCroppingCore.CropMetadata sm = baseMetadata(
                                 projectName, userName, sourceRootDir, sinkDirectory, currentImageFile,
-                                originalImage.getWidth(), originalImage.getHeight(),
+                                imageW, imageH,
                                 sub.x, sub.y, sub.width, sub.height, annotationPrefix
                         );
                         tertiary.add(new ImageCroppingCore.CropResult(img, fn, sm));
@@ -164,13 +241,69 @@ public class CropEngine {
             cropOps.put(level2);
         }
         meta_extra_setCropOperations(meta, cropOps);
-        BufferedImage primaryImg = blit(originalImage, primary.rect);
         ImageCroppingCore.CropResult primaryResult =
                 new ImageCroppingCore.CropResult(primaryImg, primaryFilename, meta);
 
         return new HierarchicalCropResult(primaryResult, secondary, tertiary);
     }
 
+    /**
+     * Positions of every {@code cropWidth}x{@code cropHeight} tile of an image, stepping by the
+     * crop size minus {@code overlap}. The last row and column are pulled back to the image edge,
+     * as a click near the border is; images smaller than one crop have no tiles.
+     */
+    public static List<Rectangle> tileGrid(int imageW, int imageH, int cropWidth, int cropHeight, int overlap) {
+        List<Rectangle> tiles = new ArrayList<Rectangle>();
+        if (cropWidth <= 0 || cropHeight <= 0 || imageW < cropWidth || imageH < cropHeight) return tiles;
+        int stepX = Math.max(1, cropWidth - Math.max(0, overlap));
+        int stepY = Math.max(1, cropHeight - Math.max(0, overlap));
+        for (int y = 0; ; y += stepY) {
+            int ty = Math.min(y, imageH - cropHeight);
+            for (int x = 0; ; x += stepX) {
+                int tx = Math.min(x, imageW - cropWidth);
+                tiles.add(new Rectangle(tx, ty, cropWidth, cropHeight));
+                if (tx + cropWidth >= imageW) break;
+            }
+            if (ty + cropHeight >= imageH) break;
+        }
+        return tiles;
+    }
+
+    /**
+     * Crop of {@code rect} for automatic tiling, with metadata and file naming as for a clicked
+     * primary crop. {@code tile} holds the pixels of {@code rect}; it is used as is, so a
+     * {@link BufferedImage#getSubimage} view of the decoded raster costs no copy.
+     */
+    public ImageCroppingCore.CropResult performTileCrop(
+            Rectangle rect,
+            BufferedImage tile,
+            int imageW,
+            int imageH,
+            File currentImageFile,
+            File sourceRootDir,
+            File sinkDirectory,
+            String projectName,
+            String userName,
+            String annotationPrefix
+    ) {
+        String res = rect.width + "x" + rect.height;
+        String filename = formatFilename(annotationPrefix, res,
+                nextSequentialNumber(annotationPrefix, rect.width, rect.height));
+        ImageCroppingCore.CropMetadata meta = baseMetadata(
+                projectName, userName, sourceRootDir, sinkDirectory, currentImageFile,
+                imageW, imageH,
+                rect.x, rect.y, rect.width, rect.height, annotationPrefix
+        );
+        JSONObject level0 = new JSONObject();
+        level0.put("level", 0);
+        level0.put("dimensions", res);
+        level0.put("crop_area", rectJson(rect));
+        level0.put("origin", "auto_tile");
+        meta_extra_setCropOperations(meta, new JSONArray().put(level0));
+        meta.isPrimary = true;
+        return new ImageCroppingCore.CropResult(tile, filename, meta);
+    }
+
     public void performHierarchicalCropAsync(
             final Point mousePos,
             final ImageCroppingCore.ImagePanel.ScaledSnapshot snap,
@@ -268,7 +401,11 @@ public class CropEngine {
         return new PrimaryRect(new Rectangle(origX, origY, cropW, cropH));
     }
 
-    private BufferedImage blit(BufferedImage src, Rectangle r) {
+    private static Rectangle relativeTo(Rectangle r, Rectangle origin) {
+        return new Rectangle(r.x - origin.x, r.y - origin.y, r.width, r.height);
+    }
+
+    static BufferedImage blit(BufferedImage src, Rectangle r) {
         BufferedImage out = new BufferedImage(r.width, r.height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2 = out.createGraphics();
         try {
@@ -331,25 +468,35 @@ public class CropEngine {
         }
     }
 
-    private synchronized int nextSequentialNumber(String prefix, int w, int h) {
+    private int nextSequentialNumber(final String prefix, final int w, final int h) {
         final String key = (prefix == null ? "" : prefix) + "|" + w + "x" + h;
-        Integer cur = sequenceCounters.get(key);
-        if (cur == null) {
-            int seeded = scanMaxNumber(prefix, w, h);
-            sequenceCounters.put(key, Integer.valueOf(seeded));
-            cur = Integer.valueOf(seeded);
-        }
-        int next = cur.intValue() + 1;
-        sequenceCounters.put(key, Integer.valueOf(next));
-        return next;
+        return sequences.next(key, new SequenceAllocator.Seeder() {
+            public int rescan() {
+                return Math.max(scanMaxNumber(saveDirectory, prefix, w, h),
+                        scanMaxNumber(resolutionDirectory(prefix, w, h), prefix, w, h));
+            }
+
+            public boolean isTaken(int seq) {
+                String name = formatFilename(prefix, w + "x" + h, seq);
+                File resDir = resolutionDirectory(prefix, w, h);
+                return (saveDirectory != null && new File(saveDirectory, name).exists())
+                        || (resDir != null && new File(resDir, name).exists());
+            }
+        });
+    }
+
+    private File resolutionDirectory(String prefix, int w, int h) {
+        if (saveDirectory == null) return null;
+        String p = (prefix == null || prefix.trim().isEmpty()) ? "image" : prefix;
+        return new File(saveDirectory, p + "/" + w + "x" + h);
     }
 
-    private int scanMaxNumber(final String prefix, int w, int h) {
-        if (saveDirectory == null || !saveDirectory.isDirectory()) return 0;
+    private int scanMaxNumber(File dir, final String prefix, int w, int h) {
+        if (dir == null || !dir.isDirectory()) return 0;
         final String res = w + "x" + h;
         final String prefixRes = (prefix == null ? "" : prefix) + "_" + res + "_";
 
-        File[] files = saveDirectory.listFiles(new FilenameFilter() {
+        File[] files = dir.listFiles(new FilenameFilter() {
             public boolean accept(File dir, String name) {
                 String lower = name.toLowerCase(Locale.ROOT);
                 return lower.startsWith(prefixRes.toLowerCase(Locale.ROOT)) && lower.endsWith(".png");
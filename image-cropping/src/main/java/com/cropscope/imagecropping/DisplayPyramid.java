@@ -0,0 +1,79 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Display-only mipmap chain of an image: successive 2x reductions down to {@link #MIN_EDGE}.
+ * Crops are always taken from the original image; the levels only feed {@code ImagePanel}.
+ */
+final class DisplayPyramid {
+
+    private static final int MIN_EDGE = 256;
+
+    private final BufferedImage[] levels;
+
+    private DisplayPyramid(BufferedImage[] levels) {
+        this.levels = levels;
+    }
+
+    static DisplayPyramid build(BufferedImage src) {
+        List<BufferedImage> out = new ArrayList<BufferedImage>();
+        BufferedImage prev = src;
+        while (Math.max(prev.getWidth(), prev.getHeight()) / 2 >= MIN_EDGE
+                && prev.getWidth() >= 2 && prev.getHeight() >= 2) {
+            int w = prev.getWidth() / 2, h = prev.getHeight() / 2;
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = next.createGraphics();
+            try {
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.drawImage(prev, 0, 0, w, h, null);
+            } finally {
+                g2d.dispose();
+            }
+            out.add(next);
+            prev = next;
+        }
+        return new DisplayPyramid(out.toArray(new BufferedImage[0]));
+    }
+
+    /** Smallest level still at least {@code dispW x dispH}, or {@code original} if none is. */
+    BufferedImage levelFor(int dispW, int dispH, BufferedImage original) {
+        BufferedImage best = original;
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i].getWidth() < dispW || levels[i].getHeight() < dispH) break;
+            best = levels[i];
+        }
+        return best;
+    }
+
+    long sizeInBytes() {
+        long total = 0L;
+        for (int i = 0; i < levels.length; i++) total += 4L * levels[i].getWidth() * levels[i].getHeight();
+        return total;
+    }
+}
@@ -0,0 +1,284 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+package com.cropscope.cloudbackuptool;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lists the images under a folder in the background, handing them out in batches as they are
+ * found so the first one can be shown before the walk is over. Images come out in the order of
+ * their absolute paths, compared ignoring case, so batches only ever append.
+ * <p>
+ * The listing of every directory is kept in an index file and reused on the next walk while the
+ * directory's modification time is unchanged; only directories that gained or lost entries are
+ * listed again. A directory equal to {@code excluded} (the crop output folder) is skipped.
+ */
+final class FolderIndexer {
+
+    interface Listener {
+        /** Called from the indexing thread; batches arrive in order and never overlap. */
+        void found(List<File> batch);
+
+        void finished(int total, int directoriesListed, int directoriesReused, boolean cancelled);
+    }
+
+    private static final String HEADER = "cropscope-folder-index 1";
+    private static final int BATCH = 512;
+    private static final long BATCH_NANOS = 100_000_000L;
+    // a directory changed this close to the walk might change again within the same mtime tick
+    private static final long MTIME_SETTLE_MS = 2000L;
+
+    private static final class Dir {
+        long mtime;
+        String[] names;
+        boolean[] dirs;
+    }
+
+    private final File folder;
+    private final String excluded;
+    private final File indexFile;
+
+    private volatile boolean cancelled;
+    private volatile Thread thread;
+    private Map<String, Dir> previous = new HashMap<String, Dir>();
+    private final Map<String, Dir> current = new HashMap<String, Dir>();
+    private List<File> batch = new ArrayList<File>();
+    private long lastFlush;
+    private int total, listed, reused;
+
+    /**
+     * @param excluded  canonical path of a directory to leave out, or {@code null}
+     * @param indexDir  where directory listings are kept between sessions, or {@code null}
+     */
+    FolderIndexer(File folder, String excluded, File indexDir) {
+        this.folder = folder;
+        this.excluded = excluded;
+        this.indexFile = (indexDir != null) ? new File(indexDir, indexName(folder)) : null;
+    }
+
+    void start(final Listener listener) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                runIndexing(listener);
+            }
+        }, "FolderIndexer");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isRunning() {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
+
+    static boolean isImageName(String name) {
+        String n = name.toLowerCase(Locale.ROOT);
+        return n.endsWith(".jpg") || n.endsWith(".jpeg") || n.endsWith(".png") || n.endsWith(".gif") || n.endsWith(".bmp");
+    }
+
+    private void runIndexing(Listener listener) {
+        long started = System.currentTimeMillis();
+        File root;
+        try {
+            root = folder.getCanonicalFile();
+        } catch (IOException ex) {
+            root = folder.getAbsoluteFile();
+        }
+        previous = load(root.getPath());
+        lastFlush = System.nanoTime();
+        walk(root, "", listener);
+        flush(listener);
+        if (!cancelled && listed > 0) save(root.getPath(), started);
+        listener.finished(total, listed, reused, cancelled);
+    }
+
+    private void walk(File dir, String rel, Listener listener) {
+        if (cancelled) return;
+        if (excluded != null && dir.getPath().equals(excluded)) return;
+        long mtime = dir.lastModified();
+        Dir d = previous.get(rel);
+        if (d != null && mtime != 0L && d.mtime == mtime) {
+            reused++;
+        } else {
+            d = list(dir, mtime);
+            if (d == null) return;
+            listed++;
+        }
+        current.put(rel, d);
+        for (int i = 0; i < d.names.length && !cancelled; i++) {
+            File f = new File(dir, d.names[i]);
+            if (d.dirs[i]) {
+                walk(f, rel + d.names[i] + "/", listener);
+            } else {
+                batch.add(f);
+                total++;
+                long now = System.nanoTime();
+                // the first image goes out at once so it can be shown while the rest is walked
+                if (total == 1 || batch.size() >= BATCH || now - lastFlush >= BATCH_NANOS) flush(listener);
+            }
+        }
+    }
+
+    private void flush(Listener listener) {
+        lastFlush = System.nanoTime();
+        if (batch.isEmpty() || cancelled) return;
+        List<File> out = batch;
+        batch = new ArrayList<File>();
+        listener.found(out);
+    }
+
+    private static Dir list(File dir, long mtime) {
+        File[] files;
+        try {
+            files = dir.listFiles();
+        } catch (SecurityException se) {
+            return null;
+        }
+        if (files == null) return null;
+        final String[] keys = new String[files.length];
+        final boolean[] isDir = new boolean[files.length];
+        List<Integer> keep = new ArrayList<Integer>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            isDir[i] = files[i].isDirectory();
+            if (!isDir[i] && !isImageName(files[i].getName())) continue;
+            // a directory sorts as its name plus the separator, which keeps siblings in path order
+            keys[i] = isDir[i] ? files[i].getName() + File.separator : files[i].getName();
+            keep.add(Integer.valueOf(i));
+        }
+        Integer[] order = keep.toArray(new Integer[0]);
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return keys[a.intValue()].compareToIgnoreCase(keys[b.intValue()]);
+            }
+        });
+        Dir d = new Dir();
+        d.mtime = mtime;
+        d.names = new String[order.length];
+        d.dirs = new boolean[order.length];
+        for (int i = 0; i < order.length; i++) {
+            d.names[i] = files[order[i].intValue()].getName();
+            d.dirs[i] = isDir[order[i].intValue()];
+        }
+        return d;
+    }
+
+    // one "D <mtime> <relative path>" line per directory, then "d <name>" or "f <name>" per entry
+    private Map<String, Dir> load(String rootPath) {
+        Map<String, Dir> dirs = new HashMap<String, Dir>();
+        if (indexFile == null || !indexFile.isFile()) return dirs;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            if (!(HEADER + "\t" + rootPath).equals(r.readLine())) return dirs;
+            String line, rel = null;
+            Dir d = null;
+            List<String> names = new ArrayList<String>();
+            List<Boolean> kinds = new ArrayList<Boolean>();
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("D\t")) {
+                    if (d != null) dirs.put(rel, finish(d, names, kinds));
+                    int tab = line.indexOf('\t', 2);
+                    if (tab < 0) return new HashMap<String, Dir>();
+                    d = new Dir();
+                    d.mtime = Long.parseLong(line.substring(2, tab));
+                    rel = line.substring(tab + 1);
+                } else if (d != null && line.length() > 2 && (line.charAt(0) == 'd' || line.charAt(0) == 'f')) {
+                    names.add(line.substring(2));
+                    kinds.add(Boolean.valueOf(line.charAt(0) == 'd'));
+                }
+            }
+            if (d != null) dirs.put(rel, finish(d, names, kinds));
+        } catch (IOException | NumberFormatException ex) {
+            // a damaged index only costs a full listing
+            return new HashMap<String, Dir>();
+        }
+        return dirs;
+    }
+
+    private static Dir finish(Dir d, List<String> names, List<Boolean> kinds) {
+        d.names = names.toArray(new String[0]);
+        d.dirs = new boolean[kinds.size()];
+        for (int i = 0; i < d.dirs.length; i++) d.dirs[i] = kinds.get(i).booleanValue();
+        names.clear();
+        kinds.clear();
+        return d;
+    }
+
+    private void save(String rootPath, long started) {
+        File dir = indexFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        File tmp = new File(dir, indexFile.getName() + ".tmp");
+        try {
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                w.write(HEADER + "\t" + rootPath + "\n");
+                for (Map.Entry<String, Dir> e : current.entrySet()) {
+                    Dir d = e.getValue();
+                    long mtime = (d.mtime >= started - MTIME_SETTLE_MS) ? -1L : d.mtime;
+                    w.write("D\t" + mtime + "\t" + e.getKey() + "\n");
+                    for (int i = 0; i < d.names.length; i++) {
+                        w.write(d.dirs[i] ? "d\t" : "f\t");
+                        w.write(d.names[i]);
+                        w.write('\n');
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            tmp.delete();
+        }
+    }
+
+    private static String indexName(File folder) {
+        String path;
+        try {
+            path = folder.getCanonicalPath();
+        } catch (IOException ex) {
+            path = folder.getAbsolutePath();
+        }
+        return String.format(Locale.ROOT, "%08x_%s.idx", path.hashCode(), sanitize(folder.getName()));
+    }
+
+    private static String sanitize(String name) {
+        String s = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return s.length() > 40 ? s.substring(0, 40) : s;
+    }
+}
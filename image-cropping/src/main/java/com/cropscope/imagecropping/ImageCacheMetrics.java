@@ -0,0 +1,112 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters and decode-time distribution for {@code ImageCroppingCore.ImageCache}. */
+final class ImageCacheMetrics {
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder spillHits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LatencyHistogram loadTimes = new LatencyHistogram();
+
+    Snapshot snapshot(int entries, long usedBytes, long budgetBytes, int spillEntries, long spillBytes) {
+        Snapshot s = new Snapshot();
+        s.hits = hits.sum();
+        s.spillHits = spillHits.sum();
+        s.misses = misses.sum();
+        s.evictions = evictions.sum();
+        s.entries = entries;
+        s.usedBytes = usedBytes;
+        s.budgetBytes = budgetBytes;
+        s.spillEntries = spillEntries;
+        s.spillBytes = spillBytes;
+        s.loads = loadTimes.count();
+        s.loadP50Ms = loadTimes.percentileMillis(0.50);
+        s.loadP95Ms = loadTimes.percentileMillis(0.95);
+        s.loadP99Ms = loadTimes.percentileMillis(0.99);
+        return s;
+    }
+
+    public static class Snapshot {
+        public long hits, spillHits, misses, evictions, loads;
+        public int entries, spillEntries;
+        public long usedBytes, budgetBytes, spillBytes;
+        public double loadP50Ms, loadP95Ms, loadP99Ms;
+
+        public double hitRatio() {
+            long total = hits + spillHits + misses;
+            return (total == 0L) ? 0.0 : (hits + spillHits) / (double) total;
+        }
+
+        public String toReport() {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("Image cache:\n");
+            sb.append("  - Hits: ").append(hits).append(" (spill: ").append(spillHits).append(")")
+                    .append(", misses: ").append(misses)
+                    .append(", hit ratio: ").append(String.format(Locale.ROOT, "%.1f%%", hitRatio() * 100.0)).append('\n');
+            sb.append("  - Evictions: ").append(evictions).append('\n');
+            sb.append("  - Heap: ").append(entries).append(" images, ")
+                    .append(mb(usedBytes)).append(" / ").append(mb(budgetBytes)).append(" MB\n");
+            if (spillEntries > 0 || spillBytes > 0) {
+                sb.append("  - Off-heap spill: ").append(spillEntries).append(" images, ")
+                        .append(mb(spillBytes)).append(" MB\n");
+            }
+            sb.append("  - Load time (").append(loads).append(" decodes): p50 ")
+                    .append(String.format(Locale.ROOT, "%.1f", loadP50Ms)).append(" ms, p95 ")
+                    .append(String.format(Locale.ROOT, "%.1f", loadP95Ms)).append(" ms, p99 ")
+                    .append(String.format(Locale.ROOT, "%.1f", loadP99Ms)).append(" ms\n");
+            return sb.toString();
+        }
+
+        public JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            o.put("hits", hits);
+            o.put("spillHits", spillHits);
+            o.put("misses", misses);
+            o.put("evictions", evictions);
+            o.put("hitRatio", hitRatio());
+            o.put("entries", entries);
+            o.put("usedBytes", usedBytes);
+            o.put("budgetBytes", budgetBytes);
+            o.put("spillEntries", spillEntries);
+            o.put("spillBytes", spillBytes);
+            JSONObject load = new JSONObject();
+            load.put("count", loads);
+            load.put("p50Ms", loadP50Ms);
+            load.put("p95Ms", loadP95Ms);
+            load.put("p99Ms", loadP99Ms);
+            o.put("loadTime", load);
+            return o;
+        }
+
+        private static String mb(long bytes) {
+            return String.format(Locale.ROOT, "%.1f", bytes / (1024.0 * 1024.0));
+        }
+    }
+}
@@ -30,8 +30,11 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.awt.image.BufferedImage;
 import java.util.concurrent.ThreadFactory;
@@ -72,7 +75,9 @@ public class ImageCropping extends JFrame {
     private String sourceBucket = "";
     private String sourceScope = "";
 
-    private CloudImageSource sourceMirror;
+    private volatile CloudImageSource sourceMirror;
+    private static final int MIRROR_LOOKAHEAD = 16;
+    private File pinnedSource;
 
     private final LocalSaveWorker localSaver;
 
@@ -84,6 +89,14 @@ public class ImageCropping extends JFrame {
         }
     });
 
+    private final ExecutorService exportExec = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "MetadataExporter");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private final String sessionId = UUID.randomUUID().toString();
     private int exportSequence = 0;
     private String sessionExportStamp = null;
@@ -93,6 +106,8 @@ public class ImageCropping extends JFrame {
     private final AutoExportManager autoExportManager;
 
     private boolean exportCocoEnabled = false;
+    private boolean exportYoloEnabled = false;
+    private AutoTiler autoTiler = null;
 
     public ImageCropping(File sourceFolder, File saveFolder, int cropWidth, int cropHeight) {
         this.core = new ImageCroppingCore(this, sourceFolder, saveFolder, cropWidth, cropHeight);
@@ -111,7 +126,7 @@ public class ImageCropping extends JFrame {
             }
         });
         this.cloudStorageManager = new CloudStorageManager(this);
-        this.localSaver = new LocalSaveWorker(core, new Runnable() {
+        this.localSaver = new LocalSaveWorker(core, performance, new Runnable() {
             public void run() {
                 maybeAutoExport();
             }
@@ -139,6 +154,11 @@ public class ImageCropping extends JFrame {
         setMinimumSize(new Dimension(820, 600));
         setLocationRelativeTo(null);
         setVisible(true);
+
+        int recovered = core.recoverJournaledMetadata();
+        if (recovered > 0) {
+            setStatus("Recovered " + recovered + " unexported crop records from the last session", 4000);
+        }
     }
 
     public void setCloudStorageSettings(boolean useCloud, String bucketName, String connectionName) {
@@ -156,6 +176,30 @@ public class ImageCropping extends JFrame {
         this.sourceMirror = cis;
     }
 
+    /**
+     * Lets a cloud source mirror fetch the images after {@code f} ahead of the rest of the bucket,
+     * and keeps {@code f} out of its cache eviction while it is open.
+     */
+    void imageShown(File f) {
+        CloudImageSource mirror = sourceMirror;
+        if (mirror == null) return;
+        if (!f.equals(pinnedSource)) {
+            mirror.pin(f);
+            if (pinnedSource != null) mirror.unpin(pinnedSource);
+            pinnedSource = f;
+        }
+        mirror.prioritizeFrom(f, MIRROR_LOOKAHEAD);
+    }
+
+    /**
+     * Starts downloading a source image the cloud mirror evicted or has not fetched yet; the
+     * future completes with whether it is there.
+     */
+    CompletableFuture<Boolean> fetchSourceImage(File f) {
+        CloudImageSource mirror = sourceMirror;
+        return (mirror != null) ? mirror.fetchAsync(f) : CompletableFuture.completedFuture(Boolean.FALSE);
+    }
+
     private void debugLog(String message) {
         if (core.isDebugEnabled()) {
             System.out.println("[DEBUG] " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()) + " - " + message);
@@ -192,6 +236,30 @@ public class ImageCropping extends JFrame {
         modes.add(miImmediate);
         modes.add(miDesignation);
 
+        JMenuItem miExportDataset = new JMenuItem("Export COCO/YOLO from Manifests…");
+        miExportDataset.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                exportDatasetFromManifests();
+            }
+        });
+
+        JMenuItem miAutoTile = new JMenuItem("Auto-Tile Current Folder…");
+        miAutoTile.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                autoTileCurrentFolder();
+            }
+        });
+        JMenuItem miStopTile = new JMenuItem("Stop Auto-Tiling");
+        miStopTile.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (autoTiler != null && autoTiler.isRunning()) {
+                    autoTiler.cancel();
+                } else {
+                    setStatus("No auto-tiling in progress", 1500);
+                }
+            }
+        });
+
         JMenuItem miExit = new JMenuItem("Exit");
         miExit.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -200,9 +268,13 @@ public class ImageCropping extends JFrame {
         });
 
         file.add(miExport);
+        file.add(miExportDataset);
         file.addSeparator();
         file.add(modes);
         file.addSeparator();
+        file.add(miAutoTile);
+        file.add(miStopTile);
+        file.addSeparator();
         file.add(miExit);
 
         JMenu settings = new JMenu("Settings");
@@ -237,6 +309,14 @@ public class ImageCropping extends JFrame {
             }
         });
 
+        JCheckBoxMenuItem miExportYolo = new JCheckBoxMenuItem("Also export YOLO labels (local)", exportYoloEnabled);
+        miExportYolo.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                exportYoloEnabled = miExportYolo.isSelected();
+                setStatus(exportYoloEnabled ? "YOLO export enabled" : "YOLO export disabled", 1500);
+            }
+        });
+
         JMenu performanceMenu = new JMenu("Performance");
         JMenuItem miStartPerf = new JMenuItem("Start Performance Session");
         JMenuItem miStopPerf = new JMenuItem("Stop Performance Session");
@@ -264,6 +344,7 @@ public class ImageCropping extends JFrame {
         settings.add(miDebug);
         settings.addSeparator();
         settings.add(miExportCoco);
+        settings.add(miExportYolo);
 
         performanceMenu.add(miStartPerf);
         performanceMenu.add(miStopPerf);
@@ -296,10 +377,13 @@ public class ImageCropping extends JFrame {
     }
 
     public void handleCropClick(Point mousePos) {
+        final long clickNanos = System.nanoTime();
         final boolean designationMode = (mode == CroppingMode.DESIGNATION);
         if (!hierSecondary && !hierTertiary) {
             ImageCroppingCore.CropResult result = core.performCrop(mousePos);
             if (result == null) return;
+            performance.recordSinceClick(Performance.Stage.BLIT, clickNanos);
+            result.metadata.clickNanos = clickNanos;
             result.metadata.designated = designationMode;
             result.metadata.isPrimary = true;
             enqueueSaveOrDesignation(result, designationMode);
@@ -311,15 +395,19 @@ public class ImageCropping extends JFrame {
                 hierTertiary, !designationMode
         );
         if (batch == null) return;
+        performance.recordSinceClick(Performance.Stage.BLIT, clickNanos);
+        batch.primary.metadata.clickNanos = clickNanos;
         batch.primary.metadata.designated = designationMode;
         batch.primary.metadata.isPrimary = true;
         enqueueSaveOrDesignation(batch.primary, designationMode);
         if (!designationMode) {
             for (ImageCroppingCore.CropResult r : batch.secondary) {
+                r.metadata.clickNanos = clickNanos;
                 r.metadata.designated = false;
                 enqueueSaveOrDesignation(r, false);
             }
             for (ImageCroppingCore.CropResult r : batch.tertiary) {
+                r.metadata.clickNanos = clickNanos;
                 r.metadata.designated = false;
                 enqueueSaveOrDesignation(r, false);
             }
@@ -375,28 +463,190 @@ public class ImageCropping extends JFrame {
             exportScheduled = true;
             SwingUtilities.invokeLater(new Runnable() {
                 public void run() {
-                    try {
-                        exportMetadataJson();
-                    } finally {
-                        exportScheduled = false;
-                    }
+                    exportMetadataJson(new Runnable() {
+                        public void run() {
+                            exportScheduled = false;
+                        }
+                    });
                 }
             });
         }
     }
 
-    public void exportMetadataJson() {
-        final List<ImageCroppingCore.CropMetadata> snapshot;
-        synchronized (core.getCropMetadataQueue()) {
-            if (core.getCropMetadataQueue().isEmpty()) {
-                JOptionPane.showMessageDialog(this, "No crop metadata to export yet.",
-                        "Nothing to Export", JOptionPane.INFORMATION_MESSAGE);
-                return;
+    private static CocoExporter.CropSource exportSource(List<ImageCroppingCore.CropMetadata> snapshot,
+                                                        MetadataJournal journal, long fromSeq, long toSeq) {
+        return (journal != null) ? CocoExporter.fromJournal(journal, fromSeq, toSeq) : CocoExporter.fromList(snapshot);
+    }
+
+    /**
+     * Builds COCO instances and YOLO labels for every {@code crop_metadata_*.json} under a
+     * chosen folder, streaming the manifests on a background thread.
+     */
+    private void exportDatasetFromManifests() {
+        JFileChooser fc = new JFileChooser(core.getSaveDirectory());
+        fc.setDialogTitle("Folder with crop_metadata_*.json manifests");
+        fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        final File dir = fc.getSelectedFile();
+        final List<File> manifests = new ArrayList<File>();
+        collectManifests(dir, manifests);
+        if (manifests.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No crop_metadata_*.json files under:\n" + dir.getAbsolutePath(),
+                    "Nothing to Export", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        Collections.sort(manifests);
+        final String stamp = ExportUtils.nowUtcStamp();
+        final String project = core.getProjectName(), user = core.getUserName();
+        setStatus("Exporting dataset from " + manifests.size() + " manifests…", 3000);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                String msg;
+                try {
+                    CocoExporter exporter = new CocoExporter();
+                    CocoExporter.CropSource source = CocoExporter.fromManifests(manifests);
+                    File coco = new File(dir, "Coco_instances_" + stamp + ".json");
+                    exporter.writeCocoInstances(source, coco, project, user, ExportUtils.stampToIso(stamp));
+                    int labels = exporter.writeYoloLabels(source, new File(dir, "Yolo_labels_" + stamp));
+                    msg = "📦 Dataset exported: " + coco.getName() + " + " + labels + " YOLO labels";
+                } catch (Throwable ex) {
+                    msg = "Dataset export failed: " + ex.getMessage();
+                }
+                final String status = msg;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        setStatus(status, 4000);
+                    }
+                });
             }
-            snapshot = new ArrayList<ImageCroppingCore.CropMetadata>(core.getCropMetadataQueue());
+        }, "DatasetExport");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void autoTileCurrentFolder() {
+        if (autoTiler != null && autoTiler.isRunning()) {
+            setStatus("Auto-tiling already in progress", 1500);
+            return;
+        }
+        JPanel p = new JPanel(new GridLayout(2, 2, 6, 6));
+        JTextField tfOverlap = new JTextField("0", 6);
+        JTextField tfStdDev = new JTextField("2.0", 6);
+        p.add(new JLabel("Overlap (px):"));
+        p.add(tfOverlap);
+        p.add(new JLabel("Skip tiles with luminance std. dev. below:"));
+        p.add(tfStdDev);
+        int option = JOptionPane.showConfirmDialog(this, p,
+                "Auto-Tile " + core.getCropWidth() + "x" + core.getCropHeight(), JOptionPane.OK_CANCEL_OPTION);
+        if (option != JOptionPane.OK_OPTION) return;
+        final int overlap;
+        final double minStdDev;
+        try {
+            overlap = Integer.parseInt(tfOverlap.getText().trim());
+            minStdDev = Double.parseDouble(tfStdDev.getText().trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Overlap and threshold must be numbers.",
+                    "Invalid Input", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (overlap < 0 || overlap >= Math.min(core.getCropWidth(), core.getCropHeight())) {
+            JOptionPane.showMessageDialog(this, "Overlap must be at least 0 and smaller than the crop size.",
+                    "Invalid Input", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        final AutoTiler tiler = core.newAutoTiler(overlap, minStdDev);
+        if (tiler.getImageCount() == 0) {
+            setStatus("No images in the current folder", 1500);
+            return;
+        }
+        autoTiler = tiler;
+        final boolean toCloud = cloudStorageManager.isUseCloudStorage();
+        final String prefix = core.getSavePrefix();
+        tiler.start(new AutoTiler.TileSink() {
+            public void accept(ImageCroppingCore.CropResult tile) throws InterruptedException {
+                ImageCroppingCore.CropMetadata m = tile.metadata;
+                performance.incrementCropCount();
+                performance.incrementCropCountForSize(m.cropWidth, m.cropHeight);
+                if (toCloud) {
+                    cloudStorageManager.queueCloudSave(tile.croppedImage, tile.filename, m, prefix,
+                            m.cropWidth + "x" + m.cropHeight);
+                } else {
+                    localSaver.enqueue(tile.croppedImage, tile.filename, m);
+                }
+            }
+        }, new AutoTiler.Listener() {
+            public void progress(final int imagesDone, final int imagesTotal, final long tiles, final long skipped,
+                                 final int failed) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        setStatus("🧩 Tiling " + imagesDone + "/" + imagesTotal + ": " + tiles + " tiles, "
+                                + skipped + " skipped" + (failed > 0 ? ", " + failed + " unreadable" : ""), 5000);
+                    }
+                });
+            }
+
+            public void finished(final int imagesDone, final long tiles, final long skipped, final int failed,
+                                 final boolean cancelled) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        setStatus((cancelled ? "🧩 Tiling stopped after " : "🧩 Tiled ") + imagesDone + " images: "
+                                + tiles + " tiles, " + skipped + " skipped"
+                                + (failed > 0 ? ", " + failed + " unreadable" : ""), 4000);
+                    }
+                });
+            }
+        });
+        setStatus("🧩 Tiling " + tiler.getImageCount() + " images…", 2000);
+    }
+
+    private static void collectManifests(File dir, List<File> out) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (int i = 0; i < files.length; i++) {
+            File f = files[i];
+            if (f.isDirectory()) collectManifests(f, out);
+            else if (f.getName().startsWith("crop_metadata_") && f.getName().endsWith(".json")) out.add(f);
+        }
+    }
+
+    public Future<?> exportMetadataJson() {
+        return exportMetadataJson(null);
+    }
+
+    /**
+     * Exports the pending crop metadata on the export thread, one export at a time, so streaming
+     * the journal and writing COCO/YOLO never holds up the EDT; dialogs and status messages are
+     * posted back to it. {@code done}, if not null, runs on the EDT once the export is over.
+     */
+    public Future<?> exportMetadataJson(final Runnable done) {
         final int primaryW = core.getCropWidth();
         final int primaryH = core.getCropHeight();
+        return exportExec.submit(new Runnable() {
+            public void run() {
+                try {
+                    writeExport(primaryW, primaryH);
+                } finally {
+                    if (done != null) SwingUtilities.invokeLater(done);
+                }
+            }
+        });
+    }
+
+    private void writeExport(final int primaryW, final int primaryH) {
+        final List<ImageCroppingCore.CropMetadata> snapshot;
+        final MetadataJournal journal = core.getMetadataJournal();
+        final long toSeq;
+        synchronized (core.getCropMetadataQueue()) {
+            snapshot = new ArrayList<ImageCroppingCore.CropMetadata>(core.getCropMetadataQueue());
+            // the queue and the journal are appended under this lock, so read together they make
+            // the snapshot the journal range (toSeq - snapshot.size(), toSeq]
+            toSeq = (journal != null) ? journal.lastSeq() : 0L;
+        }
+        if (snapshot.isEmpty()) {
+            showMessageLater("No crop metadata to export yet.", "Nothing to Export", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        final long fromSeq = toSeq - snapshot.size();
         final int secondaryW = Math.max(1, primaryW / 2), secondaryH = Math.max(1, primaryH / 2);
         final int tertiaryW = Math.max(1, primaryW / 4), tertiaryH = Math.max(1, primaryH / 4);
         int countPrimary = 0, countSecondary = 0, countTertiary = 0;
@@ -420,8 +670,7 @@ public class ImageCropping extends JFrame {
             String jsonFilename = "crop_metadata_" + exportStamp + ".json";
             File tempFile = new File(tempDir, jsonFilename);
             try {
-                JSONObject root = metadataExporter.buildExportJson(
-                        snapshot,
+                metadataExporter.writeExportJson(tempFile, snapshot, journal, fromSeq, toSeq,
                         ExportUtils.stampToIso(exportStamp),
                         ExportUtils.stampToIso(sessionExportStamp),
                         core.getProjectName(),
@@ -431,43 +680,38 @@ public class ImageCropping extends JFrame {
                         primaryW,
                         primaryH
                 );
-                metadataExporter.writeJsonToFile(root, tempFile);
                 String cloudKey = "Crop_Metadata_" + sessionExportStamp + "/" + jsonFilename;
                 cloudStorageManager.queueCloudMetadataUpload(tempFile, cloudKey);
                 if (exportCocoEnabled) {
                     try {
-                        CocoExporter coco = new CocoExporter();
-                        JSONObject cocoRoot = coco.buildCocoInstances(
-                                snapshot,
+                        String cocoFilename = "Coco_instances_" + exportStamp + ".json";
+                        File cocoTemp = new File(tempDir, cocoFilename);
+                        new CocoExporter().writeCocoInstances(exportSource(snapshot, journal, fromSeq, toSeq), cocoTemp,
                                 core.getProjectName(),
                                 core.getUserName(),
                                 ExportUtils.stampToIso(exportStamp)
                         );
-                        String cocoFilename = "Coco_instances_" + exportStamp + ".json";
-                        File cocoTemp = new File(tempDir, cocoFilename);
-                        metadataExporter.writeJsonToFile(cocoRoot, cocoTemp);
                         String cocoKey = "Crop_Metadata_" + sessionExportStamp + "/" + cocoFilename;
                         cloudStorageManager.queueCloudMetadataUpload(cocoTemp, cocoKey);
                     } catch (Throwable t) {
-                        setStatus("COCO export (cloud) failed: " + t.getMessage(), 3000);
+                        setStatusLater("COCO export (cloud) failed: " + t.getMessage(), 3000);
                     }
                 }
 
-                setStatus("📦 Metadata queued for cloud export: " + cloudKey, 2500);
+                setStatusLater("📦 Metadata queued for cloud export: " + cloudKey, 2500);
 
                 String alsoCoco = exportCocoEnabled ? ("\nCOCO: Coco_instances_" + exportStamp + ".json") : "";
-                JOptionPane.showMessageDialog(this,
-                        "Export complete to cloud:\n" + cloudKey +
-                                "\n\nCrops exported:" +
-                                "\n• Primary (" + primaryW + "x" + primaryH + "): " + countPrimary +
-                                "\n• Secondary (" + secondaryW + "x" + secondaryH + "): " + countSecondary +
-                                "\n• Tertiary (" + tertiaryW + "x" + tertiaryH + "): " + countTertiary +
-                                "\n\nTotal: " + total + alsoCoco,
+                showMessageLater("Export complete to cloud:\n" + cloudKey +
+                        "\n\nCrops exported:" +
+                        "\n• Primary (" + primaryW + "x" + primaryH + "): " + countPrimary +
+                        "\n• Secondary (" + secondaryW + "x" + secondaryH + "): " + countSecondary +
+                        "\n• Tertiary (" + tertiaryW + "x" + tertiaryH + "): " + countTertiary +
+                        "\n\nTotal: " + total + alsoCoco,
                         "Export Complete", JOptionPane.INFORMATION_MESSAGE);
 
-                core.clearCropMetadataQueue();
+                core.removeExportedMetadata(snapshot.size(), toSeq, jsonFilename);
             } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Export failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                showMessageLater("Export failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         } else {
             if (sessionExportDir == null) {
@@ -477,8 +721,7 @@ public class ImageCropping extends JFrame {
             String jsonFilename = "crop_metadata_" + exportStamp + ".json";
             File out = new File(sessionExportDir, jsonFilename);
             try {
-                JSONObject root = metadataExporter.buildExportJson(
-                        snapshot,
+                metadataExporter.writeExportJson(out, snapshot, journal, fromSeq, toSeq,
                         ExportUtils.stampToIso(exportStamp),
                         ExportUtils.stampToIso(sessionExportStamp),
                         core.getProjectName(),
@@ -488,47 +731,70 @@ public class ImageCropping extends JFrame {
                         primaryW,
                         primaryH
                 );
-                metadataExporter.writeJsonToFile(root, out);
                 if (exportCocoEnabled) {
                     try {
-                        CocoExporter coco = new CocoExporter();
-                        JSONObject cocoRoot = coco.buildCocoInstances(
-                                snapshot,
+                        String cocoFilename = "Coco_instances_" + exportStamp + ".json";
+                        File cocoOut = new File(sessionExportDir, cocoFilename);
+                        new CocoExporter().writeCocoInstances(exportSource(snapshot, journal, fromSeq, toSeq), cocoOut,
                                 core.getProjectName(),
                                 core.getUserName(),
                                 ExportUtils.stampToIso(exportStamp)
                         );
-                        String cocoFilename = "Coco_instances_" + exportStamp + ".json";
-                        File cocoOut = new File(sessionExportDir, cocoFilename);
-                        metadataExporter.writeJsonToFile(cocoRoot, cocoOut);
                     } catch (Throwable t) {
-                        setStatus("COCO export failed: " + t.getMessage(), 3000);
+                        setStatusLater("COCO export failed: " + t.getMessage(), 3000);
+                    }
+                }
+                if (exportYoloEnabled) {
+                    try {
+                        new CocoExporter().writeYoloLabels(exportSource(snapshot, journal, fromSeq, toSeq),
+                                new File(sessionExportDir, "Yolo_labels_" + exportStamp));
+                    } catch (Throwable t) {
+                        setStatusLater("YOLO export failed: " + t.getMessage(), 3000);
                     }
                 }
 
-                setStatus("📦 Metadata exported: " + out.getName(), 2500);
+                setStatusLater("📦 Metadata exported: " + out.getName(), 2500);
 
-                String alsoCoco = exportCocoEnabled ? ("\nCOCO: Coco_instances_" + exportStamp + ".json") : "";
-                JOptionPane.showMessageDialog(this,
-                        "Export complete:\n" + out.getAbsolutePath() +
-                                "\n\nCrops exported:" +
-                                "\n• Primary (" + primaryW + "x" + primaryH + "): " + countPrimary +
-                                "\n• Secondary (" + secondaryW + "x" + secondaryH + "): " + countSecondary +
-                                "\n• Tertiary (" + tertiaryW + "x" + tertiaryH + "): " + countTertiary +
-                                "\n\nTotal: " + total + alsoCoco,
+                String alsoCoco = (exportCocoEnabled ? ("\nCOCO: Coco_instances_" + exportStamp + ".json") : "")
+                        + (exportYoloEnabled ? ("\nYOLO: Yolo_labels_" + exportStamp + "/") : "");
+                showMessageLater("Export complete:\n" + out.getAbsolutePath() +
+                        "\n\nCrops exported:" +
+                        "\n• Primary (" + primaryW + "x" + primaryH + "): " + countPrimary +
+                        "\n• Secondary (" + secondaryW + "x" + secondaryH + "): " + countSecondary +
+                        "\n• Tertiary (" + tertiaryW + "x" + tertiaryH + "): " + countTertiary +
+                        "\n\nTotal: " + total + alsoCoco,
                         "Export Complete", JOptionPane.INFORMATION_MESSAGE);
 
-                core.clearCropMetadataQueue();
+                core.removeExportedMetadata(snapshot.size(), toSeq, jsonFilename);
             } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Export failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                showMessageLater("Export failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
 
+    private void showMessageLater(final String message, final String title, final int type) {
+        final Component parent = this;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                JOptionPane.showMessageDialog(parent, message, title, type);
+            }
+        });
+    }
+
+    private void setStatusLater(final String text, final int clearAfterMs) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                setStatus(text, clearAfterMs);
+            }
+        });
+    }
+
     public void requestExit() {
         if (confirmExportIfPending()) {
             debugLog("Shutting down application...");
+            if (autoTiler != null) autoTiler.cancel();
             localSaver.stop();
+            core.shutdown();
 
             cloudStorageManager.shutdown();
             preloadExec.shutdownNow();
@@ -552,7 +818,14 @@ public class ImageCropping extends JFrame {
                 "Pending metadata", JOptionPane.YES_NO_CANCEL_OPTION,
                 JOptionPane.WARNING_MESSAGE, null, options, options[0]);
         if (choice == 0) {
-            exportMetadataJson();
+            try {
+                // the export runs on its own thread; let it finish before the process exits
+                exportMetadataJson().get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ee) {
+                debugLog("Export before exit failed: " + ee.getCause());
+            }
             return true;
         }
         if (choice == 1) {
@@ -571,6 +844,7 @@ public class ImageCropping extends JFrame {
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "nextFolder");
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_HOME, 0), "firstImage");
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_END, 0), "lastImage");
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_0, 0), "fitImage");
         am.put("prevImage", new AbstractAction() {
             public void actionPerformed(ActionEvent e) {
                 core.showPrevImage();
@@ -602,6 +876,11 @@ public class ImageCropping extends JFrame {
                     core.jumpToImage(core.getImageFiles().size() - 1);
             }
         });
+        am.put("fitImage", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                core.getImagePanel().resetZoom();
+            }
+        });
     }
 
     public static void main(String[] args) {
@@ -1011,7 +1290,8 @@ public class ImageCropping extends JFrame {
                                                 public void onFinish(CloudImageSource.MirrorSummary s) {
                                                     SwingUtilities.invokeLater(new Runnable() {
                                                         public void run() {
-                                                            croppingTool.setStatus("Cloud mirror: " + s.downloaded + " new, " + s.skipped + " cached", 2500);
+                                                            croppingTool.setStatus("Cloud mirror: " + s.downloaded + " new, " + s.skipped + " cached"
+                                                                    + (s.deferred > 0 ? ", " + s.deferred + " on demand (cache full)" : ""), 2500);
                                                         }
                                                     });
                                                 }
@@ -1187,10 +1467,18 @@ public class ImageCropping extends JFrame {
         core.setStatus(text, clearAfterMs);
     }
 
+    public void setCloudUploadStats(int pending, int inFlight) {
+        core.setCloudUploadStats(pending, inFlight);
+    }
+
     public void addMetadataToQueue(ImageCroppingCore.CropMetadata meta) {
         core.addMetadataToQueue(meta);
     }
 
+    public Performance getPerformance() {
+        return performance;
+    }
+
     public void toggleRulers() {
         rulersEnabled = !rulersEnabled;
         if (rulerPanel != null) {
@@ -1204,6 +1492,7 @@ public class ImageCropping extends JFrame {
                 performance,
                 core,
                 cloudStorageManager,
+                (sourceMirror != null) ? sourceMirror.getCacheStats() : null,
                 performance.getMetricsReport()
         ).setVisible(true);
     }
@@ -31,17 +31,23 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
 import java.awt.geom.RoundRectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -102,6 +108,7 @@ public class ImageCroppingCore {
         return imagePanel;
     }
 
+    /** The full-resolution raster of the current image, or null while only its preview is decoded. */
     public BufferedImage getOriginalImage() {
         return originalImage;
     }
@@ -122,11 +129,23 @@ public class ImageCroppingCore {
     private List<File> imageFiles;
     private int currentSubfolderIndex = -1;
     private int currentImageIndex = -1;
+    // the folder index grows on the EDT as batches arrive; a show asked for before the first one waits here
+    private FolderIndexer folderIndexer;
+    private int indexGeneration;
+    private int pendingShowDirection;
+    private final String saveCanonicalPath;
 
     private BufferedImage originalImage;
     private File currentImageFile;
+    // an image being downloaded or decoded before it can be shown; null once navigation moves on
+    private File pendingFile;
+    private Future<?> previewDecode;
+    private Future<BufferedImage> fullDecode;
+    private File fullDecodeFile;
+    private TiledImageSource tiledSource;
 
     private final List<CropMetadata> cropMetadataQueue = new ArrayList<CropMetadata>();
+    private final MetadataJournal metadataJournal;
 
     private final Map<String, Integer> sequenceCounters = new HashMap<String, Integer>();
 
@@ -137,6 +156,8 @@ public class ImageCroppingCore {
     private ImagePanel imagePanel;
     private JLabel modeLabel;
     private JLabel skippedLabel;
+    private JLabel saveQueueLabel;
+    private JLabel cloudQueueLabel;
     private JLabel statusLabel;
     private JButton btnPrevFolder, btnPrevImage, btnNextImage, btnNextFolder;
     private JButton btnExport, btnClose;
@@ -144,10 +165,30 @@ public class ImageCroppingCore {
 
     private Timer statusClearTimer;
 
-    private final ImageCache cache = new ImageCache(3);
-    private final ExecutorService preloadExec = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    private final ImageCache cache = new ImageCache(cacheHeapFraction(), cacheSpillBytes());
+    private int prefetchAhead = Integer.getInteger("cropscope.prefetch.ahead", 8).intValue();
+    private int prefetchBehind = Integer.getInteger("cropscope.prefetch.behind", 2).intValue();
+    private final List<Future<?>> queuedPrefetches = new ArrayList<Future<?>>();
+    private final ThreadPoolExecutor preloadExec = newPreloadPool(
+            Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() / 2)));
+    private final ExecutorService pyramidExec = Executors.newSingleThreadExecutor(new ThreadFactory() {
         public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, "ImagePreloader");
+            Thread t = new Thread(r, "PyramidBuilder");
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        }
+    });
+    private final ExecutorService previewExec = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "PreviewDecoder");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final ExecutorService fullDecodeExec = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "FullResolutionDecoder");
             t.setDaemon(true);
             return t;
         }
@@ -160,6 +201,9 @@ public class ImageCroppingCore {
         this.cropWidth = cropWidth;
         this.cropHeight = cropHeight;
         this.cropEngine = new CropEngine(this.saveDirectory);
+        this.metadataJournal = (saveDirectory != null)
+                ? MetadataJournal.open(new File(saveDirectory, ".cropscope_journal")) : null;
+        this.saveCanonicalPath = canonicalPath(saveDirectory);
 
         if (sourceRootDir == null || !sourceRootDir.isDirectory()) {
             JOptionPane.showMessageDialog(null, "Please select a valid source directory.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -210,6 +254,9 @@ public class ImageCroppingCore {
         modeLabel = new JLabel("Mode: Immediate", SwingConstants.LEFT);
 
         skippedLabel = new JLabel("Skipped: 0", SwingConstants.LEFT);
+        saveQueueLabel = new JLabel("Save queue: 0", SwingConstants.LEFT);
+        cloudQueueLabel = new JLabel("Cloud: 0 queued", SwingConstants.LEFT);
+        cloudQueueLabel.setVisible(false);
 
         statusLabel = new JLabel(" ", SwingConstants.CENTER);
         Color iconColor = new Color(60, 60, 60);
@@ -269,9 +316,16 @@ public class ImageCroppingCore {
         JPanel l2 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
         l2.setOpaque(false);
         l2.add(skippedLabel);
+        JPanel l3 = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        l3.setOpaque(false);
+        l3.add(saveQueueLabel);
+        l3.add(Box.createHorizontalStrut(12));
+        l3.add(cloudQueueLabel);
         leftStack.add(l1);
         leftStack.add(Box.createVerticalStrut(3));
         leftStack.add(l2);
+        leftStack.add(Box.createVerticalStrut(3));
+        leftStack.add(l3);
         bottom.add(leftStack, BorderLayout.WEST);
         JPanel nav = new JPanel(new FlowLayout(FlowLayout.CENTER, 8, 0));
         nav.setOpaque(false);
@@ -327,6 +381,8 @@ public class ImageCroppingCore {
         Color infoColor = autoExportLabel.getForeground();
         modeLabel.setForeground(infoColor);
         skippedLabel.setForeground(infoColor);
+        saveQueueLabel.setForeground(infoColor);
+        cloudQueueLabel.setForeground(infoColor);
 
         bottom.add(rightGB, BorderLayout.EAST);
         return bottom;
@@ -398,24 +454,65 @@ public class ImageCroppingCore {
         d.setVisible(true);
     }
 
+    /**
+     * Starts indexing the current subfolder in the background. Images are appended to the list as
+     * they are found, and a show requested before the first one arrives is carried out then.
+     */
     public void loadCurrentSubfolder() {
         File folder = subfolders.get(currentSubfolderIndex);
+        if (folderIndexer != null) folderIndexer.cancel();
+        final int generation = ++indexGeneration;
         imageFiles = new ArrayList<File>();
-        findImagesRecursively(folder);
-        Collections.sort(imageFiles, new Comparator<File>() {
-            public int compare(File a, File b) {
-                return a.getAbsolutePath().compareToIgnoreCase(b.getAbsolutePath());
-            }
-        });
+        pendingShowDirection = 0;
+        pendingFile = null;
 
         currentImageIndex = -1;
         skippedImagesCount = 0;
         updateSkippedLabel();
 
-        if (!imageFiles.isEmpty()) {
-            cache.preload(imageFiles.get(0));
-            if (imageFiles.size() > 1) cache.preload(imageFiles.get(1));
-        }
+        final FolderIndexer indexer = new FolderIndexer(folder, saveCanonicalPath,
+                (saveDirectory != null) ? new File(saveDirectory, ".cropscope_index") : null);
+        folderIndexer = indexer;
+        final long started = System.nanoTime();
+        indexer.start(new FolderIndexer.Listener() {
+            public void found(final List<File> batch) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (generation != indexGeneration) return;
+                        int before = imageFiles.size();
+                        imageFiles.addAll(batch);
+                        if (pendingShowDirection != 0) {
+                            int dir = pendingShowDirection;
+                            pendingShowDirection = 0;
+                            showImageWithDirection(dir);
+                        } else if (before <= Math.max(currentImageIndex, 0) + prefetchAhead) {
+                            // the prefetch window reached past what was indexed
+                            schedulePrefetch(+1);
+                        }
+                    }
+                });
+            }
+
+            public void finished(final int total, final int listed, final int reused, final boolean cancelled) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (generation != indexGeneration) return;
+                        folderIndexer = null;
+                        if (debugEnabled) {
+                            System.out.println("[DEBUG][Core] Indexed " + total + " images in "
+                                    + (System.nanoTime() - started) / 1_000_000L + " ms (" + listed
+                                    + " directories listed, " + reused + " from the index)");
+                        }
+                        setStatus("📂 " + getSavePrefix() + ": " + total + " images", 1500);
+                        if (pendingShowDirection != 0) {
+                            int dir = pendingShowDirection;
+                            pendingShowDirection = 0;
+                            showImageWithDirection(dir);
+                        }
+                    }
+                });
+            }
+        });
         setStatus("📂 Now loading from: " + getSavePrefix(), 1500);
     }
 
@@ -425,22 +522,6 @@ public class ImageCroppingCore {
         return (prefix == null || prefix.trim().isEmpty()) ? "image" : prefix;
     }
 
-    private void findImagesRecursively(File dir) {
-        if (saveDirectory != null && isSubdirectoryOf(dir, saveDirectory)) return;
-        File[] files = safeListFiles(dir);
-        if (files == null) return;
-        Arrays.sort(files, new Comparator<File>() {
-            public int compare(File a, File b) {
-                return a.getName().compareToIgnoreCase(b.getName());
-            }
-        });
-        for (int i = 0; i < files.length; i++) {
-            File f = files[i];
-            if (f.isDirectory()) findImagesRecursively(f);
-            else if (isImageFile(f)) imageFiles.add(f);
-        }
-    }
-
     private boolean containsAnyImagesRecursively(File dir) {
         File[] files = safeListFiles(dir);
         if (files == null) return false;
@@ -463,23 +544,17 @@ public class ImageCroppingCore {
         }
     }
 
-    private boolean isSubdirectoryOf(File child, File parent) {
+    private static String canonicalPath(File f) {
+        if (f == null) return null;
         try {
-            File canonicalChild = child.getCanonicalFile();
-            File canonicalParent = parent.getCanonicalFile();
-            while (canonicalChild != null) {
-                if (canonicalChild.equals(canonicalParent)) return true;
-                canonicalChild = canonicalChild.getParentFile();
-            }
+            return f.getCanonicalPath();
         } catch (IOException e) {
-            return false;
+            return f.getAbsolutePath();
         }
-        return false;
     }
 
     private boolean isImageFile(File file) {
-        String name = file.getName().toLowerCase(Locale.ROOT);
-        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".gif") || name.endsWith(".bmp");
+        return FolderIndexer.isImageName(file.getName());
     }
 
     public void showNextFolder() {
@@ -513,49 +588,265 @@ public class ImageCroppingCore {
     }
 
     private void showImageWithDirection(int dir) {
+        showImageWithDirection(dir, 0);
+    }
+
+    private void showImageWithDirection(int dir, int attempts) {
+        pendingFile = null;
+        if (previewDecode != null) previewDecode.cancel(false);
         if (imageFiles == null || imageFiles.isEmpty()) {
+            if (folderIndexer != null) {
+                pendingShowDirection = dir;
+                setStatus("Indexing " + getSavePrefix() + "…", 1500);
+                return;
+            }
             JOptionPane.showMessageDialog(mainFrame, "No images in folder: " + getSavePrefix(), "No Images", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
-        int attempts = 0, size = imageFiles.size();
+        int size = imageFiles.size();
         while (attempts < size) {
             currentImageIndex = (currentImageIndex + dir + size) % size;
-            currentImageFile = imageFiles.get(currentImageIndex);
+            // the image on screen stays current (and the target of crops) until this one is shown
+            File file = imageFiles.get(currentImageIndex);
 
-            BufferedImage img = cache.get(currentImageFile);
+            BufferedImage img = cache.peek(file);
             if (img == null) {
-                try {
-                    img = ImageIO.read(currentImageFile);
-                    cache.put(currentImageFile, img);
-                } catch (IOException e) {
-                    attempts++;
-                    continue;
+                // an empty file is a cloud placeholder: evicted from the mirror or not fetched yet
+                if (file.length() == 0L) {
+                    fetchThenShow(file, currentImageIndex, dir, attempts);
+                } else {
+                    decodeThenShow(file, currentImageIndex, dir, attempts);
                 }
+                return;
             }
-            if (img == null) {
-                attempts++;
-                continue;
+            if (display(file, img, null, dir)) return;
+            attempts++;
+        }
+        if (folderIndexer != null) {
+            // every image found so far was skipped; carry on with the next batch only
+            currentImageIndex = (dir > 0) ? size - 1 : 0;
+            pendingShowDirection = dir;
+            return;
+        }
+        JOptionPane.showMessageDialog(mainFrame, "No valid images in folder: " + getSavePrefix() +
+                "\nSkipped: " + skippedImagesCount + " images", "No Valid Images", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * Makes {@code file} the current image, from its full raster or else from a preview, unless
+     * it is smaller than the crop, which counts as a skipped image and returns false.
+     */
+    private boolean display(File file, BufferedImage img, PreviewDecoder.Preview preview, int dir) {
+        int w = (img != null) ? img.getWidth() : preview.width;
+        int h = (img != null) ? img.getHeight() : preview.height;
+        if (w < cropWidth || h < cropHeight) {
+            skippedImagesCount++;
+            updateSkippedLabel();
+            setStatus("Image skipped (too small): " + file.getName(), 1200);
+            return false;
+        }
+
+        if (fullDecode != null) fullDecode.cancel(false);
+        closeTiledSource();
+        currentImageFile = file;
+        originalImage = img;
+        if (img != null) {
+            imagePanel.setImage(currentImageFile, img);
+        } else if (TiledImageSource.shouldTile(preview.width, preview.height)) {
+            // too large to decode whole: tiles are read as the viewport needs them
+            tiledSource = TiledImageSource.open(currentImageFile, preview.width, preview.height,
+                    new TiledImageSource.Listener() {
+                        public void tileReady() {
+                            imagePanel.repaint();
+                        }
+                    });
+            imagePanel.setTiledSource(currentImageFile, preview.image, tiledSource);
+        } else {
+            imagePanel.setPreview(currentImageFile, preview.image, preview.width, preview.height);
+            decodeFullResolution(currentImageFile);
+        }
+        imagePanel.requestFocusInWindow();
+
+        schedulePrefetch(dir);
+        mainFrame.imageShown(currentImageFile);
+        return true;
+    }
+
+    /**
+     * Cache miss: decodes a subsampled preview sized to the panel (or the embedded thumbnail) off
+     * the EDT and shows it when it is ready, unless navigation has moved on by then, with the
+     * full raster fetched in the background after. The image on screen stays up meanwhile.
+     */
+    private void decodeThenShow(final File file, final int index, final int dir, final int attempts) {
+        pendingFile = file;
+        final Dimension target = previewTarget();
+        previewDecode = previewExec.submit(new Runnable() {
+            public void run() {
+                final PreviewDecoder.Preview preview = PreviewDecoder.decode(file, target.width, target.height);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (!file.equals(pendingFile)) return;
+                        pendingFile = null;
+                        if (preview != null) {
+                            boolean full = preview.isFullResolution();
+                            if (full) cache.put(file, preview.image);
+                            if (display(file, full ? preview.image : null, full ? null : preview, dir)) return;
+                        }
+                        currentImageIndex = index;
+                        showImageWithDirection(dir, attempts + 1);
+                    }
+                });
             }
-            if (img.getWidth() < cropWidth || img.getHeight() < cropHeight) {
-                skippedImagesCount++;
-                updateSkippedLabel();
-                setStatus("Image skipped (too small): " + currentImageFile.getName(), 1200);
-                attempts++;
-                continue;
+        });
+    }
+
+    /**
+     * Downloads a cloud placeholder off the EDT and shows it when it arrives, unless navigation
+     * has moved on by then. A failed download counts as a skipped image and the search carries on
+     * in the same direction.
+     */
+    private void fetchThenShow(final File file, final int index, final int dir, final int attempts) {
+        pendingFile = file;
+        setStatus("☁️ Fetching " + file.getName() + " from the cloud…", 60000);
+        mainFrame.fetchSourceImage(file).whenComplete(new BiConsumer<Boolean, Throwable>() {
+            public void accept(final Boolean fetched, Throwable error) {
+                final boolean ok = error == null && Boolean.TRUE.equals(fetched);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (!file.equals(pendingFile)) return;
+                        pendingFile = null;
+                        if (ok && file.length() > 0L) {
+                            // step back so the search lands on this image again
+                            currentImageIndex = index - dir;
+                            showImageWithDirection(dir, attempts);
+                            return;
+                        }
+                        skippedImagesCount++;
+                        updateSkippedLabel();
+                        setStatus("Image skipped (cloud download failed): " + file.getName(), 2500);
+                        currentImageIndex = index;
+                        showImageWithDirection(dir, attempts + 1);
+                    }
+                });
             }
+        });
+    }
 
+    private void closeTiledSource() {
+        if (tiledSource != null) {
+            tiledSource.close();
+            tiledSource = null;
+        }
+    }
+
+    /** Where crops of the current image are read from: its tiled source, or the full raster. */
+    private CropEngine.RegionSource cropSource() {
+        if (tiledSource != null && tiledSource.getFile().equals(currentImageFile)) return tiledSource;
+        BufferedImage full = ensureFullResolution();
+        return (full != null) ? CropEngine.regionOf(full) : null;
+    }
+
+    private Dimension previewTarget() {
+        int w = imagePanel.getWidth() - 20, h = imagePanel.getHeight() - 20;
+        if (w <= 0 || h <= 0) {
+            Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+            w = screen.width;
+            h = screen.height;
+        }
+        return new Dimension(w, h);
+    }
+
+    private void decodeFullResolution(final File f) {
+        fullDecodeFile = f;
+        fullDecode = fullDecodeExec.submit(new Callable<BufferedImage>() {
+            public BufferedImage call() {
+                final BufferedImage img = cache.get(f);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (img != null && originalImage == null && f.equals(currentImageFile)) {
+                            originalImage = img;
+                            imagePanel.setImage(f, img);
+                        }
+                    }
+                });
+                return img;
+            }
+        });
+    }
+
+    /**
+     * Returns the full-resolution raster of the current image, waiting for the background
+     * decode (or decoding now if it was cancelled or never started) when only the preview is up.
+     */
+    private BufferedImage ensureFullResolution() {
+        if (originalImage != null || currentImageFile == null) return originalImage;
+        BufferedImage img = null;
+        Future<BufferedImage> pending = fullDecode;
+        if (pending != null && currentImageFile.equals(fullDecodeFile)) {
+            try {
+                img = pending.get();
+            } catch (Throwable ignore) {
+            }
+        }
+        if (img == null) img = cache.get(currentImageFile);
+        if (img != null) {
             originalImage = img;
-            imagePanel.setImage(currentImageFile, originalImage);
-            imagePanel.requestFocusInWindow();
+            imagePanel.setImage(currentImageFile, img);
+        }
+        return img;
+    }
 
-            int nextIdx = (currentImageIndex + 1) % size;
-            int prevIdx = (currentImageIndex - 1 + size) % size;
-            cache.preload(imageFiles.get(nextIdx));
-            cache.preload(imageFiles.get(prevIdx));
-            return;
+    public void setPrefetchWindow(int ahead, int behind) {
+        this.prefetchAhead = Math.max(0, ahead);
+        this.prefetchBehind = Math.max(0, behind);
+    }
+
+    /**
+     * Replaces the pending prefetches with the window around the current image: up to
+     * {@code prefetchAhead} images in the direction of travel, then {@code prefetchBehind}
+     * behind, in the order they would be shown. Loads already running are left to finish.
+     */
+    private void schedulePrefetch(int dir) {
+        for (int i = 0; i < queuedPrefetches.size(); i++) queuedPrefetches.get(i).cancel(false);
+        queuedPrefetches.clear();
+        preloadExec.purge();
+        if (imageFiles == null || imageFiles.isEmpty()) return;
+
+        int size = imageFiles.size();
+        int step = (dir < 0) ? -1 : 1;
+        // never prefetch more than the byte-budgeted cache can hold next to the current image
+        int room = Math.max(1, cache.estimatedCapacity() - 1);
+        int ahead = Math.min(prefetchAhead, room);
+        int behind = Math.min(prefetchBehind, Math.max(0, room - ahead));
+        Set<Integer> seen = new HashSet<Integer>();
+        seen.add(Integer.valueOf(currentImageIndex));
+        List<File> order = new ArrayList<File>(ahead + behind);
+        for (int i = 1; i <= ahead; i++) {
+            int idx = Math.floorMod(currentImageIndex + step * i, size);
+            if (seen.add(Integer.valueOf(idx))) order.add(imageFiles.get(idx));
+        }
+        for (int i = 1; i <= behind; i++) {
+            int idx = Math.floorMod(currentImageIndex - step * i, size);
+            if (seen.add(Integer.valueOf(idx))) order.add(imageFiles.get(idx));
+        }
+        for (int i = 0; i < order.size(); i++) {
+            Future<?> f = cache.preload(order.get(i));
+            if (f != null) queuedPrefetches.add(f);
         }
-        JOptionPane.showMessageDialog(mainFrame, "No valid images in folder: " + getSavePrefix() +
-                "\nSkipped: " + skippedImagesCount + " images", "No Valid Images", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private static ThreadPoolExecutor newPreloadPool(int threads) {
+        final AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ImagePreloader-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     private void updateSkippedLabel() {
@@ -563,6 +854,22 @@ public class ImageCroppingCore {
         skippedLabel.setText("Skipped: " + skippedImagesCount);
     }
 
+    /** Shows local save backlog and encode latency; negative latencies mean nothing was written yet. */
+    public void setSaveQueueStats(int pending, double encodeP50Ms, double encodeP95Ms) {
+        if (saveQueueLabel == null) return;
+        String text = "Save queue: " + pending;
+        if (encodeP50Ms >= 0) {
+            text += String.format(Locale.ROOT, "  ·  encode p50 %.0f ms / p95 %.0f ms", encodeP50Ms, encodeP95Ms);
+        }
+        saveQueueLabel.setText(text);
+    }
+
+    public void setCloudUploadStats(int pending, int inFlight) {
+        if (cloudQueueLabel == null) return;
+        cloudQueueLabel.setText("Cloud: " + pending + " queued, " + inFlight + " uploading");
+        cloudQueueLabel.setVisible(true);
+    }
+
     public void setStatus(String text, int clearAfterMs) {
         statusLabel.setText(text);
         if (statusClearTimer != null && statusClearTimer.isRunning()) statusClearTimer.stop();
@@ -577,12 +884,14 @@ public class ImageCroppingCore {
 
     public CropResult performCrop(Point mousePos) {
         ImagePanel.ScaledSnapshot snap = imagePanel.getScaledSnapshot();
-        if (snap == null || originalImage == null || currentImageFile == null) return null;
+        if (snap == null || currentImageFile == null) return null;
+        CropEngine.RegionSource source = cropSource();
+        if (source == null) return null;
 
         return cropEngine.performPrimaryCrop(
                 mousePos,
                 snap,
-                originalImage,
+                source,
                 currentImageFile,
                 sourceRootDir,
                 saveDirectory,
@@ -599,10 +908,12 @@ public class ImageCroppingCore {
             Point mousePos, boolean doSecondary, boolean doTertiary, boolean renderSubImages) {
 
         ImagePanel.ScaledSnapshot snap = imagePanel.getScaledSnapshot();
-        if (snap == null || originalImage == null || currentImageFile == null) return null;
+        if (snap == null || currentImageFile == null) return null;
+        CropEngine.RegionSource source = cropSource();
+        if (source == null) return null;
 
         return cropEngine.performHierarchicalCrop(
-                mousePos, snap, originalImage, currentImageFile,
+                mousePos, snap, source, currentImageFile,
                 sourceRootDir, saveDirectory,
                 cropWidth, cropHeight,
                 projectName, userName, getSavePrefix(),
@@ -610,13 +921,63 @@ public class ImageCroppingCore {
         );
     }
 
+    /** A tiler over the images of the current folder with the current crop size and settings. */
+    AutoTiler newAutoTiler(int overlap, double minStdDev) {
+        List<File> images = (imageFiles != null) ? imageFiles : Collections.<File>emptyList();
+        return new AutoTiler(images, cropEngine, sourceRootDir, saveDirectory, cropWidth, cropHeight,
+                projectName, userName, getSavePrefix(), overlap, minStdDev);
+    }
+
     public void exportMetadataJson() {
         mainFrame.exportMetadataJson();
     }
 
+    public void shutdown() {
+        if (folderIndexer != null) folderIndexer.cancel();
+        cropEngine.close();
+        closeTiledSource();
+        if (metadataJournal != null) metadataJournal.close();
+        previewExec.shutdownNow();
+        fullDecodeExec.shutdownNow();
+        cache.shutdown();
+    }
+
+    public ImageCacheMetrics.Snapshot getImageCacheStats() {
+        return cache.stats();
+    }
+
+    /** Adds {@code meta} to the export queue and appends it to the session journal. */
     public void addMetadataToQueue(CropMetadata meta) {
         synchronized (cropMetadataQueue) {
             cropMetadataQueue.add(meta);
+            // inside the queue lock, so journal sequence numbers follow queue order
+            if (metadataJournal != null) metadataJournal.append(meta);
+        }
+    }
+
+    /** The session journal, or null if it could not be created in the save directory. */
+    public MetadataJournal getMetadataJournal() {
+        return metadataJournal;
+    }
+
+    /**
+     * Re-queues crops that earlier sessions journaled but never exported, e.g. after a crash.
+     * Returns how many were recovered.
+     */
+    public int recoverJournaledMetadata() {
+        if (metadataJournal == null) return 0;
+        List<CropMetadata> pending = metadataJournal.recoverUnexported();
+        for (int i = 0; i < pending.size(); i++) addMetadataToQueue(pending.get(i));
+        metadataJournal.retireRecovered();
+        return pending.size();
+    }
+
+    /** Drops the first {@code count} queued entries (the ones just exported) and journals the export. */
+    public void removeExportedMetadata(int count, long upToSeq, String exportName) {
+        synchronized (cropMetadataQueue) {
+            int n = Math.min(count, cropMetadataQueue.size());
+            cropMetadataQueue.subList(0, n).clear();
+            if (metadataJournal != null) metadataJournal.markExported(upToSeq, exportName);
         }
     }
 
@@ -673,10 +1034,25 @@ public class ImageCroppingCore {
     }
 
     public class ImagePanel extends JPanel {
+        // above this size a full-resolution bilinear render on the EDT is noticeable
+        private static final long DIRECT_RENDER_PIXELS = 4L * 1024 * 1024;
+        private static final double MAX_SCREEN_PER_IMAGE_PIXEL = 4.0;
+
         private File currentFile;
         private BufferedImage currentImage;
+        private BufferedImage preview;
+        private int imageW, imageH;
+        private DisplayPyramid pyramid;
+        private TiledImageSource tiled;
+
+        // zoom relative to fit-to-window; above 1 only the visible part of the image is rendered
+        private double zoom = 1.0;
+        private double viewX, viewY;
+        private Point dragFrom;
+        private boolean dragged;
 
         private BufferedImage scaled;
+        private boolean scaledIsDraft;
         private int dispW, dispH;
         private int imgX, imgY;
         private Dimension lastSize;
@@ -691,11 +1067,34 @@ public class ImageCroppingCore {
                     mousePos = e.getPoint();
                     repaint();
                 }
+
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    if (zoom <= 1.0 || dragFrom == null) return;
+                    viewX += e.getX() - dragFrom.x;
+                    viewY += e.getY() - dragFrom.y;
+                    dragFrom = e.getPoint();
+                    dragged = true;
+                    mousePos = e.getPoint();
+                    repaint();
+                }
+            });
+            addMouseWheelListener(new MouseWheelListener() {
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent e) {
+                    if (imageW > 0) zoomAt(e.getPoint(), Math.pow(1.25, -e.getPreciseWheelRotation()));
+                }
             });
             addMouseListener(new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    dragFrom = e.getPoint();
+                    dragged = false;
+                }
+
                 @Override
                 public void mouseClicked(MouseEvent e) {
-                    if (currentImage != null) {
+                    if (imageW > 0 && !dragged) {
                         if (e.getClickCount() == 2) {
                         } else {
                             mainFrame.handleCropClick(e.getPoint());
@@ -713,12 +1112,79 @@ public class ImageCroppingCore {
         }
 
         void setImage(File file, BufferedImage img) {
+            // a preview of the same file stays on screen until the pyramid is ready
+            boolean keepPreview = preview != null && img != null && file.equals(currentFile)
+                    && img.getWidth() == imageW && img.getHeight() == imageH;
+            if (!file.equals(currentFile)) zoom = 1.0;
             this.currentFile = file;
+            this.tiled = null;
             this.currentImage = img;
+            this.imageW = (img != null) ? img.getWidth() : 0;
+            this.imageH = (img != null) ? img.getHeight() : 0;
+            this.pyramid = (img != null) ? cache.requestPyramid(file, img) : null;
+            if (!keepPreview || pyramid != null) {
+                preview = null;
+                invalidateScaled();
+            }
+            repaint();
+        }
+
+        /** Shows a subsampled decode of {@code file}; crops still map to {@code fullW x fullH}. */
+        void setPreview(File file, BufferedImage img, int fullW, int fullH) {
+            if (!file.equals(currentFile)) zoom = 1.0;
+            this.currentFile = file;
+            this.currentImage = null;
+            this.preview = img;
+            this.imageW = fullW;
+            this.imageH = fullH;
+            this.pyramid = null;
+            this.tiled = null;
             invalidateScaled();
             repaint();
         }
 
+        /** Shows an image served by {@code source}; {@code img} is its preview, used when zoomed out. */
+        void setTiledSource(File file, BufferedImage img, TiledImageSource source) {
+            setPreview(file, img, source.getWidth(), source.getHeight());
+            this.tiled = source;
+        }
+
+        void resetZoom() {
+            zoom = 1.0;
+            invalidateScaled();
+            repaint();
+        }
+
+        /** Zooms by {@code factor} keeping the image point under {@code p} in place. */
+        void zoomAt(Point p, double factor) {
+            ensureScaled();
+            if (imageW <= 0 || dispW <= 0) return;
+            double fit = fitRatio();
+            double oldRatio = dispW / (double) imageW;
+            double ix = (p.x - imgX) / oldRatio, iy = (p.y - imgY) / oldRatio;
+            double z = Math.max(1.0, Math.min(zoom * factor, Math.max(1.0, MAX_SCREEN_PER_IMAGE_PIXEL / fit)));
+            if (z == zoom) return;
+            zoom = z;
+            if (zoom <= 1.0) {
+                invalidateScaled();
+            } else {
+                scaled = null;
+                viewX = p.x - ix * fit * zoom;
+                viewY = p.y - iy * fit * zoom;
+            }
+            repaint();
+        }
+
+        void pyramidReady(BufferedImage img, DisplayPyramid p) {
+            if (img != currentImage) return;
+            pyramid = p;
+            if (scaledIsDraft || preview != null) {
+                preview = null;
+                invalidateScaled();
+                repaint();
+            }
+        }
+
         void invalidateScaled() {
             scaled = null;
             lastSize = null;
@@ -726,55 +1192,160 @@ public class ImageCroppingCore {
 
         ScaledSnapshot getScaledSnapshot() {
             ensureScaled();
-            if (scaled == null) return null;
+            if (imageW <= 0 || (scaled == null && zoom <= 1.0)) return null;
             return new ScaledSnapshot(imgX, imgY, dispW, dispH);
         }
 
+        private double fitRatio() {
+            int availableWidth = Math.max(1, getWidth() - 20);
+            int availableHeight = Math.max(1, getHeight() - 20);
+            return Math.min(Math.min(availableWidth / (double) imageW, availableHeight / (double) imageH), 1.0);
+        }
+
         private void ensureScaled() {
-            if (currentImage == null) {
+            if (imageW <= 0) {
                 scaled = null;
                 return;
             }
+            if (zoom > 1.0) {
+                layoutViewport();
+                return;
+            }
             Dimension sz = getSize();
             if (scaled != null && lastSize != null && lastSize.equals(sz)) return;
 
-            int availableWidth = Math.max(1, getWidth() - 20);
-            int availableHeight = Math.max(1, getHeight() - 20);
-            double w = currentImage.getWidth(), h = currentImage.getHeight();
-            double ratio = Math.min(Math.min(availableWidth / w, availableHeight / h), 1.0);
+            double w = imageW, h = imageH;
+            double ratio = fitRatio();
 
             dispW = Math.max(1, (int) Math.round(w * ratio));
             dispH = Math.max(1, (int) Math.round(h * ratio));
 
+            // Until the pyramid is ready, large images get a nearest-neighbour draft whose cost
+            // depends only on the display size; pyramidReady() swaps in the bilinear render.
+            BufferedImage source = (pyramid != null) ? pyramid.levelFor(dispW, dispH, currentImage)
+                    : (preview != null) ? preview : currentImage;
+            boolean draft = source == currentImage && pyramid == null && (long) imageW * imageH > DIRECT_RENDER_PIXELS;
+
             BufferedImage scaledBuf = new BufferedImage(dispW, dispH, BufferedImage.TYPE_INT_RGB);
             Graphics2D g2d = scaledBuf.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.drawImage(currentImage, 0, 0, dispW, dispH, null);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, draft
+                    ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(source, 0, 0, dispW, dispH, null);
             g2d.dispose();
 
             scaled = scaledBuf;
+            scaledIsDraft = draft;
             lastSize = sz;
             imgX = (getWidth() - dispW) / 2;
             imgY = (getHeight() - dispH) / 2;
         }
 
+        // zoomed in, the image is larger than the panel: keep it covering the panel while panning
+        private void layoutViewport() {
+            double ratio = fitRatio() * zoom;
+            dispW = (int) Math.max(1L, Math.round(imageW * ratio));
+            dispH = (int) Math.max(1L, Math.round(imageH * ratio));
+            imgX = clampOrigin(viewX, dispW, getWidth());
+            imgY = clampOrigin(viewY, dispH, getHeight());
+            viewX = imgX;
+            viewY = imgY;
+        }
+
+        private int clampOrigin(double origin, int extent, int size) {
+            if (extent <= size) return (size - extent) / 2;
+            return (int) Math.round(Math.max(size - extent, Math.min(0.0, origin)));
+        }
+
+        /** Draws only the image pixels inside the panel, from the tiles, pyramid or preview. */
+        private void paintViewport(Graphics g) {
+            Rectangle vis = new Rectangle(imgX, imgY, dispW, dispH).intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+            if (vis.isEmpty()) return;
+            double ratio = dispW / (double) imageW;
+            int ix0 = Math.max(0, (int) Math.floor((vis.x - imgX) / ratio));
+            int iy0 = Math.max(0, (int) Math.floor((vis.y - imgY) / ratio));
+            int ix1 = Math.min(imageW, (int) Math.ceil((vis.x + vis.width - imgX) / ratio));
+            int iy1 = Math.min(imageH, (int) Math.ceil((vis.y + vis.height - imgY) / ratio));
+
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.clip(vis);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, ratio >= 2.0
+                    ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            try {
+                if (tiled != null) {
+                    paintTiles(g2, ratio, ix0, iy0, ix1, iy1);
+                } else {
+                    BufferedImage src = (currentImage == null) ? preview
+                            : (pyramid != null) ? pyramid.levelFor(dispW, dispH, currentImage) : currentImage;
+                    if (src != null) drawRegion(g2, src, 0, 0, src.getWidth() / (double) imageW, ratio, ix0, iy0, ix1, iy1);
+                }
+            } finally {
+                g2.dispose();
+            }
+        }
+
+        private void paintTiles(Graphics2D g, double ratio, int ix0, int iy0, int ix1, int iy1) {
+            double previewScale = (preview != null) ? preview.getWidth() / (double) imageW : 0.0;
+            if (previewScale >= ratio) {
+                drawRegion(g, preview, 0, 0, previewScale, ratio, ix0, iy0, ix1, iy1);
+                return;
+            }
+            int level = tiled.levelFor(ratio);
+            int span = TiledImageSource.span(level);
+            List<Long> missing = new ArrayList<Long>();
+            for (int ty = iy0 / span; ty * span < iy1; ty++) {
+                for (int tx = ix0 / span; tx * span < ix1; tx++) {
+                    int x0 = tx * span, y0 = ty * span;
+                    int x1 = Math.min(imageW, x0 + span), y1 = Math.min(imageH, y0 + span);
+                    BufferedImage t = tiled.tile(level, tx, ty);
+                    if (t != null) {
+                        drawRegion(g, t, x0, y0, 1.0 / (1 << level), ratio, x0, y0, x1, y1);
+                    } else {
+                        if (preview != null) drawRegion(g, preview, 0, 0, previewScale, ratio, x0, y0, x1, y1);
+                        missing.add(Long.valueOf(TiledImageSource.key(level, tx, ty)));
+                    }
+                }
+            }
+            tiled.request(missing);
+        }
+
+        /**
+         * Draws image pixels {@code [ix0,ix1) x [iy0,iy1)} from {@code src}, whose pixel (0,0) is
+         * image pixel ({@code originX}, {@code originY}) and which has {@code scale} pixels per image pixel.
+         */
+        private void drawRegion(Graphics2D g, BufferedImage src, int originX, int originY, double scale,
+                                double ratio, int ix0, int iy0, int ix1, int iy1) {
+            int dx0 = imgX + (int) Math.floor(ix0 * ratio), dy0 = imgY + (int) Math.floor(iy0 * ratio);
+            int dx1 = imgX + (int) Math.ceil(ix1 * ratio), dy1 = imgY + (int) Math.ceil(iy1 * ratio);
+            int sx0 = (int) Math.floor((ix0 - originX) * scale), sy0 = (int) Math.floor((iy0 - originY) * scale);
+            int sx1 = Math.min(src.getWidth(), (int) Math.ceil((ix1 - originX) * scale));
+            int sy1 = Math.min(src.getHeight(), (int) Math.ceil((iy1 - originY) * scale));
+            if (sx1 <= sx0 || sy1 <= sy0) return;
+            g.drawImage(src, dx0, dy0, dx1, dy1, sx0, sy0, sx1, sy1, null);
+        }
+
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
             g.setColor(Color.GRAY);
             g.fillRect(0, 0, getWidth(), getHeight());
-            if (currentImage == null) return;
+            if (imageW <= 0) return;
             ensureScaled();
-            if (scaled == null) return;
-            g.drawImage(scaled, imgX, imgY, this);
+            if (zoom > 1.0) {
+                paintViewport(g);
+            } else {
+                if (scaled == null) return;
+                g.drawImage(scaled, imgX, imgY, this);
+            }
 
             if (mousePos != null &&
                     mousePos.x >= imgX && mousePos.x < imgX + dispW &&
                     mousePos.y >= imgY && mousePos.y < imgY + dispH) {
 
                 int relX = mousePos.x - imgX, relY = mousePos.y - imgY;
-                double scaleX = (double) currentImage.getWidth() / dispW;
-                double scaleY = (double) currentImage.getHeight() / dispH;
+                double scaleX = (double) imageW / dispW;
+                double scaleY = (double) imageH / dispH;
                 int dispCropW = (int) Math.round(cropWidth / scaleX);
                 int dispCropH = (int) Math.round(cropHeight / scaleY);
 
@@ -806,74 +1377,249 @@ public class ImageCroppingCore {
     }
 
     private class ImageCache {
-        private final Map<String, BufferedImage> strong;
-        private final Map<String, SoftReference<BufferedImage>> soft = new ConcurrentHashMap<String, SoftReference<BufferedImage>>();
-        private final int strongCap;
-
-        ImageCache(int strongCap) {
-            this.strongCap = Math.max(1, strongCap);
-            this.strong = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
-                    boolean evict = size() > ImageCache.this.strongCap;
-                    if (evict) soft.put(eldest.getKey(), new SoftReference<BufferedImage>(eldest.getValue()));
-                    return evict;
-                }
-            };
+        private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+        private final Set<String> loading = new HashSet<String>();
+        private final long budgetBytes;
+        private long usedBytes;
+        private final CompressedImageSpill spill;
+        private final ImageCacheMetrics metrics = new ImageCacheMetrics();
+
+        ImageCache(double heapFraction, long spillBytes) {
+            this.budgetBytes = Math.max(64L * 1024 * 1024, (long) (Runtime.getRuntime().maxMemory() * heapFraction));
+            this.spill = (spillBytes > 0L) ? new CompressedImageSpill(spillBytes) : null;
         }
 
         BufferedImage get(File f) {
             String k = key(f);
-            synchronized (strong) {
-                BufferedImage v = strong.get(k);
-                if (v != null) return v;
+            awaitLoading(k);
+            BufferedImage img = cached(k);
+            if (img != null) return img;
+            metrics.misses.increment();
+            img = load(f);
+            put(k, img);
+            return img;
+        }
+
+        /** Returns the image if it is in memory or the spill, without decoding it; null is a miss. */
+        BufferedImage peek(File f) {
+            BufferedImage img = cached(key(f));
+            if (img == null) metrics.misses.increment();
+            return img;
+        }
+
+        private BufferedImage cached(String k) {
+            CacheEntry e = entry(k);
+            if (e != null) {
+                metrics.hits.increment();
+                return e.image;
             }
-            SoftReference<BufferedImage> ref = soft.get(k);
-            BufferedImage img = (ref == null) ? null : ref.get();
+            BufferedImage img = (spill != null) ? spill.take(k) : null;
             if (img != null) {
-                put(f, img);
-                return img;
+                metrics.spillHits.increment();
+                put(k, img);
             }
-            try {
-                img = ImageIO.read(f);
-                put(f, img);
-                return img;
-            } catch (IOException e) {
-                return null;
+            return img;
+        }
+
+        // a prefetch already decoding this file is cheaper to wait for than to duplicate
+        private void awaitLoading(String k) {
+            synchronized (entries) {
+                while (loading.contains(k)) {
+                    try {
+                        entries.wait();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
             }
         }
 
         void put(File f, BufferedImage img) {
-            if (img == null) return;
-            synchronized (strong) {
-                strong.put(key(f), img);
+            put(key(f), img);
+        }
+
+        private CacheEntry put(String k, BufferedImage img) {
+            if (img == null) return null;
+            CacheEntry e = new CacheEntry(img);
+            synchronized (entries) {
+                CacheEntry old = entries.put(k, e);
+                if (old != null) usedBytes -= old.bytes;
+                usedBytes += e.bytes;
+                trim();
+            }
+            return e;
+        }
+
+        private CacheEntry entry(String k) {
+            synchronized (entries) {
+                return entries.get(k);
+            }
+        }
+
+        /** Re-accounts an entry whose pyramid has just been built. */
+        private void resized(String k, CacheEntry e) {
+            synchronized (entries) {
+                if (entries.get(k) != e) return;
+                long now = e.sizeInBytes();
+                usedBytes += now - e.bytes;
+                e.bytes = now;
+                trim();
+            }
+        }
+
+        // caller holds the lock; the newest entry always stays, even if it alone exceeds the budget
+        private void trim() {
+            Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+            while (usedBytes > budgetBytes && entries.size() > 1 && it.hasNext()) {
+                Map.Entry<String, CacheEntry> eldest = it.next();
+                usedBytes -= eldest.getValue().bytes;
+                it.remove();
+                metrics.evictions.increment();
+                if (spill != null) spill.offer(eldest.getKey(), eldest.getValue().image);
+            }
+        }
+
+        private BufferedImage load(File f) {
+            long t0 = System.nanoTime();
+            try {
+                return ImageIO.read(f);
+            } catch (IOException ex) {
+                return null;
+            } finally {
+                metrics.loadTimes.recordNanos(System.nanoTime() - t0);
             }
         }
 
-        void preload(final File f) {
-            if (f == null) return;
+        /**
+         * Returns the display pyramid of {@code img} if it is already built; otherwise schedules
+         * the build and hands the result to {@link ImagePanel#pyramidReady} on the EDT. An image
+         * that is not cached yet is cached first, so the pyramid stays with it.
+         */
+        DisplayPyramid requestPyramid(File f, final BufferedImage img) {
+            final String k = key(f);
+            CacheEntry cached = entry(k);
+            final CacheEntry e = (cached != null && cached.image == img) ? cached : put(k, img);
+            if (e.pyramid != null) return e.pyramid;
+            if (e.pyramidScheduled) return null;
+            e.pyramidScheduled = true;
+            pyramidExec.submit(new Runnable() {
+                public void run() {
+                    final DisplayPyramid p = e.buildPyramid();
+                    resized(k, e);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            imagePanel.pyramidReady(img, p);
+                        }
+                    });
+                }
+            });
+            return null;
+        }
+
+        Future<?> preload(final File f) {
+            if (f == null) return null;
             final String k = key(f);
-            synchronized (strong) {
-                if (strong.containsKey(k)) return;
+            synchronized (entries) {
+                if (entries.containsKey(k) || loading.contains(k)) return null;
             }
-            SoftReference<BufferedImage> ref = soft.get(k);
-            if (ref != null && ref.get() != null) return;
-            preloadExec.submit(new Runnable() {
+            return preloadExec.submit(new Runnable() {
                 public void run() {
+                    synchronized (entries) {
+                        if (entries.containsKey(k) || !loading.add(k)) return;
+                    }
                     try {
-                        BufferedImage img = ImageIO.read(f);
-                        if (img != null) put(f, img);
-                    } catch (IOException ignore) {
+                        BufferedImage img = (spill != null) ? spill.take(k) : null;
+                        // images that are only ever shown tiled must not be decoded whole
+                        if (img == null && TiledImageSource.shouldTile(f)) return;
+                        if (img == null) img = load(f);
+                        CacheEntry e = put(k, img);
+                        if (e == null) return;
+                        e.buildPyramid();
+                        resized(k, e);
+                    } finally {
+                        synchronized (entries) {
+                            loading.remove(k);
+                            entries.notifyAll();
+                        }
                     }
                 }
             });
         }
 
+        /** How many images of the currently cached average size fit in the budget. */
+        int estimatedCapacity() {
+            synchronized (entries) {
+                if (entries.isEmpty()) return Integer.MAX_VALUE;
+                long avg = Math.max(1L, usedBytes / entries.size());
+                return (int) Math.min(Integer.MAX_VALUE, budgetBytes / avg);
+            }
+        }
+
+        ImageCacheMetrics.Snapshot stats() {
+            int n;
+            long used;
+            synchronized (entries) {
+                n = entries.size();
+                used = usedBytes;
+            }
+            return metrics.snapshot(n, used, budgetBytes,
+                    spill != null ? spill.size() : 0, spill != null ? spill.usedBytes() : 0L);
+        }
+
+        void shutdown() {
+            if (spill != null) spill.shutdown();
+        }
+
         private String key(File f) {
             return f.getAbsolutePath() + "|" + f.lastModified() + "|" + f.length();
         }
     }
 
+    private static final class CacheEntry {
+        final BufferedImage image;
+        volatile DisplayPyramid pyramid;
+        volatile boolean pyramidScheduled;
+        long bytes;
+
+        CacheEntry(BufferedImage image) {
+            this.image = image;
+            this.bytes = sizeInBytes();
+        }
+
+        synchronized DisplayPyramid buildPyramid() {
+            if (pyramid == null) pyramid = DisplayPyramid.build(image);
+            return pyramid;
+        }
+
+        long sizeInBytes() {
+            DisplayPyramid p = pyramid;
+            return rasterBytes(image) + (p != null ? p.sizeInBytes() : 0L);
+        }
+    }
+
+    static long rasterBytes(BufferedImage img) {
+        DataBuffer db = img.getRaster().getDataBuffer();
+        return (long) db.getSize() * db.getNumBanks() * (DataBuffer.getDataTypeSize(db.getDataType()) / 8);
+    }
+
+    private static double cacheHeapFraction() {
+        try {
+            double f = Double.parseDouble(System.getProperty("cropscope.cache.heapFraction", "0.25"));
+            return (f > 0.0 && f < 0.9) ? f : 0.25;
+        } catch (NumberFormatException e) {
+            return 0.25;
+        }
+    }
+
+    private static long cacheSpillBytes() {
+        try {
+            return Math.max(0L, Long.parseLong(System.getProperty("cropscope.cache.spillMB", "0"))) * 1024L * 1024L;
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
     private static class PillButton extends JButton {
         PillButton(String text, Icon icon, String tooltip) {
             super(text, icon);
@@ -1016,6 +1762,8 @@ public class ImageCroppingCore {
         int imageWidth, imageHeight, cropX1, cropY1, cropX2, cropY2, cropWidth, cropHeight;
         double nx1, ny1, nx2, ny2;
         boolean designated;
+        // System.nanoTime() of the click that produced this crop, for latency metrics only
+        long clickNanos;
 
         JSONObject toJsonObject() {
             JSONObject o = new JSONObject();
@@ -1045,6 +1793,35 @@ public class ImageCroppingCore {
             }
             return o;
         }
+
+        /** Inverse of {@link #toJsonObject()}; also reads {@code isPrimary} when present. */
+        static CropMetadata fromJsonObject(JSONObject o) {
+            CropMetadata m = new CropMetadata();
+            m.project = o.optString("project", null);
+            m.user = o.optString("user", null);
+            m.sourceDir = o.optString("sourceDir", null);
+            m.sinkDir = o.optString("sinkDir", null);
+            m.imageName = o.optString("imageName", null);
+            m.imagePath = o.optString("imagePath", null);
+            m.imageWidth = o.optInt("imageWidth");
+            m.imageHeight = o.optInt("imageHeight");
+            m.cropX1 = o.optInt("cropX1");
+            m.cropY1 = o.optInt("cropY1");
+            m.cropX2 = o.optInt("cropX2");
+            m.cropY2 = o.optInt("cropY2");
+            m.cropWidth = o.optInt("cropWidth");
+            m.cropHeight = o.optInt("cropHeight");
+            m.annotation = o.optString("annotation", null);
+            m.savedAs = o.optString("savedAs", null);
+            m.nx1 = o.optDouble("nx1", 0.0);
+            m.ny1 = o.optDouble("ny1", 0.0);
+            m.nx2 = o.optDouble("nx2", 0.0);
+            m.ny2 = o.optDouble("ny2", 0.0);
+            m.designated = o.optBoolean("designated");
+            m.isPrimary = o.optBoolean("isPrimary");
+            m.cropOperations = o.optJSONArray("crop_operations");
+            return m;
+        }
     }
 
     public static class CropResult {
@@ -0,0 +1,125 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON generator: values are written to the underlying {@link Writer} as
+ * they are produced, with two-space indentation. The caller is responsible for well-formed
+ * nesting; only comma placement is tracked.
+ */
+final class JsonStreamWriter implements Closeable {
+
+    private final Writer out;
+    // per nesting level: true once the container at that depth has an element
+    private final boolean[] hasElement = new boolean[64];
+    private int depth;
+    private boolean afterName;
+
+    JsonStreamWriter(Writer out) {
+        this.out = out;
+    }
+
+    JsonStreamWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonStreamWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonStreamWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonStreamWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    JsonStreamWriter name(String name) throws IOException {
+        separate();
+        out.write(JSONObject.quote(name));
+        out.write(": ");
+        afterName = true;
+        return this;
+    }
+
+    JsonStreamWriter value(String v) throws IOException {
+        return raw(v == null ? "null" : JSONObject.quote(v));
+    }
+
+    JsonStreamWriter value(long v) throws IOException {
+        return raw(Long.toString(v));
+    }
+
+    JsonStreamWriter value(double v) throws IOException {
+        return raw(JSONObject.numberToString(Double.valueOf(v)));
+    }
+
+    /** Writes an already serialized JSON value, e.g. a small {@link JSONObject}. */
+    JsonStreamWriter raw(String json) throws IOException {
+        separate();
+        out.write(json);
+        return this;
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private JsonStreamWriter open(char c) throws IOException {
+        separate();
+        out.write(c);
+        hasElement[++depth] = false;
+        return this;
+    }
+
+    private JsonStreamWriter close(char c) throws IOException {
+        boolean any = hasElement[depth];
+        depth--;
+        if (any) newline();
+        out.write(c);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElement[depth]) out.write(',');
+            hasElement[depth] = true;
+            newline();
+        }
+    }
+
+    private void newline() throws IOException {
+        out.write('\n');
+        for (int i = 0; i < depth; i++) out.write("  ");
+    }
+}
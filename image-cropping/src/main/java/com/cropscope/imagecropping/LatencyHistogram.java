@@ -0,0 +1,100 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (16 per power of two, ~6% resolution)
+ * over microseconds, up to 2^31 us (about 36 minutes); anything longer lands in the last bucket.
+ * Recording is a single atomic increment.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 30;
+    // SUB_COUNT linear buckets below SUB_COUNT, then SUB_COUNT per exponent from SUB_BITS up
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    void recordNanos(long nanos) {
+        long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucketOf(micros));
+        total.increment();
+        sumMicros.add(micros);
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    double meanMillis() {
+        long n = total.sum();
+        return (n == 0L) ? 0.0 : sumMicros.sum() / (double) n / 1000.0;
+    }
+
+    /** Upper bound of the bucket holding the given quantile (0..1), in milliseconds. */
+    double percentileMillis(double quantile) {
+        long[] snap = new long[BUCKETS];
+        long n = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            snap[i] = counts.get(i);
+            n += snap[i];
+        }
+        if (n == 0L) return 0.0;
+        long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * n);
+        if (rank < 1L) rank = 1L;
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snap[i];
+            if (seen >= rank) return upperBoundMicros(i) / 1000.0;
+        }
+        return upperBoundMicros(BUCKETS - 1) / 1000.0;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0L);
+        total.reset();
+        sumMicros.reset();
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_COUNT) return (int) micros;
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        if (exp > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) ((micros >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long upperBoundMicros(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+        int sub = bucket % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1L;
+    }
+}
@@ -24,80 +24,174 @@ package com.cropscope.cloudbackuptool;
 import javax.imageio.ImageIO;
 import javax.swing.SwingUtilities;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes and writes crops on a pool of threads sized to the cores. Files are written in
+ * parallel, but {@code savedAs} and the metadata queue are updated strictly in the order
+ * crops were enqueued, so exported manifests do not depend on encoder timing.
+ */
+public final class LocalSaveWorker {
+    private static final int MAX_PENDING = 1024;
 
-public final class LocalSaveWorker implements Runnable {
     private final ImageCroppingCore core;
+    private final Performance performance;
     private final Runnable onSavedCallback;
-    private final BlockingQueue<SaveJob> queue = new ArrayBlockingQueue<SaveJob>(1024);
-    private final Thread worker;
+    private final ThreadPoolExecutor encoders;
+    private final Semaphore capacity = new Semaphore(MAX_PENDING);
+    // every job not yet published, in submission order; only finished jobs at the head are published
+    private final ArrayDeque<SaveJob> inOrder = new ArrayDeque<SaveJob>();
+    private final LatencyHistogram encodeTimes = new LatencyHistogram();
+    private final AtomicBoolean statsScheduled = new AtomicBoolean();
     private volatile boolean running = true;
 
-    public LocalSaveWorker(ImageCroppingCore core, Runnable onSavedCallback) {
+    public LocalSaveWorker(ImageCroppingCore core, Performance performance, Runnable onSavedCallback) {
         this.core = core;
+        this.performance = (performance != null) ? performance : new Performance();
         this.onSavedCallback = (onSavedCallback != null) ? onSavedCallback : new Runnable() {
             public void run() {
             }
         };
-        this.worker = new Thread(this, "LocalSaveWorker");
-        this.worker.setDaemon(true);
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        final AtomicInteger n = new AtomicInteger();
+        this.encoders = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LocalSaveWorker-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.encoders.allowCoreThreadTimeOut(true);
     }
 
     public void start() {
-        worker.start();
+        encoders.prestartAllCoreThreads();
     }
 
+    /** Stops accepting crops and gives already queued ones a few seconds to reach disk. */
     public void stop() {
         running = false;
-        worker.interrupt();
+        encoders.shutdown();
+        try {
+            if (!encoders.awaitTermination(5, TimeUnit.SECONDS)) encoders.shutdownNow();
+        } catch (InterruptedException ie) {
+            encoders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /** Blocks only when {@value #MAX_PENDING} crops are already waiting to be written. */
     public void enqueue(BufferedImage img, String filename, ImageCroppingCore.CropMetadata meta) throws InterruptedException {
-        queue.put(new SaveJob(img, filename, meta));
+        if (!running) return;
+        capacity.acquire();
+        final SaveJob job = new SaveJob(img, filename, meta);
+        synchronized (inOrder) {
+            inOrder.addLast(job);
+        }
+        encoders.execute(new Runnable() {
+            public void run() {
+                write(job);
+                publishCompleted();
+            }
+        });
+        scheduleStats();
     }
 
-    @Override
-    public void run() {
-        while (running) {
-            try {
-                final SaveJob job = queue.take();
-                if (job == null) continue;
-                final String prefix = (job.meta.annotation == null || job.meta.annotation.trim().isEmpty())
-                        ? "image" : job.meta.annotation;
-                final String resolution = job.meta.cropWidth + "x" + job.meta.cropHeight;
+    public int getPendingCount() {
+        synchronized (inOrder) {
+            return inOrder.size();
+        }
+    }
 
-                final File saveDir = new File(core.getSaveDirectory(), prefix + "/" + resolution);
-                if (!saveDir.exists()) saveDir.mkdirs();
+    private void write(SaveJob job) {
+        long t0 = System.nanoTime();
+        try {
+            final String prefix = (job.meta.annotation == null || job.meta.annotation.trim().isEmpty())
+                    ? "image" : job.meta.annotation;
+            final String resolution = job.meta.cropWidth + "x" + job.meta.cropHeight;
 
-                final File outputFile = new File(saveDir, job.filename);
+            final File saveDir = new File(core.getSaveDirectory(), prefix + "/" + resolution);
+            if (!saveDir.exists()) saveDir.mkdirs();
 
-                try {
-                    ImageIO.write(job.img, "PNG", outputFile);
-                    job.meta.savedAs = outputFile.getAbsolutePath();
+            final File outputFile = new File(saveDir, job.filename);
+            ByteArrayOutputStream png = new ByteArrayOutputStream(64 * 1024);
+            ImageIO.write(job.img, "PNG", png);
+            long t1 = System.nanoTime();
+            performance.recordLatency(Performance.Stage.ENCODE, t1 - t0);
+            FileOutputStream out = new FileOutputStream(outputFile);
+            try {
+                png.writeTo(out);
+            } finally {
+                out.close();
+            }
+            performance.recordLatency(Performance.Stage.WRITE, System.nanoTime() - t1);
+            performance.recordSinceClick(Performance.Stage.CLICK_TO_SAVED, job.meta.clickNanos);
+            job.outputFile = outputFile;
+        } catch (IOException io) {
+            job.error = io.getMessage();
+        } catch (Throwable t) {
+            job.error = t.toString();
+        } finally {
+            encodeTimes.recordNanos(System.nanoTime() - t0);
+            job.done = true;
+        }
+    }
+
+    private void publishCompleted() {
+        synchronized (inOrder) {
+            while (!inOrder.isEmpty() && inOrder.peekFirst().done) {
+                SaveJob job = inOrder.pollFirst();
+                capacity.release();
+                if (job.outputFile != null) {
+                    job.meta.savedAs = job.outputFile.getAbsolutePath();
                     core.addMetadataToQueue(job.meta);
                     SwingUtilities.invokeLater(onSavedCallback);
-                } catch (IOException io) {
-                    final String msg = "Save failed: " + io.getMessage();
+                } else {
+                    final String msg = "Save failed: " + job.error;
                     SwingUtilities.invokeLater(new Runnable() {
                         public void run() {
                             core.setStatus(msg, 2500);
                         }
                     });
                 }
-            } catch (InterruptedException ie) {
-                if (!running) break;
-            } catch (Throwable t) {
             }
         }
+        scheduleStats();
+    }
+
+    // coalesces label updates so a burst of sub-crops costs one EDT repaint
+    private void scheduleStats() {
+        if (!statsScheduled.compareAndSet(false, true)) return;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                statsScheduled.set(false);
+                boolean any = encodeTimes.count() > 0;
+                core.setSaveQueueStats(getPendingCount(),
+                        any ? encodeTimes.percentileMillis(0.5) : -1.0,
+                        any ? encodeTimes.percentileMillis(0.95) : -1.0);
+            }
+        });
     }
 
     private static final class SaveJob {
         final BufferedImage img;
         final String filename;
         final ImageCroppingCore.CropMetadata meta;
+        File outputFile;
+        String error;
+        volatile boolean done;
 
         SaveJob(BufferedImage img, String filename, ImageCroppingCore.CropMetadata meta) {
             this.img = img;
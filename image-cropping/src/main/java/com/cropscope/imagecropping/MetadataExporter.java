@@ -24,9 +24,14 @@ package com.cropscope.cloudbackuptool;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.UUID;
 
@@ -66,6 +71,67 @@ public class MetadataExporter {
         return root;
     }
 
+    /**
+     * Writes the same document as {@link #buildExportJson} straight to {@code file}, one crop
+     * at a time. With a journal the crops are streamed from it ({@code fromSeq < seq <= toSeq});
+     * otherwise they come from {@code items}. Only one crop is held as JSON at any moment.
+     */
+    public void writeExportJson(File file,
+                                List<ImageCroppingCore.CropMetadata> items,
+                                MetadataJournal journal, long fromSeq, long toSeq,
+                                String exportedAtUtc,
+                                String sessionFolderUtc,
+                                String project,
+                                String user,
+                                String sourceDir,
+                                String sinkDir,
+                                int cropWidth,
+                                int cropHeight) throws IOException {
+        final Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            w.write("{\n");
+            field(w, "project", JSONObject.quote(project));
+            field(w, "user", JSONObject.quote(user));
+            field(w, "sourceDir", JSONObject.quote(sourceDir));
+            field(w, "sinkDir", JSONObject.quote(sinkDir));
+            field(w, "sessionId", JSONObject.quote(sessionId));
+            field(w, "exportSequence", String.valueOf(exportSequence));
+            field(w, "defaultCropSize", "{\"w\": " + cropWidth + ", \"h\": " + cropHeight + "}");
+            field(w, "sessionFolderUtc", JSONObject.quote(sessionFolderUtc));
+            field(w, "exportedAtUtc", JSONObject.quote(exportedAtUtc));
+            field(w, "count", String.valueOf(items.size()));
+            w.write("  \"crops\": [");
+            final boolean[] first = {true};
+            if (journal != null) {
+                journal.streamCrops(fromSeq, toSeq, new MetadataJournal.CropVisitor() {
+                    public void visit(long seq, JSONObject meta) throws IOException {
+                        meta.remove("isPrimary");
+                        writeCrop(w, meta, first);
+                    }
+                });
+            } else {
+                for (ImageCroppingCore.CropMetadata m : items) writeCrop(w, m.toJsonObject(), first);
+            }
+            w.write(first[0] ? "]\n}" : "\n  ]\n}");
+        } finally {
+            w.close();
+        }
+    }
+
+    private static void field(Writer w, String name, String jsonValue) throws IOException {
+        w.write("  \"");
+        w.write(name);
+        w.write("\": ");
+        w.write(jsonValue);
+        w.write(",\n");
+    }
+
+    private static void writeCrop(Writer w, JSONObject crop, boolean[] first) throws IOException {
+        w.write(first[0] ? "\n    " : ",\n    ");
+        first[0] = false;
+        w.write(crop.toString(2).replace("\n", "\n    "));
+    }
+
     public File getExportFile(File saveDirectory, String exportStamp) {
         if (sessionExportStamp == null) sessionExportStamp = exportStamp;
         File sessionExportDir = new File(saveDirectory, "Crop_Metadata_" + sessionExportStamp);
@@ -0,0 +1,301 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only JSON Lines log of crop metadata for one session. Each saved crop becomes one
+ * {@code {"type":"crop","seq":n,"meta":{...}}} line and each export one
+ * {@code {"type":"export","upTo":n}} line. Lines are written in batches by a background
+ * thread and fsynced at most every {@link #FSYNC_INTERVAL_MS}, so appending costs the same
+ * however long the session runs. Journals of earlier sessions that end with unexported crops
+ * are picked up by {@link #recoverUnexported()}.
+ */
+final class MetadataJournal {
+
+    interface CropVisitor {
+        void visit(long seq, JSONObject meta) throws IOException;
+    }
+
+    private static final long FSYNC_INTERVAL_MS = 1000L;
+    private static final int MAX_BATCH = 512;
+
+    private final File dir;
+    private final File file;
+    private final FileOutputStream stream;
+    private final Writer out;
+    private final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+    private final Thread writer;
+    private final List<File> recoveredFiles = new ArrayList<File>();
+    private long lastSeq;
+    private long enqueuedLines;
+    private long writtenLines;
+    private volatile boolean closed;
+
+    static MetadataJournal open(File dir) {
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) return null;
+            return new MetadataJournal(dir);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private MetadataJournal(File dir) throws IOException {
+        this.dir = dir;
+        this.file = new File(dir, "journal-" + ImageCroppingCore.nowUtcStamp() + "-"
+                + Long.toHexString(System.nanoTime() & 0xFFFFFFL) + ".jsonl");
+        this.stream = new FileOutputStream(file, true);
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "MetadataJournal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    File file() {
+        return file;
+    }
+
+    /** Queues {@code meta} for the journal and returns its sequence number. */
+    synchronized long append(ImageCroppingCore.CropMetadata meta) {
+        long seq = ++lastSeq;
+        JSONObject line = new JSONObject();
+        line.put("type", "crop");
+        line.put("seq", seq);
+        line.put("meta", meta.toJsonObject().put("isPrimary", meta.isPrimary));
+        enqueue(line.toString());
+        return seq;
+    }
+
+    /** Records that every crop up to and including {@code upToSeq} has been exported. */
+    synchronized void markExported(long upToSeq, String exportName) {
+        JSONObject line = new JSONObject();
+        line.put("type", "export");
+        line.put("upTo", upToSeq);
+        line.put("file", exportName);
+        enqueue(line.toString());
+    }
+
+    synchronized long lastSeq() {
+        return lastSeq;
+    }
+
+    // caller holds the lock
+    private void enqueue(String line) {
+        if (closed) return;
+        enqueuedLines++;
+        lines.add(line);
+    }
+
+    /**
+     * Streams the crops with {@code fromExclusive < seq <= toInclusive} in journal order,
+     * after waiting for them to reach the file.
+     */
+    void streamCrops(long fromExclusive, long toInclusive, CropVisitor visitor) throws IOException {
+        awaitWritten();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            String s;
+            while ((s = in.readLine()) != null) {
+                JSONObject line = parse(s);
+                if (line == null || !"crop".equals(line.optString("type"))) continue;
+                long seq = line.optLong("seq", -1L);
+                if (seq <= fromExclusive) continue;
+                if (seq > toInclusive) break;
+                visitor.visit(seq, line.getJSONObject("meta"));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the unexported crops of earlier sessions' journals in this directory, oldest
+     * first. Once the caller has re-appended them, {@link #retireRecovered()} deletes the old files.
+     */
+    synchronized List<ImageCroppingCore.CropMetadata> recoverUnexported() {
+        List<ImageCroppingCore.CropMetadata> out = new ArrayList<ImageCroppingCore.CropMetadata>();
+        File[] files = dir.listFiles();
+        if (files == null) return out;
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            File f = files[i];
+            if (f.equals(file) || !f.getName().startsWith("journal-") || !f.getName().endsWith(".jsonl")) continue;
+            List<JSONObject> pending = new ArrayList<JSONObject>();
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+                try {
+                    String s;
+                    while ((s = in.readLine()) != null) {
+                        JSONObject line = parse(s);
+                        if (line == null) continue;
+                        String type = line.optString("type");
+                        if ("crop".equals(type)) {
+                            JSONObject meta = line.optJSONObject("meta");
+                            if (meta != null) pending.add(meta.put("$seq", line.optLong("seq")));
+                        } else if ("export".equals(type)) {
+                            long upTo = line.optLong("upTo");
+                            while (!pending.isEmpty() && pending.get(0).optLong("$seq") <= upTo) pending.remove(0);
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                continue;
+            }
+            for (int k = 0; k < pending.size(); k++) {
+                JSONObject meta = pending.get(k);
+                meta.remove("$seq");
+                out.add(ImageCroppingCore.CropMetadata.fromJsonObject(meta));
+            }
+            recoveredFiles.add(f);
+        }
+        return out;
+    }
+
+    void retireRecovered() {
+        awaitWritten();
+        List<File> files;
+        synchronized (this) {
+            files = new ArrayList<File>(recoveredFiles);
+            recoveredFiles.clear();
+        }
+        for (int i = 0; i < files.size(); i++) files.get(i).delete();
+    }
+
+    /** Writes out and fsyncs everything appended so far and stops the writer. */
+    void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        writer.interrupt();
+        try {
+            writer.join(5000L);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<String>(MAX_BATCH);
+        long lastSync = System.currentTimeMillis();
+        boolean dirty = false;
+        try {
+            while (true) {
+                String first;
+                try {
+                    first = lines.poll(dirty ? FSYNC_INTERVAL_MS : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    if (closed) break;
+                    continue;
+                }
+                if (first != null) {
+                    batch.add(first);
+                    lines.drainTo(batch, MAX_BATCH - 1);
+                    for (int i = 0; i < batch.size(); i++) {
+                        out.write(batch.get(i));
+                        out.write('\n');
+                    }
+                    out.flush();
+                    wrote(batch.size());
+                    batch.clear();
+                    dirty = true;
+                }
+                long now = System.currentTimeMillis();
+                if (dirty && now - lastSync >= FSYNC_INTERVAL_MS) {
+                    stream.getFD().sync();
+                    lastSync = now;
+                    dirty = false;
+                }
+            }
+            // closing: drain what is left
+            lines.drainTo(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                out.write(batch.get(i));
+                out.write('\n');
+            }
+            out.flush();
+            stream.getFD().sync();
+            wrote(batch.size());
+        } catch (IOException e) {
+            System.err.println("Metadata journal write failed: " + e.getMessage());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ignore) {
+            }
+            synchronized (this) {
+                writtenLines = Long.MAX_VALUE;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void wrote(int n) {
+        writtenLines += n;
+        notifyAll();
+    }
+
+    private synchronized void awaitWritten() {
+        long target = enqueuedLines;
+        while (writtenLines < target) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static JSONObject parse(String s) {
+        if (s.isEmpty()) return null;
+        try {
+            return new JSONObject(s);
+        } catch (Throwable torn) {
+            return null;
+        }
+    }
+}
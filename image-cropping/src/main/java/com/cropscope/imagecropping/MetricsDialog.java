@@ -40,19 +40,24 @@ public class MetricsDialog extends JDialog {
     private final Performance performance;
     private final ImageCroppingCore core;
     private final CloudStorageManager cloud;
+    private final MirrorCache.Snapshot sourceCache;
 
     public MetricsDialog(JFrame parent,
                          Performance performance,
                          ImageCroppingCore core,
                          CloudStorageManager cloud,
+                         MirrorCache.Snapshot sourceCache,
                          String metricsReportText) {
         super(parent, "Metrics Window", true);
         this.performance = performance;
         this.core = core;
         this.cloud = cloud;
+        this.sourceCache = sourceCache;
 
         setLayout(new BorderLayout());
-        metricsArea = new JTextArea(metricsReportText);
+        metricsArea = new JTextArea(metricsReportText
+                + (core != null ? "\n" + core.getImageCacheStats().toReport() : "")
+                + (sourceCache != null ? "\n" + sourceCache.toReport() : ""));
         metricsArea.setEditable(false);
         metricsArea.setFont(new Font("SansSerif", Font.PLAIN, 14));
         metricsArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -70,7 +75,7 @@ public class MetricsDialog extends JDialog {
         add(new JScrollPane(metricsArea), BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
 
-        setSize(450, 260);
+        setSize(480, 480);
         setLocationRelativeTo(getParent());
     }
 
@@ -124,9 +129,9 @@ public class MetricsDialog extends JDialog {
         session.put("durationMinutes", Double.valueOf(df.format(s.elapsedSeconds / 60.0)));
         root.put("session", session);
         JSONObject bySize = new JSONObject();
-        for (Map.Entry<String, Integer> e : s.countsBySize.entrySet()) {
+        for (Map.Entry<String, Long> e : s.countsBySize.entrySet()) {
             String size = e.getKey();
-            int count = e.getValue();
+            long count = e.getValue();
             double perSec = (s.elapsedSeconds > 0 ? (count / (double) s.elapsedSeconds) : 0.0);
             double perMin = perSec * 60.0;
 
@@ -140,6 +145,13 @@ public class MetricsDialog extends JDialog {
         JSONObject totals = new JSONObject();
         totals.put("overall", s.totalCrops);
         root.put("totals", totals);
+        JSONObject latency = new JSONObject();
+        for (Map.Entry<Performance.Stage, Performance.StageLatency> e : s.latencies.entrySet()) {
+            latency.put(e.getKey().key, e.getValue().toJson());
+        }
+        root.put("latency_ms", latency);
+        root.put("image_cache", core.getImageCacheStats().toJson());
+        if (sourceCache != null) root.put("source_cache", sourceCache.toJson());
         root.put("project", core.getProjectName());
         root.put("user", core.getUserName());
 
@@ -0,0 +1,384 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+package com.cropscope.cloudbackuptool;
+
+import com.cropscope.cloudstorage.model.StorageObjectSummary;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Disk cache behind {@link CloudImageSource}: the size, ETag and last access of every mirrored
+ * key, bounded by a byte quota. Once the quota is exceeded the least recently used files are
+ * evicted, except those pinned while the viewer has them open. An evicted file is truncated to
+ * an empty placeholder, so the folder still lists it and it is fetched again when shown.
+ * <p>
+ * Entries live in a tab-separated index beside the mirror ({@code size, eTag, lastAccess, key}),
+ * appended as they change and compacted on open and close, so startup never walks the tree.
+ */
+final class MirrorCache {
+
+    interface Store {
+        File fileFor(String key);
+
+        void evicted(String key);
+    }
+
+    private static final class Entry {
+        long size;
+        String eTag;
+        long lastAccess;
+    }
+
+    private final File file;
+    private final Store store;
+    // least recently used first; an entry moves to the back when touched or downloaded again
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256);
+    private final Map<String, Integer> pins = new HashMap<String, Integer>();
+    private long quotaBytes;
+    private long usedBytes;
+    // downloads admitted by tryReserve and not yet recorded
+    private long reservedBytes;
+    private long hits, misses, evictions, deferred, bytesSaved, bytesDownloaded;
+    private int lines;
+    private Writer out;
+
+    private MirrorCache(File file, long quotaBytes, Store store) {
+        this.file = file;
+        this.quotaBytes = quotaBytes;
+        this.store = store;
+    }
+
+    static MirrorCache open(File file, long quotaBytes, Store store) {
+        MirrorCache c = new MirrorCache(file, quotaBytes, store);
+        c.load();
+        if (c.lines > 2 * c.entries.size() + 1024) c.compact();
+        return c;
+    }
+
+    /**
+     * True when {@code dest} is a complete copy of {@code remote}; counts a hit or a miss.
+     * A copy from before the index was kept is adopted on its size.
+     */
+    synchronized boolean lookup(String key, File dest, StorageObjectSummary remote) {
+        long len = dest.length();
+        Entry e = entries.get(key);
+        boolean valid;
+        if (len <= 0L) {
+            valid = false;
+        } else if (remote == null) {
+            // without listing details any complete local copy will do
+            valid = true;
+        } else if (len != remote.getSize()) {
+            valid = false;
+        } else if (e != null && e.eTag != null && remote.getETag() != null) {
+            valid = e.eTag.equals(remote.getETag());
+        } else {
+            valid = true;
+        }
+        if (!valid) {
+            misses++;
+            return false;
+        }
+        if (e == null) put(key, len, (remote != null) ? remote.getETag() : null, dest.lastModified());
+        hits++;
+        bytesSaved += len;
+        return true;
+    }
+
+    /**
+     * Records a download of {@code key}, then evicts down to the quota. {@code reserved} is what
+     * {@link #tryReserve(long)} set aside for it, if anything.
+     */
+    synchronized void record(String key, long size, String eTag, long reserved) {
+        reservedBytes -= reserved;
+        bytesDownloaded += size;
+        put(key, size, eTag, System.currentTimeMillis());
+        evict(key);
+    }
+
+    /** Sets {@code size} bytes aside if they fit without evicting anything, counting other downloads in flight. */
+    synchronized boolean tryReserve(long size) {
+        if (usedBytes + reservedBytes + size > quotaBytes) return false;
+        reservedBytes += size;
+        return true;
+    }
+
+    synchronized void release(long reserved) {
+        reservedBytes -= reserved;
+    }
+
+    synchronized void deferred() {
+        deferred++;
+    }
+
+    /** Marks {@code key} as just used, moving it to the back of the eviction order. */
+    synchronized void touch(String key) {
+        Entry e = entries.remove(key);
+        if (e == null) return;
+        e.lastAccess = System.currentTimeMillis();
+        entries.put(key, e);
+        append(key, e);
+    }
+
+    synchronized void pin(String key) {
+        Integer n = pins.get(key);
+        pins.put(key, Integer.valueOf(n == null ? 1 : n.intValue() + 1));
+    }
+
+    synchronized void unpin(String key) {
+        Integer n = pins.get(key);
+        if (n == null) return;
+        if (n.intValue() <= 1) pins.remove(key);
+        else pins.put(key, Integer.valueOf(n.intValue() - 1));
+        evict(null);
+    }
+
+    synchronized void setQuotaBytes(long bytes) {
+        quotaBytes = Math.max(0L, bytes);
+        evict(null);
+    }
+
+    synchronized Snapshot snapshot() {
+        Snapshot s = new Snapshot();
+        s.hits = hits;
+        s.misses = misses;
+        s.evictions = evictions;
+        s.deferred = deferred;
+        s.bytesSaved = bytesSaved;
+        s.bytesDownloaded = bytesDownloaded;
+        s.entries = entries.size();
+        s.pinned = pins.size();
+        s.usedBytes = usedBytes;
+        s.quotaBytes = quotaBytes;
+        return s;
+    }
+
+    synchronized void close() {
+        compact();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignore) {
+            }
+            out = null;
+        }
+    }
+
+    private void put(String key, long size, String eTag, long lastAccess) {
+        Entry e = entries.remove(key);
+        if (e == null) e = new Entry();
+        else usedBytes -= e.size;
+        entries.put(key, e);
+        e.size = size;
+        e.eTag = eTag;
+        e.lastAccess = lastAccess;
+        usedBytes += size;
+        append(key, e);
+    }
+
+    // never evicts a pinned key or {@code keep}, the one just downloaded
+    private void evict(String keep) {
+        if (usedBytes <= quotaBytes) return;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        List<String> gone = new ArrayList<String>();
+        while (usedBytes > quotaBytes && it.hasNext()) {
+            Map.Entry<String, Entry> me = it.next();
+            String key = me.getKey();
+            if (key.equals(keep) || pins.containsKey(key)) continue;
+            if (!truncate(store.fileFor(key))) continue;
+            it.remove();
+            usedBytes -= me.getValue().size;
+            evictions++;
+            gone.add(key);
+            appendRemoval(key);
+        }
+        for (int i = 0; i < gone.size(); i++) store.evicted(gone.get(i));
+    }
+
+    private static boolean truncate(File f) {
+        if (!f.exists()) return true;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0L);
+            return true;
+        } catch (IOException ex) {
+            // held open elsewhere (e.g. on Windows); try again on a later eviction
+            return false;
+        }
+    }
+
+    private void append(String key, Entry e) {
+        writeLine(e.size + "\t" + (e.eTag != null ? e.eTag : "") + "\t" + e.lastAccess + "\t" + key + "\n");
+    }
+
+    private void appendRemoval(String key) {
+        writeLine("-1\t\t0\t" + key + "\n");
+    }
+
+    private void writeLine(String line) {
+        try {
+            if (out == null) {
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            out.write(line);
+            out.flush();
+            if (++lines > 2 * entries.size() + 4096) {
+                out.close();
+                out = null;
+                compact();
+            }
+        } catch (IOException ex) {
+            // the index only saves downloads; the mirror itself is unaffected
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) return;
+        Map<String, Entry> read = new HashMap<String, Entry>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                lines++;
+                String[] f = line.split("\t", 4);
+                if (f.length < 3) continue;
+                Entry e = new Entry();
+                String key;
+                try {
+                    e.size = Long.parseLong(f[0]);
+                    if (f.length == 4) {
+                        e.lastAccess = Long.parseLong(f[2]);
+                        key = f[3];
+                    } else {
+                        // written before last access was tracked
+                        key = f[2];
+                    }
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                if (e.size < 0L) {
+                    read.remove(key);
+                    continue;
+                }
+                e.eTag = f[1].isEmpty() ? null : f[1];
+                read.put(key, e);
+            }
+        } catch (IOException ex) {
+            // start over with what was read
+        }
+        List<Map.Entry<String, Entry>> byAccess = new ArrayList<Map.Entry<String, Entry>>(read.entrySet());
+        Collections.sort(byAccess, new Comparator<Map.Entry<String, Entry>>() {
+            public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b) {
+                return Long.compare(a.getValue().lastAccess, b.getValue().lastAccess);
+            }
+        });
+        for (int i = 0; i < byAccess.size(); i++) {
+            Map.Entry<String, Entry> me = byAccess.get(i);
+            entries.put(me.getKey(), me.getValue());
+            usedBytes += me.getValue().size;
+        }
+    }
+
+    private void compact() {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                    Entry e = me.getValue();
+                    w.write(e.size + "\t" + (e.eTag != null ? e.eTag : "") + "\t" + e.lastAccess + "\t" + me.getKey() + "\n");
+                }
+            }
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            lines = entries.size();
+        } catch (IOException ex) {
+            tmp.delete();
+        }
+    }
+
+    public static class Snapshot {
+        public long hits, misses, evictions, deferred, bytesSaved, bytesDownloaded;
+        public int entries, pinned;
+        public long usedBytes, quotaBytes;
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return (total == 0L) ? 0.0 : hits / (double) total;
+        }
+
+        public String toReport() {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("Cloud source cache:\n");
+            sb.append("  - Hits: ").append(hits).append(", misses: ").append(misses)
+                    .append(", hit ratio: ").append(String.format(Locale.ROOT, "%.1f%%", hitRatio() * 100.0)).append('\n');
+            sb.append("  - Saved: ").append(mb(bytesSaved)).append(" MB, downloaded: ")
+                    .append(mb(bytesDownloaded)).append(" MB\n");
+            sb.append("  - Disk: ").append(entries).append(" images, ")
+                    .append(mb(usedBytes)).append(" / ").append(mb(quotaBytes)).append(" MB")
+                    .append(" (pinned: ").append(pinned).append(")\n");
+            sb.append("  - Evictions: ").append(evictions).append(", left for on demand: ").append(deferred).append('\n');
+            return sb.toString();
+        }
+
+        public JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            o.put("hits", hits);
+            o.put("misses", misses);
+            o.put("hitRatio", hitRatio());
+            o.put("bytesSaved", bytesSaved);
+            o.put("bytesDownloaded", bytesDownloaded);
+            o.put("entries", entries);
+            o.put("pinned", pinned);
+            o.put("usedBytes", usedBytes);
+            o.put("quotaBytes", quotaBytes);
+            o.put("evictions", evictions);
+            o.put("deferred", deferred);
+            return o;
+        }
+
+        private static String mb(long bytes) {
+            return String.format(Locale.ROOT, "%.1f", bytes / (1024.0 * 1024.0));
+        }
+    }
+}
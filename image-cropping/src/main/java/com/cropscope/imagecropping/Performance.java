@@ -21,31 +21,64 @@
 
 package com.cropscope.cloudbackuptool;
 
+import org.json.JSONObject;
+
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Session metrics for the cropping window. Counters and latency histograms are lock-free, so
+ * the EDT, the save workers and the cloud uploaders record into them without coordination.
+ */
 public class Performance {
-    private long startNanos;
-    private long endNanos;
-    private boolean sessionActive;
 
-    private String sessionStartUtcStamp;
+    /** Stages of a crop's way from the mouse click to durable storage. */
+    public enum Stage {
+        BLIT("blit", "Click to crop"),
+        ENCODE("encode", "PNG encode"),
+        WRITE("write", "Disk write"),
+        CLOUD_ACK("cloudAck", "Cloud upload"),
+        CLICK_TO_SAVED("clickToSaved", "Click to saved");
+
+        public final String key;
+        public final String label;
+
+        Stage(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+    }
 
-    private int totalCrops = 0;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean sessionActive;
 
-    private final Map<String, Integer> countsBySize = new LinkedHashMap<String, Integer>();
+    private volatile String sessionStartUtcStamp;
+
+    private final LongAdder totalCrops = new LongAdder();
+
+    private final ConcurrentHashMap<String, LongAdder> countsBySize = new ConcurrentHashMap<String, LongAdder>();
+
+    private final EnumMap<Stage, LatencyHistogram> latencies = new EnumMap<Stage, LatencyHistogram>(Stage.class);
 
     public Performance() {
+        for (Stage s : Stage.values()) latencies.put(s, new LatencyHistogram());
         reset();
     }
 
     public void startSession() {
         reset();
         this.startNanos = System.nanoTime();
-        this.sessionActive = true;
         this.sessionStartUtcStamp = ExportUtils.nowUtcStamp();
+        this.sessionActive = true;
     }
 
     public void stopSession() {
@@ -65,32 +98,48 @@ public class Performance {
 
     public void incrementCropCount() {
         if (sessionActive) {
-            totalCrops++;
+            totalCrops.increment();
         }
     }
 
+    /** Counts a saved crop under its size; the total is counted by {@link #incrementCropCount()}. */
     public void incrementCropCountForSize(int w, int h) {
         if (!sessionActive) return;
-        totalCrops++;
         String key = w + "x" + h;
-        Integer cur = countsBySize.get(key);
-        countsBySize.put(key, (cur == null ? 1 : (cur.intValue() + 1)));
+        LongAdder cur = countsBySize.get(key);
+        if (cur == null) {
+            LongAdder created = new LongAdder();
+            cur = countsBySize.putIfAbsent(key, created);
+            if (cur == null) cur = created;
+        }
+        cur.increment();
+    }
+
+    public void recordLatency(Stage stage, long nanos) {
+        if (sessionActive && nanos >= 0L) latencies.get(stage).recordNanos(nanos);
+    }
+
+    /** Records the time elapsed since {@code clickNanos}; crops not tied to a click (0) are ignored. */
+    public void recordSinceClick(Stage stage, long clickNanos) {
+        if (clickNanos != 0L) recordLatency(stage, System.nanoTime() - clickNanos);
     }
 
     public int getTotalCrops() {
-        return totalCrops;
+        return (int) totalCrops.sum();
     }
 
     public double getSessionTimeInMinutes() {
-        if (startNanos == 0L || endNanos <= startNanos) return 0.0;
-        double secs = (endNanos - startNanos) / 1_000_000_000.0;
+        long start = startNanos, end = endNanos;
+        if (start == 0L || end <= start) return 0.0;
+        double secs = (end - start) / 1_000_000_000.0;
         return secs / 60.0;
     }
 
     public double getImagesPerSecond() {
-        if (startNanos == 0L || endNanos <= startNanos) return 0.0;
-        double secs = (endNanos - startNanos) / 1_000_000_000.0;
-        return (secs > 0) ? (totalCrops / secs) : 0.0;
+        long start = startNanos, end = endNanos;
+        if (start == 0L || end <= start) return 0.0;
+        double secs = (end - start) / 1_000_000_000.0;
+        return (secs > 0) ? (totalCrops.sum() / secs) : 0.0;
     }
 
     public double getImagesPerMinute() {
@@ -106,7 +155,7 @@ public class Performance {
         double totalPerSec = (s.elapsedSeconds > 0 ? (s.totalCrops / (double) s.elapsedSeconds) : 0.0);
         double totalPerMin = totalPerSec * 60.0;
 
-        StringBuilder sb = new StringBuilder(512);
+        StringBuilder sb = new StringBuilder(1024);
         sb.append("Total crops taken: ").append(s.totalCrops).append('\n');
         sb.append("Time session in minutes: ")
                 .append(String.format(Locale.ROOT, "%.2f", minutes)).append('\n');
@@ -117,9 +166,9 @@ public class Performance {
 
         if (!s.countsBySize.isEmpty()) {
             sb.append("\nBy crop size:\n");
-            for (Map.Entry<String, Integer> e : s.countsBySize.entrySet()) {
+            for (Map.Entry<String, Long> e : s.countsBySize.entrySet()) {
                 String size = e.getKey();
-                int count = e.getValue();
+                long count = e.getValue();
                 double perSec = (s.elapsedSeconds > 0 ? (count / (double) s.elapsedSeconds) : 0.0);
                 double perMin = perSec * 60.0;
 
@@ -132,40 +181,112 @@ public class Performance {
             }
         }
 
+        boolean header = false;
+        for (Map.Entry<Stage, StageLatency> e : s.latencies.entrySet()) {
+            StageLatency l = e.getValue();
+            if (l.count == 0L) continue;
+            if (!header) {
+                sb.append("\nLatency in ms (p50 / p95 / p99):\n");
+                header = true;
+            }
+            sb.append("  ").append(e.getKey().label).append(": ")
+                    .append(String.format(Locale.ROOT, "%.1f / %.1f / %.1f", l.p50Millis, l.p95Millis, l.p99Millis))
+                    .append(" (n=").append(l.count).append(")\n");
+        }
+
         return sb.toString();
     }
 
 
     public Snapshot getSnapshot() {
         final long now = System.nanoTime();
+        final long start = startNanos;
         final long end = sessionActive ? now : endNanos;
         long elapsedSeconds = 0L;
-        if (startNanos > 0L && end > startNanos) {
-            elapsedSeconds = (end - startNanos) / 1_000_000_000L;
+        if (start > 0L && end > start) {
+            elapsedSeconds = (end - start) / 1_000_000_000L;
             if (elapsedSeconds <= 0L) elapsedSeconds = 1L;
         }
 
+        List<String> sizes = new ArrayList<String>(countsBySize.keySet());
+        Collections.sort(sizes, BY_AREA);
+        Map<String, Long> bySize = new LinkedHashMap<String, Long>();
+        for (String size : sizes) bySize.put(size, countsBySize.get(size).sum());
+
+        Map<Stage, StageLatency> lat = new EnumMap<Stage, StageLatency>(Stage.class);
+        for (Stage stage : Stage.values()) lat.put(stage, new StageLatency(latencies.get(stage)));
+
         Snapshot s = new Snapshot();
-        s.sessionStartUtcStamp = (sessionStartUtcStamp != null ? sessionStartUtcStamp : ExportUtils.nowUtcStamp());
+        String stamp = sessionStartUtcStamp;
+        s.sessionStartUtcStamp = (stamp != null ? stamp : ExportUtils.nowUtcStamp());
         s.elapsedSeconds = elapsedSeconds;
-        s.totalCrops = totalCrops;
-        s.countsBySize = Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(countsBySize));
+        s.totalCrops = totalCrops.sum();
+        s.countsBySize = Collections.unmodifiableMap(bySize);
+        s.latencies = Collections.unmodifiableMap(lat);
         return s;
     }
 
     private void reset() {
+        sessionActive = false;
         startNanos = 0L;
         endNanos = 0L;
-        sessionActive = false;
         sessionStartUtcStamp = null;
-        totalCrops = 0;
+        totalCrops.reset();
         countsBySize.clear();
+        for (LatencyHistogram h : latencies.values()) h.reset();
     }
 
+    private static final Comparator<String> BY_AREA = new Comparator<String>() {
+        public int compare(String a, String b) {
+            int c = Long.compare(area(a), area(b));
+            return (c != 0) ? c : a.compareTo(b);
+        }
+
+        private long area(String size) {
+            int x = size.indexOf('x');
+            try {
+                return Long.parseLong(size.substring(0, x)) * Long.parseLong(size.substring(x + 1));
+            } catch (RuntimeException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+    };
+
     public static class Snapshot {
         public String sessionStartUtcStamp;
         public long elapsedSeconds;
-        public int totalCrops;
-        public Map<String, Integer> countsBySize;
+        public long totalCrops;
+        public Map<String, Long> countsBySize;
+        public Map<Stage, StageLatency> latencies;
+    }
+
+    public static class StageLatency {
+        public final long count;
+        public final double meanMillis;
+        public final double p50Millis;
+        public final double p95Millis;
+        public final double p99Millis;
+
+        StageLatency(LatencyHistogram h) {
+            this.count = h.count();
+            this.meanMillis = h.meanMillis();
+            this.p50Millis = h.percentileMillis(0.50);
+            this.p95Millis = h.percentileMillis(0.95);
+            this.p99Millis = h.percentileMillis(0.99);
+        }
+
+        public JSONObject toJson() {
+            JSONObject o = new JSONObject();
+            o.put("count", count);
+            o.put("mean", round(meanMillis));
+            o.put("p50", round(p50Millis));
+            o.put("p95", round(p95Millis));
+            o.put("p99", round(p99Millis));
+            return o;
+        }
+
+        private static double round(double ms) {
+            return Math.round(ms * 1000.0) / 1000.0;
+        }
     }
 }
@@ -0,0 +1,117 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Iterator;
+
+/**
+ * Decodes a reduced-resolution copy of an image for display, reading only the header to
+ * pick the subsampling so the result still covers the target area. A subsampled read still
+ * parses the whole compressed stream, so an embedded thumbnail is used instead when it covers
+ * the target, or when the image is large enough to be shown from tiles anyway.
+ */
+final class PreviewDecoder {
+
+    static final class Preview {
+        final BufferedImage image;
+        final int width, height;
+        final int subsampling;
+
+        Preview(BufferedImage image, int width, int height, int subsampling) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.subsampling = subsampling;
+        }
+
+        /** True if no subsampling was needed and {@link #image} is the full-resolution raster. */
+        boolean isFullResolution() {
+            return subsampling == 1;
+        }
+    }
+
+    private PreviewDecoder() {
+    }
+
+    /** The largest embedded thumbnail if it covers the target or the image will be tiled, else null. */
+    private static BufferedImage thumbnail(ImageReader reader, int w, int h, int targetW, int targetH) {
+        try {
+            if (!reader.readerSupportsThumbnails() || !reader.hasThumbnails(0)) return null;
+            int best = 0;
+            for (int i = 1; i < reader.getNumThumbnails(0); i++) {
+                if (reader.getThumbnailWidth(0, i) > reader.getThumbnailWidth(0, best)) best = i;
+            }
+            int tw = reader.getThumbnailWidth(0, best), th = reader.getThumbnailHeight(0, best);
+            if ((tw >= targetW && th >= targetH && tw < w) || TiledImageSource.shouldTile(w, h)) {
+                return reader.readThumbnail(0, best);
+            }
+        } catch (Throwable ignore) {
+            // a damaged thumbnail is no reason to fail the preview
+        }
+        return null;
+    }
+
+    /**
+     * Decodes {@code f} with the coarsest integer subsampling that keeps it at least
+     * {@code targetW x targetH}, or reads its embedded thumbnail where that will do.
+     * {@link Preview#width} and {@link Preview#height} are the full-resolution dimensions.
+     * Returns null if the file cannot be decoded. Reads the file; call it off the EDT.
+     */
+    static Preview decode(File f, int targetW, int targetH) {
+        ImageInputStream in = null;
+        ImageReader reader = null;
+        try {
+            in = ImageIO.createImageInputStream(f);
+            if (in == null) return null;
+            Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+            if (!it.hasNext()) return null;
+            reader = it.next();
+            reader.setInput(in, true, true);
+            int w = reader.getWidth(0), h = reader.getHeight(0);
+            BufferedImage thumb = thumbnail(reader, w, h, targetW, targetH);
+            if (thumb != null) {
+                return new Preview(thumb, w, h, Math.max(2, w / Math.max(1, thumb.getWidth())));
+            }
+            int period = Math.max(1, Math.min(w / Math.max(1, targetW), h / Math.max(1, targetH)));
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (period > 1) param.setSourceSubsampling(period, period, 0, 0);
+            BufferedImage img = reader.read(0, param);
+            return (img != null) ? new Preview(img, w, h, period) : null;
+        } catch (Throwable ignore) {
+            return null;
+        } finally {
+            if (reader != null) reader.dispose();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Throwable ignore) {
+                }
+            }
+        }
+    }
+}
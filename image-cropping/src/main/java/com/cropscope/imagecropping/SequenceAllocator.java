@@ -0,0 +1,135 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent "prefix|WxH -> last sequence" table kept in a small JSON file inside the sink,
+ * so seeding a counter no longer lists the whole sink directory.
+ * <p>
+ * Numbers are reserved in blocks: one state write covers {@link #RESERVE_BLOCK} crops, and
+ * everything ever handed out is below the reserved mark on disk, so a crash can only leave a gap.
+ * {@link #close()} writes the exact values back, so the next session resumes without a gap.
+ */
+final class SequenceAllocator {
+
+    static final String STATE_FILE = ".cropscope_sequences.json";
+    private static final int RESERVE_BLOCK = 64;
+    private static final int VERSION = 1;
+
+    interface Seeder {
+        int rescan();
+
+        boolean isTaken(int seq);
+    }
+
+    private final File stateFile;
+    private final Map<String, Integer> persisted = new HashMap<String, Integer>();
+    private final Map<String, Integer> issued = new HashMap<String, Integer>();
+    private final Map<String, Integer> reserved = new HashMap<String, Integer>();
+    private boolean persistenceEnabled;
+
+    SequenceAllocator(File sinkDirectory) {
+        this.stateFile = (sinkDirectory != null) ? new File(sinkDirectory, STATE_FILE) : null;
+        this.persistenceEnabled = sinkDirectory != null && sinkDirectory.isDirectory();
+        if (persistenceEnabled) load();
+    }
+
+    synchronized int next(String key, Seeder seeder) {
+        Integer cur = issued.get(key);
+        if (cur == null) {
+            cur = Integer.valueOf(seed(key, seeder));
+            reserved.put(key, cur);
+        }
+        int next = cur.intValue() + 1;
+        issued.put(key, Integer.valueOf(next));
+        if (next > reserved.get(key).intValue()) {
+            reserved.put(key, Integer.valueOf(next + RESERVE_BLOCK - 1));
+            save(reserved);
+        }
+        return next;
+    }
+
+    synchronized void close() {
+        if (issued.isEmpty()) return;
+        Map<String, Integer> exact = new HashMap<String, Integer>(persisted);
+        exact.putAll(issued);
+        save(exact);
+    }
+
+    private int seed(String key, Seeder seeder) {
+        Integer known = persisted.get(key);
+        // a file at known+1 means something else wrote into the sink since the state was saved
+        if (known != null && !seeder.isTaken(known.intValue() + 1)) return known.intValue();
+        return Math.max(seeder.rescan(), known != null ? known.intValue() : 0);
+    }
+
+    private void load() {
+        if (!stateFile.isFile()) return;
+        try {
+            String text = new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8);
+            JSONObject root = new JSONObject(text);
+            if (root.optInt("version", 0) != VERSION) return;
+            JSONObject seqs = root.optJSONObject("sequences");
+            if (seqs == null) return;
+            Iterator<String> it = seqs.keys();
+            while (it.hasNext()) {
+                String k = it.next();
+                int v = seqs.optInt(k, -1);
+                if (v >= 0) persisted.put(k, Integer.valueOf(v));
+            }
+        } catch (Exception corrupt) {
+            persisted.clear();
+        }
+    }
+
+    private void save(Map<String, Integer> values) {
+        if (!persistenceEnabled) return;
+        Map<String, Integer> all = new HashMap<String, Integer>(persisted);
+        all.putAll(values);
+        JSONObject root = new JSONObject();
+        root.put("version", VERSION);
+        root.put("sequences", new JSONObject(all));
+        File tmp = new File(stateFile.getParentFile(), STATE_FILE + ".tmp");
+        try {
+            Files.write(tmp.toPath(), root.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            persistenceEnabled = false;
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.cloudbackuptool;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves an image too large to decode whole as {@value #TILE}x{@value #TILE} tiles, read on
+ * demand through {@link ImageReadParam#setSourceRegion} at power-of-two subsamplings for
+ * zoomed-out views. Tiled TIFFs only decode the tiles a region touches; other formats still
+ * scan, but memory stays bounded. Decoded tiles live in a byte-bounded LRU, so the footprint
+ * follows the viewport rather than the image.
+ */
+final class TiledImageSource implements CropEngine.RegionSource {
+    static final int TILE = 512;
+
+    interface Listener {
+        /** Called on a decoder thread after a requested tile has been cached. */
+        void tileReady();
+    }
+
+    private final File file;
+    private final int width, height;
+    private final int maxLevel;
+    private final Listener listener;
+    private final long budgetBytes;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true);
+    private long usedBytes;
+    // tiles the current viewport is missing, in the order they were asked for
+    private final LinkedHashSet<Long> wanted = new LinkedHashSet<Long>();
+    private final Set<Long> decoding = new HashSet<Long>();
+    private final Thread[] workers;
+    private volatile boolean closed;
+
+    private final Object regionLock = new Object();
+    private ImageReader regionReader;
+
+    private TiledImageSource(File file, int width, int height, Listener listener) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.listener = listener;
+        int levels = 0;
+        while ((Math.max(width, height) >> (levels + 1)) >= TILE) levels++;
+        this.maxLevel = levels;
+        this.budgetBytes = Math.max(32L * 1024 * 1024,
+                Math.min(512L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8));
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        this.workers = new Thread[(listener != null) ? threads : 0];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    decodeLoop();
+                }
+            }, "TileDecoder-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Opens {@code file}, whose full size is already known. Without a listener no decoder
+     * threads are started and only {@link #readRegion} is useful.
+     */
+    static TiledImageSource open(File file, int width, int height, Listener listener) {
+        return new TiledImageSource(file, width, height, listener);
+    }
+
+    /** True if a {@code w x h} image should be tiled rather than decoded whole. */
+    static boolean shouldTile(int w, int h) {
+        long limit = Long.getLong("cropscope.tiled.minPixels", Runtime.getRuntime().maxMemory() / 16).longValue();
+        return (long) w * h > Math.max(1L, limit);
+    }
+
+    /** Reads only the header of {@code f}; false if it cannot be read. */
+    static boolean shouldTile(File f) {
+        Dimension size = imageSize(f);
+        return size != null && shouldTile(size.width, size.height);
+    }
+
+    /** Full size of the first image in {@code f} from its header, or null if it cannot be read. */
+    static Dimension imageSize(File f) {
+        ImageReader reader = null;
+        try {
+            reader = openReader(f);
+            return (reader != null) ? new Dimension(reader.getWidth(0), reader.getHeight(0)) : null;
+        } catch (Throwable ignore) {
+            return null;
+        } finally {
+            dispose(reader);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Pixels of {@code r} at full resolution, read straight from the file. */
+    public BufferedImage readRegion(Rectangle r) {
+        synchronized (regionLock) {
+            try {
+                if (regionReader == null) regionReader = openReader(file);
+                if (regionReader == null) return null;
+                ImageReadParam param = regionReader.getDefaultReadParam();
+                param.setSourceRegion(r);
+                return toRgb(regionReader.read(0, param));
+            } catch (IOException ex) {
+                return null;
+            }
+        }
+    }
+
+    /** Coarsest level whose pixels are still at least as fine as {@code screenPerImagePixel}. */
+    int levelFor(double screenPerImagePixel) {
+        int level = 0;
+        while (level < maxLevel && (1 << (level + 1)) * screenPerImagePixel <= 1.0) level++;
+        return level;
+    }
+
+    /** Image pixels covered by one tile edge at {@code level}. */
+    static int span(int level) {
+        return TILE << level;
+    }
+
+    /** The cached tile, or null if it has not been decoded yet. */
+    BufferedImage tile(int level, int tx, int ty) {
+        synchronized (lock) {
+            return tiles.get(Long.valueOf(key(level, tx, ty)));
+        }
+    }
+
+    /** Replaces the outstanding requests with {@code missing}, as returned by {@link #key}. */
+    void request(List<Long> missing) {
+        synchronized (lock) {
+            wanted.clear();
+            for (int i = 0; i < missing.size(); i++) {
+                Long k = missing.get(i);
+                if (!tiles.containsKey(k) && !decoding.contains(k)) wanted.add(k);
+            }
+            if (!wanted.isEmpty()) lock.notifyAll();
+        }
+    }
+
+    static long key(int level, int tx, int ty) {
+        return ((long) level << 56) | ((long) ty << 28) | tx;
+    }
+
+    void close() {
+        closed = true;
+        synchronized (lock) {
+            wanted.clear();
+            tiles.clear();
+            usedBytes = 0L;
+            lock.notifyAll();
+        }
+        synchronized (regionLock) {
+            dispose(regionReader);
+            regionReader = null;
+        }
+    }
+
+    private void decodeLoop() {
+        ImageReader reader = null;
+        try {
+            while (!closed) {
+                Long k;
+                synchronized (lock) {
+                    while (!closed && wanted.isEmpty()) lock.wait();
+                    if (closed) return;
+                    Iterator<Long> it = wanted.iterator();
+                    k = it.next();
+                    it.remove();
+                    decoding.add(k);
+                }
+                BufferedImage img = null;
+                try {
+                    if (reader == null) reader = openReader(file);
+                    if (reader != null) img = decodeTile(reader, k.longValue());
+                } catch (Throwable t) {
+                    // an unreadable tile stays blank; the preview shows through
+                }
+                synchronized (lock) {
+                    decoding.remove(k);
+                    if (img != null && !closed) put(k, img);
+                }
+                if (img != null && !closed) listener.tileReady();
+            }
+        } catch (InterruptedException ie) {
+            // closing
+        } finally {
+            dispose(reader);
+        }
+    }
+
+    private BufferedImage decodeTile(ImageReader reader, long key) throws IOException {
+        int level = (int) (key >>> 56);
+        int ty = (int) ((key >>> 28) & 0x0FFFFFFF);
+        int tx = (int) (key & 0x0FFFFFFF);
+        int span = span(level);
+        int x = tx * span, y = ty * span;
+        if (x >= width || y >= height) return null;
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, Math.min(span, width - x), Math.min(span, height - y)));
+        if (level > 0) param.setSourceSubsampling(1 << level, 1 << level, 0, 0);
+        return toRgb(reader.read(0, param));
+    }
+
+    // caller holds the lock
+    private void put(Long k, BufferedImage img) {
+        BufferedImage old = tiles.put(k, img);
+        if (old != null) usedBytes -= ImageCroppingCore.rasterBytes(old);
+        usedBytes += ImageCroppingCore.rasterBytes(img);
+        Iterator<Map.Entry<Long, BufferedImage>> it = tiles.entrySet().iterator();
+        while (usedBytes > budgetBytes && tiles.size() > 1 && it.hasNext()) {
+            usedBytes -= ImageCroppingCore.rasterBytes(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private static BufferedImage toRgb(BufferedImage img) {
+        if (img == null || img.getType() == BufferedImage.TYPE_INT_RGB) return img;
+        BufferedImage out = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = out.createGraphics();
+        try {
+            g2.drawImage(img, 0, 0, null);
+        } finally {
+            g2.dispose();
+        }
+        return out;
+    }
+
+    private static ImageReader openReader(File f) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(f);
+        if (in == null) return null;
+        Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+        if (!it.hasNext()) {
+            in.close();
+            return null;
+        }
+        ImageReader reader = it.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    private static void dispose(ImageReader reader) {
+        if (reader == null) return;
+        Object in = reader.getInput();
+        reader.dispose();
+        if (in instanceof ImageInputStream) {
+            try {
+                ((ImageInputStream) in).close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
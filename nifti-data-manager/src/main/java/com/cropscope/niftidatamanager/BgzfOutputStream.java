@@ -0,0 +1,203 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip in the BGZF layout: gzip members of at most 64KB that each record their compressed
+ * size, ended by the standard empty member. Any gzip reader reads the result, and
+ * {@link NiftiReader} inflates it on several threads. Blocks are compressed on a pool of
+ * threads and written in order.
+ */
+public class BgzfOutputStream extends OutputStream {
+    /** Input bytes per member; small enough that a member can never exceed 64KB, even stored. */
+    public static final int BLOCK_INPUT = 0xff00;
+
+    private static final byte[] EOF_MEMBER = {
+            0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0,
+            3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    private static final int HEADER = 18;
+    private static final int TRAILER = 8;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final BlockingQueue<Deflater> deflaters;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private final int maxPending;
+    private byte[] block = new byte[BLOCK_INPUT];
+    private int blockLength;
+    private boolean closed;
+
+    public BgzfOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BgzfOutputStream(OutputStream out, int level, int threads) {
+        this.out = out;
+        int n = Math.max(1, threads);
+        this.pool = Executors.newFixedThreadPool(n);
+        this.deflaters = new ArrayBlockingQueue<Deflater>(n);
+        for (int i = 0; i < n; i++) {
+            deflaters.add(new Deflater(level, true));
+        }
+        this.maxPending = 2 * n;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == BLOCK_INPUT) {
+            submit();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLength == BLOCK_INPUT) {
+                submit();
+            }
+            int n = Math.min(len, BLOCK_INPUT - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Ends the current member early and writes out everything compressed so far. */
+    @Override
+    public void flush() throws IOException {
+        if (blockLength > 0) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            out.write(EOF_MEMBER);
+        } finally {
+            closed = true;
+            pool.shutdownNow();
+            for (Deflater deflater : deflaters) {
+                deflater.end();
+            }
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        final byte[] input = block;
+        final int length = blockLength;
+        pending.add(pool.submit(new Callable<byte[]>() {
+            public byte[] call() throws InterruptedException {
+                Deflater deflater = deflaters.take();
+                try {
+                    return member(deflater, input, length);
+                } finally {
+                    deflaters.add(deflater);
+                }
+            }
+        }));
+        block = new byte[BLOCK_INPUT];
+        blockLength = 0;
+        while (pending.size() > maxPending) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    private static byte[] member(Deflater deflater, byte[] input, int length) {
+        byte[] buffer = new byte[1 << 16];
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished() && HEADER + size < buffer.length - TRAILER) {
+            size += deflater.deflate(buffer, HEADER + size, buffer.length - TRAILER - HEADER - size);
+        }
+        if (!deflater.finished()) {
+            // incompressible: one stored block, 5 bytes of framing
+            buffer[HEADER] = 1;
+            buffer[HEADER + 1] = (byte) length;
+            buffer[HEADER + 2] = (byte) (length >>> 8);
+            buffer[HEADER + 3] = (byte) ~length;
+            buffer[HEADER + 4] = (byte) (~length >>> 8);
+            System.arraycopy(input, 0, buffer, HEADER + 5, length);
+            size = 5 + length;
+        }
+        int total = HEADER + size + TRAILER;
+        System.arraycopy(EOF_MEMBER, 0, buffer, 0, HEADER);
+        buffer[16] = (byte) (total - 1);
+        buffer[17] = (byte) ((total - 1) >>> 8);
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, length);
+        putInt(buffer, HEADER + size, (int) crc.getValue());
+        putInt(buffer, HEADER + size + 4, length);
+        byte[] member = new byte[total];
+        System.arraycopy(buffer, 0, member, 0, total);
+        return member;
+    }
+
+    private static void putInt(byte[] b, int at, int value) {
+        b[at] = (byte) value;
+        b[at + 1] = (byte) (value >>> 8);
+        b[at + 2] = (byte) (value >>> 16);
+        b[at + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,98 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+package com.cropscope.niftidatamanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures patch extraction through {@link NiftiImage#getChunk(int[], int[])}: random cubic
+ * patches from a volume, taken by several threads at once, reported as patches per second.
+ * <pre>
+ *   java -jar nifti-data-manager.jar bench-chunks &lt;file&gt; [patch=64] [patches=500] [threads=cores]
+ * </pre>
+ */
+public class ChunkBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: bench-chunks <file.nii[.gz]> [patch size] [patches] [threads]");
+            return;
+        }
+        String file = args[0];
+        final int patch = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+        final int patches = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        final NiftiImage image = NiftiReader.read(file);
+        final short[] dims = image.getDimensions();
+        final int ndim = Math.min(3, dims[0]);
+        System.out.println("Volume " + image + ", " + image.getDataSize() / (1024 * 1024) + " MB");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // warm-up, so the rate below is not dominated by class loading and the JIT
+            run(pool, image, dims, ndim, patch, Math.min(patches, 32), threads, 1L);
+            long t0 = System.nanoTime();
+            long voxels = run(pool, image, dims, ndim, patch, patches, threads, 2L);
+            double secs = (System.nanoTime() - t0) / 1e9;
+            double mb = voxels * (image.getDataType().getBitpix() / 8) / (1024.0 * 1024.0);
+            System.out.println(String.format("%d patches of %d^%d with %d threads in %.2f s: %.1f patches/s, %.1f MB/s",
+                    patches, patch, ndim, threads, secs, patches / secs, mb / secs));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long run(ExecutorService pool, final NiftiImage image, final short[] dims, final int ndim,
+                            final int patch, int patches, int threads, long seed) throws Exception {
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (int t = 0; t < threads; t++) {
+            final int share = patches / threads + ((t < patches % threads) ? 1 : 0);
+            final Random random = new Random(seed * 31 + t);
+            results.add(pool.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    long voxels = 0;
+                    int[] start = new int[ndim];
+                    int[] end = new int[ndim];
+                    for (int i = 0; i < share; i++) {
+                        for (int k = 0; k < ndim; k++) {
+                            int size = Math.min(patch, dims[k + 1]);
+                            start[k] = random.nextInt(dims[k + 1] - size + 1);
+                            end[k] = start[k] + size;
+                        }
+                        Object chunk = image.getChunk(start, end);
+                        voxels += java.lang.reflect.Array.getLength(chunk);
+                    }
+                    return Long.valueOf(voxels);
+                }
+            }));
+        }
+        long voxels = 0;
+        for (Future<Long> f : results) voxels += f.get().longValue();
+        return voxels;
+    }
+}
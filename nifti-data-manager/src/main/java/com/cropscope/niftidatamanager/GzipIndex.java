@@ -0,0 +1,736 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Random access into a gzip file through access points: places between deflate blocks where
+ * inflating can start, each with the 32KB of output before it that later blocks may refer
+ * back to. Built once by inflating the whole file and saved beside it as {@code <file>.gzidx};
+ * reads then inflate from the nearest access point at or before the offset they want instead
+ * of from the start of the file.
+ */
+final class GzipIndex {
+    static final String SUFFIX = ".gzidx";
+    static final int DEFAULT_SPAN = 1 << 20;
+
+    private static final String MAGIC = "cropscope-gzip-index";
+    private static final int VERSION = 1;
+    private static final int WINDOW = 1 << 15;
+
+    private final File source;
+    private final File sidecar;
+    private final long length;
+    private final long[] out;
+    private final long[] in;
+    private final long[] windowAt;
+    private final int[] windowLength;
+    private final int[] windowStored;
+
+    private GzipIndex(File source, File sidecar, long length, long[] out, long[] in,
+                      long[] windowAt, int[] windowLength, int[] windowStored) {
+        this.source = source;
+        this.sidecar = sidecar;
+        this.length = length;
+        this.out = out;
+        this.in = in;
+        this.windowAt = windowAt;
+        this.windowLength = windowLength;
+        this.windowStored = windowStored;
+    }
+
+    static File sidecarFor(String filename) {
+        return new File(filename + SUFFIX);
+    }
+
+    /** The saved index of {@code filename}, or null if there is none or the file changed since. */
+    static GzipIndex load(String filename) {
+        File source = new File(filename);
+        File sidecar = sidecarFor(filename);
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "r")) {
+            if (!MAGIC.equals(raf.readUTF()) || raf.readInt() != VERSION
+                    || raf.readLong() != source.length() || raf.readLong() != source.lastModified()) {
+                System.out.println("Ignoring stale gzip index " + sidecar);
+                return null;
+            }
+            raf.readInt();
+            long tableAt = raf.readLong();
+            byte[] table = new byte[(int) (raf.length() - tableAt)];
+            raf.seek(tableAt);
+            raf.readFully(table);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(table));
+            long length = dis.readLong();
+            int count = dis.readInt();
+            long[] out = new long[count];
+            long[] in = new long[count];
+            long[] windowAt = new long[count];
+            int[] windowLength = new int[count];
+            int[] windowStored = new int[count];
+            for (int i = 0; i < count; i++) {
+                out[i] = dis.readLong();
+                in[i] = dis.readLong();
+                windowAt[i] = dis.readLong();
+                windowLength[i] = dis.readInt();
+                windowStored[i] = dis.readInt();
+            }
+            return new GzipIndex(source, sidecar, length, out, in, windowAt, windowLength, windowStored);
+        } catch (IOException e) {
+            System.err.println("Warning: Failed to read gzip index " + sidecar + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Inflates all of {@code filename} once, taking an access point at the first block boundary
+     * every {@code span} bytes of output and at the start of every gzip member, and saves the
+     * index beside the file.
+     */
+    static GzipIndex build(String filename, int span) throws IOException {
+        File source = new File(filename);
+        File sidecar = sidecarFor(filename);
+        File partial = new File(sidecar.getPath() + ".tmp");
+        long modified = source.lastModified();
+        List<long[]> points = new ArrayList<long[]>();
+        long length;
+        try (InputStream input = new FileInputStream(source);
+             RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+            raf.setLength(0);
+            raf.writeUTF(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeLong(source.length());
+            raf.writeLong(modified);
+            raf.writeInt(span);
+            long tableAtField = raf.getFilePointer();
+            raf.writeLong(0L);
+
+            Scanner scanner = new Scanner(input, span, raf, points);
+            length = scanner.run();
+
+            long tableAt = raf.getFilePointer();
+            ByteArrayOutputStream table = new ByteArrayOutputStream(12 + points.size() * 32);
+            DataOutputStream dos = new DataOutputStream(table);
+            dos.writeLong(length);
+            dos.writeInt(points.size());
+            for (long[] p : points) {
+                dos.writeLong(p[0]);
+                dos.writeLong(p[1]);
+                dos.writeLong(p[2]);
+                dos.writeInt((int) p[3]);
+                dos.writeInt((int) p[4]);
+            }
+            dos.flush();
+            raf.write(table.toByteArray());
+            raf.seek(tableAtField);
+            raf.writeLong(tableAt);
+        } catch (IOException e) {
+            partial.delete();
+            throw e;
+        }
+        if (sidecar.exists() && !sidecar.delete() || !partial.renameTo(sidecar)) {
+            partial.delete();
+            throw new IOException("Could not save gzip index " + sidecar);
+        }
+        GzipIndex index = load(filename);
+        if (index == null) {
+            throw new IOException(filename + " changed while it was being indexed");
+        }
+        return index;
+    }
+
+    /** Uncompressed length of the whole file. */
+    long length() {
+        return length;
+    }
+
+    int points() {
+        return out.length;
+    }
+
+    /** Uncompressed offset of access point {@code point}. */
+    long offsetOf(int point) {
+        return out[point];
+    }
+
+    /** Uncompressed offset of the nearest access point at or before {@code offset}. */
+    long pointBefore(long offset) {
+        return out[indexBefore(offset)];
+    }
+
+    private int indexBefore(long offset) {
+        int lo = 0;
+        int hi = out.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (out[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /** A stream of the uncompressed data from {@code offset}, inflated from the nearest access point. */
+    InputStream open(long offset) throws IOException {
+        int point = indexBefore(offset);
+        PointStream stream = new PointStream(point);
+        try {
+            NiftiReader.skipFully(stream, offset - out[point]);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        return stream;
+    }
+
+    private byte[] window(int point) throws IOException {
+        byte[] stored = new byte[windowStored[point]];
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "r")) {
+            raf.seek(windowAt[point]);
+            raf.readFully(stored);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] window = new byte[windowLength[point]];
+            int n = 0;
+            while (n < window.length && !inflater.finished()) {
+                int k = inflater.inflate(window, n, window.length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break; // truncated: the stored window ends before it is whole
+                }
+                n += k;
+            }
+            if (n != window.length) {
+                throw new IOException("Corrupt window in gzip index " + sidecar);
+            }
+            return window;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt window in gzip index " + sidecar, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sidecar.getName() + ": " + out.length + " access points over " + length + " bytes";
+    }
+
+    /**
+     * Inflates from one access point, across later gzip members too. Access points rarely fall
+     * on a byte boundary, and the low bits of the first byte belong to the previous block. They
+     * are replaced by empty deflate blocks that end exactly there, so the compressed bytes are
+     * fed unshifted and stored blocks further on stay aligned.
+     */
+    private final class PointStream extends InputStream {
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] raw = new byte[1 << 16];
+        private FileInputStream file;
+        private int point;
+        private byte[] lead;
+        private long position;
+
+        PointStream(int point) throws IOException {
+            start(point);
+        }
+
+        private void start(int point) throws IOException {
+            if (file != null) {
+                file.close();
+            }
+            this.point = point;
+            this.position = out[point];
+            this.lead = EMPTY_BLOCKS[(int) (in[point] & 7)];
+            file = new FileInputStream(source);
+            NiftiReader.skipFully(file, in[point] >>> 3);
+            inflater.reset();
+            if (windowLength[point] > 0) {
+                inflater.setDictionary(window(point));
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (inflater.finished()) {
+                    // the end of a member: the next one starts at its own access point
+                    int next = point + 1;
+                    while (next < out.length && (out[next] != position || windowLength[next] != 0)) {
+                        next++;
+                    }
+                    if (next >= out.length || position >= length) {
+                        return -1;
+                    }
+                    start(next);
+                    continue;
+                }
+                int n;
+                try {
+                    n = inflater.inflate(b, off, len);
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt compressed data after byte " + position + " of " + source, e);
+                }
+                if (n > 0) {
+                    position += n;
+                    return n;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupt compressed data after byte " + position + " of " + source);
+                }
+                if (inflater.needsInput() && !fill()) {
+                    throw new EOFException("Unexpected end of " + source + " after byte " + position);
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int n = file.read(raw);
+            if (n <= 0) {
+                return false;
+            }
+            if (lead == null) {
+                inflater.setInput(raw, 0, n);
+                return true;
+            }
+            // the last byte of lead holds the bits that stand in for the low bits of raw[0]
+            int bits = (int) (in[point] & 7);
+            int mask = (1 << bits) - 1;
+            byte[] first = new byte[lead.length - 1 + n];
+            System.arraycopy(lead, 0, first, 0, lead.length - 1);
+            first[lead.length - 1] = (byte) ((lead[lead.length - 1] & mask) | (raw[0] & ~mask));
+            System.arraycopy(raw, 1, first, lead.length, n - 1);
+            lead = null;
+            inflater.setInput(first);
+            return true;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] scratch = new byte[(int) Math.min(n, 1 << 16)];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+                if (r < 0) {
+                    break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    private static final byte[][] EMPTY_BLOCKS = new byte[8][];
+
+    static {
+        for (int bits = 1; bits < 8; bits++) {
+            EMPTY_BLOCKS[bits] = emptyBlocks(bits);
+        }
+    }
+
+    /**
+     * Non-final deflate blocks with no output whose length in bits is {@code bits} more than a
+     * whole number of bytes: fixed-code blocks of 10 bits each, after one 93-bit dynamic-code
+     * block where the count is odd.
+     */
+    private static byte[] emptyBlocks(int bits) {
+        BitSet set = new BitSet();
+        int[] count = new int[1];
+        int fixed = bits / 2;
+        if ((bits & 1) != 0) {
+            // code lengths are coded 0 -> "0", 1 -> "10", 18 -> "11"; end of block is the only literal
+            put(set, count, 0, 1);
+            put(set, count, 2, 2);
+            put(set, count, 0, 5);
+            put(set, count, 0, 5);
+            put(set, count, 14, 4);
+            int[] order = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1};
+            for (int symbol : order) {
+                put(set, count, (symbol == 18 || symbol == 1) ? 2 : (symbol == 0) ? 1 : 0, 3);
+            }
+            put(set, count, 3, 2);
+            put(set, count, 138 - 11, 7);
+            put(set, count, 3, 2);
+            put(set, count, 118 - 11, 7);
+            put(set, count, 1, 2);
+            put(set, count, 0, 1);
+            put(set, count, 0, 1);
+            fixed = ((bits - 5) & 7) / 2;
+        }
+        for (int i = 0; i < fixed; i++) {
+            put(set, count, 0, 1);
+            put(set, count, 1, 2);
+            put(set, count, 0, 7);
+        }
+        byte[] lead = new byte[(count[0] + 7) / 8];
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            lead[i >>> 3] |= (byte) (1 << (i & 7));
+        }
+        return lead;
+    }
+
+    /** Appends the low {@code n} bits of {@code value}, least significant first, as deflate packs them. */
+    private static void put(BitSet set, int[] count, int value, int n) {
+        for (int i = 0; i < n; i++) {
+            set.set(count[0]++, ((value >>> i) & 1) != 0);
+        }
+    }
+
+    /**
+     * A plain inflater for the indexing pass, which needs what {@link Inflater} does not tell:
+     * where each deflate block starts, to the bit.
+     */
+    private static final class Scanner {
+        private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+                35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+        private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+                3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+        private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+                257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+        private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+                7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+        private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+        private static final int RING = 1 << 16;
+
+        private final InputStream input;
+        private final int span;
+        private final RandomAccessFile sink;
+        private final List<long[]> points;
+        private final byte[] buffer = new byte[1 << 16];
+        private int bufferLength;
+        private int bufferPosition;
+        private long bufferStart;
+        private boolean eof;
+        private long bits;
+        private int bitCount;
+
+        private final byte[] ring = new byte[RING];
+        private long total;
+        private long checked;
+        private final CRC32 crc = new CRC32();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] deflated = new byte[WINDOW + 1024];
+
+        private int[] fixedLiterals;
+        private int[] fixedDistances;
+
+        Scanner(InputStream input, int span, RandomAccessFile sink, List<long[]> points) {
+            this.input = input;
+            this.span = span;
+            this.sink = sink;
+            this.points = points;
+        }
+
+        long run() throws IOException {
+            try {
+                do {
+                    member();
+                } while (nextMember());
+                return total;
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void member() throws IOException {
+            if (alignedByte() != 0x1f || alignedByte() != 0x8b || alignedByte() != 8) {
+                throw new IOException("Not a gzip file");
+            }
+            int flags = alignedByte();
+            for (int i = 0; i < 6; i++) alignedByte();
+            if ((flags & 4) != 0) {
+                int extra = alignedByte() | (alignedByte() << 8);
+                for (int i = 0; i < extra; i++) alignedByte();
+            }
+            if ((flags & 8) != 0) {
+                while (alignedByte() != 0) { }
+            }
+            if ((flags & 16) != 0) {
+                while (alignedByte() != 0) { }
+            }
+            if ((flags & 2) != 0) {
+                alignedByte();
+                alignedByte();
+            }
+            long memberStart = total;
+            crc.reset();
+            point(memberStart, false);
+            long lastPoint = total;
+            boolean last;
+            do {
+                if (total - lastPoint >= span) {
+                    point(memberStart, true);
+                    lastPoint = total;
+                }
+                last = bits(1) == 1;
+                int type = bits(2);
+                if (type == 0) {
+                    stored();
+                } else if (type == 1) {
+                    if (fixedLiterals == null) {
+                        int[] lengths = new int[288];
+                        for (int i = 0; i < 288; i++) lengths[i] = (i < 144) ? 8 : (i < 256) ? 9 : (i < 280) ? 7 : 8;
+                        fixedLiterals = table(lengths, 0, 288);
+                        int[] distances = new int[30];
+                        Arrays.fill(distances, 5);
+                        fixedDistances = table(distances, 0, 30);
+                    }
+                    codes(fixedLiterals, fixedDistances);
+                } else if (type == 2) {
+                    dynamic();
+                } else {
+                    throw new IOException("Invalid deflate block type after byte " + total);
+                }
+            } while (!last);
+            check();
+            bits(bitCount & 7);
+            long expected = alignedByte() | (alignedByte() << 8) | (alignedByte() << 16) | ((long) alignedByte() << 24);
+            long size = alignedByte() | (alignedByte() << 8) | (alignedByte() << 16) | ((long) alignedByte() << 24);
+            if (expected != crc.getValue() || size != ((total - memberStart) & 0xFFFFFFFFL)) {
+                throw new IOException("CRC or length mismatch in gzip member ending at byte " + total);
+            }
+        }
+
+        /** Another gzip member follows; padding after the last one ends the file. */
+        private boolean nextMember() throws IOException {
+            if (bitCount == 0 && bufferPosition == bufferLength && !refill()) {
+                return false;
+            }
+            int next = (bitCount > 0) ? (int) (bits & 0xFF) : (buffer[bufferPosition] & 0xFF);
+            return next == 0x1f;
+        }
+
+        private void point(long memberStart, boolean withWindow) throws IOException {
+            long bitPosition = (bufferStart + bufferPosition) * 8 - bitCount;
+            int size = withWindow ? (int) Math.min(WINDOW, total - memberStart) : 0;
+            long at = sink.getFilePointer();
+            int stored = 0;
+            if (size > 0) {
+                byte[] window = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    window[i] = ring[(int) (total - size + i) & (RING - 1)];
+                }
+                deflater.reset();
+                deflater.setInput(window);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(deflated);
+                    sink.write(deflated, 0, n);
+                    stored += n;
+                }
+            }
+            points.add(new long[]{total, bitPosition, at, size, stored});
+        }
+
+        private boolean refill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            bufferStart += bufferLength;
+            bufferPosition = 0;
+            bufferLength = Math.max(0, input.read(buffer));
+            if (bufferLength == 0) {
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+
+        private void fill() throws IOException {
+            while (bitCount <= 56) {
+                if (bufferPosition == bufferLength && !refill()) {
+                    return;
+                }
+                bits |= (long) (buffer[bufferPosition++] & 0xFF) << bitCount;
+                bitCount += 8;
+            }
+        }
+
+        private int bits(int n) throws IOException {
+            if (bitCount < n) {
+                fill();
+                if (bitCount < n) {
+                    throw new EOFException("Unexpected end of compressed data after byte " + total);
+                }
+            }
+            int v = (int) (bits & ((1L << n) - 1));
+            bits >>>= n;
+            bitCount -= n;
+            return v;
+        }
+
+        private int alignedByte() throws IOException {
+            return bits(8);
+        }
+
+        private void stored() throws IOException {
+            bits(bitCount & 7);
+            int len = bits(16);
+            if ((bits(16) ^ 0xFFFF) != len) {
+                throw new IOException("Invalid stored block length after byte " + total);
+            }
+            for (int i = 0; i < len; i++) {
+                ring[(int) total++ & (RING - 1)] = (byte) bits(8);
+                if (total - checked >= WINDOW / 2) check();
+            }
+        }
+
+        private void dynamic() throws IOException {
+            int literals = bits(5) + 257;
+            int distances = bits(5) + 1;
+            int codeLengths = bits(4) + 4;
+            int[] lengths = new int[19];
+            for (int i = 0; i < codeLengths; i++) {
+                lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+            }
+            int[] lengthCode = table(lengths, 0, 19);
+            int[] all = new int[literals + distances];
+            for (int i = 0; i < all.length; ) {
+                int symbol = decode(lengthCode);
+                if (symbol < 16) {
+                    all[i++] = symbol;
+                } else {
+                    int repeat;
+                    int value = 0;
+                    if (symbol == 16) {
+                        if (i == 0) throw new IOException("Invalid code lengths after byte " + total);
+                        value = all[i - 1];
+                        repeat = 3 + bits(2);
+                    } else if (symbol == 17) {
+                        repeat = 3 + bits(3);
+                    } else {
+                        repeat = 11 + bits(7);
+                    }
+                    if (i + repeat > all.length) throw new IOException("Invalid code lengths after byte " + total);
+                    while (repeat-- > 0) all[i++] = value;
+                }
+            }
+            codes(table(all, 0, literals), table(all, literals, distances));
+        }
+
+        private void codes(int[] literals, int[] distances) throws IOException {
+            while (true) {
+                if (bitCount < 48) fill();
+                int symbol = decode(literals);
+                if (symbol < 256) {
+                    ring[(int) total++ & (RING - 1)] = (byte) symbol;
+                } else if (symbol == 256) {
+                    return;
+                } else {
+                    symbol -= 257;
+                    if (symbol >= 29) throw new IOException("Invalid length code after byte " + total);
+                    int len = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                    int d = decode(distances);
+                    if (d >= 30) throw new IOException("Invalid distance code after byte " + total);
+                    int distance = DISTANCE_BASE[d] + bits(DISTANCE_EXTRA[d]);
+                    if (distance > total) {
+                        throw new IOException("Distance too far back after byte " + total);
+                    }
+                    for (int i = 0; i < len; i++, total++) {
+                        ring[(int) total & (RING - 1)] = ring[(int) (total - distance) & (RING - 1)];
+                    }
+                }
+                if (total - checked >= WINDOW / 2) check();
+            }
+        }
+
+        /** Adds the output not yet in the CRC. */
+        private void check() {
+            while (checked < total) {
+                int from = (int) checked & (RING - 1);
+                int n = (int) Math.min(total - checked, RING - from);
+                crc.update(ring, from, n);
+                checked += n;
+            }
+        }
+
+        /** A lookup table on the next bits, least significant first: symbol << 4 | code length. */
+        private static int[] table(int[] lengths, int from, int count) throws IOException {
+            int max = 0;
+            int[] perLength = new int[16];
+            for (int i = 0; i < count; i++) {
+                perLength[lengths[from + i]]++;
+                max = Math.max(max, lengths[from + i]);
+            }
+            int[] table = new int[1 << Math.max(1, max)];
+            int[] next = new int[16];
+            int code = 0;
+            perLength[0] = 0;
+            for (int len = 1; len <= 15; len++) {
+                code = (code + perLength[len - 1]) << 1;
+                next[len] = code;
+            }
+            for (int symbol = 0; symbol < count; symbol++) {
+                int len = lengths[from + symbol];
+                if (len == 0) continue;
+                int c = next[len]++;
+                if (c >= (1 << len)) throw new IOException("Over-subscribed Huffman code");
+                int reversed = Integer.reverse(c) >>> (32 - len);
+                for (int i = reversed; i < table.length; i += 1 << len) {
+                    table[i] = (symbol << 4) | len;
+                }
+            }
+            return table;
+        }
+
+        private int decode(int[] table) throws IOException {
+            if (bitCount < 15) fill();
+            int entry = table[(int) bits & (table.length - 1)];
+            int len = entry & 15;
+            if (len == 0 || len > bitCount) {
+                throw new IOException("Invalid Huffman code after byte " + total);
+            }
+            bits >>>= len;
+            bitCount -= len;
+            return entry >>> 4;
+        }
+    }
+}
@@ -80,15 +80,13 @@ public class ImageExporter {
     }
 
     private static BufferedImage convertSliceToBufferedImage(NiftiImage image,
-                                                             int dimension, int sliceIndex) {
-        Object data = image.getData();
+                                                             int dimension, int sliceIndex) throws IOException {
         NiftiHeader header = image.getHeader();
         short[] dims = header.getDimensions();
-        DataType dataType = header.getDataType();
         int[] outputDims = getOutputDimensions(dims, dimension);
         int width = outputDims[0];
         int height = outputDims[1];
-        float[] normalizedSlice = extractAndNormalizeSlice(data, header, dimension, sliceIndex);
+        float[] normalizedSlice = extractAndNormalizeSlice(image, dimension, sliceIndex);
         return createBufferedImageFromFloatArray(normalizedSlice, width, height);
     }
 
@@ -104,58 +102,20 @@ public class ImageExporter {
         }
     }
 
-    private static float[] extractAndNormalizeSlice(Object data, NiftiHeader header,
-                                                    int dimension, int sliceIndex) {
+    private static float[] extractAndNormalizeSlice(NiftiImage image,
+                                                    int dimension, int sliceIndex) throws IOException {
+        NiftiHeader header = image.getHeader();
         short[] dims = header.getDimensions();
         DataType dataType = header.getDataType();
         if (dims[0] != 3) {
             throw new UnsupportedOperationException("Only 3D images supported for export");
         }
-
-        int width = dims[1];
-        int height = dims[2];
-        int depth = dims[3];
-        if (sliceIndex < 0 || sliceIndex >= depth) {
-            throw new IllegalArgumentException("Slice index " + sliceIndex + " out of bounds [0, " + depth + ")");
-        }
-
-        float[] sliceData = new float[width * height];
-        int srcIndex = sliceIndex * width * height;
-
-        if (dataType == DataType.DT_FLOAT) {
-            float[] floatData = (float[]) data;
-            System.arraycopy(floatData, srcIndex, sliceData, 0, sliceData.length);
-        } else if (dataType == DataType.DT_DOUBLE) {
-            double[] doubleData = (double[]) data;
-            for (int i = 0; i < sliceData.length; i++) {
-                sliceData[i] = (float) doubleData[srcIndex + i];
-            }
-        } else if (dataType == DataType.DT_UNSIGNED_CHAR) {
-            byte[] byteData = (byte[]) data;
-            for (int i = 0; i < sliceData.length; i++) {
-                sliceData[i] = byteData[srcIndex + i] & 0xFF;
-            }
-        } else if (dataType == DataType.DT_SIGNED_SHORT) {
-            short[] shortData = (short[]) data;
-            for (int i = 0; i < sliceData.length; i++) {
-                sliceData[i] = shortData[srcIndex + i];
-            }
-        } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-            short[] shortData = (short[]) data;
-            for (int i = 0; i < sliceData.length; i++) {
-                sliceData[i] = shortData[srcIndex + i] & 0xFFFF;
-            }
-        } else if (dataType == DataType.DT_SIGNED_INT) {
-            int[] intData = (int[]) data;
-            for (int i = 0; i < sliceData.length; i++) {
-                sliceData[i] = intData[srcIndex + i];
-            }
-        } else {
+        if (!SUPPORTED_EXPORT_TYPES.contains(dataType)) {
             throw new NiftiException("Unsupported data type for export: " + dataType +
                     " (code: " + dataType.getCode() + ")");
         }
 
-        return normalizeFloatArray(sliceData);
+        return normalizeFloatArray(image.getSlice(dimension, sliceIndex));
     }
 
     private static float[] normalizeFloatArray(float[] data) {
@@ -203,8 +163,8 @@ public class ImageExporter {
         return image;
     }
 
-    private static BufferedImage createMaximumIntensityProjection(NiftiImage image, int dimension) {
-        Object data = image.getData();
+    private static BufferedImage createMaximumIntensityProjection(NiftiImage image, int dimension)
+            throws IOException {
         NiftiHeader header = image.getHeader();
         short[] dims = header.getDimensions();
         int[] outputDims = getOutputDimensions(dims, dimension);
@@ -215,7 +175,7 @@ public class ImageExporter {
         Arrays.fill(mipData, Float.NEGATIVE_INFINITY);
         int numSlices = dims[dimension + 1];
         for (int slice = 0; slice < numSlices; slice++) {
-            float[] sliceData = extractAndNormalizeSlice(data, header, dimension, slice);
+            float[] sliceData = extractAndNormalizeSlice(image, dimension, slice);
             for (int i = 0; i < projectionSize; i++) {
                 if (Float.isFinite(sliceData[i]) && sliceData[i] > mipData[i]) {
                     mipData[i] = sliceData[i];
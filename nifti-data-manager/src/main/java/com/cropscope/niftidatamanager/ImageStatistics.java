@@ -21,126 +21,369 @@
 
 package com.cropscope.niftidatamanager;
 
+import com.cropscope.niftidatamanager.exceptions.NiftiException;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Minimum, maximum, mean, standard deviation, a histogram and percentiles of the finite voxel
+ * values, gathered in one pass over {@link NiftiImage#getVoxels()} by fork-join tasks whose
+ * partial results are merged, so mapped volumes are never copied into arrays. Images of other
+ * than 8 and 16 bit integers also count their values in equal bins that widen with the range
+ * seen so far, for when the values span a range too narrow for the float-keyed bins.
+ */
 public class ImageStatistics {
+    private static final int BLOCK_VOXELS = 1 << 16;
+    private static final long MIN_TASK_VOXELS = 1 << 20;
+
+    /** Bins of {@link #getHistogram()}, equal width from the minimum to the maximum. */
+    public static final int HISTOGRAM_BINS = 256;
+
+    // values are counted in 65536 ordered bins: one per value for 8 and 16 bit integers, else
+    // by the top 16 bits of the float, about 1% wide, which percentiles interpolate within
+    private static final int KEY_BITS = 16;
+
+    // equal bins a power of two wide starting at a multiple of their width, so the bins of any
+    // two parts of the image nest within each other's when merged; they double in width as the
+    // range grows, spanning it with between a half and all of them
+    private static final int FINE_BINS = 1 << 16;
+
     private final double min, max, mean, stdDev;
     private final long voxelCount;
+    private final boolean exactBins;
+    private final int binOffset;
+    private final long[] binCounts;
+    private final long[] fineCounts;
+    private final double fineLow, fineWidth;
+    private final long[] histogram;
 
     public ImageStatistics(NiftiImage image) {
-        Object data = image.getData();
-        DataType dataType = image.getHeader().getDataType();
-
-        double minVal = Double.MAX_VALUE;
-        double maxVal = Double.MIN_VALUE;
-        double sum = 0.0;
-        long count = 0;
-
-        if (dataType == DataType.DT_FLOAT) {
-            float[] floatData = (float[]) data;
-            for (float value : floatData) {
-                if (Float.isFinite(value)) {
-                    double dval = (double) value;
-                    if (dval < minVal) minVal = dval;
-                    if (dval > maxVal) maxVal = dval;
-                    sum += dval;
-                    count++;
-                }
-            }
-        } else if (dataType == DataType.DT_DOUBLE) {
-            double[] doubleData = (double[]) data;
-            for (double value : doubleData) {
-                if (Double.isFinite(value)) {
-                    if (value < minVal) minVal = value;
-                    if (value > maxVal) maxVal = value;
-                    sum += value;
-                    count++;
-                }
-            }
-        } else if (dataType == DataType.DT_SIGNED_SHORT) {
-            short[] shortData = (short[]) data;
-            for (short value : shortData) {
-                double dval = (double) value;
-                if (dval < minVal) minVal = dval;
-                if (dval > maxVal) maxVal = dval;
-                sum += dval;
-                count++;
-            }
-        } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-            short[] shortData = (short[]) data;
-            for (short value : shortData) {
-                double dval = (double) (value & 0xFFFF);
-                if (dval < minVal) minVal = dval;
-                if (dval > maxVal) maxVal = dval;
-                sum += dval;
-                count++;
-            }
-        } else if (dataType == DataType.DT_UNSIGNED_CHAR) {
-            byte[] byteData = (byte[]) data;
-            for (byte value : byteData) {
-                double dval = (double) (value & 0xFF);
-                if (dval < minVal) minVal = dval;
-                if (dval > maxVal) maxVal = dval;
-                sum += dval;
-                count++;
-            }
-        }
-
-        if (count == 0) {
+        VoxelBuffer voxels;
+        try {
+            voxels = image.getVoxels();
+        } catch (IOException e) {
+            throw new NiftiException("Failed to read voxels of " + image.getFilename(), e);
+        }
+        DataType dataType = voxels.getDataType();
+        this.exactBins = dataType == DataType.DT_UNSIGNED_CHAR || dataType == DataType.DT_SIGNED_SHORT
+                || dataType == DataType.DT_UNSIGNED_SHORT;
+        this.binOffset = (dataType == DataType.DT_SIGNED_SHORT) ? Short.MIN_VALUE : 0;
+        long length = voxels.length();
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        long taskVoxels = Math.max(MIN_TASK_VOXELS, (length + parallelism * 4L - 1) / (parallelism * 4L));
+
+        Accumulator total = ForkJoinPool.commonPool().invoke(new Scan(voxels, 0L, length, taskVoxels, exactBins, binOffset));
+        this.voxelCount = total.count;
+        this.binCounts = total.bins;
+        if (total.count == 0) {
             this.min = 0;
             this.max = 0;
             this.mean = 0;
             this.stdDev = 0;
         } else {
-            this.min = minVal;
-            this.max = maxVal;
-            this.mean = sum / count;
-            double sumSquared = 0.0;
-            if (dataType == DataType.DT_FLOAT) {
-                float[] floatData = (float[]) data;
-                for (float value : floatData) {
-                    if (Float.isFinite(value)) {
-                        double dval = (double) value - this.mean;
-                        sumSquared += dval * dval;
-                    }
+            this.min = total.min;
+            this.max = total.max;
+            this.mean = total.mean;
+            this.stdDev = Math.sqrt(total.m2 / total.count);
+        }
+        boolean fine = !exactBins && max > min && total.fine != null;
+        this.fineCounts = fine ? total.fine : null;
+        this.fineLow = fine ? total.fineLow : 0;
+        this.fineWidth = fine ? total.fineWidth : 0;
+        this.histogram = rebin();
+    }
+
+    public double getMin() {
+        return min;
+    }
+    public double getMax() { return max; }
+    public double getMean() { return mean; }
+    public double getStdDev() { return stdDev; }
+    public long getVoxelCount() { return voxelCount; }
+
+    /** Counts of the finite values in {@link #HISTOGRAM_BINS} equal bins from min to max. */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * The value below which {@code percent} of the finite voxels fall: exact for 8 and 16 bit
+     * integer images, else interpolated within a bin about 1% of the value wide or, where that is
+     * narrower, 1/32768 to 1/65536 of the range from min to max.
+     */
+    public double getPercentile(double percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percent);
+        }
+        if (voxelCount == 0) {
+            return 0;
+        }
+        double rank = percent / 100.0 * (voxelCount - 1);
+        long below = 0;
+        for (int bin = 0; bin < binCounts.length; bin++) {
+            long n = binCounts[bin];
+            if (n > 0 && below + n > rank) {
+                if (exactBins) {
+                    return binLow(bin);
                 }
-            } else if (dataType == DataType.DT_DOUBLE) {
-                double[] doubleData = (double[]) data;
-                for (double value : doubleData) {
-                    if (Double.isFinite(value)) {
-                        double dval = value - this.mean;
-                        sumSquared += dval * dval;
-                    }
+                double lo = binLow(bin);
+                double hi = binHigh(bin);
+                if (lo == 0 || hi == 0) {
+                    return 0; // the bins either side of zero hold only zero and subnormal values
                 }
-            } else if (dataType == DataType.DT_SIGNED_SHORT) {
-                short[] shortData = (short[]) data;
-                for (short value : shortData) {
-                    double dval = (double) value - this.mean;
-                    sumSquared += dval * dval;
+                if (fineCounts != null && fineWidth < hi - lo) {
+                    return finePercentile(rank);
                 }
-            } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-                short[] shortData = (short[]) data;
-                for (short value : shortData) {
-                    double dval = (double) (value & 0xFFFF) - this.mean;
-                    sumSquared += dval * dval;
+                return lo + (hi - lo) * ((rank - below + 0.5) / n);
+            }
+            below += n;
+        }
+        return max;
+    }
+
+    private double finePercentile(double rank) {
+        long below = 0;
+        for (int bin = 0; bin < FINE_BINS; bin++) {
+            long n = fineCounts[bin];
+            if (n > 0 && below + n > rank) {
+                double value = fineLow + fineWidth * (bin + (rank - below + 0.5) / n);
+                return Math.max(min, Math.min(max, value));
+            }
+            below += n;
+        }
+        return max;
+    }
+
+    /** The 0.5th and 99.5th percentiles, a display window that ignores outlying voxels. */
+    public double[] getWindow() {
+        return new double[]{getPercentile(0.5), getPercentile(99.5)};
+    }
+
+    private long[] rebin() {
+        long[] counts = new long[HISTOGRAM_BINS];
+        if (voxelCount == 0) {
+            return counts;
+        }
+        double width = (max - min) / HISTOGRAM_BINS;
+        if (fineCounts != null) {
+            for (int bin = 0; bin < FINE_BINS; bin++) {
+                if (fineCounts[bin] > 0) {
+                    double value = Math.max(min, Math.min(max, fineLow + fineWidth * (bin + 0.5)));
+                    counts[Math.min(HISTOGRAM_BINS - 1, (int) ((value - min) / width))] += fineCounts[bin];
                 }
-            } else if (dataType == DataType.DT_UNSIGNED_CHAR) {
-                byte[] byteData = (byte[]) data;
-                for (byte value : byteData) {
-                    double dval = (double) (value & 0xFF) - this.mean;
-                    sumSquared += dval * dval;
+            }
+            return counts;
+        }
+        for (int bin = 0; bin < binCounts.length; bin++) {
+            if (binCounts[bin] > 0) {
+                double value = exactBins ? binLow(bin) : (binLow(bin) + binHigh(bin)) / 2;
+                int to = (width > 0) ? (int) ((value - min) / width) : 0;
+                counts[Math.max(0, Math.min(HISTOGRAM_BINS - 1, to))] += binCounts[bin];
+            }
+        }
+        return counts;
+    }
+
+    // the lowest and highest value a bin holds, within the range of the values seen
+    private double binLow(int bin) {
+        if (exactBins) {
+            return bin + binOffset;
+        }
+        double low = fromKey(bin << KEY_BITS);
+        return (low >= min) ? low : min;
+    }
+
+    private double binHigh(int bin) {
+        if (exactBins) {
+            return bin + binOffset;
+        }
+        double high = fromKey((bin << KEY_BITS) | ((1 << KEY_BITS) - 1));
+        return (high <= max) ? high : max;
+    }
+
+    /** Integers of up to 16 bits less the type's lowest value; else the ordered float bits. */
+    private static int binOf(double value, boolean exactBins, int binOffset) {
+        if (exactBins) {
+            return (int) value - binOffset;
+        }
+        int bits = Float.floatToIntBits((float) value);
+        return (bits ^ ((bits >> 31) | Integer.MIN_VALUE)) >>> KEY_BITS;
+    }
+
+    private static float fromKey(int key) {
+        return Float.intBitsToFloat((key < 0) ? key ^ Integer.MIN_VALUE : ~key);
+    }
+
+    /**
+     * Count, extremes, mean and sum of squared deviations (Welford's M2), the bin counts and,
+     * unless the bins are exact, the fine bin counts from {@code fineLow}, {@code fineWidth} apart.
+     */
+    private static final class Accumulator {
+        long count;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double mean;
+        double m2;
+        final long[] bins = new long[1 << KEY_BITS];
+        long[] fine;
+        double fineLow, fineWidth;
+        private final boolean exactBins;
+        private final int binOffset;
+
+        Accumulator(boolean exactBins, int binOffset) {
+            this.exactBins = exactBins;
+            this.binOffset = binOffset;
+            this.fine = exactBins ? null : new long[FINE_BINS];
+        }
+
+        /** Adds the finite values of a block, summed once and then centred on the block mean. */
+        void add(double[] block, int n) {
+            long blockCount = 0;
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) {
+                double value = block[i];
+                if (Double.isFinite(value)) {
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                    sum += value;
+                    blockCount++;
+                }
+            }
+            if (blockCount == 0) {
+                return;
+            }
+            double blockMean = sum / blockCount;
+            double blockM2 = 0.0;
+            if (fine != null) {
+                widen(0.0);
+            }
+            for (int i = 0; i < n; i++) {
+                double value = block[i];
+                if (Double.isFinite(value)) {
+                    double d = value - blockMean;
+                    blockM2 += d * d;
+                    bins[binOf(value, exactBins, binOffset)]++;
+                    if (fine != null) {
+                        fine[Math.min(FINE_BINS - 1, (int) ((value - fineLow) / fineWidth))]++;
+                    }
                 }
             }
+            merge(blockCount, blockMean, blockM2);
+        }
 
-            this.stdDev = Math.sqrt(sumSquared / count);
+        void merge(Accumulator other) {
+            if (other.min < min) min = other.min;
+            if (other.max > max) max = other.max;
+            for (int i = 0; i < bins.length; i++) {
+                bins[i] += other.bins[i];
+            }
+            if (other.fine == null) {
+                fine = null;
+            } else if (fine != null && other.count > 0) {
+                widen(other.fineWidth);
+                if (fine != null) {
+                    project(other.fine, other.fineLow, other.fineWidth);
+                }
+            }
+            merge(other.count, other.mean, other.m2);
         }
 
-        this.voxelCount = count;
+        /**
+         * Widens the fine bins to at least {@code minWidth} and until they span min to max, adding
+         * each old bin to the new one it falls in; drops them if the range overflows a double.
+         */
+        private void widen(double minWidth) {
+            if (fineWidth >= minWidth && fineWidth > 0
+                    && min >= fineLow && max < fineLow + FINE_BINS * fineWidth) {
+                return;
+            }
+            double span = max - min;
+            if (!Double.isFinite(span)) {
+                fine = null; // the float-keyed bins alone will do
+                return;
+            }
+            double width = Math.max(Math.max(fineWidth, minWidth),
+                    Math.max(span / (FINE_BINS - 1), Math.ulp(Math.max(Math.abs(min), Math.abs(max)))));
+            double pow2 = Math.scalb(1.0, Math.getExponent(width));
+            width = (pow2 < width) ? pow2 * 2 : pow2;
+            double low = Math.floor(min / width) * width;
+            while (max >= low + FINE_BINS * width) {
+                width *= 2;
+                low = Math.floor(min / width) * width;
+            }
+            long[] old = fine;
+            double oldLow = fineLow, oldWidth = fineWidth;
+            fine = new long[FINE_BINS];
+            fineLow = low;
+            fineWidth = width;
+            if (oldWidth > 0) {
+                project(old, oldLow, oldWidth);
+            }
+        }
+
+        // adds bins no wider than these and on the same grid, each to the one it falls in
+        private void project(long[] from, double fromLow, double fromWidth) {
+            double shift = (fromLow - fineLow) / fromWidth;
+            double ratio = fineWidth / fromWidth;
+            for (int i = 0; i < from.length; i++) {
+                if (from[i] != 0) {
+                    int to = (int) ((shift + i) / ratio);
+                    fine[Math.max(0, Math.min(FINE_BINS - 1, to))] += from[i];
+                }
+            }
+        }
+
+        // Chan et al.'s pairwise update, stable for partitions of any size
+        private void merge(long n, double otherMean, double otherM2) {
+            if (n == 0) {
+                return;
+            }
+            long total = count + n;
+            double delta = otherMean - mean;
+            mean += delta * n / total;
+            m2 += otherM2 + delta * delta * ((double) count * n / total);
+            count = total;
+        }
     }
 
-    public double getMin() {
-        return min;
+    private static final class Scan extends RecursiveTask<Accumulator> {
+        private static final long serialVersionUID = 1L;
+
+        private final VoxelBuffer voxels;
+        private final long from, to, taskVoxels;
+        private final boolean exactBins;
+        private final int binOffset;
+
+        Scan(VoxelBuffer voxels, long from, long to, long taskVoxels, boolean exactBins, int binOffset) {
+            this.voxels = voxels;
+            this.from = from;
+            this.to = to;
+            this.taskVoxels = taskVoxels;
+            this.exactBins = exactBins;
+            this.binOffset = binOffset;
+        }
+
+        @Override
+        protected Accumulator compute() {
+            if (to - from > taskVoxels) {
+                long middle = from + (to - from) / 2;
+                Scan left = new Scan(voxels, from, middle, taskVoxels, exactBins, binOffset);
+                left.fork();
+                Accumulator right = new Scan(voxels, middle, to, taskVoxels, exactBins, binOffset).compute();
+                Accumulator merged = left.join();
+                merged.merge(right);
+                return merged;
+            }
+            Accumulator accumulator = new Accumulator(exactBins, binOffset);
+            double[] block = new double[(int) Math.min(BLOCK_VOXELS, Math.max(1L, to - from))];
+            for (long at = from; at < to; at += block.length) {
+                int n = (int) Math.min(block.length, to - at);
+                voxels.getDoubles(at, block, 0, n);
+                accumulator.add(block, n);
+            }
+            return accumulator;
+        }
     }
-    public double getMax() { return max; }
-    public double getMean() { return mean; }
-    public double getStdDev() { return stdDev; }
-    public long getVoxelCount() { return voxelCount; }
-}
\ No newline at end of file
+}
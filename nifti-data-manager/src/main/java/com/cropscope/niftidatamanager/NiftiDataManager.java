@@ -35,11 +35,49 @@ public class NiftiDataManager {
             String[] batchArgs = new String[args.length - 1];
             System.arraycopy(args, 1, batchArgs, 0, batchArgs.length);
             BatchNiftiProcessor.main(batchArgs);
+        } else if ("bench-chunks".equals(args[0])) {
+            String[] benchArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, benchArgs, 0, benchArgs.length);
+            try {
+                ChunkBenchmark.main(benchArgs);
+            } catch (Exception e) {
+                System.err.println("Benchmark failed: " + e.getMessage());
+            }
+        } else if ("index-gz".equals(args[0]) && args.length > 1) {
+            try {
+                int span = (args.length > 2) ? Integer.parseInt(args[2]) << 20 : GzipIndex.DEFAULT_SPAN;
+                System.out.println(GzipIndex.build(args[1], span));
+            } catch (Exception e) {
+                System.err.println("Indexing failed: " + e.getMessage());
+            }
+        } else if ("bgzip".equals(args[0]) && args.length > 2) {
+            try {
+                NiftiWriter.recompress(args[1], args[2]);
+            } catch (Exception e) {
+                System.err.println("Recompression failed: " + e.getMessage());
+            }
+        } else if ("crop".equals(args[0]) && args.length > 3 && (args.length - 3) % 2 == 0) {
+            try {
+                int n = (args.length - 3) / 2;
+                int[] start = new int[n];
+                int[] size = new int[n];
+                for (int k = 0; k < n; k++) {
+                    start[k] = Integer.parseInt(args[3 + k]);
+                    size[k] = Integer.parseInt(args[3 + n + k]);
+                }
+                NiftiWriter.writeRegion(NiftiReader.open(args[1]), start, size, args[2]);
+            } catch (Exception e) {
+                System.err.println("Cropping failed: " + e.getMessage());
+            }
         } else {
             System.out.println("Usage:");
             System.out.println("  GUI mode: java -jar nifti-data-manager.jar");
             System.out.println("  Batch mode: java -jar nifti-data-manager.jar batch <source> <sink> <dimension>");
             System.out.println("  Quality filtering is automatically applied to skip low-value slices");
+            System.out.println("  Patch benchmark: java -jar nifti-data-manager.jar bench-chunks <file> [patch] [patches] [threads]");
+            System.out.println("  Index a .nii.gz for random access: java -jar nifti-data-manager.jar index-gz <file> [span MB]");
+            System.out.println("  Recompress for parallel loading: java -jar nifti-data-manager.jar bgzip <source> <target.nii.gz>");
+            System.out.println("  Crop a sub-volume: java -jar nifti-data-manager.jar crop <source> <target> <x> <y> <z> <sx> <sy> <sz>");
             System.out.println("");
             System.out.println("Dimensions:");
             System.out.println("  0 = X/sagittal slices");
@@ -21,10 +21,38 @@
 
 package com.cropscope.niftidatamanager;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class NiftiHeader {
+    // field kinds in the layout table below: size in bytes, negative for floating point
+    private static final int BYTE = 1, SHORT = 2, INT = 4, LONG = 8, FLOAT = -4, DOUBLE = -8;
+
+    /**
+     * Fields carried over from the source header that the layout does not decide, as
+     * {NIfTI-1 offset, kind, NIfTI-2 offset, kind, count}: intent, slice timing, scaling,
+     * display range, units, description, qform/sform and dim_info.
+     */
+    private static final int[][] FIELDS = {
+            {39, BYTE, 524, BYTE, 1},
+            {56, FLOAT, 80, DOUBLE, 3},
+            {68, SHORT, 504, INT, 1},
+            {74, SHORT, 224, LONG, 1},
+            {112, FLOAT, 176, DOUBLE, 2},
+            {120, SHORT, 232, LONG, 1},
+            {122, BYTE, 496, INT, 1},
+            {123, BYTE, 500, INT, 1},
+            {124, FLOAT, 192, DOUBLE, 4},
+            {148, BYTE, 240, BYTE, 104},
+            {252, SHORT, 344, INT, 2},
+            {256, FLOAT, 352, DOUBLE, 6},
+            {280, FLOAT, 400, DOUBLE, 12},
+            {328, BYTE, 508, BYTE, 16},
+    };
+    // rows of FIELDS: qform_code and sform_code; quatern_b, c, d and qoffset_x, y, z; srow_x, y, z
+    private static final int FORM_CODES = 10, QUATERN = 11, QOFFSET_X = 3, SROW = 12;
+
     private final boolean isNifti2;
     private final ByteOrder byteOrder;
 
@@ -52,6 +80,9 @@ public class NiftiHeader {
 
     private byte[] extensionData;
 
+    // the header as read, without the extension flag; null for headers built in memory
+    private byte[] raw;
+
     public NiftiHeader(boolean isNifti2, ByteOrder byteOrder) {
         this.isNifti2 = isNifti2;
         this.byteOrder = byteOrder;
@@ -103,6 +134,105 @@ public class NiftiHeader {
             throw new IllegalArgumentException("Dimensions array must have 8 elements");
         }
     }
+    /**
+     * A copy of this header describing the region of dimensions {@code dim} from voxel
+     * {@code start}: the qform and sform origins are moved to that voxel so the region keeps its
+     * place in world space, and every other field read from the file is kept.
+     */
+    NiftiHeader withRegion(int[] start, short[] dim) {
+        NiftiHeader copy = new NiftiHeader(isNifti2, byteOrder);
+        copy.setDimensions(dim);
+        copy.setDatatype(datatype);
+        copy.setBitpix(bitpix);
+        copy.setVoxOffset(vox_offset);
+        copy.setPixdim(pixdim);
+        if (raw != null) {
+            copy.raw = raw.clone();
+            ByteBuffer fields = ByteBuffer.wrap(copy.raw).order(byteOrder);
+            double[] v = new double[3];
+            for (int k = 0; k < 3; k++) {
+                v[k] = (k < start.length) ? start[k] : 0;
+            }
+            if (get(fields, FORM_CODES, 0) > 0) {
+                double b = get(fields, QUATERN, 0), c = get(fields, QUATERN, 1), d = get(fields, QUATERN, 2);
+                double a = Math.sqrt(Math.max(0.0, 1.0 - (b * b + c * c + d * d)));
+                double qfac = (pixdim[0] == 0) ? 1.0 : pixdim[0]; // 0 means 1 in the NIfTI spec
+                double x = pixdim[1] * v[0], y = pixdim[2] * v[1], z = qfac * pixdim[3] * v[2];
+                double[] shift = {
+                        (a * a + b * b - c * c - d * d) * x + 2 * (b * c - a * d) * y + 2 * (b * d + a * c) * z,
+                        2 * (b * c + a * d) * x + (a * a + c * c - b * b - d * d) * y + 2 * (c * d - a * b) * z,
+                        2 * (b * d - a * c) * x + 2 * (c * d + a * b) * y + (a * a + d * d - c * c - b * b) * z};
+                for (int k = 0; k < 3; k++) {
+                    put(fields, QUATERN, QOFFSET_X + k, get(fields, QUATERN, QOFFSET_X + k) + shift[k]);
+                }
+            }
+            if (get(fields, FORM_CODES, 1) > 0) {
+                for (int row = 0; row < 3; row++) {
+                    double t = get(fields, SROW, row * 4 + 3);
+                    for (int k = 0; k < 3; k++) {
+                        t += get(fields, SROW, row * 4 + k) * v[k];
+                    }
+                    put(fields, SROW, row * 4 + 3, t);
+                }
+            }
+        }
+        return copy;
+    }
+
+    void setRawHeader(byte[] raw) { this.raw = raw.clone(); }
+
+    /**
+     * The header as read from the file, laid out as NIfTI-2 if {@code nifti2} is set, else as
+     * NIfTI-1, in this header's byte order; null if it was not read from a file. Fields with no
+     * counterpart in the other format are left zero and the layout fields (dim, datatype, bitpix,
+     * pixdim, vox_offset, magic) are left for the writer to set.
+     */
+    byte[] getRawHeader(boolean nifti2) {
+        if (raw == null) return null;
+        if (nifti2 == isNifti2) return raw.clone();
+        ByteBuffer from = ByteBuffer.wrap(raw).order(byteOrder);
+        ByteBuffer to = ByteBuffer.allocate(nifti2 ? 540 : 348).order(byteOrder);
+        for (int f = 0; f < FIELDS.length; f++) {
+            for (int i = 0; i < FIELDS[f][4]; i++) {
+                double value = read(from, FIELDS[f][isNifti2 ? 2 : 0], FIELDS[f][isNifti2 ? 3 : 1], i);
+                write(to, FIELDS[f][nifti2 ? 2 : 0], FIELDS[f][nifti2 ? 3 : 1], i, value);
+            }
+        }
+        return to.array();
+    }
+
+    private double get(ByteBuffer fields, int field, int i) {
+        return read(fields, FIELDS[field][isNifti2 ? 2 : 0], FIELDS[field][isNifti2 ? 3 : 1], i);
+    }
+
+    private void put(ByteBuffer fields, int field, int i, double value) {
+        write(fields, FIELDS[field][isNifti2 ? 2 : 0], FIELDS[field][isNifti2 ? 3 : 1], i, value);
+    }
+
+    private static double read(ByteBuffer b, int offset, int kind, int i) {
+        int at = offset + i * Math.abs(kind);
+        switch (kind) {
+            case BYTE: return b.get(at);
+            case SHORT: return b.getShort(at);
+            case INT: return b.getInt(at);
+            case LONG: return b.getLong(at);
+            case FLOAT: return b.getFloat(at);
+            default: return b.getDouble(at);
+        }
+    }
+
+    private static void write(ByteBuffer b, int offset, int kind, int i, double value) {
+        int at = offset + i * Math.abs(kind);
+        switch (kind) {
+            case BYTE: b.put(at, (byte) value); break;
+            case SHORT: b.putShort(at, (short) value); break;
+            case INT: b.putInt(at, (int) value); break;
+            case LONG: b.putLong(at, (long) value); break;
+            case FLOAT: b.putFloat(at, (float) value); break;
+            default: b.putDouble(at, value); break;
+        }
+    }
+
     public void setDatatype(short datatype) { this.datatype = datatype; }
     public void setBitpix(short bitpix) { this.bitpix = bitpix; }
     public void setVoxOffset(long vox_offset) { this.vox_offset = vox_offset; }
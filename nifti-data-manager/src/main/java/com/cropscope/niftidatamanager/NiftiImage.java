@@ -40,6 +40,10 @@ public class NiftiImage {
 
     private volatile Object data;
     private volatile MappedByteBuffer mappedBuffer;
+    private volatile VoxelBuffer mappedVoxels;
+    private volatile GzipIndex gzipIndex;
+    private volatile boolean gzipIndexLoaded;
+    private volatile ImageStatistics statistics;
     private final ReadWriteLock dataLock = new ReentrantReadWriteLock();
     private final boolean useMemoryMapping;
 
@@ -52,15 +56,30 @@ public class NiftiImage {
         this.useMemoryMapping = useMemoryMapping;
     }
 
+    /** An image whose voxels are already in memory, such as a region cropped from {@code filename}. */
+    NiftiImage(String filename, NiftiHeader header, Object data) {
+        this(filename, header, false);
+        this.data = data;
+    }
+
     public static NiftiImage read(String filename) throws IOException {
         return NiftiReader.read(filename);
     }
 
+    /** Reads the header only, for taking regions with {@link #crop} or {@link #getChunk}. */
+    public static NiftiImage open(String filename) throws IOException {
+        return NiftiReader.open(filename);
+    }
+
     public Object getData() {
-        if (data == null && mappedBuffer == null) {
+        if (data == null) {
+            if (header.getVoxelCount() > VoxelBuffer.MAX_ARRAY_LENGTH) {
+                throw new NiftiException("Volume has " + header.getVoxelCount()
+                        + " voxels, more than one Java array can hold; use getVoxels()");
+            }
             dataLock.writeLock().lock();
             try {
-                if (data == null && mappedBuffer == null) {
+                if (data == null) {
                     loadData();
                 }
             } finally {
@@ -75,6 +94,10 @@ public class NiftiImage {
             dataLock.writeLock().lock();
             try {
                 if (mappedBuffer == null && data == null) {
+                    if (header.getDataSize() > Integer.MAX_VALUE) {
+                        throw new IOException("Voxel data of " + filename + " is " + header.getDataSize()
+                                + " bytes, too large for one buffer; use getVoxels()");
+                    }
                     if (useMemoryMapping || header.getDataSize() > MEMORY_MAPPING_THRESHOLD) {
                         FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
                         mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY,
@@ -90,12 +113,103 @@ public class NiftiImage {
         return mappedBuffer;
     }
 
+    /**
+     * The voxels by long index. The file is mapped in segments instead of loaded when memory
+     * mapping applies or the volume is too large for one Java array; compressed volumes of that
+     * size are first inflated to a temporary file.
+     */
+    public VoxelBuffer getVoxels() throws IOException {
+        VoxelBuffer voxels = getLoadedVoxels();
+        if (voxels != null) {
+            return voxels;
+        }
+        dataLock.writeLock().lock();
+        try {
+            if (data == null && mappedVoxels == null) {
+                boolean tooLarge = header.getVoxelCount() > VoxelBuffer.MAX_ARRAY_LENGTH;
+                boolean isGzipped = filename.toLowerCase().endsWith(".gz");
+                if (tooLarge && isGzipped) {
+                    mappedVoxels = VoxelBuffer.map(NiftiReader.inflateVoxels(this).toPath(), 0L,
+                            header.getDataSize(), header.getDataType(), header.getByteOrder());
+                } else if (tooLarge || (!isGzipped && (useMemoryMapping || header.getDataSize() > MEMORY_MAPPING_THRESHOLD))) {
+                    mappedVoxels = VoxelBuffer.map(filePath, header.getVoxOffset(),
+                            header.getDataSize(), header.getDataType(), header.getByteOrder());
+                } else {
+                    loadData();
+                }
+            }
+        } finally {
+            dataLock.writeLock().unlock();
+        }
+        return getLoadedVoxels();
+    }
+
+    /** The voxels if they are loaded or mapped, without loading or mapping them. */
+    VoxelBuffer getLoadedVoxels() {
+        Object loaded = data;
+        return (loaded != null) ? VoxelBuffer.wrap(loaded, header.getDataType()) : mappedVoxels;
+    }
+
+    /**
+     * Slice {@code sliceIndex} across {@code dimension} as floats, read through {@link #getVoxels()},
+     * or, for a compressed 3D volume with an access point index that is not loaded, inflated from
+     * the nearest access point.
+     */
+    public float[] getSlice(int dimension, int sliceIndex) throws IOException {
+        short[] dims = header.getDimensions();
+        if (dims[0] == 3 && dimension >= 0 && dimension <= 2 && getLoadedVoxels() == null && getGzipIndex() != null) {
+            int[] start = {0, 0, 0};
+            int[] end = {dims[1], dims[2], dims[3]};
+            start[dimension] = sliceIndex;
+            end[dimension] = sliceIndex + 1;
+            VoxelBuffer chunk = VoxelBuffer.wrap(getChunk(start, end), header.getDataType());
+            float[] slice = new float[(int) chunk.length()];
+            chunk.getFloats(0, slice, 0, slice.length);
+            return slice;
+        }
+        return getVoxels().slice(dims, dimension, sliceIndex);
+    }
+
+    /** The access point index saved beside a compressed image, or null if it has none. */
+    GzipIndex getGzipIndex() {
+        if (!gzipIndexLoaded) {
+            if (filename.toLowerCase().endsWith(".gz")) {
+                gzipIndex = GzipIndex.load(filename);
+            }
+            gzipIndexLoaded = true;
+        }
+        return gzipIndex;
+    }
+
+    /**
+     * Inflates a compressed image once to build its access point index, saved beside it, so
+     * slices and chunks can later be read without inflating the file from the start.
+     */
+    public void buildGzipIndex() throws IOException {
+        if (!filename.toLowerCase().endsWith(".gz")) {
+            throw new IOException(filename + " is not gzip-compressed");
+        }
+        gzipIndex = GzipIndex.build(filename, GzipIndex.DEFAULT_SPAN);
+        gzipIndexLoaded = true;
+    }
+
+    /**
+     * The voxels from {@code start} (inclusive) to {@code end} (exclusive) in each dimension,
+     * x fastest, as an array of the image's Java type. Only that region is read from the file,
+     * so patches can be taken from volumes that are never loaded whole, from several threads.
+     */
     public Object getChunk(int[] start, int[] end) throws IOException {
         return NiftiReader.readChunk(this, start, end);
     }
 
+    /** Statistics of the voxel values, computed on first use and kept with the image. */
     public ImageStatistics getStatistics() {
-        return new ImageStatistics(this);
+        ImageStatistics stats = statistics;
+        if (stats == null) {
+            stats = new ImageStatistics(this);
+            statistics = stats;
+        }
+        return stats;
     }
 
     public void exportSliceToPNG(String outputFilename, int dimension, int sliceIndex)
@@ -181,8 +295,27 @@ public class NiftiImage {
         throw new UnsupportedOperationException("Resampling not yet implemented");
     }
 
-    public NiftiImage crop(int[] start, int[] size) {
-        throw new UnsupportedOperationException("Cropping not yet implemented");
+    /**
+     * The region of {@code size} voxels from {@code start} in each dimension as an image held in
+     * memory, with its world origin moved to {@code start}. It is read with {@link #getChunk}, so
+     * on an image from {@link #open} the rest of the volume is never loaded. Dimensions left out
+     * of the arrays are kept whole. Use {@link NiftiWriter#writeRegion} for regions too large for
+     * one Java array.
+     */
+    public NiftiImage crop(int[] start, int[] size) throws IOException {
+        if (start == null || size == null || start.length != size.length) {
+            throw new IllegalArgumentException("start and size must have the same length");
+        }
+        int[] end = new int[start.length];
+        for (int k = 0; k < start.length; k++) {
+            end[k] = start[k] + size[k];
+        }
+        Object region = getChunk(start, end);
+        short[] dim = header.getDimensions();
+        for (int k = 0; k < size.length; k++) {
+            dim[k + 1] = (short) size[k];
+        }
+        return new NiftiImage(filename, header.withRegion(start, dim), region);
     }
 
     @Override
@@ -24,12 +24,28 @@ package com.cropscope.niftidatamanager;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 
 public class NiftiReader {
 
     public static NiftiImage read(String filename) throws IOException {
+        return read(filename, true);
+    }
+
+    /**
+     * Reads the header only; the voxels are read when they are first asked for, a region at a
+     * time through {@link NiftiImage#getChunk} or whole through {@link NiftiImage#getVoxels()}.
+     * For callers that only need part of a compressed volume.
+     */
+    public static NiftiImage open(String filename) throws IOException {
+        return read(filename, false);
+    }
+
+    private static NiftiImage read(String filename, boolean load) throws IOException {
         boolean isGzipped = filename.toLowerCase().endsWith(".gz");
         boolean useMemoryMapping = !isGzipped;
         System.out.println("Reading file: " + filename);
@@ -60,7 +76,7 @@ public class NiftiReader {
                             first4Bytes[0], first4Bytes[1], first4Bytes[2], first4Bytes[3]));
             System.out.println("As little-endian: " + asLittleEndian);
             System.out.println("As big-endian: " + asBigEndian);
-            boolean isNifti2 = (asLittleEndian == 540672) || (asBigEndian == 540672);
+            boolean isNifti2 = (asLittleEndian == 540) || (asBigEndian == 540);
 
             NiftiHeader header;
             if (isNifti2) {
@@ -71,7 +87,8 @@ public class NiftiReader {
                 decompressedStream = isGzipped ?
                         new GZIPInputStream(bufferedStream) : bufferedStream;
                 try (DataInputStream newDis = new DataInputStream(decompressedStream)) {
-                    header = readNifti2Header(newDis, filename);
+                    header = readNifti2Header(newDis,
+                            (asLittleEndian == 540) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN, filename);
                 }
             } else {
                 ByteOrder byteOrder;
@@ -83,7 +100,7 @@ public class NiftiReader {
                     System.out.println("Detected NIfTI-1, big-endian");
                 } else {
                     throw new IOException("Not a valid NIfTI file. Header size: " +
-                            asLittleEndian + " (LE) / " + asBigEndian + " (BE). Expected 348 or 540672.");
+                            asLittleEndian + " (LE) / " + asBigEndian + " (BE). Expected 348 or 540.");
                 }
                 fileStream.close();
                 fileStream = new FileInputStream(filename);
@@ -101,7 +118,13 @@ public class NiftiReader {
             System.out.println("Creating NiftiImage with memory mapping: " + shouldUseMemoryMapping);
             NiftiImage image = new NiftiImage(filename, header, shouldUseMemoryMapping);
 
-            if (!shouldUseMemoryMapping || isGzipped) {
+            if (!load) {
+                System.out.println("Opened without loading, data will be read on demand");
+            } else if (header.getVoxelCount() > VoxelBuffer.MAX_ARRAY_LENGTH) {
+                System.out.println("Volume too large for one array, voxels will be mapped on first access");
+            } else if (isGzipped && image.getGzipIndex() != null) {
+                System.out.println("Using gzip access index, data will be read on demand");
+            } else if (!shouldUseMemoryMapping || isGzipped) {
                 System.out.println("Loading data immediately (small file or compressed)");
                 image.getData();
             }
@@ -133,6 +156,7 @@ public class NiftiReader {
         }
 
         NiftiHeader header = new NiftiHeader(false, byteOrder);
+        header.setRawHeader(headerBytes);
         int sizeofHdr = byteOrder == ByteOrder.LITTLE_ENDIAN ?
                 (headerBytes[3] << 24) | (headerBytes[2] << 16) | (headerBytes[1] << 8) | (headerBytes[0] & 0xFF) :
                 (headerBytes[0] << 24) | (headerBytes[1] << 16) | (headerBytes[2] << 8) | (headerBytes[3] & 0xFF);
@@ -180,13 +204,8 @@ public class NiftiReader {
                 (short) ((headerBytes[bitpixOffset] << 8) | (headerBytes[bitpixOffset + 1] & 0xFF));
         System.out.println("Bitpix: " + bitpix);
         header.setBitpix(bitpix);
-        int voxOffsetOffset = 108;
-        int voxOffsetInt = byteOrder == ByteOrder.LITTLE_ENDIAN ?
-                (headerBytes[voxOffsetOffset + 3] << 24) | (headerBytes[voxOffsetOffset + 2] << 16) |
-                        (headerBytes[voxOffsetOffset + 1] << 8) | (headerBytes[voxOffsetOffset] & 0xFF) :
-                (headerBytes[voxOffsetOffset] << 24) | (headerBytes[voxOffsetOffset + 1] << 16) |
-                        (headerBytes[voxOffsetOffset + 2] << 8) | (headerBytes[voxOffsetOffset + 3] & 0xFF);
-        float voxOffsetFloat = Float.intBitsToFloat(voxOffsetInt);
+        ByteBuffer fields = ByteBuffer.wrap(headerBytes).order(byteOrder);
+        float voxOffsetFloat = fields.getFloat(108);
         long voxOffset;
         if (Float.isNaN(voxOffsetFloat) || voxOffsetFloat <= 0 || voxOffsetFloat > 1000000000) {
             if (isSingleFileNifti(filename)) {
@@ -202,26 +221,20 @@ public class NiftiReader {
         header.setVoxOffset(voxOffset);
         float[] pixdim = new float[8];
         for (int i = 0; i < 8; i++) {
-            int offset = 80 + i * 4;
-            int floatBits = byteOrder == ByteOrder.LITTLE_ENDIAN ?
-                    (headerBytes[offset + 3] << 24) | (headerBytes[offset + 2] << 16) |
-                            (headerBytes[offset + 1] << 8) | (headerBytes[offset] & 0xFF) :
-                    (headerBytes[offset] << 24) | (headerBytes[offset + 1] << 16) |
-                            (headerBytes[offset + 2] << 8) | (headerBytes[offset + 3] & 0xFF);
-            pixdim[i] = Float.intBitsToFloat(floatBits);
+            pixdim[i] = fields.getFloat(76 + i * 4);
         }
-        if (Float.isNaN(pixdim[0]) || pixdim[0] < 0 || pixdim[0] > 7) {
-            System.out.println("Warning: Invalid pixdim[0] (ndim) = " + pixdim[0] + ", setting to " + dim[0]);
-            pixdim[0] = dim[0];
+        if (pixdim[0] != -1.0f && pixdim[0] != 1.0f) {
+            System.out.println("Warning: Invalid pixdim[0] (qfac) = " + pixdim[0] + ", setting to 1.0");
+            pixdim[0] = 1.0f;
         }
 
-        for (int i = 1; i <= (int) pixdim[0]; i++) {
+        for (int i = 1; i <= dim[0]; i++) {
             if (Float.isNaN(pixdim[i]) || Float.isInfinite(pixdim[i]) || pixdim[i] <= 0 || pixdim[i] > 1000) {
                 System.out.println("Warning: Invalid pixdim[" + i + "] = " + pixdim[i] + ", setting to 1.0");
                 pixdim[i] = 1.0f;
             }
         }
-        for (int i = (int) pixdim[0] + 1; i < 8; i++) {
+        for (int i = dim[0] + 1; i < 8; i++) {
             pixdim[i] = 1.0f;
         }
 
@@ -231,8 +244,8 @@ public class NiftiReader {
         return header;
     }
 
-    private static NiftiHeader readNifti2Header(DataInputStream dis, String filename) throws IOException {
-        System.out.println("Reading NIfTI-2 header");
+    private static NiftiHeader readNifti2Header(DataInputStream dis, ByteOrder byteOrder, String filename) throws IOException {
+        System.out.println("Reading NIfTI-2 header with byte order: " + byteOrder);
         byte[] headerBytes = new byte[540];
         int totalRead = 0;
         while (totalRead < 540) {
@@ -243,13 +256,13 @@ public class NiftiReader {
             totalRead += read;
         }
 
-        NiftiHeader header = new NiftiHeader(true, ByteOrder.LITTLE_ENDIAN);
+        NiftiHeader header = new NiftiHeader(true, byteOrder);
+        header.setRawHeader(headerBytes);
+        ByteBuffer fields = ByteBuffer.wrap(headerBytes).order(byteOrder);
         short[] dim = new short[8];
         for (int i = 0; i < 8; i++) {
-            int offset = 8 + i * 8;
-            int dimValue = (headerBytes[offset + 3] << 24) | (headerBytes[offset + 2] << 16) |
-                    (headerBytes[offset + 1] << 8) | (headerBytes[offset] & 0xFF);
-            dim[i] = (short) dimValue;
+            long dimValue = fields.getLong(16 + i * 8);
+            dim[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, dimValue));
         }
         if (dim[0] < 1 || dim[0] > 7) {
             System.out.println("Warning: Invalid ndim = " + dim[0] + ", assuming 3D");
@@ -269,16 +282,13 @@ public class NiftiReader {
 
         System.out.println("NIfTI-2 Dimensions: " + Arrays.toString(dim));
         header.setDimensions(dim);
-        short datatype = (short) ((headerBytes[41] << 8) | (headerBytes[40] & 0xFF));
+        short datatype = fields.getShort(12);
         System.out.println("NIfTI-2 Datatype: " + datatype);
         header.setDatatype(datatype);
-        short bitpix = (short) ((headerBytes[43] << 8) | (headerBytes[42] & 0xFF));
+        short bitpix = fields.getShort(14);
         System.out.println("NIfTI-2 Bitpix: " + bitpix);
         header.setBitpix(bitpix);
-        long voxOffset = 0;
-        for (int i = 0; i < 8; i++) {
-            voxOffset |= ((long) (headerBytes[44 + i] & 0xFF)) << (i * 8);
-        }
+        long voxOffset = fields.getLong(168);
         if (voxOffset <= 0 || voxOffset > 10000000000L) {
             voxOffset = 544;
             System.out.println("Warning: Invalid NIfTI-2 vox_offset, using default: " + voxOffset);
@@ -288,22 +298,19 @@ public class NiftiReader {
         header.setVoxOffset(voxOffset);
         float[] pixdim = new float[8];
         for (int i = 0; i < 8; i++) {
-            int offset = 52 + i * 8;
-            int floatBits = (headerBytes[offset + 3] << 24) | (headerBytes[offset + 2] << 16) |
-                    (headerBytes[offset + 1] << 8) | (headerBytes[offset] & 0xFF);
-            pixdim[i] = Float.intBitsToFloat(floatBits);
+            pixdim[i] = (float) fields.getDouble(104 + i * 8);
         }
-        if (Float.isNaN(pixdim[0]) || pixdim[0] < 0 || pixdim[0] > 7) {
-            pixdim[0] = dim[0];
+        if (pixdim[0] != -1.0f && pixdim[0] != 1.0f) {
+            pixdim[0] = 1.0f;
         }
 
-        for (int i = 1; i <= (int) pixdim[0]; i++) {
+        for (int i = 1; i <= dim[0]; i++) {
             if (Float.isNaN(pixdim[i]) || Float.isInfinite(pixdim[i]) || pixdim[i] <= 0 || pixdim[i] > 1000) {
                 pixdim[i] = 1.0f;
             }
         }
 
-        for (int i = (int) pixdim[0] + 1; i < 8; i++) {
+        for (int i = dim[0] + 1; i < 8; i++) {
             pixdim[i] = 1.0f;
         }
 
@@ -328,6 +335,10 @@ public class NiftiReader {
         boolean isGzipped = filename.toLowerCase().endsWith(".gz");
 
         if (isGzipped) {
+            Object data = ParallelGunzip.load(image);
+            if (data != null) {
+                return data;
+            }
             return loadCompressedData(filename, header, voxelCount, dataType, byteOrder, voxOffset);
         } else {
             return loadUncompressedData(filename, header, voxelCount, dataType, byteOrder, voxOffset);
@@ -369,98 +380,270 @@ public class NiftiReader {
         }
     }
 
+    // large enough to run at disk or inflater speed, a whole number of voxels of every type
+    private static final int READ_BLOCK_BYTES = 1 << 20;
+
     private static Object readDataFromStream(InputStream inputStream, long voxelCount,
                                              DataType dataType, ByteOrder byteOrder) throws IOException {
-        DataInputStream dis = new DataInputStream(new BufferedInputStream(inputStream));
+        if (voxelCount > VoxelBuffer.MAX_ARRAY_LENGTH) {
+            throw new IOException("Volume has " + voxelCount + " voxels, more than one Java array can hold");
+        }
+        int count = (int) voxelCount;
+        Object data = allocate(dataType, count);
+
+        int bytesPerVoxel = dataType.getBitpix() / 8;
+        int voxelsPerBlock = READ_BLOCK_BYTES / bytesPerVoxel;
+        ByteBuffer block = ByteBuffer.allocate(voxelsPerBlock * bytesPerVoxel).order(byteOrder);
+        for (int done = 0; done < count; ) {
+            int n = Math.min(voxelsPerBlock, count - done);
+            readFully(inputStream, block.array(), n * bytesPerVoxel, (long) done * bytesPerVoxel);
+            block.clear();
+            block.limit(n * bytesPerVoxel);
+            decode(block, dataType, data, done, n);
+            done += n;
+        }
+        return data;
+    }
 
+    /** A voxel array of the Java type the readers return for {@code dataType}. */
+    static Object allocate(DataType dataType, int count) {
         switch (dataType) {
             case DT_FLOAT:
-                float[] floatData = new float[(int) voxelCount];
-                byte[] floatBytes = new byte[4];
-                for (int i = 0; i < voxelCount; i++) {
-                    dis.readFully(floatBytes);
-                    if (byteOrder == ByteOrder.LITTLE_ENDIAN) {
-                        byte temp = floatBytes[0];
-                        floatBytes[0] = floatBytes[3];
-                        floatBytes[3] = temp;
-                        temp = floatBytes[1];
-                        floatBytes[1] = floatBytes[2];
-                        floatBytes[2] = temp;
-                    }
-                    floatData[i] = ByteBuffer.wrap(floatBytes).getFloat();
-                }
-                return floatData;
-
+                return new float[count];
             case DT_DOUBLE:
-                double[] doubleData = new double[(int) voxelCount];
-                byte[] doubleBytes = new byte[8];
-                for (int i = 0; i < voxelCount; i++) {
-                    dis.readFully(doubleBytes);
-                    if (byteOrder == ByteOrder.LITTLE_ENDIAN) {
-                        for (int j = 0; j < 4; j++) {
-                            byte temp = doubleBytes[j];
-                            doubleBytes[j] = doubleBytes[7 - j];
-                            doubleBytes[7 - j] = temp;
-                        }
-                    }
-                    doubleData[i] = ByteBuffer.wrap(doubleBytes).getDouble();
-                }
-                return doubleData;
-
+                return new double[count];
             case DT_UNSIGNED_CHAR:
-                byte[] byteData = new byte[(int) voxelCount];
-                dis.readFully(byteData);
-                return byteData;
-
+                return new byte[count];
             case DT_SIGNED_SHORT:
-                short[] shortData = new short[(int) voxelCount];
-                byte[] shortBytes = new byte[2];
-                for (int i = 0; i < voxelCount; i++) {
-                    dis.readFully(shortBytes);
-                    if (byteOrder == ByteOrder.LITTLE_ENDIAN) {
-                        shortData[i] = (short) ((shortBytes[0] & 0xFF) | ((shortBytes[1] & 0xFF) << 8));
-                    } else {
-                        shortData[i] = (short) (((shortBytes[0] & 0xFF) << 8) | (shortBytes[1] & 0xFF));
-                    }
-                }
-                return shortData;
+            case DT_UNSIGNED_SHORT:
+                return new short[count];
+            case DT_SIGNED_INT:
+                return new int[count];
+            default:
+                throw new UnsupportedOperationException("Data type not implemented: " + dataType + " (code: " + dataType.getCode() + ")");
+        }
+    }
 
+    /** Converts the {@code n} voxels between {@code block}'s position and limit into {@code dst} at {@code offset}. */
+    static void decode(ByteBuffer block, DataType dataType, Object dst, int offset, int n) {
+        switch (dataType) {
+            case DT_FLOAT:
+                block.asFloatBuffer().get((float[]) dst, offset, n);
+                break;
+            case DT_DOUBLE:
+                block.asDoubleBuffer().get((double[]) dst, offset, n);
+                break;
+            case DT_UNSIGNED_CHAR:
+                block.get((byte[]) dst, offset, n);
+                break;
+            case DT_SIGNED_SHORT:
             case DT_UNSIGNED_SHORT:
-                short[] ushortData = new short[(int) voxelCount];
-                byte[] ushortBytes = new byte[2];
-                for (int i = 0; i < voxelCount; i++) {
-                    dis.readFully(ushortBytes);
-                    if (byteOrder == ByteOrder.LITTLE_ENDIAN) {
-                        ushortData[i] = (short) ((ushortBytes[0] & 0xFF) | ((ushortBytes[1] & 0xFF) << 8));
-                    } else {
-                        ushortData[i] = (short) (((ushortBytes[0] & 0xFF) << 8) | (ushortBytes[1] & 0xFF));
+                block.asShortBuffer().get((short[]) dst, offset, n);
+                break;
+            default:
+                block.asIntBuffer().get((int[]) dst, offset, n);
+                break;
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length, long position) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n == -1) {
+                throw new EOFException("Unexpected end of voxel data after " + (position + read) + " bytes");
+            }
+            read += n;
+        }
+    }
+
+    /**
+     * Reads the voxels from {@code start} (inclusive) to {@code end} (exclusive), x fastest, into
+     * an array of the image's Java type. Dimensions left out of the arrays are read whole. Only
+     * the requested region is read: from the loaded array or mapped segments if there are any,
+     * else by positional reads of the file, one run per row (or per slab, where the region
+     * spans whole rows). Compressed files are inflated only as far as the last run, starting from
+     * the nearest access point for each run when they have a {@link GzipIndex}. Safe to call
+     * from several threads at once.
+     */
+    static Object readChunk(NiftiImage image, int[] start, int[] end) throws IOException {
+        NiftiHeader header = image.getHeader();
+        final ChunkLayout layout = new ChunkLayout(header.getDimensions(), start, end);
+        DataType dataType = header.getDataType();
+        final int bytesPerVoxel = dataType.getBitpix() / 8;
+        Object out = allocate(dataType, layout.voxels);
+
+        VoxelBuffer voxels = image.getLoadedVoxels();
+        if (voxels != null) {
+            int done = 0;
+            for (long run = 0; run < layout.runs; run++) {
+                voxels.read(layout.runOffset(run), out, done, layout.runLength);
+                done += layout.runLength;
+            }
+            return out;
+        }
+
+        String filename = image.getFilename();
+        long voxOffset = header.getVoxOffset();
+        ByteBuffer buffer = ByteBuffer.allocate(
+                (int) Math.min((long) layout.runLength * bytesPerVoxel, READ_BLOCK_BYTES)).order(header.getByteOrder());
+        if (filename.toLowerCase().endsWith(".gz")) {
+            GzipIndex index = image.getGzipIndex();
+            InputStream in = null;
+            try {
+                long at = 0L;
+                int done = 0;
+                for (long run = 0; run < layout.runs; run++) {
+                    long pos = voxOffset + layout.runOffset(run) * bytesPerVoxel;
+                    if (index != null && (in == null || index.pointBefore(pos) > at)) {
+                        // nearer to start again from an access point than to inflate up to it
+                        if (in != null) in.close();
+                        in = index.open(pos);
+                        at = pos;
+                    } else if (in == null) {
+                        in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(filename), 65536), 65536);
+                    }
+                    skipFully(in, pos - at);
+                    at = pos;
+                    for (int left = layout.runLength; left > 0; ) {
+                        int n = Math.min(left, buffer.capacity() / bytesPerVoxel);
+                        readFully(in, buffer.array(), n * bytesPerVoxel, at - voxOffset);
+                        at += (long) n * bytesPerVoxel;
+                        buffer.clear();
+                        buffer.limit(n * bytesPerVoxel);
+                        decode(buffer, dataType, out, done, n);
+                        done += n;
+                        left -= n;
                     }
                 }
-                return ushortData;
-
-            case DT_SIGNED_INT:
-                int[] intData = new int[(int) voxelCount];
-                byte[] intBytes = new byte[4];
-                for (int i = 0; i < voxelCount; i++) {
-                    dis.readFully(intBytes);
-                    if (byteOrder == ByteOrder.LITTLE_ENDIAN) {
-                        intData[i] = (intBytes[3] << 24) | (intBytes[2] << 16) |
-                                (intBytes[1] << 8) | (intBytes[0] & 0xFF);
-                    } else {
-                        intData[i] = (intBytes[0] << 24) | (intBytes[1] << 16) |
-                                (intBytes[2] << 8) | (intBytes[3] & 0xFF);
+            } finally {
+                if (in != null) in.close();
+            }
+            return out;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            int done = 0;
+            for (long run = 0; run < layout.runs; run++) {
+                long pos = voxOffset + layout.runOffset(run) * bytesPerVoxel;
+                for (int left = layout.runLength; left > 0; ) {
+                    int n = Math.min(left, buffer.capacity() / bytesPerVoxel);
+                    buffer.clear();
+                    buffer.limit(n * bytesPerVoxel);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, pos + buffer.position()) < 0) {
+                            throw new EOFException("Unexpected end of voxel data at byte " + (pos + buffer.position()));
+                        }
                     }
+                    buffer.flip();
+                    decode(buffer, dataType, out, done, n);
+                    pos += (long) n * bytesPerVoxel;
+                    done += n;
+                    left -= n;
                 }
-                return intData;
+            }
+        }
+        return out;
+    }
 
-            default:
-                throw new UnsupportedOperationException("Data type not implemented: " + dataType + " (code: " + dataType.getCode() + ")");
+    /** Inflates the voxel data of a compressed image to a temporary file, deleted on exit. */
+    static File inflateVoxels(NiftiImage image) throws IOException {
+        NiftiHeader header = image.getHeader();
+        long dataSize = header.getDataSize();
+        File inflated = File.createTempFile("cropscope-voxels-", ".raw");
+        inflated.deleteOnExit();
+        System.out.println("Inflating " + dataSize + " bytes of voxel data to " + inflated);
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(image.getFilename()), 65536), 65536);
+             OutputStream out = new FileOutputStream(inflated)) {
+            skipFully(in, header.getVoxOffset());
+            byte[] buffer = new byte[READ_BLOCK_BYTES];
+            for (long done = 0; done < dataSize; ) {
+                int n = (int) Math.min(buffer.length, dataSize - done);
+                readFully(in, buffer, n, done);
+                out.write(buffer, 0, n);
+                done += n;
+            }
+        } catch (IOException e) {
+            inflated.delete();
+            throw e;
         }
+        return inflated;
     }
 
-    static Object readChunk(NiftiImage image, int[] start, int[] end) throws IOException {
-        System.out.println("Reading chunk from " + java.util.Arrays.toString(start) +
-                " to " + java.util.Arrays.toString(end));
-        return loadData(image);
+    static void skipFully(InputStream in, long bytes) throws IOException {
+        byte[] scratch = null;
+        while (bytes > 0) {
+            long n = in.skip(bytes);
+            if (n <= 0) {
+                if (scratch == null) scratch = new byte[8192];
+                int r = in.read(scratch, 0, (int) Math.min(scratch.length, bytes));
+                if (r < 0) throw new EOFException("Unexpected end of compressed data");
+                n = r;
+            }
+            bytes -= n;
+        }
+    }
+
+    /**
+     * A hyper-rectangle of a volume as runs of consecutive voxels. Leading dimensions the region
+     * covers whole are merged into the run, so a region spanning full rows is one run per slab.
+     */
+    static final class ChunkLayout {
+        final int[] lo = new int[7];
+        final int[] size = new int[7];
+        final long[] stride = new long[7];
+        final int runDims;
+        final int runLength;
+        final long runs;
+        final int voxels;
+
+        ChunkLayout(short[] dim, int[] start, int[] end) {
+            int ndim = dim[0];
+            if (start == null || end == null || start.length != end.length || start.length > ndim) {
+                throw new IllegalArgumentException("start and end must have the same length, at most " + ndim);
+            }
+            long s = 1L;
+            long total = 1L;
+            for (int k = 0; k < 7; k++) {
+                int extent = (k < ndim) ? Math.max(1, dim[k + 1]) : 1;
+                lo[k] = (k < start.length) ? start[k] : 0;
+                int hi = (k < end.length) ? end[k] : extent;
+                if (lo[k] < 0 || hi > extent || hi <= lo[k]) {
+                    throw new IllegalArgumentException("Chunk [" + lo[k] + ", " + hi + ") out of bounds for dimension "
+                            + k + " of size " + extent);
+                }
+                size[k] = hi - lo[k];
+                stride[k] = s;
+                s *= extent;
+                total *= size[k];
+            }
+            if (total > VoxelBuffer.MAX_ARRAY_LENGTH) {
+                throw new IllegalArgumentException("Chunk has " + total + " voxels, more than one Java array can hold");
+            }
+            voxels = (int) total;
+            long run = size[0];
+            int k = 1;
+            while (k < 7 && size[k - 1] == extentOf(dim, k - 1)) {
+                run *= size[k];
+                k++;
+            }
+            runDims = k;
+            runLength = (int) run;
+            runs = total / run;
+        }
+
+        private static int extentOf(short[] dim, int k) {
+            return (k < dim[0]) ? Math.max(1, dim[k + 1]) : 1;
+        }
+
+        /** Voxel index in the volume of the first voxel of run {@code run}. */
+        long runOffset(long run) {
+            long offset = 0L;
+            for (int k = 0; k < runDims; k++) offset += lo[k] * stride[k];
+            for (int k = runDims; k < 7; k++) {
+                offset += (lo[k] + run % size[k]) * stride[k];
+                run /= size[k];
+            }
+            return offset;
+        }
     }
-}
\ No newline at end of file
+}
@@ -21,10 +21,266 @@
 
 package com.cropscope.niftidatamanager;
 
-import java.io.IOException;
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 
 public class NiftiWriter {
+    private static final int NIFTI1_HEADER_SIZE = 348;
+    private static final int NIFTI2_HEADER_SIZE = 540;
+    private static final byte[] NIFTI1_MAGIC = "n+1\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NIFTI2_MAGIC = "n+2\0\r\n\032\n".getBytes(StandardCharsets.US_ASCII);
+
+    // voxels read from the source per chunk, and bytes encoded per write
+    private static final int SLAB_VOXELS = 1 << 22;
+    private static final int WRITE_BLOCK_BYTES = 1 << 20;
+
+    /**
+     * Writes the image as a single-file NIfTI in its own format and byte order, BGZF-compressed
+     * when {@code filename} ends with .gz.
+     */
     public static void write(NiftiImage image, String filename) throws IOException {
-        throw new UnsupportedOperationException("NIfTI writing not yet implemented");
+        write(image, filename, image.isNifti2());
+    }
+
+    /** Writes the image as a single-file NIfTI-2 if {@code nifti2} is set, else as NIfTI-1. */
+    public static void write(NiftiImage image, String filename, boolean nifti2) throws IOException {
+        short[] dim = image.getDimensions();
+        int[] size = new int[dim[0]];
+        for (int k = 0; k < size.length; k++) {
+            size[k] = dim[k + 1];
+        }
+        writeRegion(image, new int[size.length], size, filename, nifti2);
+    }
+
+    /**
+     * Writes the region of {@code size} voxels from {@code start} in each dimension as a new
+     * image, in the source's format. Dimensions left out of the arrays are kept whole.
+     */
+    public static void writeRegion(NiftiImage image, int[] start, int[] size, String filename) throws IOException {
+        writeRegion(image, start, size, filename, image.isNifti2());
+    }
+
+    /**
+     * Writes the region a slab at a time: each slab is read with {@link NiftiImage#getChunk},
+     * from the loaded array, the mapped file or the nearest gzip access point, and encoded in
+     * blocks of about a megabyte. A compressed source with no access point index is instead
+     * inflated once from the start, copying the region's rows as they go by. Either way neither
+     * the source volume nor the region is ever held on the heap whole. Compressed output is
+     * deflated on other threads by {@link BgzfOutputStream} while the source is read.
+     */
+    public static void writeRegion(NiftiImage image, int[] start, int[] size, String filename,
+                                   boolean nifti2) throws IOException {
+        NiftiHeader header = image.getHeader();
+        short[] dim = header.getDimensions();
+        int ndim = dim[0];
+        if (start == null || size == null || start.length != size.length || start.length > ndim) {
+            throw new IllegalArgumentException("start and size must have the same length, at most " + ndim);
+        }
+        int[] lo = new int[7];
+        int[] extent = new int[7];
+        short[] outDim = dim.clone();
+        for (int k = 0; k < 7; k++) {
+            int whole = (k < ndim) ? Math.max(1, dim[k + 1]) : 1;
+            lo[k] = (k < start.length) ? start[k] : 0;
+            extent[k] = (k < size.length) ? size[k] : whole;
+            if (lo[k] < 0 || extent[k] < 1 || (long) lo[k] + extent[k] > whole) {
+                throw new IllegalArgumentException("Region [" + lo[k] + ", " + ((long) lo[k] + extent[k])
+                        + ") out of bounds for dimension " + k + " of size " + whole);
+            }
+            if (k < ndim) {
+                outDim[k + 1] = (short) extent[k];
+            }
+        }
+
+        // a compressed file without access points would be inflated from the start for every slab
+        boolean stream = image.getLoadedVoxels() == null && image.getFilename().toLowerCase().endsWith(".gz")
+                && image.getGzipIndex() == null;
+
+        // slabs span whole dimensions below k and a run of indices along k
+        long slab = 1L;
+        int k = 0;
+        while (k < 7 && slab * extent[k] <= SLAB_VOXELS) {
+            slab *= extent[k];
+            k++;
+        }
+        int step = (k < 7) ? (int) Math.max(1L, SLAB_VOXELS / slab) : 1;
+
+        DataType dataType = header.getDataType();
+        int bytesPerVoxel = dataType.getBitpix() / 8;
+        ByteOrder byteOrder = header.getByteOrder();
+        ByteBuffer block = ByteBuffer.allocate(WRITE_BLOCK_BYTES / bytesPerVoxel * bytesPerVoxel).order(byteOrder);
+        int voxelsPerBlock = block.capacity() / bytesPerVoxel;
+
+        try (OutputStream out = open(filename)) {
+            writeHeader(out, header.withRegion(lo, outDim), nifti2);
+            if (stream) {
+                streamRegion(image, lo, extent, out);
+                return;
+            }
+            int[] at = new int[7];
+            int[] from = new int[ndim];
+            int[] to = new int[ndim];
+            while (true) {
+                for (int j = 0; j < ndim; j++) {
+                    from[j] = lo[j] + at[j];
+                    to[j] = (j < k) ? lo[j] + extent[j]
+                            : (j == k) ? Math.min(lo[j] + extent[j], from[j] + step) : from[j] + 1;
+                }
+                Object chunk = image.getChunk(from, to);
+                int count = Array.getLength(chunk);
+                for (int done = 0; done < count; ) {
+                    int n = Math.min(voxelsPerBlock, count - done);
+                    block.clear();
+                    encode(chunk, done, n, dataType, block);
+                    out.write(block.array(), 0, n * bytesPerVoxel);
+                    done += n;
+                }
+
+                int j = k;
+                while (j < 7) {
+                    at[j] += (j == k) ? step : 1;
+                    if (at[j] < extent[j]) break;
+                    at[j] = 0;
+                    j++;
+                }
+                if (j == 7) break;
+            }
+        }
+    }
+
+    /**
+     * Copies the rows of the region from {@code lo} spanning {@code extent} voxels in each of the
+     * seven dimensions to {@code out}, inflating the compressed source once from the start. The
+     * bytes are copied as they are, so the output keeps the source's data type and byte order.
+     */
+    private static void streamRegion(NiftiImage image, int[] lo, int[] extent, OutputStream out) throws IOException {
+        NiftiHeader header = image.getHeader();
+        short[] dim = header.getDimensions();
+        int bytesPerVoxel = header.getDataType().getBitpix() / 8;
+        long[] stride = new long[7];
+        long s = bytesPerVoxel;
+        for (int k = 0; k < 7; k++) {
+            stride[k] = s;
+            s *= (k < dim[0]) ? Math.max(1, dim[k + 1]) : 1;
+        }
+        byte[] row = new byte[extent[0] * bytesPerVoxel];
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(image.getFilename()), 1 << 16), 1 << 16))) {
+            long position = 0L;
+            int[] at = new int[7];
+            while (true) {
+                long rowStart = header.getVoxOffset() + lo[0] * stride[0];
+                for (int j = 1; j < 7; j++) {
+                    rowStart += (lo[j] + at[j]) * stride[j];
+                }
+                NiftiReader.skipFully(in, rowStart - position);
+                in.readFully(row);
+                out.write(row);
+                position = rowStart + row.length;
+
+                int j = 1;
+                while (j < 7) {
+                    if (++at[j] < extent[j]) break;
+                    at[j] = 0;
+                    j++;
+                }
+                if (j == 7) break;
+            }
+        }
+    }
+
+    /** Copies {@code n} voxels of {@code src} from {@code offset} to the start of {@code block}. */
+    private static void encode(Object src, int offset, int n, DataType dataType, ByteBuffer block) {
+        switch (dataType) {
+            case DT_FLOAT:
+                block.asFloatBuffer().put((float[]) src, offset, n);
+                break;
+            case DT_DOUBLE:
+                block.asDoubleBuffer().put((double[]) src, offset, n);
+                break;
+            case DT_UNSIGNED_CHAR:
+                block.put((byte[]) src, offset, n);
+                break;
+            case DT_SIGNED_SHORT:
+            case DT_UNSIGNED_SHORT:
+                block.asShortBuffer().put((short[]) src, offset, n);
+                break;
+            default:
+                block.asIntBuffer().put((int[]) src, offset, n);
+                break;
+        }
+    }
+
+    /**
+     * Writes a single-file header followed by an empty extension flag, so the voxels start at 352
+     * (NIfTI-1) or 544 (NIfTI-2). A header read from a file is copied, converted to the other
+     * format if need be, with only the dimensions, data type and voxel offset replaced; otherwise
+     * the voxel sizes are set, scaling is unit and the rest is zero.
+     */
+    private static void writeHeader(OutputStream out, NiftiHeader header, boolean nifti2) throws IOException {
+        short[] dim = header.getDimensions();
+        float[] pixdim = header.getVoxelDimensions();
+        DataType dataType = header.getDataType();
+        int headerSize = nifti2 ? NIFTI2_HEADER_SIZE : NIFTI1_HEADER_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + 4).order(header.getByteOrder());
+        byte[] raw = header.getRawHeader(nifti2);
+        boolean keepPixdim = raw != null && nifti2 == header.isNifti2();
+        if (raw != null) {
+            buffer.put(raw);
+        }
+        buffer.putInt(0, headerSize);
+        if (nifti2) {
+            buffer.position(4);
+            buffer.put(NIFTI2_MAGIC);
+            buffer.putShort(12, (short) dataType.getCode());
+            buffer.putShort(14, (short) dataType.getBitpix());
+            for (int i = 0; i < 8; i++) {
+                buffer.putLong(16 + i * 8, dim[i]);
+                if (!keepPixdim) buffer.putDouble(104 + i * 8, pixdim[i]);
+            }
+            buffer.putLong(168, NIFTI2_HEADER_SIZE + 4);
+            if (raw == null) buffer.putDouble(176, 1.0);
+        } else {
+            buffer.put(38, (byte) 'r');
+            for (int i = 0; i < 8; i++) {
+                buffer.putShort(40 + i * 2, dim[i]);
+                if (!keepPixdim) buffer.putFloat(76 + i * 4, pixdim[i]);
+            }
+            buffer.putShort(70, (short) dataType.getCode());
+            buffer.putShort(72, (short) dataType.getBitpix());
+            buffer.putFloat(108, NIFTI1_HEADER_SIZE + 4);
+            if (raw == null) buffer.putFloat(112, 1.0f);
+            buffer.position(344);
+            buffer.put(NIFTI1_MAGIC);
+        }
+        out.write(buffer.array());
+    }
+
+    private static OutputStream open(String filename) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+        return filename.toLowerCase().endsWith(".gz") ? new BgzfOutputStream(out) : out;
+    }
+
+    /**
+     * Rewrites a .nii or .nii.gz file as a BGZF-compressed .nii.gz, which {@link NiftiReader}
+     * inflates on several threads and any gzip reader can still read.
+     */
+    public static void recompress(String source, String target) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(source), 1 << 16);
+        if (source.toLowerCase().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        try (InputStream from = in;
+             OutputStream to = new BgzfOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16))) {
+            byte[] buffer = new byte[1 << 20];
+            int n;
+            while ((n = from.read(buffer)) > 0) {
+                to.write(buffer, 0, n);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,299 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates the voxel data of a .nii.gz on several threads when the file can be split without
+ * inflating it first: BGZF files, whose gzip members record their compressed size, and files
+ * with a {@link GzipIndex}, from its access points. Other files are left to the sequential
+ * reader.
+ */
+final class ParallelGunzip {
+    // uncompressed bytes per task: enough members to amortize a task, few enough to balance threads
+    private static final int TASK_BYTES = 4 << 20;
+
+    private ParallelGunzip() {
+    }
+
+    /** A piece of the file that inflates on its own: a BGZF member, or the span from an access point. */
+    private static final class Segment {
+        final long in;
+        final int inLength;
+        final int headerLength;
+        final long out;
+        final long outLength;
+
+        Segment(long in, int inLength, int headerLength, long out, long outLength) {
+            this.in = in;
+            this.inLength = inLength;
+            this.headerLength = headerLength;
+            this.out = out;
+            this.outLength = outLength;
+        }
+    }
+
+    /** The voxel array of {@code image}, inflated in parallel, or null if its file cannot be split. */
+    static Object load(NiftiImage image) throws IOException {
+        NiftiHeader header = image.getHeader();
+        long voxelCount = header.getVoxelCount();
+        if (voxelCount > VoxelBuffer.MAX_ARRAY_LENGTH || voxelCount == 0) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(image.getFilename()), StandardOpenOption.READ)) {
+            List<Segment> segments = bgzfMembers(channel);
+            GzipIndex index = null;
+            if (segments == null) {
+                index = image.getGzipIndex();
+                if (index == null || index.points() < 2) {
+                    return null;
+                }
+                segments = new ArrayList<Segment>();
+                for (int i = 0; i < index.points(); i++) {
+                    long end = (i + 1 < index.points()) ? index.offsetOf(i + 1) : index.length();
+                    segments.add(new Segment(0L, 0, 0, index.offsetOf(i), end - index.offsetOf(i)));
+                }
+            }
+            return inflate(image, channel, index, segments);
+        }
+    }
+
+    /** The members of a BGZF file, or null if it is not one or has only one member. */
+    private static List<Segment> bgzfMembers(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Segment> members = new ArrayList<Segment>();
+        ByteBuffer head = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer tail = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long pos = 0;
+        long out = 0;
+        while (pos < size) {
+            if (!readAt(channel, head, pos) || (head.getShort(0) & 0xFFFF) != 0x8b1f || head.get(2) != 8
+                    || head.get(3) != 4) {
+                return null;
+            }
+            int extraLength = head.getShort(10) & 0xFFFF;
+            ByteBuffer extra = ByteBuffer.allocate(extraLength).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readAt(channel, extra, pos + 12)) {
+                return null;
+            }
+            int blockSize = -1;
+            for (int p = 0; p + 4 <= extraLength; ) {
+                int fieldLength = extra.getShort(p + 2) & 0xFFFF;
+                if (extra.get(p) == 'B' && extra.get(p + 1) == 'C' && fieldLength == 2 && p + 6 <= extraLength) {
+                    blockSize = (extra.getShort(p + 4) & 0xFFFF) + 1;
+                }
+                p += 4 + fieldLength;
+            }
+            int headerLength = 12 + extraLength;
+            if (blockSize < headerLength + 8 || pos + blockSize > size || !readAt(channel, tail, pos + blockSize - 4)) {
+                return null;
+            }
+            long inflated = tail.getInt(0) & 0xFFFFFFFFL;
+            members.add(new Segment(pos, blockSize, headerLength, out, inflated));
+            out += inflated;
+            pos += blockSize;
+        }
+        return (members.size() > 1) ? members : null;
+    }
+
+    private static boolean readAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object inflate(NiftiImage image, final FileChannel channel, final GzipIndex index,
+                                  final List<Segment> segments) throws IOException {
+        NiftiHeader header = image.getHeader();
+        final DataType dataType = header.getDataType();
+        final ByteOrder byteOrder = header.getByteOrder();
+        final int bytesPerVoxel = dataType.getBitpix() / 8;
+        final long voxelCount = header.getVoxelCount();
+        final long dataStart = header.getVoxOffset();
+        final long dataEnd = dataStart + voxelCount * bytesPerVoxel;
+        final Object data = NiftiReader.allocate(dataType, (int) voxelCount);
+
+        List<int[]> tasks = new ArrayList<int[]>();
+        for (int first = 0; first < segments.size(); ) {
+            int last = first;
+            long bytes = segments.get(first).outLength;
+            while (last + 1 < segments.size() && bytes < TASK_BYTES) {
+                bytes += segments.get(++last).outLength;
+            }
+            tasks.add(new int[]{first, last});
+            first = last + 1;
+        }
+        int threads = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        System.out.println("Inflating " + segments.size() + (index == null ? " BGZF members" : " index spans")
+                + " in " + tasks.size() + " tasks on " + threads + " threads");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final int[] task : tasks) {
+                results.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        Segment first = segments.get(task[0]);
+                        Segment last = segments.get(task[1]);
+                        long from = Math.max(first.out, dataStart);
+                        long to = Math.min(last.out + last.outLength, dataEnd);
+                        if (from >= to) {
+                            return null;
+                        }
+                        // the voxels that start in this task, the last of them perhaps ending in the next
+                        long firstVoxel = (from - dataStart + bytesPerVoxel - 1) / bytesPerVoxel;
+                        long endVoxel = (to - dataStart + bytesPerVoxel - 1) / bytesPerVoxel;
+                        if (firstVoxel >= endVoxel) {
+                            return null;
+                        }
+                        long needEnd = dataStart + endVoxel * bytesPerVoxel;
+                        byte[] buffer = new byte[(int) (needEnd - first.out)];
+                        if (index != null) {
+                            try (InputStream in = index.open(first.out)) {
+                                readFully(in, buffer);
+                            }
+                        } else {
+                            inflateMembers(channel, segments, task[0], buffer);
+                        }
+                        int offset = (int) (dataStart + firstVoxel * bytesPerVoxel - first.out);
+                        int count = (int) (endVoxel - firstVoxel);
+                        ByteBuffer block = ByteBuffer.wrap(buffer, offset, count * bytesPerVoxel).order(byteOrder);
+                        NiftiReader.decode(block, dataType, data, (int) firstVoxel, count);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while inflating " + image.getFilename());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to inflate " + image.getFilename(), cause);
+        } finally {
+            pool.shutdownNow();
+        }
+        return data;
+    }
+
+    /** Fills {@code buffer} with the output of the members from {@code first} on, checking each one's CRC. */
+    private static void inflateMembers(FileChannel channel, List<Segment> members, int first, byte[] buffer)
+            throws IOException {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        byte[] member = null;
+        byte[] scratch = null;
+        try {
+            int filled = 0;
+            for (int m = first; filled < buffer.length; m++) {
+                if (m >= members.size()) {
+                    throw new EOFException("Unexpected end of compressed voxel data");
+                }
+                Segment s = members.get(m);
+                if (member == null || member.length < s.inLength) {
+                    member = new byte[Math.max(s.inLength, 1 << 16)];
+                }
+                ByteBuffer in = ByteBuffer.wrap(member, 0, s.inLength);
+                while (in.hasRemaining()) {
+                    if (channel.read(in, s.in + in.position()) < 0) {
+                        throw new EOFException("Unexpected end of compressed voxel data");
+                    }
+                }
+                // a member running past the end of the buffer is inflated whole, and its CRC checked
+                int length = (int) s.outLength;
+                byte[] target = buffer;
+                int at = filled;
+                if (filled + length > buffer.length) {
+                    if (scratch == null || scratch.length < length) {
+                        scratch = new byte[length];
+                    }
+                    target = scratch;
+                    at = 0;
+                }
+                inflater.reset();
+                inflater.setInput(member, s.headerLength, s.inLength - s.headerLength - 8);
+                try {
+                    for (int n = 0; n < length; ) {
+                        int r = inflater.inflate(target, at + n, length - n);
+                        if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new IOException("Truncated gzip member at byte " + s.in);
+                        }
+                        n += r;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt gzip member at byte " + s.in, e);
+                }
+                crc.reset();
+                crc.update(target, at, length);
+                int expected = ByteBuffer.wrap(member, s.inLength - 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                if ((int) crc.getValue() != expected) {
+                    throw new IOException("CRC mismatch in gzip member at byte " + s.in);
+                }
+                if (target == scratch) {
+                    System.arraycopy(scratch, 0, buffer, filled, buffer.length - filled);
+                    filled = buffer.length;
+                } else {
+                    filled += length;
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        for (int n = 0; n < buffer.length; ) {
+            int r = in.read(buffer, n, buffer.length - n);
+            if (r < 0) {
+                throw new EOFException("Unexpected end of compressed voxel data");
+            }
+            n += r;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only access to a volume's voxels by {@code long} index, x fastest, so volumes of more
+ * than 2^31 voxels or 2GB can be addressed. Backed either by the loaded voxel array or by the
+ * file mapped in segments of at most 1GB. Unsigned types read as their unsigned values. Safe
+ * to use from several threads.
+ */
+public abstract class VoxelBuffer {
+
+    /** The most voxels one Java array can hold. */
+    public static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    // a power of two, so no voxel of any type straddles two segments
+    static final int SEGMENT_BYTES = 1 << 30;
+
+    final DataType dataType;
+    final long length;
+
+    VoxelBuffer(DataType dataType, long length) {
+        this.dataType = dataType;
+        this.length = length;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public abstract double get(long index);
+
+    /** Converts the {@code n} voxels from {@code index} to floats in {@code dst} at {@code offset}. */
+    public abstract void getFloats(long index, float[] dst, int offset, int n);
+
+    /** Converts the {@code n} voxels from {@code index} to doubles in {@code dst} at {@code offset}. */
+    public abstract void getDoubles(long index, double[] dst, int offset, int n);
+
+    /** Copies the {@code n} voxels from {@code index} into {@code dst}, an array of the image's Java type. */
+    public abstract void read(long index, Object dst, int offset, int n);
+
+    /**
+     * Slice {@code sliceIndex} across {@code dimension} of a volume with dimensions {@code dims},
+     * as floats. For 3D volumes an out of range dimension means axial (2); volumes of more than
+     * three dimensions are sliced as consecutive blocks.
+     */
+    public float[] slice(short[] dims, int dimension, int sliceIndex) {
+        int ndim = dims[0];
+        if (ndim == 2) {
+            int width = dims[1];
+            int height = dims[2];
+            if (dimension == 0) {
+                checkSlice(sliceIndex, width);
+                float[] result = new float[height];
+                for (int y = 0; y < height; y++) {
+                    result[y] = (float) get((long) y * width + sliceIndex);
+                }
+                return result;
+            } else if (dimension == 1) {
+                checkSlice(sliceIndex, height);
+                float[] result = new float[width];
+                getFloats((long) sliceIndex * width, result, 0, width);
+                return result;
+            }
+            throw new IllegalArgumentException("Invalid dimension " + dimension + " for 2D image");
+        } else if (ndim == 3) {
+            int width = dims[1];
+            int height = dims[2];
+            int depth = dims[3];
+            long plane = (long) width * height;
+            if (dimension < 0 || dimension > 2) {
+                dimension = 2;
+            }
+            checkSlice(sliceIndex, dims[dimension + 1]);
+            float[] result;
+            if (dimension == 2) {
+                result = new float[width * height];
+                getFloats(sliceIndex * plane, result, 0, result.length);
+            } else if (dimension == 1) {
+                result = new float[width * depth];
+                for (int z = 0; z < depth; z++) {
+                    getFloats(z * plane + (long) sliceIndex * width, result, z * width, width);
+                }
+            } else {
+                result = new float[height * depth];
+                for (int z = 0; z < depth; z++) {
+                    long row = z * plane + sliceIndex;
+                    for (int y = 0; y < height; y++) {
+                        result[z * height + y] = (float) get(row + (long) y * width);
+                    }
+                }
+            }
+            return result;
+        } else {
+            long sliceSize = 1;
+            for (int i = 1; i <= ndim; i++) {
+                if (i - 1 != dimension) {
+                    sliceSize *= dims[i];
+                }
+            }
+            if (sliceSize > MAX_ARRAY_LENGTH) {
+                throw new IllegalArgumentException("Slice has " + sliceSize + " voxels, more than one Java array can hold");
+            }
+            float[] result = new float[(int) sliceSize];
+            long start = sliceIndex * sliceSize;
+            int n = (int) Math.max(0L, Math.min(sliceSize, length - start));
+            getFloats(start, result, 0, n);
+            return result;
+        }
+    }
+
+    private static void checkSlice(int sliceIndex, int slices) {
+        if (sliceIndex < 0 || sliceIndex >= slices) {
+            throw new IllegalArgumentException("Slice index " + sliceIndex + " out of bounds [0, " + slices + ")");
+        }
+    }
+
+    static VoxelBuffer wrap(Object data, DataType dataType) {
+        return new ArrayVoxels(data, dataType);
+    }
+
+    /** Maps the {@code bytes} bytes of voxel data at {@code offset} in {@code file}. */
+    static VoxelBuffer map(Path file, long offset, long bytes, DataType dataType, ByteOrder byteOrder)
+            throws IOException {
+        int shift = shiftOf(dataType);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < offset + bytes) {
+                throw new EOFException(file + " holds " + channel.size() + " bytes, voxel data needs "
+                        + (offset + bytes));
+            }
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < segments.length; i++) {
+                long at = (long) i * SEGMENT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + at, Math.min(SEGMENT_BYTES, bytes - at));
+                segments[i].order(byteOrder);
+            }
+            return new MappedVoxels(segments, byteOrder, shift, dataType, bytes >> shift);
+        }
+    }
+
+    private static int shiftOf(DataType dataType) {
+        switch (dataType) {
+            case DT_UNSIGNED_CHAR:
+                return 0;
+            case DT_SIGNED_SHORT:
+            case DT_UNSIGNED_SHORT:
+                return 1;
+            case DT_SIGNED_INT:
+            case DT_FLOAT:
+                return 2;
+            case DT_DOUBLE:
+                return 3;
+            default:
+                throw new UnsupportedOperationException("Data type not implemented: " + dataType + " (code: " + dataType.getCode() + ")");
+        }
+    }
+
+    private static final class ArrayVoxels extends VoxelBuffer {
+        private final Object data;
+
+        ArrayVoxels(Object data, DataType dataType) {
+            super(dataType, java.lang.reflect.Array.getLength(data));
+            this.data = data;
+        }
+
+        @Override
+        public double get(long index) {
+            int i = (int) index;
+            switch (dataType) {
+                case DT_FLOAT:
+                    return ((float[]) data)[i];
+                case DT_DOUBLE:
+                    return ((double[]) data)[i];
+                case DT_UNSIGNED_CHAR:
+                    return ((byte[]) data)[i] & 0xFF;
+                case DT_SIGNED_SHORT:
+                    return ((short[]) data)[i];
+                case DT_UNSIGNED_SHORT:
+                    return ((short[]) data)[i] & 0xFFFF;
+                default:
+                    return ((int[]) data)[i];
+            }
+        }
+
+        @Override
+        public void getFloats(long index, float[] dst, int offset, int n) {
+            int from = (int) index;
+            switch (dataType) {
+                case DT_FLOAT:
+                    System.arraycopy(data, from, dst, offset, n);
+                    break;
+                case DT_DOUBLE:
+                    double[] doubles = (double[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = (float) doubles[from + i];
+                    break;
+                case DT_UNSIGNED_CHAR:
+                    byte[] bytes = (byte[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = bytes[from + i] & 0xFF;
+                    break;
+                case DT_SIGNED_SHORT:
+                    short[] shorts = (short[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = shorts[from + i];
+                    break;
+                case DT_UNSIGNED_SHORT:
+                    short[] ushorts = (short[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = ushorts[from + i] & 0xFFFF;
+                    break;
+                default:
+                    int[] ints = (int[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = ints[from + i];
+                    break;
+            }
+        }
+
+        @Override
+        public void getDoubles(long index, double[] dst, int offset, int n) {
+            int from = (int) index;
+            switch (dataType) {
+                case DT_FLOAT:
+                    float[] floats = (float[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = floats[from + i];
+                    break;
+                case DT_DOUBLE:
+                    System.arraycopy(data, from, dst, offset, n);
+                    break;
+                case DT_UNSIGNED_CHAR:
+                    byte[] bytes = (byte[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = bytes[from + i] & 0xFF;
+                    break;
+                case DT_SIGNED_SHORT:
+                    short[] shorts = (short[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = shorts[from + i];
+                    break;
+                case DT_UNSIGNED_SHORT:
+                    short[] ushorts = (short[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = ushorts[from + i] & 0xFFFF;
+                    break;
+                default:
+                    int[] ints = (int[]) data;
+                    for (int i = 0; i < n; i++) dst[offset + i] = ints[from + i];
+                    break;
+            }
+        }
+
+        @Override
+        public void read(long index, Object dst, int offset, int n) {
+            System.arraycopy(data, (int) index, dst, offset, n);
+        }
+
+        @Override
+        public String toString() {
+            return data.getClass().getSimpleName().replace("[]", "[" + length + "]");
+        }
+    }
+
+    private static final class MappedVoxels extends VoxelBuffer {
+        private final MappedByteBuffer[] segments;
+        private final ByteOrder byteOrder;
+        private final int shift;
+
+        MappedVoxels(MappedByteBuffer[] segments, ByteOrder byteOrder, int shift, DataType dataType, long length) {
+            super(dataType, length);
+            this.segments = segments;
+            this.byteOrder = byteOrder;
+            this.shift = shift;
+        }
+
+        @Override
+        public double get(long index) {
+            long at = index << shift;
+            ByteBuffer segment = segments[(int) (at / SEGMENT_BYTES)];
+            int p = (int) (at % SEGMENT_BYTES);
+            switch (dataType) {
+                case DT_FLOAT:
+                    return segment.getFloat(p);
+                case DT_DOUBLE:
+                    return segment.getDouble(p);
+                case DT_UNSIGNED_CHAR:
+                    return segment.get(p) & 0xFF;
+                case DT_SIGNED_SHORT:
+                    return segment.getShort(p);
+                case DT_UNSIGNED_SHORT:
+                    return segment.getShort(p) & 0xFFFF;
+                default:
+                    return segment.getInt(p);
+            }
+        }
+
+        /** A private view of the segment holding {@code index}, positioned there, limited to at most {@code n} voxels. */
+        private ByteBuffer view(long index, int n) {
+            long at = index << shift;
+            ByteBuffer view = segments[(int) (at / SEGMENT_BYTES)].duplicate().order(byteOrder);
+            int p = (int) (at % SEGMENT_BYTES);
+            view.limit((int) Math.min(view.capacity(), p + ((long) n << shift)));
+            view.position(p);
+            return view;
+        }
+
+        @Override
+        public void getFloats(long index, float[] dst, int offset, int n) {
+            while (n > 0) {
+                ByteBuffer view = view(index, n);
+                int k = view.remaining() >> shift;
+                switch (dataType) {
+                    case DT_FLOAT:
+                        view.asFloatBuffer().get(dst, offset, k);
+                        break;
+                    case DT_DOUBLE:
+                        for (int i = 0; i < k; i++) dst[offset + i] = (float) view.getDouble();
+                        break;
+                    case DT_UNSIGNED_CHAR:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.get() & 0xFF;
+                        break;
+                    case DT_SIGNED_SHORT:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.getShort();
+                        break;
+                    case DT_UNSIGNED_SHORT:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.getShort() & 0xFFFF;
+                        break;
+                    default:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.getInt();
+                        break;
+                }
+                index += k;
+                offset += k;
+                n -= k;
+            }
+        }
+
+        @Override
+        public void getDoubles(long index, double[] dst, int offset, int n) {
+            while (n > 0) {
+                ByteBuffer view = view(index, n);
+                int k = view.remaining() >> shift;
+                switch (dataType) {
+                    case DT_FLOAT:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.getFloat();
+                        break;
+                    case DT_DOUBLE:
+                        view.asDoubleBuffer().get(dst, offset, k);
+                        break;
+                    case DT_UNSIGNED_CHAR:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.get() & 0xFF;
+                        break;
+                    case DT_SIGNED_SHORT:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.getShort();
+                        break;
+                    case DT_UNSIGNED_SHORT:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.getShort() & 0xFFFF;
+                        break;
+                    default:
+                        for (int i = 0; i < k; i++) dst[offset + i] = view.getInt();
+                        break;
+                }
+                index += k;
+                offset += k;
+                n -= k;
+            }
+        }
+
+        @Override
+        public void read(long index, Object dst, int offset, int n) {
+            while (n > 0) {
+                ByteBuffer view = view(index, n);
+                int k = view.remaining() >> shift;
+                NiftiReader.decode(view, dataType, dst, offset, k);
+                index += k;
+                offset += k;
+                n -= k;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "mapped " + dataType.getName() + "[" + length + "] in " + segments.length + " segment(s)";
+        }
+    }
+}
@@ -10,7 +10,6 @@ package com.cropscope.niftidatamanager.batch;
 
 import com.cropscope.niftidatamanager.NiftiImage;
 import com.cropscope.niftidatamanager.NiftiHeader;
-import com.cropscope.niftidatamanager.DataType;
 import com.cropscope.niftidatamanager.exceptions.NiftiException;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
@@ -345,14 +344,11 @@ public class BatchNiftiProcessor {
 
     private static BufferedImage convertSliceToBufferedImage(NiftiImage image, int dimension, int sliceIndex)
             throws IOException {
-        Object data = image.getData();
-        NiftiHeader header = image.getHeader();
-        short[] dims = header.getDimensions();
-        DataType dataType = header.getDataType();
+        short[] dims = image.getHeader().getDimensions();
         int[] outputDims = getOutputDimensions(dims, dimension);
         int width = Math.max(1, outputDims[0]);
         int height = Math.max(1, outputDims[1]);
-        float[] sliceData = extractSliceAsFloatArray(data, header, dimension, sliceIndex);
+        float[] sliceData = image.getSlice(dimension, sliceIndex);
         float[] normalizedData = normalizeFloatArray(sliceData);
         BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
         byte[] pixelData = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
@@ -365,108 +361,6 @@ public class BatchNiftiProcessor {
         }
         return img;
     }
-    private static float[] extractSliceAsFloatArray(Object data, NiftiHeader header,
-                                                    int dimension, int sliceIndex) {
-        short[] dims = header.getDimensions();
-        DataType dataType = header.getDataType();
-        int ndim = dims[0];
-        if (ndim == 3) {
-            int width = dims[1];
-            int height = dims[2];
-            int depth = dims[3];
-            float[] result;
-            if (dimension == 2) {
-                result = new float[width * height];
-                int srcIndex = sliceIndex * width * height;
-                copySliceData(data, dataType, srcIndex, result);
-            } else if (dimension == 1) {
-                result = new float[width * depth];
-                for (int z = 0; z < depth; z++) {
-                    for (int x = 0; x < width; x++) {
-                        int srcIndex = z * width * height + sliceIndex * width + x;
-                        int dstIndex = z * width + x;
-                        float value = extractValueAt(data, dataType, srcIndex);
-                        result[dstIndex] = value;
-                    }
-                }
-            } else if (dimension == 0) {
-                result = new float[height * depth];
-                for (int z = 0; z < depth; z++) {
-                    for (int y = 0; y < height; y++) {
-                        int srcIndex = z * width * height + y * width + sliceIndex;
-                        int dstIndex = z * height + y;
-                        float value = extractValueAt(data, dataType, srcIndex);
-                        result[dstIndex] = value;
-                    }
-                }
-            } else {
-                throw new IllegalArgumentException("Invalid dimension: " + dimension);
-            }
-            return result;
-        } else {
-            int sliceSize = 1;
-            for (int i = 1; i <= ndim; i++) {
-                if (i - 1 != dimension) {
-                    sliceSize *= dims[i];
-                }
-            }
-            float[] result = new float[sliceSize];
-            int dataIndex = sliceIndex * sliceSize;
-            copySliceData(data, dataType, dataIndex, result);
-            return result;
-        }
-    }
-    private static void copySliceData(Object data, DataType dataType, int srcIndex, float[] result) {
-        switch (dataType) {
-            case DT_UNSIGNED_CHAR:
-                byte[] byteData = (byte[]) data;
-                for (int i = 0; i < result.length && srcIndex + i < byteData.length; i++) {
-                    result[i] = byteData[srcIndex + i] & 0xFF;
-                }
-                break;
-            case DT_SIGNED_SHORT:
-                short[] shortData = (short[]) data;
-                for (int i = 0; i < result.length && srcIndex + i < shortData.length; i++) {
-                    result[i] = shortData[srcIndex + i];
-                }
-                break;
-            case DT_UNSIGNED_SHORT:
-                short[] ushortData = (short[]) data;
-                for (int i = 0; i < result.length && srcIndex + i < ushortData.length; i++) {
-                    result[i] = ushortData[srcIndex + i] & 0xFFFF;
-                }
-                break;
-            case DT_FLOAT:
-                float[] floatData = (float[]) data;
-                System.arraycopy(floatData, srcIndex, result, 0,
-                        Math.min(result.length, floatData.length - srcIndex));
-                break;
-            case DT_DOUBLE:
-                double[] doubleData = (double[]) data;
-                for (int i = 0; i < result.length && srcIndex + i < doubleData.length; i++) {
-                    result[i] = (float) doubleData[srcIndex + i];
-                }
-                break;
-            default:
-                throw new UnsupportedOperationException("Unsupported data type: " + dataType);
-        }
-    }
-    private static float extractValueAt(Object data, DataType dataType, int index) {
-        switch (dataType) {
-            case DT_UNSIGNED_CHAR:
-                return ((byte[]) data)[index] & 0xFF;
-            case DT_SIGNED_SHORT:
-                return ((short[]) data)[index];
-            case DT_UNSIGNED_SHORT:
-                return ((short[]) data)[index] & 0xFFFF;
-            case DT_FLOAT:
-                return ((float[]) data)[index];
-            case DT_DOUBLE:
-                return (float) ((double[]) data)[index];
-            default:
-                throw new UnsupportedOperationException("Unsupported data type: " + dataType);
-        }
-    }
     private static int[] getOutputDimensions(short[] dims, int slicedDimension) {
         int ndim = dims[0];
         if (ndim == 2) {
@@ -11,6 +11,7 @@ import com.cropscope.niftidatamanager.NiftiImage;
 import com.cropscope.niftidatamanager.DataType;
 import com.cropscope.niftidatamanager.NiftiHeader;
 import com.cropscope.niftidatamanager.ImageStatistics;
+import com.cropscope.niftidatamanager.VoxelBuffer;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -253,7 +254,6 @@ public class NiftiImageViewer extends JFrame {
 
     private BufferedImage convertNiftiSliceToImage(NiftiImage image, int dimension, int sliceIndex) {
         try {
-            Object data = image.getData();
             short[] dims = image.getHeader().getDimensions();
             DataType dataType = image.getHeader().getDataType();
 
@@ -264,17 +264,15 @@ public class NiftiImageViewer extends JFrame {
             int height = Math.max(1, outputDims[1]);
 
             System.out.println("Output dimensions: " + width + "x" + height);
-            float[] sliceData = extractSliceAsFloatArray(data, image.getHeader(), dimension, sliceIndex);
-            float min = Float.MAX_VALUE, max = Float.MIN_VALUE;
-            for (float value : sliceData) {
-                if (Float.isFinite(value)) {
-                    if (value < min) min = value;
-                    if (value > max) max = value;
-                }
-            }
-            System.out.println("Slice data range: " + min + " to " + max);
-
-            float[] normalizedData = normalizeFloatArray(sliceData);
+            float[] sliceData = image.getSlice(dimension, sliceIndex);
+            // window on the volume's 0.5th and 99.5th percentiles, so outliers do not wash the
+            // slice out and every slice of the volume is shown on the same scale
+            double[] window = image.getStatistics().getWindow();
+            System.out.println("Display window: " + window[0] + " to " + window[1]);
+
+            float[] normalizedData = (window[1] > window[0])
+                    ? applyWindow(sliceData, window[0], window[1])
+                    : normalizeFloatArray(sliceData);
             float normMin = Float.MAX_VALUE, normMax = Float.MIN_VALUE;
             for (float value : normalizedData) {
                 if (value < normMin) normMin = value;
@@ -347,274 +345,12 @@ public class NiftiImageViewer extends JFrame {
         }
     }
 
-    private float[] extractSliceAsFloatArray(Object data, com.cropscope.niftidatamanager.NiftiHeader header,
-                                             int dimension, int sliceIndex) {
-        short[] dims = header.getDimensions();
-        DataType dataType = header.getDataType();
-        int ndim = dims[0];
-
-        if (ndim == 2) {
-            if (dimension == 0) {
-                float[] result = new float[dims[2]];
-                if (dataType == DataType.DT_UNSIGNED_CHAR) {
-                    byte[] byteData = (byte[]) data;
-                    for (int y = 0; y < dims[2]; y++) {
-                        result[y] = byteData[y * dims[1] + sliceIndex] & 0xFF;
-                    }
-                } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int y = 0; y < dims[2]; y++) {
-                        result[y] = shortData[y * dims[1] + sliceIndex] & 0xFFFF;
-                    }
-                } else if (dataType == DataType.DT_SIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int y = 0; y < dims[2]; y++) {
-                        result[y] = shortData[y * dims[1] + sliceIndex];
-                    }
-                } else if (dataType == DataType.DT_FLOAT) {
-                    float[] floatData = (float[]) data;
-                    for (int y = 0; y < dims[2]; y++) {
-                        result[y] = floatData[y * dims[1] + sliceIndex];
-                    }
-                } else if (dataType == DataType.DT_DOUBLE) {
-                    double[] doubleData = (double[]) data;
-                    for (int y = 0; y < dims[2]; y++) {
-                        result[y] = (float) doubleData[y * dims[1] + sliceIndex];
-                    }
-                }
-                return result;
-            } else if (dimension == 1) {
-                float[] result = new float[dims[1]];
-                if (dataType == DataType.DT_UNSIGNED_CHAR) {
-                    byte[] byteData = (byte[]) data;
-                    for (int x = 0; x < dims[1]; x++) {
-                        result[x] = byteData[sliceIndex * dims[1] + x] & 0xFF;
-                    }
-                } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int x = 0; x < dims[1]; x++) {
-                        result[x] = shortData[sliceIndex * dims[1] + x] & 0xFFFF;
-                    }
-                } else if (dataType == DataType.DT_SIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int x = 0; x < dims[1]; x++) {
-                        result[x] = shortData[sliceIndex * dims[1] + x];
-                    }
-                } else if (dataType == DataType.DT_FLOAT) {
-                    float[] floatData = (float[]) data;
-                    System.arraycopy(floatData, sliceIndex * dims[1], result, 0, dims[1]);
-                } else if (dataType == DataType.DT_DOUBLE) {
-                    double[] doubleData = (double[]) data;
-                    for (int x = 0; x < dims[1]; x++) {
-                        result[x] = (float) doubleData[sliceIndex * dims[1] + x];
-                    }
-                }
-                return result;
-            } else {
-                throw new IllegalArgumentException("Invalid dimension " + dimension + " for 2D image");
-            }
-        } else if (ndim == 3) {
-            int width = dims[1];
-            int height = dims[2];
-            int depth = dims[3];
-            int maxSlice;
-            switch (dimension) {
-                case 0:
-                    maxSlice = width;
-                    break;
-                case 1:
-                    maxSlice = height;
-                    break;
-                case 2:
-                    maxSlice = depth;
-                    break;
-                default:
-                    dimension = 2;
-                    maxSlice = depth;
-                    break;
-            }
-
-            if (sliceIndex < 0 || sliceIndex >= maxSlice) {
-                throw new IllegalArgumentException("Slice index " + sliceIndex + " out of bounds [0, " + maxSlice + ")");
-            }
-
-            float[] result;
-
-            if (dimension == 2) {
-                result = new float[width * height];
-                int srcIndex = sliceIndex * width * height;
-
-                if (dataType == DataType.DT_UNSIGNED_CHAR) {
-                    byte[] byteData = (byte[]) data;
-                    for (int i = 0; i < result.length; i++) {
-                        result[i] = byteData[srcIndex + i] & 0xFF;
-                    }
-                } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int i = 0; i < result.length; i++) {
-                        result[i] = shortData[srcIndex + i] & 0xFFFF;
-                    }
-                } else if (dataType == DataType.DT_SIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int i = 0; i < result.length; i++) {
-                        result[i] = shortData[srcIndex + i];
-                    }
-                } else if (dataType == DataType.DT_FLOAT) {
-                    float[] floatData = (float[]) data;
-                    System.arraycopy(floatData, srcIndex, result, 0, result.length);
-                } else if (dataType == DataType.DT_DOUBLE) {
-                    double[] doubleData = (double[]) data;
-                    for (int i = 0; i < result.length; i++) {
-                        result[i] = (float) doubleData[srcIndex + i];
-                    }
-                } else {
-                    throw new UnsupportedOperationException("Unsupported data type: " + dataType);
-                }
-
-            } else if (dimension == 1) {
-                result = new float[width * depth];
-
-                if (dataType == DataType.DT_UNSIGNED_CHAR) {
-                    byte[] byteData = (byte[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int x = 0; x < width; x++) {
-                            int srcIndex = z * width * height + sliceIndex * width + x;
-                            int dstIndex = z * width + x;
-                            result[dstIndex] = byteData[srcIndex] & 0xFF;
-                        }
-                    }
-                } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int x = 0; x < width; x++) {
-                            int srcIndex = z * width * height + sliceIndex * width + x;
-                            int dstIndex = z * width + x;
-                            result[dstIndex] = shortData[srcIndex] & 0xFFFF;
-                        }
-                    }
-                } else if (dataType == DataType.DT_SIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int x = 0; x < width; x++) {
-                            int srcIndex = z * width * height + sliceIndex * width + x;
-                            int dstIndex = z * width + x;
-                            result[dstIndex] = shortData[srcIndex];
-                        }
-                    }
-                } else if (dataType == DataType.DT_FLOAT) {
-                    float[] floatData = (float[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int x = 0; x < width; x++) {
-                            int srcIndex = z * width * height + sliceIndex * width + x;
-                            int dstIndex = z * width + x;
-                            result[dstIndex] = floatData[srcIndex];
-                        }
-                    }
-                } else if (dataType == DataType.DT_DOUBLE) {
-                    double[] doubleData = (double[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int x = 0; x < width; x++) {
-                            int srcIndex = z * width * height + sliceIndex * width + x;
-                            int dstIndex = z * width + x;
-                            result[dstIndex] = (float) doubleData[srcIndex];
-                        }
-                    }
-                } else {
-                    throw new UnsupportedOperationException("Unsupported data type: " + dataType);
-                }
-
-            } else if (dimension == 0) {
-                result = new float[height * depth];
-
-                if (dataType == DataType.DT_UNSIGNED_CHAR) {
-                    byte[] byteData = (byte[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int y = 0; y < height; y++) {
-                            int srcIndex = z * width * height + y * width + sliceIndex;
-                            int dstIndex = z * height + y;
-                            result[dstIndex] = byteData[srcIndex] & 0xFF;
-                        }
-                    }
-                } else if (dataType == DataType.DT_UNSIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int y = 0; y < height; y++) {
-                            int srcIndex = z * width * height + y * width + sliceIndex;
-                            int dstIndex = z * height + y;
-                            result[dstIndex] = shortData[srcIndex] & 0xFFFF;
-                        }
-                    }
-                } else if (dataType == DataType.DT_SIGNED_SHORT) {
-                    short[] shortData = (short[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int y = 0; y < height; y++) {
-                            int srcIndex = z * width * height + y * width + sliceIndex;
-                            int dstIndex = z * height + y;
-                            result[dstIndex] = shortData[srcIndex];
-                        }
-                    }
-                } else if (dataType == DataType.DT_FLOAT) {
-                    float[] floatData = (float[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int y = 0; y < height; y++) {
-                            int srcIndex = z * width * height + y * width + sliceIndex;
-                            int dstIndex = z * height + y;
-                            result[dstIndex] = floatData[srcIndex];
-                        }
-                    }
-                } else if (dataType == DataType.DT_DOUBLE) {
-                    double[] doubleData = (double[]) data;
-                    for (int z = 0; z < depth; z++) {
-                        for (int y = 0; y < height; y++) {
-                            int srcIndex = z * width * height + y * width + sliceIndex;
-                            int dstIndex = z * height + y;
-                            result[dstIndex] = (float) doubleData[srcIndex];
-                        }
-                    }
-                } else {
-                    throw new UnsupportedOperationException("Unsupported data type: " + dataType);
-                }
-            } else {
-                throw new IllegalArgumentException("Unsupported dimension: " + dimension);
-            }
-
-            return result;
-        } else {
-            int sliceSize = 1;
-            for (int i = 1; i <= ndim; i++) {
-                if (i - 1 != dimension) {
-                    sliceSize *= dims[i];
-                }
-            }
-
-            float[] result = new float[sliceSize];
-            if (data instanceof float[]) {
-                float[] floatData = (float[]) data;
-                int dataIndex = sliceIndex * sliceSize;
-                for (int i = 0; i < sliceSize && dataIndex + i < floatData.length; i++) {
-                    result[i] = floatData[dataIndex + i];
-                }
-            } else if (data instanceof double[]) {
-                double[] doubleData = (double[]) data;
-                int dataIndex = sliceIndex * sliceSize;
-                for (int i = 0; i < sliceSize && dataIndex + i < doubleData.length; i++) {
-                    result[i] = (float) doubleData[dataIndex + i];
-                }
-            } else if (data instanceof short[]) {
-                short[] shortData = (short[]) data;
-                int dataIndex = sliceIndex * sliceSize;
-                for (int i = 0; i < sliceSize && dataIndex + i < shortData.length; i++) {
-                    result[i] = shortData[dataIndex + i];
-                }
-            } else if (data instanceof byte[]) {
-                byte[] byteData = (byte[]) data;
-                int dataIndex = sliceIndex * sliceSize;
-                for (int i = 0; i < sliceSize && dataIndex + i < byteData.length; i++) {
-                    result[i] = byteData[dataIndex + i] & 0xFF;
-                }
-            }
-            return result;
+    private float[] applyWindow(float[] data, double low, double high) {
+        double range = high - low;
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) ((data[i] - low) / range);
         }
+        return data;
     }
 
     private float[] normalizeFloatArray(float[] data) {
@@ -755,7 +491,7 @@ public class NiftiImageViewer extends JFrame {
         try {
             NiftiHeader header = currentImage.getHeader();
             ImageStatistics stats = currentImage.getStatistics();
-            Object data = currentImage.getData();
+            VoxelBuffer voxels = currentImage.getVoxels();
 
             StringBuilder info = new StringBuilder();
             info.append("Filename: ").append(currentImage.getFilename()).append("\n");
@@ -767,28 +503,12 @@ public class NiftiImageViewer extends JFrame {
             info.append("Max Value: ").append(stats.getMax()).append("\n");
             info.append("Mean: ").append(stats.getMean()).append("\n");
             info.append("Std Dev: ").append(stats.getStdDev()).append("\n");
-            info.append("Data Array Type: ").append(data.getClass().getSimpleName()).append("\n");
+            double[] window = stats.getWindow();
+            info.append("Window (p0.5 - p99.5): ").append(window[0]).append(" - ").append(window[1]).append("\n");
+            info.append("Voxel Storage: ").append(voxels).append("\n");
             info.append("First 10 values: ");
-            if (data instanceof float[]) {
-                float[] floatData = (float[]) data;
-                for (int i = 0; i < Math.min(10, floatData.length); i++) {
-                    info.append(floatData[i]).append(" ");
-                }
-            } else if (data instanceof double[]) {
-                double[] doubleData = (double[]) data;
-                for (int i = 0; i < Math.min(10, doubleData.length); i++) {
-                    info.append(doubleData[i]).append(" ");
-                }
-            } else if (data instanceof short[]) {
-                short[] shortData = (short[]) data;
-                for (int i = 0; i < Math.min(10, shortData.length); i++) {
-                    info.append(shortData[i]).append(" ");
-                }
-            } else if (data instanceof byte[]) {
-                byte[] byteData = (byte[]) data;
-                for (int i = 0; i < Math.min(10, byteData.length); i++) {
-                    info.append(byteData[i] & 0xFF).append(" ");
-                }
+            for (long i = 0; i < Math.min(10, voxels.length()); i++) {
+                info.append(voxels.get(i)).append(" ");
             }
 
             JOptionPane.showMessageDialog(this, info.toString(), "Image Information", JOptionPane.INFORMATION_MESSAGE);
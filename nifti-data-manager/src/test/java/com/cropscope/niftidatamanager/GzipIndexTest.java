@@ -0,0 +1,177 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GzipIndexTest {
+    private static final int SPAN = 16 * 1024;
+
+    private File dir;
+    private short[] voxels;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = java.nio.file.Files.createTempDirectory("gzip-index-test").toFile();
+        voxels = TestVolumes.voxels(47);
+    }
+
+    @After
+    public void tearDown() {
+        TestVolumes.deleteTree(dir);
+    }
+
+    @Test
+    public void streamsFromAccessPointsMatchPlainGzip() throws IOException {
+        File gz = TestVolumes.writeGz(dir, "v.nii.gz", voxels, 5000);
+        GzipIndex index = GzipIndex.build(gz.getPath(), SPAN);
+        byte[] plain = TestVolumes.gunzip(gz);
+        assertEquals(plain.length, index.length());
+        assertTrue("expected several access points, got " + index.points(), index.points() > 4);
+
+        for (long offset : new long[]{0, 1, SPAN - 1, SPAN, 3 * SPAN + 17, plain.length - 100}) {
+            try (InputStream in = index.open(offset)) {
+                byte[] read = new byte[(int) Math.min(40000, plain.length - offset)];
+                int n = 0;
+                while (n < read.length) {
+                    int k = in.read(read, n, read.length - n);
+                    assertTrue("early end at " + (offset + n), k > 0);
+                    n += k;
+                }
+                assertArrayEquals("bytes from " + offset,
+                        Arrays.copyOfRange(plain, (int) offset, (int) offset + read.length), read);
+            }
+        }
+    }
+
+    @Test
+    public void chunksAndSlicesMatchUncompressedFile() throws IOException {
+        File nii = TestVolumes.writeNii(dir, "v.nii", voxels);
+        File gz = TestVolumes.writeGz(dir, "v.nii.gz", voxels, 5000);
+        GzipIndex.build(gz.getPath(), SPAN);
+
+        NiftiImage plain = NiftiReader.open(nii.getPath());
+        NiftiImage indexed = NiftiReader.open(gz.getPath());
+        assertNotNull(indexed.getGzipIndex());
+
+        int[][][] regions = {
+                {{0, 0, 0}, {TestVolumes.X, TestVolumes.Y, TestVolumes.Z}},
+                {{3, 5, 7}, {10, 20, 30}},
+                {{0, 10, 20}, {TestVolumes.X, 1, 5}},
+                {{60, 46, 36}, {1, 1, 1}},
+        };
+        for (int[][] r : regions) {
+            int[] end = {r[0][0] + r[1][0], r[0][1] + r[1][1], r[0][2] + r[1][2]};
+            short[] expected = TestVolumes.region(voxels, r[0], r[1]);
+            assertArrayEquals(Arrays.toString(r[0]), expected, (short[]) plain.getChunk(r[0], end));
+            assertArrayEquals(Arrays.toString(r[0]), expected, (short[]) indexed.getChunk(r[0], end));
+        }
+        for (int dimension = 0; dimension < 3; dimension++) {
+            for (int slice : new int[]{0, 9, 30}) {
+                assertArrayEquals("slice " + slice + " of " + dimension,
+                        plain.getSlice(dimension, slice), indexed.getSlice(dimension, slice), 0f);
+            }
+        }
+        assertNull("reading regions must not load the volume", indexed.getLoadedVoxels());
+    }
+
+    @Test
+    public void rejectsIndexOfChangedFile() throws IOException {
+        File gz = TestVolumes.writeGz(dir, "v.nii.gz", voxels, 5000);
+        GzipIndex.build(gz.getPath(), SPAN);
+        assertNotNull(GzipIndex.load(gz.getPath()));
+
+        TestVolumes.writeGz(dir, "v.nii.gz", TestVolumes.voxels(48), 7000);
+        assertTrue(gz.setLastModified(gz.lastModified() + 2000));
+        assertNull(GzipIndex.load(gz.getPath()));
+    }
+
+    @Test(timeout = 10000)
+    public void truncatedWindowFailsInsteadOfSpinning() throws IOException {
+        File gz = TestVolumes.writeGz(dir, "v.nii.gz", voxels, 5000);
+        GzipIndex.build(gz.getPath(), SPAN);
+        File sidecar = GzipIndex.sidecarFor(gz.getPath());
+
+        // replace every stored window with a zlib stream of empty stored blocks that never ends;
+        // the table (length, count, then out, in, window offset, length, stored size per point)
+        // sits at the offset that closes the fixed header
+        int stalled = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+            raf.readUTF();
+            raf.readInt();
+            raf.readLong();
+            raf.readLong();
+            raf.readInt();
+            raf.seek(raf.readLong());
+            raf.readLong();
+            int count = raf.readInt();
+            long[] windowAt = new long[count];
+            int[] windowStored = new int[count];
+            for (int i = 0; i < count; i++) {
+                raf.readLong();
+                raf.readLong();
+                windowAt[i] = raf.readLong();
+                raf.readInt();
+                windowStored[i] = raf.readInt();
+            }
+            for (int i = 0; i < count; i++) {
+                if (windowStored[i] < 7) {
+                    continue;
+                }
+                byte[] empty = new byte[windowStored[i]];
+                empty[0] = 0x78;
+                empty[1] = (byte) 0x9c;
+                for (int j = 2; j < empty.length; j++) {
+                    empty[j] = (byte) (((j - 2) % 5 < 3) ? 0x00 : 0xff);
+                }
+                raf.seek(windowAt[i]);
+                raf.write(empty);
+                stalled++;
+            }
+        }
+        assertTrue(stalled > 0);
+
+        GzipIndex index = GzipIndex.load(gz.getPath());
+        assertNotNull(index);
+        try {
+            index.open(3 * SPAN).close();
+            fail("expected the damaged window to be reported");
+        } catch (IOException expected) {
+            // the window ran out of input before it was whole
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NiftiWriterTest {
+    private static final int[] START = {4, 9, 6};
+    private static final int[] SIZE = {33, 20, 17};
+
+    private File dir;
+    private short[] voxels;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("nifti-writer-test").toFile();
+        voxels = TestVolumes.voxels(49);
+    }
+
+    @After
+    public void tearDown() {
+        TestVolumes.deleteTree(dir);
+    }
+
+    @Test
+    public void writesRegionsFromEverySource() throws IOException {
+        File nii = TestVolumes.writeNii(dir, "v.nii", voxels);
+        File indexed = TestVolumes.writeGz(dir, "i.nii.gz", voxels, 5000);
+        GzipIndex.build(indexed.getPath(), 16 * 1024);
+        File plain = TestVolumes.writeGz(dir, "p.nii.gz", voxels, 5000);
+        short[] expected = TestVolumes.region(voxels, START, SIZE);
+
+        for (File source : new File[]{nii, indexed, plain}) {
+            for (String target : new String[]{"r.nii", "r.nii.gz"}) {
+                for (boolean nifti2 : new boolean[]{false, true}) {
+                    NiftiImage image = NiftiReader.open(source.getPath());
+                    File out = new File(dir, target);
+                    NiftiWriter.writeRegion(image, START, SIZE, out.getPath(), nifti2);
+                    NiftiImage written = NiftiReader.read(out.getPath());
+                    String what = source.getName() + " -> " + target + (nifti2 ? " (NIfTI-2)" : "");
+                    assertEquals(what, nifti2, written.isNifti2());
+                    assertArrayEquals(what, new short[]{3, 33, 20, 17, 1, 1, 1, 1}, written.getDimensions());
+                    assertArrayEquals(what, expected, (short[]) written.getData());
+                    assertNull(what + " loaded the source", image.getLoadedVoxels());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cropMatchesRegionAndRoundTrips() throws IOException {
+        File gz = TestVolumes.writeGz(dir, "v.nii.gz", voxels, 5000);
+        NiftiImage cropped = NiftiReader.open(gz.getPath()).crop(START, SIZE);
+        short[] expected = TestVolumes.region(voxels, START, SIZE);
+        assertArrayEquals(expected, (short[]) cropped.getData());
+
+        File out = new File(dir, "c.nii.gz");
+        NiftiWriter.write(cropped, out.getPath());
+        assertArrayEquals(expected, (short[]) NiftiReader.read(out.getPath()).getData());
+        assertArrayEquals(cropped.getVoxelDimensions(), NiftiReader.read(out.getPath()).getVoxelDimensions(), 0f);
+    }
+
+    @Test
+    public void keepsHeaderFieldsAndMovesOriginToRegion() throws IOException {
+        File nii = TestVolumes.writeNii(dir, "v.nii", voxels);
+        ByteBuffer source = TestVolumes.header();
+        for (boolean nifti2 : new boolean[]{false, true}) {
+            File out = new File(dir, nifti2 ? "r2.nii" : "r1.nii");
+            NiftiWriter.writeRegion(NiftiReader.open(nii.getPath()), START, SIZE, out.getPath(), nifti2);
+            ByteBuffer h = ByteBuffer.wrap(Files.readAllBytes(out.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+
+            assertEquals(nifti2 ? 540 : 348, h.getInt(0));
+            assertEquals(2.0, nifti2 ? h.getDouble(176) : h.getFloat(112), 0.0);
+            assertEquals(-3.0, nifti2 ? h.getDouble(184) : h.getFloat(116), 0.0);
+            assertEquals(10, nifti2 ? h.getInt(500) : h.get(123));
+            assertEquals(1, nifti2 ? h.getInt(344) : h.getShort(252));
+            assertEquals(2, nifti2 ? h.getInt(348) : h.getShort(254));
+            byte[] descrip = new byte[11];
+            for (int i = 0; i < descrip.length; i++) {
+                descrip[i] = h.get((nifti2 ? 240 : 148) + i);
+            }
+            assertEquals("test volume", new String(descrip, StandardCharsets.US_ASCII));
+
+            double[] voxel = {1, 2, 3};
+            double[] inSource = {START[0] + 1, START[1] + 2, START[2] + 3};
+            assertArrayEquals(sform(source, false, inSource), sform(h, nifti2, voxel), 1e-4);
+            assertArrayEquals(qform(source, false, inSource), qform(h, nifti2, voxel), 1e-4);
+        }
+    }
+
+    @Test
+    public void headerBuiltInMemoryGetsUnitScaling() throws IOException {
+        NiftiHeader header = new NiftiHeader(false, ByteOrder.LITTLE_ENDIAN);
+        header.setDimensions(new short[]{3, 4, 3, 2, 1, 1, 1, 1});
+        header.setDatatype((short) DataType.DT_SIGNED_SHORT.getCode());
+        header.setBitpix((short) 16);
+        header.setVoxOffset(352);
+        header.setPixdim(new float[]{1f, 1f, 1f, 1f, 1f, 1f, 1f, 1f});
+        short[] data = new short[24];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) (i * 3);
+        }
+        File out = new File(dir, "m.nii");
+        NiftiWriter.write(new NiftiImage("memory.nii", header, data), out.getPath());
+        ByteBuffer h = ByteBuffer.wrap(Files.readAllBytes(out.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1.0f, h.getFloat(112), 0f);
+        assertTrue(h.getShort(252) == 0 && h.getShort(254) == 0);
+        assertArrayEquals(data, (short[]) NiftiReader.read(out.getPath()).getData());
+    }
+
+    private static double[] sform(ByteBuffer h, boolean nifti2, double[] ijk) {
+        double[] world = new double[3];
+        for (int row = 0; row < 3; row++) {
+            for (int k = 0; k < 4; k++) {
+                double s = nifti2 ? h.getDouble(400 + row * 32 + k * 8) : h.getFloat(280 + row * 16 + k * 4);
+                world[row] += s * ((k < 3) ? ijk[k] : 1.0);
+            }
+        }
+        return world;
+    }
+
+    private static double[] qform(ByteBuffer h, boolean nifti2, double[] ijk) {
+        double[] q = new double[6];
+        double[] pixdim = new double[4];
+        for (int i = 0; i < 6; i++) {
+            q[i] = nifti2 ? h.getDouble(352 + i * 8) : h.getFloat(256 + i * 4);
+        }
+        for (int i = 0; i < 4; i++) {
+            pixdim[i] = nifti2 ? h.getDouble(104 + i * 8) : h.getFloat(76 + i * 4);
+        }
+        double b = q[0], c = q[1], d = q[2];
+        double a = Math.sqrt(1.0 - (b * b + c * c + d * d));
+        double[][] r = {
+                {a * a + b * b - c * c - d * d, 2 * (b * c - a * d), 2 * (b * d + a * c)},
+                {2 * (b * c + a * d), a * a + c * c - b * b - d * d, 2 * (c * d - a * b)},
+                {2 * (b * d - a * c), 2 * (c * d + a * b), a * a + d * d - c * c - b * b}};
+        double[] scaled = {pixdim[1] * ijk[0], pixdim[2] * ijk[1], pixdim[0] * pixdim[3] * ijk[2]};
+        double[] world = new double[3];
+        for (int row = 0; row < 3; row++) {
+            world[row] = q[3 + row];
+            for (int k = 0; k < 3; k++) {
+                world[row] += r[row][k] * scaled[k];
+            }
+        }
+        return world;
+    }
+}
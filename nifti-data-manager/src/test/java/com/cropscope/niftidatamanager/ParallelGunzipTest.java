@@ -0,0 +1,86 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ParallelGunzipTest {
+    private File dir;
+    private short[] voxels;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("parallel-gunzip-test").toFile();
+        voxels = TestVolumes.voxels(48);
+    }
+
+    @After
+    public void tearDown() {
+        TestVolumes.deleteTree(dir);
+    }
+
+    @Test
+    public void bgzfIsReadableByAnyGzipReader() throws IOException {
+        File bgzf = TestVolumes.writeBgzf(dir, "v.nii.gz", voxels);
+        assertArrayEquals(TestVolumes.file(voxels), TestVolumes.gunzip(bgzf));
+    }
+
+    @Test
+    public void loadsBgzfMembersInParallel() throws IOException {
+        File bgzf = TestVolumes.writeBgzf(dir, "v.nii.gz", voxels);
+        NiftiImage image = NiftiReader.open(bgzf.getPath());
+        Object loaded = ParallelGunzip.load(image);
+        assertNotNull("a multi-member BGZF file should be split", loaded);
+        assertArrayEquals(voxels, (short[]) loaded);
+        assertArrayEquals(voxels, (short[]) NiftiReader.read(bgzf.getPath()).getData());
+    }
+
+    @Test
+    public void loadsIndexedGzipFromAccessPoints() throws IOException {
+        File gz = TestVolumes.writeGz(dir, "v.nii.gz", voxels, 5000);
+        assertNull("a single gzip member without an index cannot be split",
+                ParallelGunzip.load(NiftiReader.open(gz.getPath())));
+        GzipIndex.build(gz.getPath(), 16 * 1024);
+        Object loaded = ParallelGunzip.load(NiftiReader.open(gz.getPath()));
+        assertNotNull(loaded);
+        assertArrayEquals(voxels, (short[]) loaded);
+    }
+
+    @Test
+    public void recompressKeepsTheBytes() throws IOException {
+        File gz = TestVolumes.writeGz(dir, "v.nii.gz", voxels, 5000);
+        File bgzf = new File(dir, "b.nii.gz");
+        NiftiWriter.recompress(gz.getPath(), bgzf.getPath());
+        assertArrayEquals(TestVolumes.gunzip(gz), TestVolumes.gunzip(bgzf));
+        assertNotNull(ParallelGunzip.load(NiftiReader.open(bgzf.getPath())));
+    }
+}
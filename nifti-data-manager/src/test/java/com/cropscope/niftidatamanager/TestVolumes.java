@@ -0,0 +1,174 @@
+/* ------------------------------------------------------
+ * Copyright [2025] [Copyright 2025 Alfonso Antolínez García and Marina Antolínez Cabrero]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of the CropScope(R) suite.
+ * Authors:
+ * - Alfonso Antolínez García
+ * - Marina Antolínez Cabrero
+ * -------------------------------------------------------- */
+
+package com.cropscope.niftidatamanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** Small NIfTI-1 volumes written to disk for the reader and writer tests. */
+final class TestVolumes {
+    static final int X = 61, Y = 47, Z = 37;
+
+    private TestVolumes() {
+    }
+
+    /** Signed 16-bit voxels, x fastest: smooth enough to compress, noisy enough to need many blocks. */
+    static short[] voxels(long seed) {
+        Random random = new Random(seed);
+        short[] v = new short[X * Y * Z];
+        for (int z = 0, i = 0; z < Z; z++) {
+            for (int y = 0; y < Y; y++) {
+                for (int x = 0; x < X; x++, i++) {
+                    v[i] = (short) (x * 7 + y * 13 - z * 29 + random.nextInt(64));
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * A little-endian single-file NIfTI-1 header for {@link #X} x {@link #Y} x {@link #Z} int16
+     * voxels, with a rotated qform, an sform, units and a description.
+     */
+    static ByteBuffer header() {
+        ByteBuffer h = ByteBuffer.allocate(352).order(ByteOrder.LITTLE_ENDIAN);
+        h.putInt(0, 348);
+        short[] dim = {3, X, Y, Z, 1, 1, 1, 1};
+        float[] pixdim = {-1f, 0.9f, 1.1f, 2.5f, 1f, 1f, 1f, 1f};
+        for (int i = 0; i < 8; i++) {
+            h.putShort(40 + i * 2, dim[i]);
+            h.putFloat(76 + i * 4, pixdim[i]);
+        }
+        h.putShort(70, (short) DataType.DT_SIGNED_SHORT.getCode());
+        h.putShort(72, (short) 16);
+        h.putFloat(108, 352f);
+        h.putFloat(112, 2f);
+        h.putFloat(116, -3f);
+        h.put(123, (byte) 10);
+        byte[] descrip = "test volume".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < descrip.length; i++) {
+            h.put(148 + i, descrip[i]);
+        }
+        h.putShort(252, (short) 1);
+        h.putShort(254, (short) 2);
+        h.putFloat(256, 0.1f);
+        h.putFloat(260, -0.2f);
+        h.putFloat(264, 0.3f);
+        h.putFloat(268, -90f);
+        h.putFloat(272, 12.5f);
+        h.putFloat(276, -40f);
+        float[] srow = {0.8f, 0.1f, 0.05f, -88f, -0.1f, 1.05f, 0.2f, 10f, 0.02f, -0.3f, 2.4f, -37f};
+        for (int i = 0; i < srow.length; i++) {
+            h.putFloat(280 + i * 4, srow[i]);
+        }
+        h.put(344, (byte) 'n');
+        h.put(345, (byte) '+');
+        h.put(346, (byte) '1');
+        return h;
+    }
+
+    static byte[] file(short[] voxels) {
+        ByteBuffer b = ByteBuffer.allocate(352 + voxels.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(header().array());
+        b.asShortBuffer().put(voxels);
+        return b.array();
+    }
+
+    static File writeNii(File dir, String name, short[] voxels) throws IOException {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), file(voxels));
+        return f;
+    }
+
+    /** Plain gzip, flushed every {@code flushEvery} bytes so deflate blocks end at many places. */
+    static File writeGz(File dir, String name, short[] voxels, int flushEvery) throws IOException {
+        File f = new File(dir, name);
+        byte[] bytes = file(voxels);
+        try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(f), true)) {
+            for (int at = 0; at < bytes.length; at += flushEvery) {
+                out.write(bytes, at, Math.min(flushEvery, bytes.length - at));
+                out.flush();
+            }
+        }
+        return f;
+    }
+
+    static File writeBgzf(File dir, String name, short[] voxels) throws IOException {
+        File f = new File(dir, name);
+        try (OutputStream out = new BgzfOutputStream(new FileOutputStream(f))) {
+            out.write(file(voxels));
+        }
+        return f;
+    }
+
+    static byte[] gunzip(File f) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+            return readAll(in);
+        }
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** The voxels of the region from {@code start} spanning {@code size}, x fastest. */
+    static short[] region(short[] voxels, int[] start, int[] size) {
+        short[] out = new short[size[0] * size[1] * size[2]];
+        int i = 0;
+        for (int z = start[2]; z < start[2] + size[2]; z++) {
+            for (int y = start[1]; y < start[1] + size[1]; y++) {
+                for (int x = start[0]; x < start[0] + size[0]; x++) {
+                    out[i++] = voxels[x + X * (y + Y * z)];
+                }
+            }
+        }
+        return out;
+    }
+
+    static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteTree(c);
+            }
+        }
+        f.delete();
+    }
+}